@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 1998-2020 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.iosp.bufr;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import ucar.nc2.iosp.BitReader;
+
+/**
+ * A flattened decoding plan for uncompressed messages of one template, ie one set of data descriptors and tables.
+ * Only templates without delayed replication have a plan: then every dataset in the message has the same fields,
+ * so the DataDescriptor tree can be expanded once into a list of (bit width, CDM byte width) pairs.
+ * Decoding a message is then a loop over datasets and fields, without walking the tree or counting bits.
+ * <p/>
+ * Plans are cached by template, so a message whose template has been seen before is decoded without walking its
+ * DataDescriptor tree. The raw packed values are stored, as the tree walking readers do; scale and reference
+ * values are applied by the CDM through the variable attributes.
+ */
+@Immutable
+class BufrDecodePlan {
+  private static final Cache<TemplateKey, Optional<BufrDecodePlan>> cache =
+      CacheBuilder.newBuilder().maximumSize(500).build();
+
+  /**
+   * Get the plan for the template of this message.
+   *
+   * @param m uncompressed or compressed message
+   * @return the plan, or null if this message can't use one
+   */
+  @Nullable
+  static BufrDecodePlan factory(Message m) {
+    if (m.dds.isCompressed())
+      return null;
+    TemplateKey key = TemplateKey.make(m);
+    if (key == null)
+      return null;
+    try {
+      return cache.get(key, () -> Optional.ofNullable(compile(m.getRootDataDescriptor()))).orElse(null);
+    } catch (ExecutionException e) {
+      return null;
+    }
+  }
+
+  @Nullable
+  static BufrDecodePlan compile(DataDescriptor root) {
+    if (root.isBad)
+      return null;
+    List<DataDescriptor> fields = new ArrayList<>();
+    if (!flatten(root.getSubKeys(), fields))
+      return null;
+    return new BufrDecodePlan(fields);
+  }
+
+  // follows the order of MessageUncompressedDataReader.readData(); false if there is delayed replication
+  private static boolean flatten(List<DataDescriptor> dkeys, List<DataDescriptor> result) {
+    for (DataDescriptor dkey : dkeys) {
+      if (!dkey.isOkForVariable())
+        continue;
+
+      if (dkey.replication == 0) // sequence
+        return false;
+
+      if (dkey.type == 3) { // compound
+        for (int i = 0; i < dkey.replication; i++) {
+          if (!flatten(dkey.getSubKeys(), result))
+            return false;
+        }
+        continue;
+      }
+
+      result.add(dkey);
+    }
+    return true;
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////
+
+  private final int[] bitWidth; // number of bits in the message, per field
+  private final int[] byteWidth; // number of bytes in the CDM, per field
+  private final boolean[] isChar; // char fields are read 8 bits at a time
+  private final int bitsPerDataset;
+  private final int bytesPerDataset;
+
+  private BufrDecodePlan(List<DataDescriptor> fields) {
+    int n = fields.size();
+    this.bitWidth = new int[n];
+    this.byteWidth = new int[n];
+    this.isChar = new boolean[n];
+
+    int nbits = 0;
+    int nbytes = 0;
+    for (int i = 0; i < n; i++) {
+      DataDescriptor dkey = fields.get(i);
+      isChar[i] = (dkey.type == 1);
+      byteWidth[i] = dkey.getByteWidthCDM();
+      bitWidth[i] = isChar[i] ? 8 * byteWidth[i] : dkey.bitWidth;
+      nbits += bitWidth[i];
+      nbytes += byteWidth[i];
+    }
+    this.bitsPerDataset = nbits;
+    this.bytesPerDataset = nbytes;
+  }
+
+  /** Number of bits used by one dataset in the message. */
+  int getBitsPerDataset() {
+    return bitsPerDataset;
+  }
+
+  /** Number of bytes used by one dataset in the CDM StructureData. */
+  int getBytesPerDataset() {
+    return bytesPerDataset;
+  }
+
+  /**
+   * Decode all datasets of a message into bb, in the same layout as the tree walking readers.
+   *
+   * @param reader positioned at the start of the data.
+   * @param bb big-endian buffer, positioned at the start of the first dataset.
+   * @param ndatasets number of datasets in the message.
+   * @return number of bits read.
+   */
+  int decode(BitReader reader, ByteBuffer bb, int ndatasets) throws IOException {
+    int nfields = bitWidth.length;
+    for (int row = 0; row < ndatasets; row++) {
+      for (int fld = 0; fld < nfields; fld++) {
+        if (isChar[fld]) {
+          for (int i = 0; i < byteWidth[fld]; i++)
+            bb.put((byte) reader.bits2UInt(8));
+          continue;
+        }
+
+        long value = reader.bits2UInt(bitWidth[fld]);
+        switch (byteWidth[fld]) {
+          case 1:
+            bb.put((byte) value);
+            break;
+          case 2:
+            bb.putShort((short) value);
+            break;
+          case 4:
+            bb.putInt((int) value);
+            break;
+          default:
+            bb.putLong(value);
+        }
+      }
+    }
+    return ndatasets * bitsPerDataset;
+  }
+
+  // Everything that determines the DataDescriptor tree of a message.
+  @Immutable
+  private static class TemplateKey {
+    private final List<Short> descriptors;
+    private final int[] ids;
+
+    @Nullable
+    static TemplateKey make(Message m) {
+      if (m.hasEmbeddedTables())
+        return null; // tables may differ between files
+      BufrIdentificationSection ids = m.ids;
+      return new TemplateKey(m.dds.getDataDescriptors(),
+          new int[] {m.is.getBufrEdition(), ids.getCenterId(), ids.getSubCenterId(), ids.getMasterTableId(),
+              ids.getMasterTableVersion(), ids.getLocalTableVersion(), ids.getCategory(), ids.getSubCategory(),
+              ids.getLocalSubCategory()});
+    }
+
+    private TemplateKey(List<Short> descriptors, int[] ids) {
+      this.descriptors = descriptors;
+      this.ids = ids;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o)
+        return true;
+      if (o == null || getClass() != o.getClass())
+        return false;
+      TemplateKey that = (TemplateKey) o;
+      return descriptors.equals(that.descriptors) && Arrays.equals(ids, that.ids);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(descriptors, Arrays.hashCode(ids));
+    }
+  }
+}
@@ -4,11 +4,15 @@
  */
 package ucar.nc2.iosp.bufr;
 
+import com.google.common.base.Preconditions;
 import java.io.IOException;
 import java.util.Formatter;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.stream.IntStream;
+import javax.annotation.Nullable;
 import org.jdom2.Element;
 import ucar.ma2.Array;
 import ucar.ma2.ArraySequence;
@@ -23,6 +27,7 @@ import ucar.nc2.Structure;
 import ucar.nc2.Variable;
 import ucar.nc2.constants.DataFormatType;
 import ucar.nc2.iosp.AbstractIOServiceProvider;
+import ucar.nc2.time.CalendarDate;
 import ucar.nc2.util.CancelTask;
 import ucar.unidata.io.RandomAccessFile;
 
@@ -41,6 +46,34 @@ public class BufrIosp extends AbstractIOServiceProvider {
     debugIter = debugFlag.isSet("Bufr/iter");
   }
 
+  // experimental multithreading
+  static Executor executor;
+  static int messagesInFlight = 8;
+
+  private static boolean createMessageIndex = true;
+
+  /**
+   * Make a BufrMessageIndex when a local file without an up to date one is opened, and write it next to the file.
+   * The default is true. When false, an existing index is still used.
+   */
+  public static void setCreateMessageIndex(boolean create) {
+    BufrIosp.createMessageIndex = create;
+  }
+
+  /**
+   * Decode messages in parallel when iterating over the observations. Records are still returned in file order.
+   * The file is scanned on the iterating thread, which keeps up to messagesInFlight messages ahead of the one
+   * being returned.
+   *
+   * @param exec decode messages with this Executor; null (the default) means decode on the iterating thread.
+   * @param messagesInFlight maximum number of messages read ahead, must be > 0.
+   */
+  public static void setExecutor(Executor exec, int messagesInFlight) {
+    Preconditions.checkArgument(messagesInFlight > 0, "messagesInFlight must be > 0");
+    BufrIosp.executor = exec;
+    BufrIosp.messagesInFlight = messagesInFlight;
+  }
+
   Sequence obsStructure;
   Message protoMessage; // prototypical message: all messages in the file must be the same.
   MessageScanner scanner;
@@ -48,6 +81,7 @@ public class BufrIosp extends AbstractIOServiceProvider {
   boolean isSingle;
   BufrConfig config;
   Element iospParam;
+  BufrMessageIndex.MessageType indexedMessages; // null if there is no valid BufrMessageIndex
 
   @Override
   public boolean isValidFile(ucar.unidata.io.RandomAccessFile raf) throws IOException {
@@ -74,6 +108,14 @@ public class BufrIosp extends AbstractIOServiceProvider {
     // this fills the netcdf object
     new BufrIospBuilder(protoMessage, config, rootGroup, raf.getLocation());
     isSingle = false;
+
+    // a message index lets us seek to the messages instead of scanning for them
+    BufrMessageIndex index = createMessageIndex ? BufrMessageIndex.readOrCreateIndex(raf)
+        : BufrMessageIndex.readIndex(raf.getLocation());
+    if (index != null && !index.hasEmbeddedTables()) {
+      indexedMessages = index.getMessageType(protoMessage.hashCode());
+      nelems = (int) indexedMessages.getNobs();
+    }
   }
 
   @Override
@@ -150,13 +192,61 @@ public class BufrIosp extends AbstractIOServiceProvider {
   @Override
   public Array readData(Variable v2, Section section) {
     findRootSequence();
-    return new ArraySequence(obsStructure.makeStructureMembers(), new SeqIter(), nelems);
+    return new ArraySequence(obsStructure.makeStructureMembers(), makeSeqIter(), nelems);
   }
 
   @Override
   public StructureDataIterator getStructureIterator(Structure s, int bufferSize) {
     findRootSequence();
-    return isSingle ? new SeqIterSingle() : new SeqIter();
+    return isSingle ? new SeqIterSingle() : makeSeqIter();
+  }
+
+  private StructureDataIterator makeSeqIter() {
+    if (executor != null)
+      return new SeqIterParallel(executor, messagesInFlight);
+    if (indexedMessages != null)
+      return new SeqIterIndexed(0, indexedMessages.getNumberOfMessages(), 0, Long.MAX_VALUE);
+    return new SeqIter();
+  }
+
+  /**
+   * The messages of this file, if there is an up to date BufrMessageIndex for it.
+   * Only messages with the same type as the first data message are included.
+   *
+   * @return the indexed messages, or null if there is no usable index.
+   */
+  @Nullable
+  public BufrMessageIndex.MessageType getIndexedMessages() {
+    return indexedMessages;
+  }
+
+  /**
+   * Iterate over a range of obs, reading only the messages that contain them. Needs a BufrMessageIndex.
+   *
+   * @param startObs first obs, inclusive, counting from 0 in file order.
+   * @param endObs last obs, exclusive.
+   */
+  public StructureDataIterator getStructureIterator(long startObs, long endObs) {
+    if (indexedMessages == null)
+      throw new IllegalStateException("No BufrMessageIndex for " + raf.getLocation());
+    findRootSequence();
+    endObs = Math.min(endObs, indexedMessages.getNobs());
+    if (startObs >= endObs)
+      return new SeqIterIndexed(new int[0], 0, 0);
+    int first = indexedMessages.findMessage(startObs);
+    int last = indexedMessages.findMessage(endObs - 1);
+    return new SeqIterIndexed(first, last + 1, startObs, endObs);
+  }
+
+  /**
+   * Iterate over the obs in the messages whose reference time is within [start, end]. Needs a BufrMessageIndex.
+   * Note that the obs times are not checked, only the message reference times.
+   */
+  public StructureDataIterator getStructureIterator(CalendarDate start, CalendarDate end) {
+    if (indexedMessages == null)
+      throw new IllegalStateException("No BufrMessageIndex for " + raf.getLocation());
+    findRootSequence();
+    return new SeqIterIndexed(indexedMessages.findMessages(start.getMillis(), end.getMillis()), 0, Long.MAX_VALUE);
   }
 
   private void findRootSequence() {
@@ -203,43 +293,125 @@ public class BufrIosp extends AbstractIOServiceProvider {
       return currIter.next();
     }
 
-    private StructureDataIterator readNextMessage() throws IOException {
-      if (!scanner.hasNext())
-        return null;
-      Message m = scanner.next();
-      if (m == null) {
-        log.warn("BUFR scanner hasNext() true but next() null!");
+    StructureDataIterator readNextMessage() throws IOException {
+      Message m = nextDataMessage();
+      if (m == null)
         return null;
-      }
-      if (m.containsBufrTable()) // data messages only
-        return readNextMessage();
+      ArrayStructure as = readMessage(m, raf);
+      return as.getStructureDataIterator();
+    }
 
-      // mixed messages
-      if (!protoMessage.equals(m)) {
-        if (messHash == null)
-          messHash = new HashSet<>(20);
-        if (!messHash.contains(m.hashCode())) {
-          log.warn("File " + raf.getLocation() + " has different BUFR message types hash=" + protoMessage.hashCode()
-              + "; skipping");
-          messHash.add(m.hashCode());
-        }
-        return readNextMessage();
-      }
+    @Override
+    public int getCurrentRecno() {
+      return recnum - 1;
+    }
 
-      ArrayStructure as = readMessage(m);
-      return as.getStructureDataIterator();
+    @Override
+    public void close() {
+      if (currIter != null)
+        currIter.close();
+      currIter = null;
+      if (debugIter)
+        System.out.printf("BUFR read recnum %d%n", recnum);
+    }
+  }
+
+  // Messages are scanned on the iterating thread, and decoded by the executor.
+  private class SeqIterParallel extends SeqIter {
+    private final Executor exec;
+    private final int maxPending;
+    private MessageDecodeQueue<ArrayStructure> queue;
+
+    SeqIterParallel(Executor exec, int maxPending) {
+      this.exec = exec;
+      this.maxPending = maxPending;
+    }
+
+    @Override
+    public StructureDataIterator reset() {
+      if (queue != null)
+        queue.clear();
+      queue = null; // the source starts over too
+      return super.reset();
+    }
+
+    @Override
+    StructureDataIterator readNextMessage() throws IOException {
+      if (queue == null)
+        queue = new MessageDecodeQueue<>(scanner, makeMessageSource(), BufrIosp.this::readMessage, exec, maxPending);
+      ArrayStructure as = queue.next();
+      return (as == null) ? null : as.getStructureDataIterator();
+    }
+
+    @Override
+    public void close() {
+      if (queue != null)
+        queue.clear();
+      super.close();
+    }
+  }
+
+  // Seeks directly to the messages, using the BufrMessageIndex, and returns only the obs in [startObs, endObs).
+  private class SeqIterIndexed implements StructureDataIterator {
+    private final int[] messages; // indices into indexedMessages
+    private final long startObs;
+    private final long endObs;
+    private int nextMessage;
+    private ArrayStructure currAs;
+    private int currRow;
+    private int currEnd;
+    private int recnum;
+
+    SeqIterIndexed(int firstMessage, int endMessage, long startObs, long endObs) {
+      this(IntStream.range(firstMessage, endMessage).toArray(), startObs, endObs);
+    }
+
+    SeqIterIndexed(int[] messages, long startObs, long endObs) {
+      this.messages = messages;
+      this.startObs = startObs;
+      this.endObs = endObs;
+      reset();
     }
 
-    private ArrayStructure readMessage(Message m) throws IOException {
-      ArrayStructure as;
-      if (m.dds.isCompressed()) {
-        MessageCompressedDataReader reader = new MessageCompressedDataReader();
-        as = reader.readEntireMessage(obsStructure, protoMessage, m, raf, null);
-      } else {
-        MessageUncompressedDataReader reader = new MessageUncompressedDataReader();
-        as = reader.readEntireMessage(obsStructure, protoMessage, m, raf, null);
+    @Override
+    public StructureDataIterator reset() {
+      recnum = 0;
+      nextMessage = 0;
+      currAs = null;
+      return this;
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+      while (currAs == null || currRow >= currEnd) {
+        if (nextMessage >= messages.length)
+          return false;
+        readNextMessage();
       }
-      return as;
+      return true;
+    }
+
+    private void readNextMessage() throws IOException {
+      int k = messages[nextMessage++];
+      long first = indexedMessages.getFirstObs(k);
+      int nobs = indexedMessages.getMessage(k).getNobs();
+      currRow = (int) Math.max(0, startObs - first);
+      currEnd = (int) Math.min(nobs, endObs - first);
+      currAs = null;
+      if (currRow >= currEnd)
+        return; // nothing wanted from this message
+
+      long pos = indexedMessages.getMessage(k).getPos();
+      Message m = scanner.readMessage(pos);
+      if (m == null)
+        throw new IOException("No BUFR message at indexed pos " + pos + " in " + raf.getLocation());
+      currAs = readMessage(m, raf);
+    }
+
+    @Override
+    public StructureData next() {
+      recnum++;
+      return currAs.getStructureData(currRow++);
     }
 
     @Override
@@ -249,9 +421,7 @@ public class BufrIosp extends AbstractIOServiceProvider {
 
     @Override
     public void close() {
-      if (currIter != null)
-        currIter.close();
-      currIter = null;
+      currAs = null;
       if (debugIter)
         System.out.printf("BUFR read recnum %d%n", recnum);
     }
@@ -292,16 +462,7 @@ public class BufrIosp extends AbstractIOServiceProvider {
     }
 
     private StructureDataIterator readProtoMessage() throws IOException {
-      Message m = protoMessage;
-      ArrayStructure as;
-      if (m.dds.isCompressed()) {
-        MessageCompressedDataReader reader = new MessageCompressedDataReader();
-        as = reader.readEntireMessage(obsStructure, protoMessage, m, raf, null);
-      } else {
-        MessageUncompressedDataReader reader = new MessageUncompressedDataReader();
-        as = reader.readEntireMessage(obsStructure, protoMessage, m, raf, null);
-      }
-
+      ArrayStructure as = readMessage(protoMessage, raf);
       return as.getStructureDataIterator();
     }
 
@@ -318,6 +479,70 @@ public class BufrIosp extends AbstractIOServiceProvider {
     }
   }
 
+  /**
+   * The data messages of the protoMessage type, in file order: from the BufrMessageIndex if there is one, else
+   * scanned from the current scanner position.
+   */
+  MessageDecodeQueue.MessageSource makeMessageSource() {
+    return (indexedMessages == null) ? this::nextDataMessage : new IndexedMessageSource();
+  }
+
+  // Seeks directly to the messages, using the BufrMessageIndex.
+  private class IndexedMessageSource implements MessageDecodeQueue.MessageSource {
+    private int next;
+
+    @Override
+    public Message nextDataMessage() throws IOException {
+      if (next >= indexedMessages.getNumberOfMessages())
+        return null;
+      long pos = indexedMessages.getMessage(next++).getPos();
+      Message m = scanner.readMessage(pos);
+      if (m == null)
+        throw new IOException("No BUFR message at indexed pos " + pos + " in " + raf.getLocation());
+      return m;
+    }
+  }
+
+  // the next message with the same type as the protoMessage, or null if there are no more
+  Message nextDataMessage() throws IOException {
+    while (scanner.hasNext()) {
+      Message m = scanner.next();
+      if (m == null) {
+        log.warn("BUFR scanner hasNext() true but next() null!");
+        return null;
+      }
+      if (m.containsBufrTable()) // data messages only
+        continue;
+
+      // mixed messages
+      if (!protoMessage.equals(m)) {
+        if (messHash == null)
+          messHash = new HashSet<>(20);
+        if (!messHash.contains(m.hashCode())) {
+          log.warn("File " + raf.getLocation() + " has different BUFR message types hash=" + protoMessage.hashCode()
+              + "; skipping");
+          messHash.add(m.hashCode());
+        }
+        continue;
+      }
+      return m;
+    }
+    return null;
+  }
+
+  // read all the obs in the message, from the given raf
+  private ArrayStructure readMessage(Message m, RandomAccessFile from) throws IOException {
+    ArrayStructure as;
+    if (m.dds.isCompressed()) {
+      MessageCompressedDataReader reader = new MessageCompressedDataReader();
+      as = reader.readEntireMessage(obsStructure, protoMessage, m, from, null);
+    } else {
+      MessageUncompressedDataReader reader = new MessageUncompressedDataReader();
+      as = reader.readEntireMessage(obsStructure, protoMessage, m, from, null);
+    }
+    return as;
+  }
+
   /////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
   @Override
@@ -6,11 +6,11 @@ package ucar.nc2.iosp.bufr;
 
 import java.io.IOException;
 import java.util.Formatter;
-import java.util.HashSet;
 import java.util.Iterator;
 import ucar.array.StructureData;
 import ucar.array.StructureDataArray;
 import ucar.nc2.Sequence;
+import ucar.unidata.io.RandomAccessFile;
 
 /** IOSP for BUFR data - using the preprocessor. */
 public class BufrIospArrays extends BufrIosp {
@@ -30,9 +30,15 @@ public class BufrIospArrays extends BufrIosp {
   private class SeqIterArray implements Iterator<ucar.array.StructureData> {
     Iterator<StructureData> currIter;
     int recnum;
+    final MessageDecodeQueue.MessageSource source; // seeks to the messages if there is a BufrMessageIndex
+    MessageDecodeQueue<StructureDataArray> queue; // used when decoding in parallel
 
     SeqIterArray() {
       scanner.reset();
+      source = makeMessageSource();
+      if (executor != null)
+        queue = new MessageDecodeQueue<>(scanner, source, BufrIospArrays.this::readMessageArray, executor,
+            messagesInFlight);
     }
 
     @Override
@@ -68,54 +74,35 @@ public class BufrIospArrays extends BufrIosp {
     }
 
     private Iterator<StructureData> readNextMessage() throws IOException {
-      if (!scanner.hasNext()) {
-        return null;
-      }
-      Message m = scanner.next();
-      if (m == null) {
-        log.warn("BUFR scanner hasNext() true but next() null!");
-        return null;
-      }
-      if (m.containsBufrTable()) { // data messages only
-        return readNextMessage();
-      }
-
-      // mixed messages
-      if (!protoMessage.equals(m)) {
-        if (messHash == null) {
-          messHash = new HashSet<>(20);
-        }
-        if (!messHash.contains(m.hashCode())) {
-          log.warn("File " + raf.getLocation() + " has different BUFR message types hash=" + protoMessage.hashCode()
-              + "; skipping");
-          messHash.add(m.hashCode());
-        }
-        return readNextMessage();
+      StructureDataArray as;
+      if (queue != null) {
+        as = queue.next();
+      } else {
+        Message m = source.nextDataMessage();
+        as = (m == null) ? null : readMessageArray(m, raf);
       }
-
-      StructureDataArray as = readMessage(m);
-      return as.iterator();
+      return (as == null) ? null : as.iterator();
     }
+  }
 
-    private StructureDataArray readMessage(Message m) throws IOException {
-      Formatter f = new Formatter();
-      StructureDataArray as;
-      try {
-        if (m.dds.isCompressed()) {
-          MessageArrayCompressedReader comp = new MessageArrayCompressedReader(obsStructure, protoMessage, m, raf, f);
-          as = comp.readEntireMessage();
-        } else {
-          MessageArrayUncompressedReader uncomp =
-              new MessageArrayUncompressedReader(obsStructure, protoMessage, m, raf, f);
-          as = uncomp.readEntireMessage();
-        }
-      } catch (Throwable t) {
-        System.out.printf("FAIL %s%n", f);
-        throw t;
+  private StructureDataArray readMessageArray(Message m, RandomAccessFile from) throws IOException {
+    Formatter f = new Formatter();
+    StructureDataArray as;
+    try {
+      if (m.dds.isCompressed()) {
+        MessageArrayCompressedReader comp = new MessageArrayCompressedReader(obsStructure, protoMessage, m, from, f);
+        as = comp.readEntireMessage();
+      } else {
+        MessageArrayUncompressedReader uncomp =
+            new MessageArrayUncompressedReader(obsStructure, protoMessage, m, from, f);
+        as = uncomp.readEntireMessage();
       }
-      // System.out.printf("SUCCEED %s%n", f);
-      return as;
+    } catch (Throwable t) {
+      System.out.printf("FAIL %s%n", f);
+      throw t;
     }
+    // System.out.printf("SUCCEED %s%n", f);
+    return as;
   }
 
   private class SeqIterSingleArray implements Iterator<ucar.array.StructureData> {
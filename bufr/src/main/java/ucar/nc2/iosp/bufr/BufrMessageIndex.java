@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 1998-2020 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.iosp.bufr;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import ucar.nc2.ft.point.bufr.BufrCdmIndexProto;
+import ucar.nc2.stream.NcStream;
+import ucar.unidata.io.RandomAccessFile;
+
+/**
+ * The position, length, type, number of obs and reference time of each message in a BUFR file.
+ * Lets BufrIosp seek directly to the message holding a given obs, or to the messages in a time range,
+ * instead of scanning the file. Written next to the BUFR file as bufrFilename + ".bfx".
+ * BufrIosp makes it the first time a local file is opened, see readOrCreateIndex(); createIndex() makes it ahead
+ * of time. The index is only used if the BUFR file has the same size and lastModified as when it was made.
+ */
+@Immutable
+public class BufrMessageIndex {
+  private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(BufrMessageIndex.class);
+
+  public static final String MAGIC_START = "BufrMessageIndex";
+  public static final String BFX_IDX = ".bfx";
+  private static final int version = 1;
+
+  public static File calcIndexFile(String bufrFilename) {
+    return new File(bufrFilename + BFX_IDX);
+  }
+
+  /** Scan the BUFR file and make its index. */
+  public static BufrMessageIndex make(RandomAccessFile raf) throws IOException {
+    BufrCdmIndexProto.BufrIndex.Builder builder = BufrCdmIndexProto.BufrIndex.newBuilder();
+    builder.setFilename(raf.getLocation());
+    builder.setFileSize(raf.length());
+    builder.setLastModified(new File(raf.getLocation()).lastModified());
+
+    long nobs = 0;
+    MessageScanner scanner = new MessageScanner(raf);
+    while (scanner.hasNext()) {
+      Message m = scanner.next();
+      if (m == null)
+        continue;
+      if (m.containsBufrTable()) {
+        builder.setEmbeddedTables(true);
+        continue;
+      }
+      BufrCdmIndexProto.MessageOffset.Builder mb = BufrCdmIndexProto.MessageOffset.newBuilder();
+      mb.setPos(m.getStartPos());
+      mb.setLength(m.is.getBufrLength());
+      mb.setHash(m.hashCode());
+      mb.setNobs(m.getNumberDatasets());
+      mb.setRefTime(m.ids.getReferenceTime().getMillis());
+      builder.addMessages(mb);
+      nobs += m.getNumberDatasets();
+    }
+    builder.setNobs(nobs);
+    return new BufrMessageIndex(builder.build());
+  }
+
+  /**
+   * Scan the BUFR file and write its index to calcIndexFile(bufrFilename).
+   *
+   * @return the index
+   */
+  public static BufrMessageIndex createIndex(String bufrFilename) throws IOException {
+    BufrMessageIndex index;
+    try (RandomAccessFile raf = new RandomAccessFile(bufrFilename, "r")) {
+      index = make(raf);
+    }
+    index.writeIndex(calcIndexFile(bufrFilename));
+    return index;
+  }
+
+  /**
+   * Read the index of a local BUFR file if it is up to date, else make it and try to write it.
+   * Making the index scans the headers of every message in the file. If the index can't be written, eg the
+   * directory is read-only, it is still returned, and is made again on the next open.
+   *
+   * @return the index, or null if raf is not a local file
+   */
+  @Nullable
+  public static BufrMessageIndex readOrCreateIndex(RandomAccessFile raf) throws IOException {
+    String bufrFilename = raf.getLocation();
+    if (!new File(bufrFilename).isFile())
+      return null; // eg remote
+    BufrMessageIndex index = readIndex(bufrFilename);
+    if (index != null)
+      return index;
+
+    index = make(raf);
+    try {
+      index.writeIndex(calcIndexFile(bufrFilename));
+    } catch (IOException ioe) {
+      log.debug("BufrMessageIndex {}: cant write index", calcIndexFile(bufrFilename).getPath(), ioe);
+    }
+    return index;
+  }
+
+  /**
+   * Read the index of a BUFR file, if it exists and is up to date.
+   *
+   * @return the index, or null if there is no valid index
+   */
+  @Nullable
+  public static BufrMessageIndex readIndex(String bufrFilename) {
+    File indexFile = calcIndexFile(bufrFilename);
+    if (!indexFile.exists())
+      return null;
+
+    BufrCdmIndexProto.BufrIndex proto;
+    try (RandomAccessFile raf = new RandomAccessFile(indexFile.getPath(), "r")) {
+      raf.order(RandomAccessFile.BIG_ENDIAN);
+      raf.seek(0);
+      if (!NcStream.readAndTest(raf, MAGIC_START.getBytes(StandardCharsets.UTF_8))) {
+        log.warn("BufrMessageIndex {}: invalid index", indexFile.getPath());
+        return null;
+      }
+      int indexVersion = raf.readInt();
+      if (indexVersion != version) {
+        log.info("BufrMessageIndex {}: index found version={}, want version= {}", indexFile.getPath(), indexVersion,
+            version);
+        return null;
+      }
+      int size = NcStream.readVInt(raf);
+      if ((size < 0) || (size > 100 * 1000 * 1000)) {
+        log.warn("BufrMessageIndex {}: invalid or empty index ", indexFile.getPath());
+        return null;
+      }
+      byte[] b = new byte[size];
+      raf.readFully(b);
+      proto = BufrCdmIndexProto.BufrIndex.parseFrom(b);
+    } catch (IOException ioe) {
+      log.warn("BufrMessageIndex {}: error reading index", indexFile.getPath(), ioe);
+      return null;
+    }
+
+    File bufrFile = new File(bufrFilename);
+    if (proto.getFileSize() != bufrFile.length() || proto.getLastModified() != bufrFile.lastModified()) {
+      log.debug("BufrMessageIndex {}: out of date", indexFile.getPath());
+      return null;
+    }
+    return new BufrMessageIndex(proto);
+  }
+
+  /*
+   * MAGIC_START
+   * version
+   * sizeIndex
+   * BufrCdmIndexProto.BufrIndex (sizeIndex bytes)
+   */
+  public void writeIndex(File indexFile) throws IOException {
+    if (indexFile.exists()) {
+      if (!indexFile.delete())
+        log.warn(" BufrMessageIndex cant delete index file {}", indexFile.getPath());
+    }
+    log.debug(" createIndex for {}", indexFile.getPath());
+
+    try (RandomAccessFile raf = new RandomAccessFile(indexFile.getPath(), "rw")) {
+      raf.order(RandomAccessFile.BIG_ENDIAN);
+      raf.write(MAGIC_START.getBytes(StandardCharsets.UTF_8));
+      raf.writeInt(version);
+      byte[] b = proto.toByteArray();
+      NcStream.writeVInt(raf, b.length); // message size
+      raf.write(b); // message - all in one gulp
+    }
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////
+
+  private final BufrCdmIndexProto.BufrIndex proto;
+
+  private BufrMessageIndex(BufrCdmIndexProto.BufrIndex proto) {
+    this.proto = proto;
+  }
+
+  /** If the file has table messages, the message types depend on the order of reading, so dont use the index. */
+  public boolean hasEmbeddedTables() {
+    return proto.getEmbeddedTables();
+  }
+
+  /** All data messages in the file, in file order. */
+  public List<BufrCdmIndexProto.MessageOffset> getMessages() {
+    return proto.getMessagesList();
+  }
+
+  /** Total number of obs in all data messages. */
+  public long getNobs() {
+    return proto.getNobs();
+  }
+
+  /** The messages of one type, identified by Message.hashCode(). */
+  public MessageType getMessageType(int hash) {
+    return new MessageType(hash);
+  }
+
+  /**
+   * The messages of one type, with obs numbered consecutively across them, as BufrIosp returns them.
+   */
+  @Immutable
+  public class MessageType {
+    private final BufrCdmIndexProto.MessageOffset[] messages;
+    private final long[] firstObs; // firstObs[k] = number of the first obs of messages[k]; last element = total
+
+    private MessageType(int hash) {
+      List<BufrCdmIndexProto.MessageOffset> selected = new ArrayList<>();
+      for (BufrCdmIndexProto.MessageOffset mo : proto.getMessagesList()) {
+        if (mo.getHash() == hash)
+          selected.add(mo);
+      }
+      this.messages = selected.toArray(new BufrCdmIndexProto.MessageOffset[0]);
+      this.firstObs = new long[messages.length + 1];
+      for (int k = 0; k < messages.length; k++)
+        firstObs[k + 1] = firstObs[k] + messages[k].getNobs();
+    }
+
+    public int getNumberOfMessages() {
+      return messages.length;
+    }
+
+    public BufrCdmIndexProto.MessageOffset getMessage(int k) {
+      return messages[k];
+    }
+
+    /** Number of the first obs of the kth message. */
+    public long getFirstObs(int k) {
+      return firstObs[k];
+    }
+
+    public long getNobs() {
+      return firstObs[messages.length];
+    }
+
+    /**
+     * Find the message containing the given obs.
+     *
+     * @return index of the message, or -1 if obs is out of range
+     */
+    public int findMessage(long obs) {
+      if (obs < 0 || obs >= getNobs())
+        return -1;
+      int k = Arrays.binarySearch(firstObs, obs);
+      if (k < 0)
+        return -k - 2; // insertion point - 1
+      while (k < messages.length - 1 && messages[k].getNobs() == 0) // skip empty messages
+        k++;
+      return k;
+    }
+
+    /**
+     * Split the obs into about n ranges of similar size, aligned on message boundaries.
+     *
+     * @return list of {startObs, endObs}, endObs exclusive
+     */
+    public List<long[]> split(int n) {
+      List<long[]> result = new ArrayList<>();
+      long total = getNobs();
+      if (total == 0 || n < 1)
+        return result;
+      long want = (total + n - 1) / n;
+      long start = 0;
+      for (int k = 1; k <= messages.length; k++) {
+        if (firstObs[k] - start >= want || k == messages.length) {
+          if (firstObs[k] > start)
+            result.add(new long[] {start, firstObs[k]});
+          start = firstObs[k];
+        }
+      }
+      return result;
+    }
+
+    /**
+     * Find the messages whose reference time is in the given range.
+     *
+     * @param start msecs since epoch, inclusive
+     * @param end msecs since epoch, inclusive
+     * @return indices of the messages, in file order
+     */
+    public int[] findMessages(long start, long end) {
+      return IntStream.range(0, messages.length)
+          .filter(k -> messages[k].getRefTime() >= start && messages[k].getRefTime() <= end).toArray();
+    }
+  }
+
+}
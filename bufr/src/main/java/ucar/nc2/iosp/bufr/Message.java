@@ -10,6 +10,7 @@ import java.io.IOException;
 import java.util.Formatter;
 import java.util.List;
 import ucar.nc2.time.CalendarDate;
+import ucar.unidata.io.InMemoryRandomAccessFile;
 import ucar.unidata.io.RandomAccessFile;
 
 /**
@@ -28,6 +29,7 @@ public class Message {
   private RandomAccessFile raf;
   private BufrTableLookup lookup;
   private DataDescriptor root;
+  private boolean embeddedTables;
 
   private String header; // wmo header
   private long startPos; // starting pos in raf
@@ -47,8 +49,45 @@ public class Message {
     lookup = BufrTableLookup.factory(this);
   }
 
+  // copy of a message, reading from raw, which holds the bytes of the entire message.
+  private Message(Message from, RandomAccessFile raw) {
+    this.raf = raw;
+    this.is = from.is;
+    this.ids = from.ids;
+    this.dds = from.dds;
+    this.dataSection =
+        new BufrDataSection(from.dataSection.getDataPos() - from.startPos, from.dataSection.getDataLength());
+    this.lookup = from.lookup;
+    this.embeddedTables = from.embeddedTables;
+    // always construct the DataDescriptor tree here, on the calling thread, never lazily on a decoding thread
+    this.root = from.getRootDataDescriptor();
+    this.header = from.header;
+  }
+
+  /**
+   * Make a copy of this message that reads its data from the message's own bytes, so that it can be decoded on another
+   * thread than the one scanning the file. This message should not be used afterwards, since they may share the
+   * DataDescriptor tree.
+   *
+   * @param raw the bytes of the entire message, as from MessageScanner.getMessageBytes().
+   * @return copy of this message, whose dataSection position is relative to raw.
+   */
+  Message makeDetachedCopy(byte[] raw) {
+    return new Message(this, new InMemoryRandomAccessFile(raf.getLocation(), raw));
+  }
+
+  RandomAccessFile getRandomAccessFile() {
+    return raf;
+  }
+
   void setTableLookup(TableLookup lookup) {
     this.lookup.setTableLookup(lookup);
+    this.embeddedTables = true;
+  }
+
+  /** If the tables come from table messages in the file. */
+  boolean hasEmbeddedTables() {
+    return embeddedTables;
   }
 
   public void close() throws IOException {
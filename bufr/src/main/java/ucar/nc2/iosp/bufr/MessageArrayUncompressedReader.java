@@ -72,6 +72,8 @@ class MessageArrayUncompressedReader {
   private final StructureMembers members;
   private final StructureDataStorageBB storageBB;
   private final boolean addTime = false;
+  @Nullable
+  private final BufrDecodePlan plan; // flattened decoding, when the template has no delayed replication
 
   // map dkey to Member recursively
   private final HashMap<DataDescriptor, Member> topmap = new HashMap<>(100);
@@ -86,8 +88,6 @@ class MessageArrayUncompressedReader {
    * @param f output bit count debugging info (may be null)
    */
   MessageArrayUncompressedReader(Structure s, Message proto, Message m, RandomAccessFile raf, @Nullable Formatter f) {
-    // transfer info from proto message LOOK is message modified here?
-    DataDescriptor.transferInfo(proto.getRootDataDescriptor().getSubKeys(), m.getRootDataDescriptor().getSubKeys());
     this.message = m;
     this.raf = raf;
     this.f = f;
@@ -103,6 +103,15 @@ class MessageArrayUncompressedReader {
     storageBB = new StructureDataStorageBB(members, this.bbuffer, this.nelems);
     storageBB.setStructuresOnHeap(structuresOnHeap);
 
+    // use the decode plan of this template if there is one
+    BufrDecodePlan plan = (f == null) ? BufrDecodePlan.factory(m) : null;
+    this.plan = (plan != null && plan.getBytesPerDataset() == members.getStorageSizeBytes()) ? plan : null;
+    if (this.plan != null)
+      return;
+
+    // transfer info from proto message LOOK is message modified here?
+    DataDescriptor.transferInfo(proto.getRootDataDescriptor().getSubKeys(), m.getRootDataDescriptor().getSubKeys());
+
     // map dkey to Member recursively
     MessageArrayReaderUtils.associateMessage2Members(this.members, message.getRootDataDescriptor(), topmap);
   }
@@ -115,6 +124,11 @@ class MessageArrayUncompressedReader {
    */
   StructureDataArray readEntireMessage() throws IOException {
     BitReader reader = new BitReader(raf, message.dataSection.getDataPos() + 4);
+    if (plan != null) {
+      message.msg_nbits = plan.decode(reader, this.bbuffer, this.nelems);
+      return new ucar.array.StructureDataArray(members, new int[] {this.nelems}, storageBB);
+    }
+
     DataDescriptor root = message.getRootDataDescriptor();
     if (!root.isBad) {
       Request req = new Request(this.storageBB, this.bbuffer, topmap);
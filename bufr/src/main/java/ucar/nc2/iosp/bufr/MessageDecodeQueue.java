@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 1998-2020 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.iosp.bufr;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import javax.annotation.Nullable;
+import ucar.unidata.io.RandomAccessFile;
+
+/**
+ * Decodes BUFR messages on an Executor, and returns the results in file order.
+ * Messages are found and their bytes are read on the calling thread, using the MessageScanner; only the decoding is
+ * done by the Executor. At most maxPending messages are read ahead; the queue of pending messages is the reorder buffer.
+ * Not thread-safe: use from a single iterating thread.
+ *
+ * @param <T> the result of decoding one message.
+ */
+class MessageDecodeQueue<T> {
+
+  /** Supplies the next message to decode, or null when there are no more. */
+  interface MessageSource {
+    @Nullable
+    Message nextDataMessage() throws IOException;
+  }
+
+  /** Decodes a message that was made by Message.makeDetachedCopy(), reading from the given raf. */
+  interface MessageDecoder<T> {
+    T decode(Message m, RandomAccessFile raf) throws IOException;
+  }
+
+  private final MessageScanner scanner;
+  private final MessageSource source;
+  private final MessageDecoder<T> decoder;
+  private final Executor exec;
+  private final int maxPending;
+  private final ArrayDeque<CompletableFuture<T>> pending = new ArrayDeque<>();
+  private boolean scanDone;
+
+  MessageDecodeQueue(MessageScanner scanner, MessageSource source, MessageDecoder<T> decoder, Executor exec,
+      int maxPending) {
+    this.scanner = scanner;
+    this.source = source;
+    this.decoder = decoder;
+    this.exec = exec;
+    this.maxPending = maxPending;
+  }
+
+  /**
+   * Get the decoded result of the next message in file order, waiting for it if needed.
+   *
+   * @return decoded message, or null when there are no more messages.
+   */
+  @Nullable
+  T next() throws IOException {
+    fill();
+    CompletableFuture<T> next = pending.poll();
+    if (next == null)
+      return null;
+    fill(); // keep the executor busy while we wait
+
+    try {
+      return next.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("BUFR decoding interrupted", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      throw new IOException(cause);
+    }
+  }
+
+  /** Discard all pending messages, and start over with the next message from the source. */
+  void clear() {
+    for (CompletableFuture<T> future : pending)
+      future.cancel(false);
+    pending.clear();
+    scanDone = false;
+  }
+
+  private void fill() throws IOException {
+    while (!scanDone && pending.size() < maxPending) {
+      Message m = source.nextDataMessage();
+      if (m == null) {
+        scanDone = true;
+        break;
+      }
+      Message detached = m.makeDetachedCopy(scanner.getMessageBytes(m));
+      pending.add(CompletableFuture.supplyAsync(() -> {
+        try (RandomAccessFile raf = detached.getRandomAccessFile()) {
+          return decoder.decode(detached, raf);
+        } catch (IOException ioe) {
+          throw new CompletionException(ioe);
+        }
+      }, exec));
+    }
+  }
+}
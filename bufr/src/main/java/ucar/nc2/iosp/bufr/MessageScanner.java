@@ -86,6 +86,20 @@ public class MessageScanner {
     lastPos = 0;
   }
 
+  /**
+   * Read the message starting at the given position, eg from a BufrMessageIndex.
+   * Scanning then continues after this message.
+   *
+   * @param pos file position of the "BUFR" start of the message
+   * @return the message, or null if there is no valid message there
+   */
+  public Message readMessage(long pos) throws IOException {
+    lastPos = pos;
+    if (!hasNext())
+      return null;
+    return next();
+  }
+
   public boolean hasNext() throws IOException {
     if (lastPos >= raf.length())
       return false;
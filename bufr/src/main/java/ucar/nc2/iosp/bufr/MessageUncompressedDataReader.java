@@ -71,9 +71,6 @@ public class MessageUncompressedDataReader {
    */
   ArrayStructure readEntireMessage(Structure s, Message proto, Message m, RandomAccessFile raf, Formatter f)
       throws IOException {
-    // transfer info from proto message
-    DataDescriptor.transferInfo(proto.getRootDataDescriptor().getSubKeys(), m.getRootDataDescriptor().getSubKeys());
-
     // allocate ArrayStructureBB for outer structure
     // This assumes that all of the fields and all of the datasets are being read
     StructureMembers members = s.makeStructureMembers();
@@ -84,6 +81,17 @@ public class MessageUncompressedDataReader {
     ByteBuffer bb = abb.getByteBuffer();
     bb.order(ByteOrder.BIG_ENDIAN);
 
+    // use the decode plan of this template if there is one
+    BufrDecodePlan plan = (f == null) ? BufrDecodePlan.factory(m) : null;
+    if (plan != null && plan.getBytesPerDataset() == members.getStructureSize()) {
+      BitReader reader = new BitReader(raf, m.dataSection.getDataPos() + 4);
+      m.msg_nbits = plan.decode(reader, bb, n);
+      return abb;
+    }
+
+    // transfer info from proto message
+    DataDescriptor.transferInfo(proto.getRootDataDescriptor().getSubKeys(), m.getRootDataDescriptor().getSubKeys());
+
     boolean addTime = false; // (s.findVariable(BufrIosp2.TIME_NAME) != null);
     readData(abb, m, raf, null, addTime, f);
     return abb;
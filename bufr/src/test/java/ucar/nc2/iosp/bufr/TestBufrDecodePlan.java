@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 1998-2020 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.iosp.bufr;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import java.io.IOException;
+import java.util.Formatter;
+import org.junit.Test;
+import ucar.array.StructureDataArray;
+import ucar.ma2.ArrayStructureBB;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Structure;
+import ucar.nc2.internal.util.CompareArrayToArray;
+import ucar.unidata.io.RandomAccessFile;
+import ucar.unidata.util.test.TestDir;
+
+/** Compare decoding with a BufrDecodePlan against walking the DataDescriptor tree. */
+public class TestBufrDecodePlan {
+  private static final String unitDir = "../bufr/src/test/data/";
+
+  @Test
+  public void testFixedReplication() throws IOException {
+    String filename = TestDir.cdmTestDataDir + "ucar/nc2/bufr/IUPT02_KBBY_281400_522246081.bufr.2018032814";
+    assertThat(comparePlanWithTree(filename)).isGreaterThan(0);
+  }
+
+  // these use delayed replication, so there is no plan
+  @Test
+  public void testTest1() throws IOException {
+    assertThat(comparePlanWithTree(unitDir + "test1.bufr")).isEqualTo(0);
+  }
+
+  @Test
+  public void testRadiosonde() throws IOException {
+    assertThat(comparePlanWithTree(unitDir + "RadiosondeStationData.bufr")).isEqualTo(0);
+  }
+
+  @Test
+  public void testArrayReader() throws IOException {
+    String filename = TestDir.cdmTestDataDir + "ucar/nc2/bufr/IUPT02_KBBY_281400_522246081.bufr.2018032814";
+    try (NetcdfFile ncfile = NetcdfFiles.open(filename); RandomAccessFile raf = new RandomAccessFile(filename, "r")) {
+      Structure obs = (Structure) ncfile.findVariable(BufrIosp.obsRecordName);
+      assertThat(obs).isNotNull();
+
+      MessageScanner scan = new MessageScanner(raf);
+      Message proto = null;
+      int count = 0;
+      while (scan.hasNext()) {
+        Message m = scan.next();
+        if (m == null || m.containsBufrTable() || m.getNumberDatasets() == 0)
+          continue;
+        if (proto == null)
+          proto = m;
+        if (!proto.equals(m) || BufrDecodePlan.factory(proto) == null)
+          continue;
+
+        // the copy has its own tree, even though the plan doesnt need it
+        Message detached = m.makeDetachedCopy(scan.getMessageBytes(m));
+        assertThat(detached.getRootDataDescriptor()).isSameInstanceAs(m.getRootDataDescriptor());
+
+        // a Formatter turns off the plan
+        StructureDataArray tree =
+            new MessageArrayUncompressedReader(obs, proto, m, raf, new Formatter()).readEntireMessage();
+        StructureDataArray planned;
+        try (RandomAccessFile draf = detached.getRandomAccessFile()) {
+          planned = new MessageArrayUncompressedReader(obs, proto, detached, draf, null).readEntireMessage();
+        }
+        Formatter errlog = new Formatter();
+        assertWithMessage(errlog.toString())
+            .that(CompareArrayToArray.compareData(errlog, obs.getShortName(), tree, planned, false, true)).isTrue();
+        assertThat(detached.getCountedDataBits()).isEqualTo(m.getCountedDataBits());
+        count++;
+      }
+      assertThat(count).isGreaterThan(0);
+    }
+  }
+
+  // return the number of messages that were compared
+  private int comparePlanWithTree(String filename) throws IOException {
+    int count = 0;
+    try (NetcdfFile ncfile = NetcdfFiles.open(filename); RandomAccessFile raf = new RandomAccessFile(filename, "r")) {
+      Structure obs = (Structure) ncfile.findVariable(BufrIosp.obsRecordName);
+      assertThat(obs).isNotNull();
+
+      MessageScanner scan = new MessageScanner(raf);
+      Message proto = null;
+      while (scan.hasNext()) {
+        Message m = scan.next();
+        if (m == null || m.containsBufrTable() || m.getNumberDatasets() == 0)
+          continue;
+        if (proto == null)
+          proto = m;
+        if (!proto.equals(m) || BufrDecodePlan.factory(m) == null)
+          continue;
+
+        MessageUncompressedDataReader reader = new MessageUncompressedDataReader();
+        // a Formatter turns off the plan
+        ArrayStructureBB tree = (ArrayStructureBB) reader.readEntireMessage(obs, proto, m, raf, new Formatter());
+        int treeBits = m.getCountedDataBits();
+        ArrayStructureBB planned = (ArrayStructureBB) reader.readEntireMessage(obs, proto, m, raf, null);
+
+        assertThat(planned.getByteBuffer().array()).isEqualTo(tree.getByteBuffer().array());
+        assertThat(m.getCountedDataBits()).isEqualTo(treeBits);
+        count++;
+      }
+    }
+    return count;
+  }
+}
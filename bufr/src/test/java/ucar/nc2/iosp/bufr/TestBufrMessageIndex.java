@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 1998-2020 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.iosp.bufr;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ucar.ma2.StructureData;
+import ucar.ma2.StructureDataIterator;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Sequence;
+import ucar.nc2.internal.util.CompareArrayToArray;
+import ucar.nc2.internal.util.CompareNetcdf2;
+
+/** Compare reading BUFR obs through a BufrMessageIndex with scanning the file. */
+public class TestBufrMessageIndex {
+  private static final String unitDir = "../bufr/src/test/data/";
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void testTest1() throws IOException {
+    compareIndexed("test1.bufr");
+  }
+
+  @Test
+  public void testRadiosonde() throws IOException {
+    compareIndexed("RadiosondeStationData.bufr");
+  }
+
+  private void compareIndexed(String name) throws IOException {
+    File copy = tempFolder.newFile(name);
+    Files.copy(new File(unitDir + name).toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    String filename = copy.getPath();
+
+    List<StructureData> scanned;
+    List<ucar.array.StructureData> scannedArrays;
+    BufrIosp.setCreateMessageIndex(false);
+    try {
+      scanned = readAll(filename, false);
+      scannedArrays = readAllArrays(filename, false);
+    } finally {
+      BufrIosp.setCreateMessageIndex(true);
+    }
+    assertThat(BufrMessageIndex.calcIndexFile(filename).exists()).isFalse();
+
+    // the first open makes the index
+    List<StructureData> indexed = readAll(filename, true);
+    assertThat(BufrMessageIndex.calcIndexFile(filename).exists()).isTrue();
+    BufrMessageIndex index = BufrMessageIndex.readIndex(filename);
+    assertThat(index).isNotNull();
+    assertThat(index.getNobs()).isAtLeast(scanned.size());
+    compare(scanned, indexed);
+
+    List<ucar.array.StructureData> indexedArrays = readAllArrays(filename, true);
+    assertThat(indexedArrays.size()).isEqualTo(scannedArrays.size());
+    Formatter f = new Formatter();
+    assertWithMessage(f.toString()).that(CompareArrayToArray.compareSequence(f, BufrIosp.obsRecordName,
+        scannedArrays.iterator(), indexedArrays.iterator())).isTrue();
+
+    // a range of obs that does not start or end on a message boundary
+    try (NetcdfFile ncfile = NetcdfFiles.open(filename)) {
+      BufrIosp iosp = (BufrIosp) ncfile.sendIospMessage(NetcdfFile.IOSP_MESSAGE_GET_IOSP);
+      BufrMessageIndex.MessageType messages = iosp.getIndexedMessages();
+      assertThat(messages).isNotNull();
+      assertThat(messages.getNobs()).isEqualTo(scanned.size());
+
+      int start = scanned.size() / 3;
+      int end = scanned.size() - 1;
+      List<StructureData> range = new ArrayList<>();
+      try (StructureDataIterator iter = iosp.getStructureIterator(start, end)) {
+        while (iter.hasNext())
+          range.add(iter.next());
+      }
+      compare(scanned.subList(start, end), range);
+
+      long total = 0;
+      for (long[] part : messages.split(3))
+        total += part[1] - part[0];
+      assertThat(total).isEqualTo(scanned.size());
+    }
+  }
+
+  private List<StructureData> readAll(String filename, boolean wantIndex) throws IOException {
+    List<StructureData> result = new ArrayList<>();
+    try (NetcdfFile ncfile = NetcdfFiles.open(filename)) {
+      BufrIosp iosp = (BufrIosp) ncfile.sendIospMessage(NetcdfFile.IOSP_MESSAGE_GET_IOSP);
+      assertThat(iosp.getIndexedMessages() != null).isEqualTo(wantIndex);
+      Sequence obs = (Sequence) ncfile.findVariable(BufrIosp.obsRecordName);
+      assertThat(obs).isNotNull();
+      try (StructureDataIterator iter = obs.getStructureIterator()) {
+        while (iter.hasNext())
+          result.add(iter.next());
+      }
+    }
+    return result;
+  }
+
+  private List<ucar.array.StructureData> readAllArrays(String filename, boolean wantIndex) throws IOException {
+    List<ucar.array.StructureData> result = new ArrayList<>();
+    try (NetcdfFile ncfile = NetcdfFiles.open(filename)) {
+      BufrIosp iosp = (BufrIosp) ncfile.sendIospMessage(NetcdfFile.IOSP_MESSAGE_GET_IOSP);
+      assertThat(iosp.getIndexedMessages() != null).isEqualTo(wantIndex);
+      Sequence obs = (Sequence) ncfile.findVariable(BufrIosp.obsRecordName);
+      assertThat(obs).isNotNull();
+      for (ucar.array.StructureData sdata : obs) {
+        result.add(sdata);
+      }
+    }
+    return result;
+  }
+
+  private void compare(List<StructureData> expected, List<StructureData> actual) {
+    assertThat(actual.size()).isEqualTo(expected.size());
+    Formatter f = new Formatter();
+    CompareNetcdf2 compare = new CompareNetcdf2(f);
+    for (int i = 0; i < expected.size(); i++) {
+      boolean ok = compare.compareStructureData(expected.get(i), actual.get(i), false);
+      if (!ok)
+        System.out.printf("obs %d: %s%n", i, f);
+      assertThat(ok).isTrue();
+    }
+  }
+}
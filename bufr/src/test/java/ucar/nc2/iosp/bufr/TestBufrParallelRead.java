@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 1998-2020 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.iosp.bufr;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Test;
+import ucar.array.StructureData;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Sequence;
+import ucar.nc2.internal.util.CompareArrayToArray;
+
+/** Compare decoding BUFR messages in parallel with decoding them on the iterating thread. */
+public class TestBufrParallelRead {
+  private static final String unitDir = "../bufr/src/test/data/";
+
+  private final ExecutorService exec = Executors.newFixedThreadPool(4);
+
+  @After
+  public void cleanup() {
+    BufrIosp.setExecutor(null, 8);
+    exec.shutdownNow();
+  }
+
+  @Test
+  public void testTest1() throws IOException {
+    compareParallel(unitDir + "test1.bufr", 2);
+  }
+
+  @Test
+  public void testRadiosonde() throws IOException {
+    compareParallel(unitDir + "RadiosondeStationData.bufr", 3);
+  }
+
+  private void compareParallel(String filename, int messagesInFlight) throws IOException {
+    List<StructureData> serial = readAll(filename);
+
+    BufrIosp.setExecutor(exec, messagesInFlight);
+    List<StructureData> parallel = readAll(filename);
+    assertThat(parallel.size()).isEqualTo(serial.size());
+
+    Formatter f = new Formatter();
+    boolean ok = CompareArrayToArray.compareSequence(f, filename, serial.iterator(), parallel.iterator());
+    if (!ok)
+      System.out.printf("%s%n", f);
+    assertThat(ok).isTrue();
+  }
+
+  private List<StructureData> readAll(String filename) throws IOException {
+    List<StructureData> result = new ArrayList<>();
+    try (NetcdfFile ncfile = NetcdfFiles.open(filename)) {
+      Sequence obs = (Sequence) ncfile.findVariable(BufrIosp.obsRecordName);
+      assertThat(obs).isNotNull();
+      for (StructureData sdata : obs) {
+        result.add(sdata);
+      }
+    }
+    return result;
+  }
+}
@@ -5,25 +5,41 @@
 
 package thredds.server.opendap;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Formatter;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import opendap.dap.BaseType;
+import opendap.dap.BytePrimitiveVector;
 import opendap.dap.DArrayDimension;
+import opendap.dap.Float32PrimitiveVector;
+import opendap.dap.Float64PrimitiveVector;
+import opendap.dap.Int16PrimitiveVector;
+import opendap.dap.Int32PrimitiveVector;
 import opendap.dap.InvalidDimensionException;
+import opendap.dap.NoSuchVariableException;
 import opendap.dap.PrimitiveVector;
+import thredds.server.opendap.servers.CEEvaluator;
+import thredds.server.opendap.servers.DAP2ServerSideException;
 import thredds.server.opendap.servers.SDArray;
 import ucar.ma2.Array;
 import ucar.ma2.DataType;
 import ucar.ma2.IndexIterator;
 import ucar.ma2.InvalidRangeException;
 import ucar.ma2.Range;
+import ucar.ma2.Section;
 import ucar.ma2.StructureData;
 import ucar.ma2.StructureMembers;
+import ucar.nc2.Attribute;
 import ucar.nc2.Dimension;
 import ucar.nc2.Variable;
+import ucar.nc2.constants.CDM;
 
 /**
  * Wraps a netcdf variable with rank > 0 as an SDArray.
@@ -33,6 +49,22 @@ public class NcSDArray extends SDArray implements HasNetcdfVariable {
   static private final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(NcSDArray.class);
   private static final boolean debug = false, debugRead = false;
 
+  /** Maximum number of bytes read and sent at a time by serialize(). */
+  private static long maxSlabBytes = 8 * 1000 * 1000;
+
+  private static final int readAheadThreads =
+      Integer.parseInt(System.getProperty("thredds.opendap.readAheadThreads", "8"));
+
+  // reads the next slab while the current one is being sent. Each serialize() has at most one read outstanding;
+  // when all threads are busy, the reads wait in the queue.
+  private static final ExecutorService readAheadExecutor = Executors.newFixedThreadPool(readAheadThreads,
+      new ThreadFactoryBuilder().setNameFormat("NcSDArray-readAhead-%d").setDaemon(true).build());
+
+  /** Set the maximum number of bytes read and sent at a time when serializing an array. */
+  public static void setMaxSlabBytes(long maxBytes) {
+    maxSlabBytes = maxBytes;
+  }
+
   private final Variable ncVar;
 
   /**
@@ -76,10 +108,7 @@ public class NcSDArray extends SDArray implements HasNetcdfVariable {
         log.debug(getRequestedRange());
 
       // set up the netcdf read
-      int n = numDimensions();
-      List<Range> ranges = new ArrayList<>(n);
-      for (int i = 0; i < n; i++)
-        ranges.add(new Range(getStart(i), getStop(i), getStride(i)));
+      List<Range> ranges = getRequestedRanges();
 
       try {
         a = ncVar.read(ranges);
@@ -117,6 +146,14 @@ public class NcSDArray extends SDArray implements HasNetcdfVariable {
     return (false);
   }
 
+  private List<Range> getRequestedRanges() throws InvalidDimensionException, InvalidRangeException {
+    int n = numDimensions();
+    List<Range> ranges = new ArrayList<>(n);
+    for (int i = 0; i < n; i++)
+      ranges.add(new Range(getStart(i), getStop(i), getStride(i)));
+    return ranges;
+  }
+
   private String getRequestedRange() {
     try {
       Formatter sbuff = new Formatter();
@@ -173,6 +210,152 @@ public class NcSDArray extends SDArray implements HasNetcdfVariable {
     setRead(true);
   }
 
+  /**
+   * Write the requested data, without reading all of it into memory.
+   * The request is split into slabs along the outer dimension, of at most maxSlabBytes each, and ending on a chunk
+   * boundary of the outer dimension when the chunking is known. Each slab is written as soon as it is read, while
+   * the next one is read on the readAhead executor. Falls back to SDArray.serialize() for Strings, Structures,
+   * and data that has already been read.
+   */
+  @Override
+  public void serialize(String dataset, DataOutputStream sink, CEEvaluator ce, Object specialO)
+      throws NoSuchVariableException, DAP2ServerSideException, IOException {
+    PrimitiveVector pv = getPrimitiveVector();
+    if (isRead() || !canStream(pv)) {
+      super.serialize(dataset, sink, ce, specialO);
+      return;
+    }
+    if (!ce.evalClauses(specialO))
+      return;
+
+    List<List<Range>> slabs;
+    long length;
+    try {
+      List<Range> ranges = getRequestedRanges();
+      length = new Section(ranges).computeSize();
+      slabs = makeSlabs(ranges);
+    } catch (InvalidDimensionException | InvalidRangeException e) {
+      log.error(getRequestedRange(), e);
+      throw new IllegalStateException("NcSDArray " + e.getClass().getSimpleName() + "=" + e.getMessage());
+    }
+
+    // Because both XDR and OPeNDAP read the length, we must write it twice.
+    sink.writeInt((int) length);
+    sink.writeInt((int) length);
+
+    Future<Array> next = slabs.isEmpty() ? null : readSlab(slabs.get(0));
+    try {
+      for (int i = 0; i < slabs.size(); i++) {
+        Array slab = getSlab(next);
+        next = (i + 1 < slabs.size()) ? readSlab(slabs.get(i + 1)) : null;
+        writeSlab(pv, slab, sink);
+      }
+    } finally {
+      if (next != null) { // writing failed: dont return until the dataset is no longer being read
+        try {
+          next.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+          // ignore
+        }
+      }
+      pv.setLength(0); // dont hang onto the last slab
+    }
+
+    if (pv instanceof BytePrimitiveVector) {
+      // pad out to a multiple of four bytes
+      int modFour = (int) (length % 4);
+      int pad = (modFour != 0) ? (4 - modFour) : 0;
+      sink.write(new byte[pad]);
+    }
+  }
+
+  private boolean canStream(PrimitiveVector pv) {
+    if (ncVar.isMemberOfStructure() || numDimensions() == 0)
+      return false;
+    Class<?> want = ncVar.getDataType().getPrimitiveClassType();
+    if (pv instanceof BytePrimitiveVector)
+      return want == byte.class;
+    if (pv instanceof Int16PrimitiveVector)
+      return want == short.class;
+    if (pv instanceof Int32PrimitiveVector)
+      return want == int.class;
+    if (pv instanceof Float32PrimitiveVector)
+      return want == float.class;
+    if (pv instanceof Float64PrimitiveVector)
+      return want == double.class;
+    return false;
+  }
+
+  // split the request along the outer dimension
+  private List<List<Range>> makeSlabs(List<Range> ranges) throws InvalidRangeException {
+    Range outer = ranges.get(0);
+    long rowSize = ncVar.getElementSize();
+    for (int i = 1; i < ranges.size(); i++)
+      rowSize *= ranges.get(i).length();
+    int rowsPerSlab = (int) Math.max(1, Math.min(outer.length(), maxSlabBytes / Math.max(1, rowSize)));
+    int align = getOuterChunkSize();
+
+    List<List<Range>> slabs = new ArrayList<>();
+    int n = outer.length();
+    int stride = outer.stride();
+    int k = 0;
+    while (k < n) {
+      int kEnd = Math.min(n, k + rowsPerSlab);
+      if (align > 1 && kEnd < n) {
+        // end the slab on a chunk boundary, if that leaves some rows in it
+        int boundary = (outer.element(kEnd) / align) * align;
+        int kBoundary = (boundary - outer.first() + stride - 1) / stride;
+        if (kBoundary > k)
+          kEnd = kBoundary;
+      }
+      List<Range> slab = new ArrayList<>(ranges);
+      slab.set(0, new Range(outer.getName(), outer.element(k), outer.element(kEnd - 1), stride));
+      slabs.add(slab);
+      k = kEnd;
+    }
+    return slabs;
+  }
+
+  // chunk length of the outer dimension, or 1 if not known
+  private int getOuterChunkSize() {
+    Attribute att = ncVar.findAttribute(CDM.CHUNK_SIZES);
+    if (att == null || att.isString() || att.getLength() != ncVar.getRank())
+      return 1;
+    return Math.max(1, att.getNumericValue(0).intValue());
+  }
+
+  private Future<Array> readSlab(List<Range> slab) {
+    return readAheadExecutor.submit(() -> ncVar.read(slab));
+  }
+
+  private Array getSlab(Future<Array> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("NcSDArray read interrupted", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      log.error(getRequestedRange(), cause);
+      throw new IllegalStateException("NcSDArray " + cause.getClass().getSimpleName() + "=" + cause.getMessage());
+    }
+  }
+
+  private void writeSlab(PrimitiveVector pv, Array slab, DataOutputStream sink) throws IOException {
+    if (pv instanceof BytePrimitiveVector) {
+      sink.write((byte[]) slab.get1DJavaArray(DataType.BYTE)); // padding is at the end of the whole array
+    } else {
+      pv.setInternalStorage(slab.get1DJavaArray(slab.getElementType()));
+      pv.externalize(sink);
+    }
+  }
+
   public void serialize(DataOutputStream sink, StructureData sdata, StructureMembers.Member m) throws IOException {
     long tstart = System.currentTimeMillis();
 
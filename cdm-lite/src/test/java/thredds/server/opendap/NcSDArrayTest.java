@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 1998-2020 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.server.opendap;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.function.Function;
+import opendap.dap.BaseType;
+import org.junit.Test;
+import thredds.server.opendap.servers.CEEvaluator;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Variable;
+import ucar.unidata.util.test.TestDir;
+
+/** Check that NcSDArray.serialize() sends the same bytes in slabs as SDArray.serialize() does all at once. */
+public class NcSDArrayTest {
+
+  @Test
+  public void testDouble() throws Exception {
+    // T(time=31, lat=3, lon=4) is 96 bytes per time
+    try (NetcdfFile ncfile = NetcdfFiles.open(TestDir.cdmLocalFromTestDataDir + "jan.nc")) {
+      Variable v = ncfile.findVariable("T");
+      assertThat(v).isNotNull();
+      compare(ncfile, v, NcSDFloat64::new, null, 200);
+      compare(ncfile, v, NcSDFloat64::new, new int[] {1, 3, 29}, 200);
+    }
+  }
+
+  @Test
+  public void testByte() throws Exception {
+    // bvar(lat=64), padded to a multiple of 4 bytes
+    try (NetcdfFile ncfile = NetcdfFiles.open(TestDir.cdmLocalFromTestDataDir + "testWrite.nc")) {
+      Variable v = ncfile.findVariable("bvar");
+      assertThat(v).isNotNull();
+      compare(ncfile, v, NcSDByte::new, null, 10);
+      compare(ncfile, v, NcSDByte::new, new int[] {2, 3, 63}, 8);
+    }
+  }
+
+  // projection of the outer dimension is {start, stride, stop}, or null for all of it
+  private void compare(NetcdfFile ncfile, Variable v, Function<Variable, BaseType> elemType, int[] projection,
+      long maxSlabBytes) throws Exception {
+    CEEvaluator ce = new CEEvaluator(new NcDDS("test", ncfile));
+
+    NcSDArray whole = new NcSDArray(v, elemType.apply(v));
+    if (projection != null)
+      whole.setProjection(0, projection[0], projection[1], projection[2]);
+    whole.read("test", null);
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    try (DataOutputStream sink = new DataOutputStream(expected)) {
+      whole.serialize("test", sink, ce, null);
+    }
+
+    NcSDArray.setMaxSlabBytes(maxSlabBytes);
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    try (DataOutputStream sink = new DataOutputStream(result)) {
+      NcSDArray slabs = new NcSDArray(v, elemType.apply(v));
+      if (projection != null)
+        slabs.setProjection(0, projection[0], projection[1], projection[2]);
+      slabs.serialize("test", sink, ce, null);
+    } finally {
+      NcSDArray.setMaxSlabBytes(8 * 1000 * 1000);
+    }
+
+    // more than one slab of data, after the two lengths
+    assertThat(expected.size() - 8L).isGreaterThan(maxSlabBytes);
+    assertThat(result.toByteArray()).isEqualTo(expected.toByteArray());
+  }
+}
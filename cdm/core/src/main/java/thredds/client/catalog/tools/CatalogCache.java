@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 1998-2020 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package thredds.client.catalog.tools;
+
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
+import static java.net.HttpURLConnection.HTTP_OK;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Formatter;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import thredds.client.catalog.Catalog;
+import thredds.client.catalog.builder.CatalogBuilder;
+import ucar.httpservices.HTTPFactory;
+import ucar.httpservices.HTTPMethod;
+
+/**
+ * Cache of parsed client Catalogs, keyed by URI.
+ * A cached Catalog is reused if the server says it has not changed: for http, by a conditional request using the
+ * ETag and Last-Modified of the cached copy; for file: URLs, if the Last-Modified is unchanged.
+ * Other URLs are read each time.
+ */
+@ThreadSafe
+public class CatalogCache {
+  private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(CatalogCache.class);
+
+  private final Cache<URI, Entry> cache;
+  private final AtomicInteger hits = new AtomicInteger();
+  private final AtomicInteger misses = new AtomicInteger();
+
+  /** @param maxCatalogs maximum number of catalogs to keep. */
+  public CatalogCache(int maxCatalogs) {
+    this.cache = CacheBuilder.newBuilder().maximumSize(maxCatalogs).build();
+  }
+
+  /**
+   * Get the Catalog at this URI, from the cache if it has not changed, else read and parse it.
+   *
+   * @param uri location of the catalog xml
+   * @param errlog put error messages here
+   * @return the catalog, or null on failure
+   */
+  @Nullable
+  public Catalog getCatalog(URI uri, Formatter errlog) {
+    Entry cached = cache.getIfPresent(uri);
+    try {
+      if ("file".equals(uri.getScheme()))
+        return getFileCatalog(uri, cached, errlog);
+      if ("http".equals(uri.getScheme()) || "https".equals(uri.getScheme()))
+        return getHttpCatalog(uri, cached, errlog);
+
+      // anything else is not cached
+      misses.incrementAndGet();
+      CatalogBuilder builder = new CatalogBuilder();
+      Catalog cat = builder.buildFromURI(uri);
+      if (builder.hasFatalError() || cat == null) {
+        errlog.format("Error reading catalog %s err=%s%n", uri, builder.getErrorMessage());
+        return null;
+      }
+      return cat;
+
+    } catch (IOException e) {
+      errlog.format("Error reading catalog %s err=%s%n", uri, e.getMessage());
+      logger.debug("Error reading catalog {}", uri, e);
+      return null;
+    }
+  }
+
+  // a conditional GET, through the same HTTPSession machinery (credentials, proxies, connection pool) as the rest
+  private Catalog getHttpCatalog(URI uri, Entry cached, Formatter errlog) throws IOException {
+    try (HTTPMethod method = HTTPFactory.Get(uri.toString())) {
+      method.setFollowRedirects(true);
+      if (cached != null) {
+        if (cached.etag != null)
+          method.setRequestHeader("If-None-Match", cached.etag);
+        if (cached.lastModified > 0)
+          method.setRequestHeader("If-Modified-Since", DateTimeFormatter.RFC_1123_DATE_TIME
+              .format(Instant.ofEpochMilli(cached.lastModified).atZone(ZoneOffset.UTC)));
+      }
+
+      int statusCode = method.execute();
+      if (statusCode == HTTP_NOT_MODIFIED && cached != null) {
+        hits.incrementAndGet();
+        return cached.catalog;
+      }
+      if (statusCode != HTTP_OK) {
+        errlog.format("Error reading catalog %s status=%s%n", uri, method.getStatusLine());
+        cache.invalidate(uri);
+        return null;
+      }
+
+      String etag = method.getResponseHeaderValue("ETag").orElse(null);
+      long lastModified = method.getResponseHeaderValue("Last-Modified").map(CatalogCache::parseHttpDate).orElse(0L);
+      InputStream in = method.getResponseAsStream(); // Closed by HTTPMethod.close().
+      return readCatalog(uri, in, etag, lastModified, errlog);
+    }
+  }
+
+  private static long parseHttpDate(String date) {
+    try {
+      return ZonedDateTime.parse(date, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+    } catch (DateTimeParseException e) {
+      return 0; // not cached by date
+    }
+  }
+
+  private Catalog getFileCatalog(URI uri, Entry cached, Formatter errlog) throws IOException {
+    File file = new File(uri);
+    long lastModified = file.lastModified();
+    if (cached != null && lastModified > 0 && lastModified == cached.lastModified) {
+      hits.incrementAndGet();
+      return cached.catalog;
+    }
+    try (InputStream in = new FileInputStream(file)) {
+      return readCatalog(uri, in, null, lastModified, errlog);
+    }
+  }
+
+  private Catalog readCatalog(URI uri, InputStream in, String etag, long lastModified, Formatter errlog) {
+    misses.incrementAndGet();
+    CatalogBuilder builder = new CatalogBuilder();
+    Catalog cat = builder.buildFromStream(in, uri);
+    if (builder.hasFatalError() || cat == null) {
+      errlog.format("Error reading catalog %s err=%s%n", uri, builder.getErrorMessage());
+      cache.invalidate(uri);
+      return null;
+    }
+    if (etag != null || lastModified > 0)
+      cache.put(uri, new Entry(cat, etag, lastModified));
+    return cat;
+  }
+
+  /** Number of requests answered from the cache. */
+  public int getHits() {
+    return hits.get();
+  }
+
+  /** Number of requests that read and parsed the catalog. */
+  public int getMisses() {
+    return misses.get();
+  }
+
+  public void clear() {
+    cache.invalidateAll();
+  }
+
+  @Immutable
+  private static class Entry {
+    final Catalog catalog;
+    final String etag;
+    final long lastModified;
+
+    Entry(Catalog catalog, String etag, long lastModified) {
+      this.catalog = catalog;
+      this.etag = etag;
+      this.lastModified = lastModified;
+    }
+  }
+}
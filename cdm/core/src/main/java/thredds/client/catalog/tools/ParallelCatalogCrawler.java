@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 1998-2020 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package thredds.client.catalog.tools;
+
+import com.google.common.base.MoreObjects;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Formatter;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+import thredds.client.catalog.Catalog;
+import thredds.client.catalog.CatalogRef;
+import thredds.client.catalog.Dataset;
+import ucar.nc2.util.CancelTask;
+
+/**
+ * Crawl client catalogs, reading catalog references concurrently.
+ * Each catalog (the top one and every CatalogRef) is read and parsed as a task on the Executor, so the number of
+ * concurrent reads is bounded by the Executor. Datasets are passed to the Listener as each catalog is parsed,
+ * in no particular order between catalogs. Each catalog is read only once per crawl.
+ * Catalogs come from a CatalogCache, so crawling again only reads the catalogs that have changed.
+ * <p/>
+ * Unlike CatalogCrawler, all non-CatalogRef datasets are sent to the Listener; use Dataset.hasAccess() to find the
+ * ones with data.
+ */
+public class ParallelCatalogCrawler {
+
+  /** Called for each dataset found. Called from the Executor threads, so must be thread-safe. */
+  public interface Listener {
+    void getDataset(Dataset dd);
+  }
+
+  private final Executor executor;
+  private final CatalogCache cache;
+  private final CatalogCrawler.Filter filter;
+  private final CancelTask task;
+
+  private final AtomicInteger countCatalogs = new AtomicInteger();
+  private final AtomicInteger countDatasets = new AtomicInteger();
+  private final AtomicInteger numReadFailures = new AtomicInteger();
+  private final Formatter errlog = new Formatter();
+
+  /**
+   * Constructor.
+   *
+   * @param executor read catalogs with this, eg a fixed size thread pool
+   * @param cache catalog cache, may be shared between crawlers
+   * @param filter dont process this dataset or its descendants, must be thread-safe. may be null
+   * @param task user can cancel the task (may be null)
+   */
+  public ParallelCatalogCrawler(Executor executor, CatalogCache cache, @Nullable CatalogCrawler.Filter filter,
+      @Nullable CancelTask task) {
+    this.executor = executor;
+    this.cache = cache;
+    this.filter = filter;
+    this.task = task;
+  }
+
+  /**
+   * Crawl the catalog at catUrl and all its catalog references. Returns when all catalogs have been read,
+   * or the task has been cancelled, or the calling thread is interrupted.
+   *
+   * @param catUrl url of catalog to open (xml, not html)
+   * @param listen gets each dataset
+   * @return number of catalogs read in this crawl
+   */
+  public int crawl(String catUrl, Listener listen) throws URISyntaxException {
+    countCatalogs.set(0);
+    countDatasets.set(0);
+    numReadFailures.set(0);
+
+    Crawl crawl = new Crawl(listen);
+    crawl.submit(new URI(catUrl), 0);
+    crawl.arrive();
+    try {
+      crawl.done.await(); // wait for all catalogs, including the ones found along the way
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return countCatalogs.get();
+  }
+
+  private class Crawl {
+    private final Listener listen;
+    // One for each pending catalog, plus the caller. Unlike a Phaser, there is no limit on the number pending.
+    private final AtomicInteger pending = new AtomicInteger(1);
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final Set<URI> seen = ConcurrentHashMap.newKeySet();
+
+    Crawl(Listener listen) {
+      this.listen = listen;
+    }
+
+    void submit(URI uri, int level) {
+      if (isCancel() || !seen.add(uri))
+        return;
+      pending.incrementAndGet();
+      try {
+        executor.execute(() -> {
+          try {
+            readCatalog(uri, level);
+          } catch (RuntimeException e) { // from the catalog parser or the Listener
+            numReadFailures.incrementAndGet();
+            synchronized (errlog) {
+              errlog.format("Error crawling catalog %s err=%s%n", uri, e);
+            }
+          } finally {
+            arrive();
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        arrive();
+        numReadFailures.incrementAndGet();
+      }
+    }
+
+    void arrive() {
+      if (pending.decrementAndGet() == 0)
+        done.countDown();
+    }
+
+    private void readCatalog(URI uri, int level) {
+      if (isCancel())
+        return;
+      Formatter localErrlog = new Formatter();
+      Catalog cat = cache.getCatalog(uri, localErrlog);
+      if (cat == null) {
+        numReadFailures.incrementAndGet();
+        synchronized (errlog) {
+          errlog.format("%s", localErrlog);
+        }
+        return;
+      }
+      countCatalogs.incrementAndGet();
+      for (Dataset ds : cat.getDatasetsLocal()) {
+        crawlDataset(ds, level);
+        if (isCancel())
+          break;
+      }
+    }
+
+    private void crawlDataset(Dataset ds, int level) {
+      if (filter != null && filter.skipAll(ds))
+        return;
+
+      if (ds instanceof CatalogRef) {
+        CatalogRef catref = (CatalogRef) ds;
+        if (filter != null && filter.skipCatref(catref, level + 1))
+          return;
+        URI catrefURI = catref.getURI();
+        if (catrefURI == null) {
+          numReadFailures.incrementAndGet();
+          return;
+        }
+        submit(catrefURI, level + 1);
+        return;
+      }
+
+      countDatasets.incrementAndGet();
+      listen.getDataset(ds);
+      for (Dataset nested : ds.getDatasetsLocal()) {
+        crawlDataset(nested, level);
+        if (isCancel())
+          break;
+      }
+    }
+  }
+
+  private boolean isCancel() {
+    return task != null && task.isCancel();
+  }
+
+  /** Number of catalogs read in the last crawl. */
+  public int getNumCatalogs() {
+    return countCatalogs.get();
+  }
+
+  /** Number of datasets sent to the Listener in the last crawl. */
+  public int getNumDatasets() {
+    return countDatasets.get();
+  }
+
+  /**
+   * Number of catalogs that could not be read in the last crawl, including those where the parser or the Listener
+   * threw an exception.
+   */
+  public int getNumReadFailures() {
+    return numReadFailures.get();
+  }
+
+  /** Error messages from reading catalogs. */
+  public String getErrorMessages() {
+    synchronized (errlog) {
+      return errlog.toString();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this).add("filter", filter).add("countCatalogs", countCatalogs)
+        .add("countDatasets", countDatasets).add("numReadFailures", numReadFailures).toString();
+  }
+}
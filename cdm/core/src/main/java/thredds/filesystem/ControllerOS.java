@@ -65,7 +65,7 @@ public class ControllerOS implements MController {
       return null;
     if (!cd.isDirectory())
       return null;
-    return new FilteredIterator(mc, new MFileIteratorAll(cd), false);
+    return DirectoryCrawler.crawl(cd.toPath(), true, mc::accept, null).iterator(); // subdirs are listed in parallel
   }
 
   @Override
@@ -162,10 +162,6 @@ public class ControllerOS implements MController {
         files = Arrays.asList(f);
     }
 
-    MFileIterator(List<File> files) {
-      this.files = files;
-    }
-
     public boolean hasNext() {
       return count < files.size();
     }
@@ -180,100 +176,4 @@ public class ControllerOS implements MController {
     }
   }
 
-  // recursively scans everything in the directory and in subdirectories, depth first (leaves before subdirs)
-  private static class MFileIteratorAll implements Iterator<MFile> {
-    Queue<Traversal> traverse;
-    Traversal currTraversal;
-    Iterator<MFile> currIter;
-
-    MFileIteratorAll(File top) {
-      traverse = new LinkedList<>();
-      currTraversal = new Traversal(top);
-    }
-
-    public boolean hasNext() {
-      if (currIter == null) {
-        currIter = getNextIterator();
-        if (currIter == null) {
-          return false;
-        }
-      }
-
-      if (!currIter.hasNext()) {
-        currIter = getNextIterator(); /// 5
-        return hasNext();
-      }
-
-      return true;
-    }
-
-    public MFile next() {
-      return currIter.next();
-    }
-
-    private Iterator<MFile> getNextIterator() {
-
-      if (!currTraversal.leavesAreDone) {
-        currTraversal.leavesAreDone = true;
-        return new MFileIterator(currTraversal.fileList); // look for leaves in the current directory. may be empty.
-
-      } else {
-        if ((currTraversal.subdirIterator != null) && currTraversal.subdirIterator.hasNext()) { // has subdirs
-          File nextDir = currTraversal.subdirIterator.next(); /// NCDC gets null
-
-          traverse.add(currTraversal); // keep track of current traversal
-          currTraversal = new Traversal(nextDir); /// 2
-          return getNextIterator();
-
-        } else {
-          if (traverse.peek() == null)
-            return null;
-          currTraversal = traverse.remove();
-          return getNextIterator(); // 3 and 4 iteration
-        }
-      }
-    }
-
-    public void remove() {
-      throw new UnsupportedOperationException();
-    }
-  }
-
-  // traversal of one directory
-  private static class Traversal {
-    List<File> fileList; // list of files
-    Iterator<File> subdirIterator; // list of subdirs
-    boolean leavesAreDone; // when all the files are done, start on the subdirs
-
-    Traversal(File dir) {
-      fileList = new ArrayList<>();
-      if (dir == null)
-        return; // LOOK WHY
-      if (dir.listFiles() == null)
-        return;
-
-      if (logger.isTraceEnabled())
-        logger.trace("List Directory " + dir);
-      List<File> subdirList = new ArrayList<>();
-      File[] files = dir.listFiles();
-      if (files != null)
-        for (File f : files) { /// 1
-          if (f == null) {
-            logger.warn("  NULL FILE in directory " + dir);
-            continue;
-          }
-          if (logger.isTraceEnabled())
-            logger.trace("  File " + f);
-
-          if (f.isDirectory())
-            subdirList.add(f);
-          else
-            fileList.add(f);
-        }
-
-      if (!subdirList.isEmpty())
-        this.subdirIterator = subdirList.iterator();
-    }
-  }
-
 }
@@ -28,7 +28,15 @@ public class ControllerOS7 implements MController {
 
   @Override
   public Iterator<MFile> getInventoryAll(CollectionConfig mc, boolean recheck) {
-    return null;
+    String path = mc.getDirectoryName();
+    if (path.startsWith("file:")) {
+      path = path.substring(5);
+    }
+
+    Path cd = Paths.get(path);
+    if (!Files.isDirectory(cd))
+      return null;
+    return DirectoryCrawler.crawl(cd, true, mc::accept, null).iterator(); // subdirs are listed in parallel
   }
 
   @Override
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 1998-2020 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.filesystem;
+
+import thredds.inventory.MFile;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Lists the files in a directory tree, with the subdirectories listed in parallel on a fork-join pool.
+ * The attributes of each entry are read once, and kept in its MFileOS7.
+ * On a large tree most of the time is spent waiting on the file system, so more threads than processors are used.
+ */
+@ThreadSafe
+public class DirectoryCrawler {
+  private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(DirectoryCrawler.class);
+  private static final int PARALLELISM = Math.max(8, 2 * Runtime.getRuntime().availableProcessors());
+  private static final ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+
+  /**
+   * Find the files in a directory, and optionally in all of its subdirectories.
+   * A directory that cannot be read is logged and skipped.
+   *
+   * @param top start here
+   * @param recurse if true, descend into subdirectories
+   * @param filter if not null, only return files that it accepts. Not applied to directories.
+   * @param dirVisitor if not null, called on each directory that is crawled, including top. May be called from
+   *        several threads at once.
+   * @return the files found, in no particular order
+   */
+  public static List<MFile> crawl(Path top, boolean recurse, @Nullable Predicate<MFile> filter,
+      @Nullable Consumer<Path> dirVisitor) {
+    Queue<MFile> result = new ConcurrentLinkedQueue<>();
+    pool.invoke(new CrawlDirectory(top, recurse, filter, dirVisitor, result));
+    return new ArrayList<>(result);
+  }
+
+  private static class CrawlDirectory extends RecursiveAction {
+    private final Path dir;
+    private final boolean recurse;
+    private final Predicate<MFile> filter;
+    private final Consumer<Path> dirVisitor;
+    private final Queue<MFile> result;
+
+    CrawlDirectory(Path dir, boolean recurse, Predicate<MFile> filter, Consumer<Path> dirVisitor,
+        Queue<MFile> result) {
+      this.dir = dir;
+      this.recurse = recurse;
+      this.filter = filter;
+      this.dirVisitor = dirVisitor;
+      this.result = result;
+    }
+
+    @Override
+    protected void compute() {
+      if (dirVisitor != null)
+        dirVisitor.accept(dir);
+
+      List<CrawlDirectory> subdirs = new ArrayList<>();
+      try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+        for (Path p : ds) {
+          BasicFileAttributes attr;
+          try {
+            attr = Files.readAttributes(p, BasicFileAttributes.class);
+          } catch (IOException ioe) {
+            // deleted since it was listed, or a broken link
+            logger.debug("Failed to read attributes of {}", p, ioe);
+            continue;
+          }
+          if (attr.isDirectory()) {
+            if (recurse)
+              subdirs.add(new CrawlDirectory(p, true, filter, dirVisitor, result));
+          } else {
+            MFile mfile = new MFileOS7(p, attr);
+            if (filter == null || filter.test(mfile))
+              result.add(mfile);
+          }
+        }
+      } catch (IOException ioe) {
+        logger.warn("Failed to list directory {}", dir, ioe);
+      }
+
+      invokeAll(subdirs);
+    }
+  }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 1998-2020 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.filesystem;
+
+import thredds.inventory.MFile;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Watches directories with a java.nio WatchService, and reports the paths that changed since the last poll.
+ * This lets a collection be kept up to date without listing all of its files again.
+ * <p/>
+ * The OS queues the events, so no thread is needed; call pollChanges() whenever the collection is checked.
+ * Some file systems (eg NFS) do not deliver events for changes made on other hosts, and the OS may drop events
+ * when too many happen at once. In that case pollChanges() returns null, and the caller must rescan.
+ */
+@ThreadSafe
+public class DirectoryWatcher implements Closeable {
+  private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(DirectoryWatcher.class);
+
+  private final WatchService watchService;
+  private final Map<WatchKey, WatchedDir> keys = new ConcurrentHashMap<>();
+  private final Set<Path> dirs = ConcurrentHashMap.newKeySet();
+  private boolean incomplete; // a new directory could not be watched, so changes can no longer be trusted
+
+  public DirectoryWatcher() throws IOException {
+    this.watchService = FileSystems.getDefault().newWatchService();
+  }
+
+  /**
+   * Watch a directory, and optionally all of its subdirectories, including ones created later.
+   *
+   * @param top watch this directory
+   * @param recurse if true, also watch the subdirectories
+   * @throws IOException if any directory could not be watched, eg because the OS limit on watches was reached.
+   */
+  public void register(Path top, boolean recurse) throws IOException {
+    AtomicReference<IOException> failed = new AtomicReference<>();
+    if (recurse) {
+      DirectoryCrawler.crawl(top, true, mfile -> false, dir -> registerDir(dir, true, failed));
+    } else {
+      registerDir(top, false, failed);
+    }
+    if (failed.get() != null)
+      throw failed.get();
+  }
+
+  private void registerDir(Path dir, boolean recurse, AtomicReference<IOException> failed) {
+    try {
+      WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+      keys.put(key, new WatchedDir(dir, recurse));
+      dirs.add(dir);
+    } catch (IOException ioe) {
+      failed.compareAndSet(null, ioe);
+    }
+  }
+
+  /**
+   * What changed since the last call.
+   *
+   * @return the changes, or null if events were lost and the caller must rescan. Once a new directory cannot be
+   *         watched, always null, so the caller should close this and watch with a new DirectoryWatcher.
+   */
+  @Nullable
+  public synchronized Changes pollChanges() {
+    Changes result = new Changes();
+    AtomicReference<IOException> failed = new AtomicReference<>();
+    boolean lost = false;
+
+    WatchKey key;
+    while ((key = watchService.poll()) != null) {
+      WatchedDir watched = keys.get(key);
+      for (WatchEvent<?> event : key.pollEvents()) {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW || watched == null) {
+          lost = true;
+          continue;
+        }
+        Path child = watched.dir.resolve((Path) event.context());
+        result.paths.add(child);
+
+        if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE && dirs.remove(child)) {
+          // deleted or moved away, there are no events for the files in it
+          dirs.removeIf(dir -> dir.startsWith(child));
+          result.deletedDirectories.add(child);
+
+        } else if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && watched.recurse
+            && Files.isDirectory(child)) {
+          // files may have been added before the new directory was watched
+          for (MFile mfile : DirectoryCrawler.crawl(child, true, null, dir -> registerDir(dir, true, failed)))
+            result.paths.add(Paths.get(mfile.getPath()));
+        }
+      }
+      if (!key.reset()) // the directory is gone
+        keys.remove(key);
+    }
+
+    if (failed.get() != null && !incomplete) {
+      logger.warn("DirectoryWatcher failed to watch a new directory, changes will not be reported", failed.get());
+      incomplete = true;
+    }
+    return (lost || incomplete) ? null : result;
+  }
+
+  /** The number of directories being watched. */
+  public int getNumberOfDirectories() {
+    return keys.size();
+  }
+
+  @Override
+  public void close() throws IOException {
+    watchService.close();
+    keys.clear();
+    dirs.clear();
+  }
+
+  /** What changed in the watched directories. */
+  public static class Changes {
+    private final Set<Path> paths = new HashSet<>();
+    private final Set<Path> deletedDirectories = new HashSet<>();
+
+    /** The files and directories that were created, modified or deleted. */
+    public Set<Path> getPaths() {
+      return paths;
+    }
+
+    /** The watched directories that were deleted or moved away. The files that were in them are not in getPaths(). */
+    public Set<Path> getDeletedDirectories() {
+      return deletedDirectories;
+    }
+  }
+
+  private static class WatchedDir {
+    private final Path dir;
+    private final boolean recurse;
+
+    WatchedDir(Path dir, boolean recurse) {
+      this.dir = dir;
+      this.recurse = recurse;
+    }
+  }
+
+}
@@ -11,6 +11,7 @@ import thredds.inventory.partition.DirectoryCollection;
 import ucar.nc2.time.CalendarDate;
 import ucar.nc2.units.TimeDuration;
 import ucar.unidata.util.StringUtil2;
+import javax.annotation.Nullable;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.DirectoryStream;
@@ -161,6 +162,11 @@ public abstract class CollectionAbstract implements MCollection {
 
   @Override
   public CalendarDate extractDate(MFile mfile) {
+    if (mfile instanceof InventorySnapshot.SnapshotFile) {
+      CalendarDate saved = ((InventorySnapshot.SnapshotFile) mfile).getDate();
+      if (saved != null)
+        return saved;
+    }
     return (dateExtractor == null) ? null : dateExtractor.getCalendarDate(mfile);
   }
 
@@ -267,6 +273,71 @@ public abstract class CollectionAbstract implements MCollection {
     return list;
   }
 
+  ////////////////////////////////////////////
+  // inventory snapshot
+
+  protected volatile List<MFile> snapshotFiles; // used instead of listing the directories, until reconcileSnapshot()
+
+  /**
+   * Use the files in an InventorySnapshot, so that the collection can be used before its directories are listed.
+   * Call reconcileSnapshot() afterwards, usually in the background.
+   * Only DirectoryCollection, CollectionGeneral and MFileCollectionManager use the snapshot.
+   *
+   * @param snapshotFile read the snapshot from here
+   * @return true if the snapshot was read and is a snapshot of this collection.
+   */
+  public boolean useSnapshot(Path snapshotFile) {
+    InventorySnapshot snapshot = InventorySnapshot.read(snapshotFile);
+    if (snapshot == null)
+      return false;
+    if (!snapshot.isSnapshotOf(this)) {
+      logger.warn("{}: {} is a snapshot of {} in {}", collectionName, snapshotFile, snapshot.getCollectionName(),
+          snapshot.getRoot());
+      return false;
+    }
+    setSnapshotFiles(snapshot.getFiles(this));
+    return true;
+  }
+
+  protected void setSnapshotFiles(List<MFile> files) {
+    this.snapshotFiles = files;
+  }
+
+  /**
+   * Stop using the snapshot, and compare it with the files that are there now.
+   *
+   * @return true if the files in the collection are not the ones in the snapshot.
+   */
+  public boolean reconcileSnapshot() throws IOException {
+    List<MFile> saved = snapshotFiles;
+    if (saved == null)
+      return false;
+    snapshotFiles = null;
+
+    List<MFile> current = new ArrayList<>(saved.size());
+    try (CloseableIterator<MFile> iter = getFileIterator()) {
+      while (iter.hasNext())
+        current.add(iter.next());
+    }
+    return !InventorySnapshot.sameFiles(saved, current);
+  }
+
+  /**
+   * Write an InventorySnapshot of the files now in the collection.
+   *
+   * @param snapshotFile write the snapshot to here, replacing any that is there.
+   */
+  public void writeSnapshot(Path snapshotFile) throws IOException {
+    InventorySnapshot.write(snapshotFile, this, getFilesSorted());
+  }
+
+  // the files in the snapshot, or null if not using one
+  @Nullable
+  protected CloseableIterator<MFile> getSnapshotIterator() {
+    List<MFile> files = snapshotFiles;
+    return (files == null) ? null : new MFileIterator(files.iterator(), null);
+  }
+
   ////////////////////////////////////////////
 
   /**
@@ -45,7 +45,8 @@ public class CollectionGeneral extends CollectionAbstract {
 
   @Override
   public CloseableIterator<MFile> getFileIterator() throws IOException {
-    return new MyFileIterator(rootPath);
+    CloseableIterator<MFile> snapshot = getSnapshotIterator();
+    return (snapshot != null) ? snapshot : new MyFileIterator(rootPath);
   }
 
   // returns everything defined by specp, checking olderThanMillis
@@ -7,6 +7,8 @@ package thredds.inventory;
 
 import ucar.nc2.units.TimeDuration;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Manages a dynamic collection of MFile objects.
@@ -153,16 +155,27 @@ public interface CollectionManager extends MCollection {
 
   class TriggerEvent extends java.util.EventObject {
     private final CollectionUpdateType type;
+    private final List<String> changedFiles;
 
     TriggerEvent(Object source, CollectionUpdateType type) {
+      this(source, type, Collections.emptyList());
+    }
+
+    TriggerEvent(Object source, CollectionUpdateType type, List<String> changedFiles) {
       super(source);
       this.type = type;
+      this.changedFiles = Collections.unmodifiableList(changedFiles);
     }
 
     public CollectionUpdateType getType() {
       return type;
     }
 
+    /** The paths of the files that were added, changed or deleted. Empty if not known. */
+    public List<String> getChangedFiles() {
+      return changedFiles;
+    }
+
     @Override
     public String toString() {
       return "TriggerEvent{" + "type='" + type + '\'' + '}';
@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 1998-2020 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.inventory;
+
+import thredds.filesystem.MFileOS;
+import ucar.nc2.time.CalendarDate;
+import ucar.unidata.util.StringUtil2;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A compact on-disk copy of the inventory of a collection: the path, length, last modified and extracted date of
+ * each file. It is written after the collection has been scanned, and read at startup so that the collection can be
+ * used right away, instead of after all of its directories have been listed again.
+ * Files may have changed since the snapshot was written, so the collection must then be reconciled with the
+ * file system, see {@link CollectionAbstract#reconcileSnapshot()}.
+ * <p/>
+ * The file is gzipped. Paths under the collection root are stored relative to it.
+ */
+@Immutable
+public class InventorySnapshot {
+  private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(InventorySnapshot.class);
+  private static final int MAGIC = 0x494e5631; // "INV1"
+  private static final long NO_DATE = Long.MIN_VALUE;
+
+  /**
+   * Write the snapshot of a collection, replacing any that already exists.
+   * The file is written in full before it replaces the old one, so a reader never sees a partial snapshot.
+   *
+   * @param file write to this file
+   * @param collection the collection, for its name, root and date extractor
+   * @param files the files in the collection, usually collection.getFilesSorted()
+   */
+  public static void write(Path file, MCollection collection, Iterable<MFile> files) throws IOException {
+    String root = rootName(collection);
+    String rootPrefix = root.endsWith("/") ? root : root + "/";
+    List<MFile> fileList = new ArrayList<>();
+    for (MFile mfile : files)
+      fileList.add(mfile);
+
+    Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tempFile))))) {
+      out.writeInt(MAGIC);
+      out.writeLong(System.currentTimeMillis());
+      out.writeUTF(Objects.toString(collection.getCollectionName(), ""));
+      out.writeUTF(root);
+      out.writeUTF(dateExtractorName(collection));
+      out.writeInt(fileList.size());
+      for (MFile mfile : fileList) {
+        String path = mfile.getPath();
+        out.writeUTF(!root.isEmpty() && path.startsWith(rootPrefix) ? path.substring(rootPrefix.length()) : path);
+        out.writeLong(mfile.getLength());
+        out.writeLong(mfile.getLastModified());
+        CalendarDate date = collection.hasDateExtractor() ? collection.extractDate(mfile) : null;
+        out.writeLong(date == null ? NO_DATE : date.getMillis());
+      }
+    }
+    Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Read a snapshot.
+   *
+   * @param file the snapshot file
+   * @return the snapshot, or null if the file does not exist or cannot be read.
+   */
+  @Nullable
+  public static InventorySnapshot read(Path file) {
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+      if (in.readInt() != MAGIC) {
+        logger.warn("Not an inventory snapshot: {}", file);
+        return null;
+      }
+      long created = in.readLong();
+      String collectionName = in.readUTF();
+      String root = in.readUTF();
+      String dateExtractor = in.readUTF();
+      int n = in.readInt();
+      File rootDir = root.isEmpty() ? null : new File(root);
+
+      List<SnapshotFile> files = new ArrayList<>(n);
+      for (int i = 0; i < n; i++) {
+        String path = in.readUTF();
+        long length = in.readLong();
+        long lastModified = in.readLong();
+        long date = in.readLong();
+        File f = (rootDir == null || new File(path).isAbsolute()) ? new File(path) : new File(rootDir, path);
+        files.add(new SnapshotFile(f, length, lastModified, date == NO_DATE ? null : CalendarDate.of(date)));
+      }
+      return new InventorySnapshot(created, collectionName, root, dateExtractor, files);
+
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Failed to read inventory snapshot {}", file, e);
+      return null;
+    }
+  }
+
+  private static String dateExtractorName(MCollection collection) {
+    if (!(collection instanceof CollectionAbstract))
+      return "";
+    return Objects.toString(((CollectionAbstract) collection).dateExtractor);
+  }
+
+  private static String rootName(MCollection collection) {
+    return (collection.getRoot() == null) ? "" : StringUtil2.replace(collection.getRoot(), '\\', "/");
+  }
+
+  /** True if the two lists have the same paths, with the same lengths and last modified times. */
+  static boolean sameFiles(List<MFile> files1, List<MFile> files2) {
+    if (files1.size() != files2.size())
+      return false;
+    Map<String, MFile> map = new HashMap<>();
+    for (MFile mfile : files1)
+      map.put(mfile.getPath(), mfile);
+    for (MFile mfile : files2) {
+      MFile other = map.get(mfile.getPath());
+      if (other == null || other.getLastModified() != mfile.getLastModified() || other.getLength() != mfile.getLength())
+        return false;
+    }
+    return true;
+  }
+
+  ///////////////////////////////////////////////////////////////////////
+
+  private final long created;
+  private final String collectionName;
+  private final String root;
+  private final String dateExtractor;
+  private final List<SnapshotFile> files;
+
+  private InventorySnapshot(long created, String collectionName, String root, String dateExtractor,
+      List<SnapshotFile> files) {
+    this.created = created;
+    this.collectionName = collectionName;
+    this.root = root;
+    this.dateExtractor = dateExtractor;
+    this.files = Collections.unmodifiableList(files);
+  }
+
+  /** When the snapshot was written, in msecs since the epoch. */
+  public long getCreated() {
+    return created;
+  }
+
+  public String getCollectionName() {
+    return collectionName;
+  }
+
+  /** The root directory of the collection, or empty if none. */
+  public String getRoot() {
+    return root;
+  }
+
+  public int size() {
+    return files.size();
+  }
+
+  /**
+   * Is this a snapshot of the collection? It must have the same name and root.
+   */
+  public boolean isSnapshotOf(MCollection collection) {
+    return collectionName.equals(Objects.toString(collection.getCollectionName(), ""))
+        && root.equals(rootName(collection));
+  }
+
+  /**
+   * The files in the snapshot, as new MFiles. The saved dates are kept only if the collection extracts dates in the
+   * same way as when the snapshot was written.
+   *
+   * @param collection the files are for this collection
+   */
+  public List<MFile> getFiles(MCollection collection) {
+    boolean keepDates = dateExtractor.equals(dateExtractorName(collection));
+    List<MFile> result = new ArrayList<>(files.size());
+    for (SnapshotFile file : files)
+      result.add(new SnapshotFile(file.file, file.length, file.lastModified, keepDates ? file.date : null));
+    return result;
+  }
+
+  /**
+   * An MFile whose attributes come from the snapshot, not from the file system.
+   */
+  static class SnapshotFile implements MFile {
+    private final File file;
+    private final long length;
+    private final long lastModified;
+    private final CalendarDate date;
+    private Object auxInfo;
+
+    SnapshotFile(File file, long length, long lastModified, @Nullable CalendarDate date) {
+      this.file = file;
+      this.length = length;
+      this.lastModified = lastModified;
+      this.date = date;
+    }
+
+    /** The date that was extracted when the snapshot was written, or null. */
+    @Nullable
+    CalendarDate getDate() {
+      return date;
+    }
+
+    @Override
+    public long getLastModified() {
+      return lastModified;
+    }
+
+    @Override
+    public long getLength() {
+      return length;
+    }
+
+    @Override
+    public boolean isDirectory() {
+      return false;
+    }
+
+    @Override
+    public boolean isReadable() {
+      return file.canRead();
+    }
+
+    @Override
+    public String getPath() {
+      return StringUtil2.replace(file.getPath(), '\\', "/");
+    }
+
+    @Override
+    public String getName() {
+      return file.getName();
+    }
+
+    @Override
+    public MFile getParent() {
+      return new MFileOS(file.getParentFile());
+    }
+
+    @Override
+    public int compareTo(MFile o) {
+      return getPath().compareTo(o.getPath());
+    }
+
+    @Override
+    public Object getAuxInfo() {
+      return auxInfo;
+    }
+
+    @Override
+    public void setAuxInfo(Object auxInfo) {
+      this.auxInfo = auxInfo;
+    }
+
+    @Override
+    public String toString() {
+      return getPath();
+    }
+  }
+
+}
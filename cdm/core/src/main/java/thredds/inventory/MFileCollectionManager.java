@@ -7,6 +7,8 @@ package thredds.inventory;
 
 import thredds.featurecollection.FeatureCollectionConfig;
 import thredds.filesystem.ControllerOS;
+import thredds.filesystem.ControllerOS7;
+import thredds.filesystem.DirectoryWatcher;
 import thredds.inventory.filter.CompositeMFileFilter;
 import thredds.inventory.filter.LastModifiedLimit;
 import thredds.inventory.filter.RegExpMatchOnName;
@@ -14,9 +16,13 @@ import thredds.inventory.filter.WildcardMatchOnName;
 import thredds.inventory.filter.WildcardMatchOnPath;
 import ucar.nc2.time.CalendarDate;
 import ucar.nc2.units.TimeDuration;
+import ucar.unidata.util.StringUtil2;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -89,6 +95,17 @@ public class MFileCollectionManager extends CollectionManagerAbstract {
   @GuardedBy("this")
   private Map<String, String> filesRunDateMap = new HashMap<>();
 
+  @GuardedBy("this")
+  private DirectoryWatcher watcher; // if not null, scan() applies the changes it reports instead of rescanning
+  @GuardedBy("this")
+  private boolean watchRequested; // watchForChanges() succeeded once, so scan() makes a new watcher when needed
+  @GuardedBy("this")
+  private boolean watcherIsCurrent; // map is up to date with everything before the watcher's pending events
+  @GuardedBy("this")
+  private final Set<String> tooRecent = new HashSet<>(); // new files left out by olderThan, checked again on scan
+  @GuardedBy("this")
+  private boolean fromSnapshot; // map came from an InventorySnapshot, and has not been scanned since
+
   private MFileCollectionManager(String collectionName, String collectionSpec, String olderThan, Formatter errlog) {
     super(collectionName, null);
     CollectionSpecParser sp = new CollectionSpecParser(collectionSpec, errlog);
@@ -340,6 +357,66 @@ public class MFileCollectionManager extends CollectionManagerAbstract {
     this.changeChecker = strat;
   }
 
+  /**
+   * Keep the collection up to date from file system events, so that scan() only looks at the files that changed,
+   * instead of listing the whole collection. The next scan() lists the whole collection once more.
+   * Only for collections of local files. Whenever events have been lost, scan() lists the whole collection,
+   * and starts over with a new watcher; until that can be made, every scan() lists the whole collection.
+   *
+   * @return false if the directories cannot be watched, and full scans will be used.
+   */
+  public synchronized boolean watchForChanges() {
+    if (watcher != null)
+      return true;
+    getController();
+    if (!hasScans() || !(controller instanceof ControllerOS || controller instanceof ControllerOS7))
+      return false;
+
+    watchRequested = startWatcher();
+    return watchRequested;
+  }
+
+  // watch all the directory scans with a new watcher. the map is current with it after the next full scan.
+  private boolean startWatcher() {
+    try {
+      watcher = new DirectoryWatcher();
+      for (CollectionConfig mc : scanList) {
+        watcher.register(Paths.get(getLocalDirectory(mc)), mc.wantSubdirs());
+      }
+      watcherIsCurrent = false;
+      logger.debug("{}: watching {} directories", collectionName, watcher.getNumberOfDirectories());
+      return true;
+
+    } catch (IOException | RuntimeException e) {
+      logger.warn("{}: cannot watch for changes, will rescan", collectionName, e);
+      closeWatcher();
+      return false;
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    watchRequested = false;
+    closeWatcher();
+  }
+
+  private void closeWatcher() {
+    if (watcher == null)
+      return;
+    try {
+      watcher.close();
+    } catch (IOException ioe) {
+      logger.warn("{}: failed to close the DirectoryWatcher", collectionName, ioe);
+    }
+    watcher = null;
+    watcherIsCurrent = false;
+  }
+
+  private static String getLocalDirectory(CollectionConfig mc) {
+    String path = mc.getDirectoryName();
+    return path.startsWith("file:") ? path.substring(5) : path;
+  }
+
   @Override
   public synchronized boolean scan(boolean sendEvent) throws IOException {
     if (map == null) {
@@ -349,25 +426,44 @@ public class MFileCollectionManager extends CollectionManagerAbstract {
       return changed;
     }
 
-    long olderThan = (olderThanInMsecs <= 0) ? -1 : System.currentTimeMillis() - olderThanInMsecs; // new files must be
-                                                                                                   // older than this.
+    if (watcher != null && watcherIsCurrent) {
+      DirectoryWatcher.Changes changes = watcher.pollChanges();
+      if (changes != null)
+        return scanChanges(changes, sendEvent);
+      // events were lost, or a new directory could not be watched: start over with a new watcher, then rescan
+      logger.info("{}: file system events were lost, rescanning", collectionName);
+      closeWatcher();
+    }
+    if (watchRequested && watcher == null && hasScans())
+      startWatcher(); // if this fails, try again on the next scan
 
     // rescan
-    Map<String, MFile> oldMap = map;
     Map<String, MFile> newMap = new HashMap<>();
-
     if ((!hasScans())) {
       // if no directory scans, the map of files should not change
       // but we should still make a new map to see if the files
       // have been updated since the last recheck
-      for (String file : oldMap.keySet()) {
+      for (String file : map.keySet()) {
         newMap.put(file, MFiles.create(file));
       }
     } else {
       // we have a directory scan, so scan it
       reallyScan(newMap);
+      watcherIsCurrent = (watcher != null);
     }
 
+    return updateMap(newMap, sendEvent);
+  }
+
+  // replace the map with the result of a full scan, and see what changed. only called from synch methods
+  private boolean updateMap(Map<String, MFile> newMap, boolean sendEvent) {
+    long olderThan = (olderThanInMsecs <= 0) ? -1 : System.currentTimeMillis() - olderThanInMsecs; // new files must be
+                                                                                                   // older than this.
+    Map<String, MFile> oldMap = map;
+    List<String> changedFiles = new ArrayList<>();
+    tooRecent.clear();
+    fromSnapshot = false;
+
     // replace with previous datasets if they exist
     int nnew = 0;
     int nchange = 0;
@@ -379,6 +475,7 @@ public class MFileCollectionManager extends CollectionManagerAbstract {
       if (oldFile != null) {
         if (newFile.getLastModified() > oldFile.getLastModified()) { // the file has changed since last time
           nchange++;
+          changedFiles.add(path);
           logger.debug("{}: scan found Dataset changed= {}", collectionName, path);
 
         } else if (changeChecker != null && changeChecker.hasntChangedSince(newFile, oldFile.getLastModified())) { // the
@@ -387,14 +484,17 @@ public class MFileCollectionManager extends CollectionManagerAbstract {
                                                                                                                    // hasn't
                                                                                                                    // changed
           nchange++;
+          changedFiles.add(path);
           logger.debug("{}: scan changeChecker found Dataset changed= {}", collectionName, path);
         }
       } else { // oldFile doesnt exist
         if (olderThan > 0 && newFile.getLastModified() > olderThan) { // the file is too new
           iter.remove();
+          tooRecent.add(path);
           logger.debug("{}: scan found new Dataset but its too recently modified = {}", collectionName, path);
         } else {
           nnew++;
+          changedFiles.add(path);
           logger.debug("{}: scan found new Dataset= {} ", collectionName, path);
         }
       }
@@ -407,6 +507,7 @@ public class MFileCollectionManager extends CollectionManagerAbstract {
       MFile newDataset = newMap.get(path);
       if (newDataset == null) {
         ndelete++;
+        changedFiles.add(path);
         logger.debug("{}: scan found deleted Dataset={}", collectionName, path);
       }
     }
@@ -425,12 +526,104 @@ public class MFileCollectionManager extends CollectionManagerAbstract {
     }
 
     if (changed && sendEvent) { // event is processed on this thread
-      sendEvent(new TriggerEvent(this, CollectionUpdateType.always)); // watch out for infinite loop
+      sendEvent(new TriggerEvent(this, CollectionUpdateType.always, changedFiles)); // watch out for infinite loop
     }
 
     return changed;
   }
 
+  // apply the changes reported by the watcher to the current map. only called from synch methods
+  private boolean scanChanges(DirectoryWatcher.Changes changes, boolean sendEvent) {
+    long olderThan = (olderThanInMsecs <= 0) ? -1 : System.currentTimeMillis() - olderThanInMsecs; // new files must be
+                                                                                                   // older than this.
+    Set<Path> changedPaths = changes.getPaths();
+    for (String path : tooRecent)
+      changedPaths.add(Paths.get(path));
+    tooRecent.clear();
+
+    int nnew = 0;
+    int nchange = 0;
+    int ndelete = 0;
+    List<String> changedFiles = new ArrayList<>();
+
+    // the files in a directory that was deleted or moved away
+    for (Path deletedDir : changes.getDeletedDirectories()) {
+      String dirPrefix = StringUtil2.replace(deletedDir.toString(), '\\', "/") + "/";
+      Iterator<MFile> iter = map.values().iterator();
+      while (iter.hasNext()) {
+        String path = iter.next().getPath();
+        if (path.startsWith(dirPrefix)) {
+          iter.remove();
+          ndelete++;
+          changedFiles.add(path);
+          logger.debug("{}: scan found deleted Dataset={}", collectionName, path);
+        }
+      }
+    }
+
+    for (Path changedPath : changedPaths) {
+      String path = StringUtil2.replace(changedPath.toString(), '\\', "/");
+      CollectionConfig mc = findScan(changedPath);
+      MFile newFile = (mc == null) ? null : MFiles.create(path);
+      if (newFile != null && newFile.isDirectory())
+        continue; // the files in a new directory are reported separately
+
+      if (newFile == null || !mc.accept(newFile)) { // deleted, or not part of the collection
+        if (map.remove(path) != null) {
+          ndelete++;
+          changedFiles.add(path);
+          logger.debug("{}: scan found deleted Dataset={}", collectionName, path);
+        }
+        continue;
+      }
+
+      newFile.setAuxInfo(mc.getAuxInfo());
+      MFile oldFile = map.get(path);
+      if (oldFile == null) {
+        if (olderThan > 0 && newFile.getLastModified() > olderThan) { // the file is too new
+          tooRecent.add(path);
+          logger.debug("{}: scan found new Dataset but its too recently modified = {}", collectionName, path);
+          continue;
+        }
+        nnew++;
+        logger.debug("{}: scan found new Dataset= {} ", collectionName, path);
+
+      } else if (newFile.getLastModified() > oldFile.getLastModified()
+          || (changeChecker != null && changeChecker.hasntChangedSince(newFile, oldFile.getLastModified()))) {
+        nchange++;
+        logger.debug("{}: scan found Dataset changed= {}", collectionName, path);
+
+      } else {
+        continue; // eg an event for a change we already saw
+      }
+      map.put(path, newFile);
+      changedFiles.add(path);
+    }
+
+    boolean changed = (nnew > 0) || (ndelete > 0) || (nchange > 0);
+    this.lastScanned = System.currentTimeMillis();
+    if (changed) {
+      if (logger.isInfoEnabled())
+        logger.info("{}: watch found changes {}: nnew={}, nchange={}, ndelete={}", collectionName,
+            CalendarDate.present(), nnew, nchange, ndelete);
+      this.lastChanged.set(this.lastScanned);
+      if (sendEvent) // event is processed on this thread
+        sendEvent(new TriggerEvent(this, CollectionUpdateType.always, changedFiles));
+    }
+    return changed;
+  }
+
+  // the directory scan that path belongs to, or null if none
+  @Nullable
+  private CollectionConfig findScan(Path path) {
+    for (CollectionConfig mc : scanList) {
+      Path dir = Paths.get(getLocalDirectory(mc));
+      if (mc.wantSubdirs() ? path.startsWith(dir) && !path.equals(dir) : dir.equals(path.getParent()))
+        return mc;
+    }
+    return null;
+  }
+
   public void setFiles(Iterable<MFile> files) {
     Map<String, MFile> newMap = new HashMap<>();
     for (MFile file : files)
@@ -484,6 +677,50 @@ public class MFileCollectionManager extends CollectionManagerAbstract {
     return filesRunDateMap;
   }
 
+  /**
+   * Use the files of a snapshot as the collection, if it has not been scanned yet.
+   * Files that are not in one of the directory scans are left out.
+   */
+  @Override
+  protected synchronized void setSnapshotFiles(List<MFile> files) {
+    if (map != null || !hasScans())
+      return;
+    Map<String, MFile> newMap = new HashMap<>();
+    for (MFile mfile : files) {
+      CollectionConfig mc = findScan(Paths.get(mfile.getPath()));
+      if (mc != null && mc.accept(mfile)) {
+        mfile.setAuxInfo(mc.getAuxInfo());
+        newMap.put(mfile.getPath(), mfile);
+      }
+    }
+    map = newMap;
+    fromSnapshot = true;
+    this.lastScanned = System.currentTimeMillis();
+    this.lastChanged.set(this.lastScanned);
+    logger.debug("{} : snapshot has n datasets = {} ", collectionName, map.size());
+  }
+
+  /**
+   * Scan the directories, and replace the files from the snapshot with what was found.
+   * The snapshot is used by other threads until the scan is done. A TriggerEvent is sent if anything changed.
+   */
+  @Override
+  public boolean reconcileSnapshot() throws IOException {
+    synchronized (this) {
+      if (!fromSnapshot)
+        return false;
+    }
+
+    Map<String, MFile> newMap = new HashMap<>();
+    reallyScan(newMap); // not under the lock
+
+    synchronized (this) {
+      if (!fromSnapshot) // scanned in the meantime
+        return false;
+      return updateMap(newMap, true);
+    }
+  }
+
   // only called from synch methods
   private boolean scanFirstTime() throws IOException {
     Map<String, MFile> newMap = new HashMap<>();
@@ -493,6 +730,8 @@ public class MFileCollectionManager extends CollectionManagerAbstract {
     }
 
     reallyScan(newMap);
+    watcherIsCurrent = (watcher != null);
+    tooRecent.clear();
     // deleteOld(newMap); // ?? hmmmmm LOOK this seems wrong; maintainence in background ?? generally collection doesnt
     // exist
 
@@ -505,6 +744,7 @@ public class MFileCollectionManager extends CollectionManagerAbstract {
         String path = newFile.getPath();
         if (newFile.getLastModified() > olderThan) { // the file is too new
           iter.remove();
+          tooRecent.add(path);
           logger.debug("{}: scan found new Dataset but its too recently modified = {}", collectionName, path);
         }
       }
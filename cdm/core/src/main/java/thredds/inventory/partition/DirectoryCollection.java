@@ -99,7 +99,8 @@ public class DirectoryCollection extends CollectionAbstract {
 
   @Override
   public CloseableIterator<MFile> getFileIterator() throws IOException {
-    return new MyFileIterator(collectionDir);
+    CloseableIterator<MFile> snapshot = getSnapshotIterator();
+    return (snapshot != null) ? snapshot : new MyFileIterator(collectionDir);
   }
 
   @Override
@@ -190,13 +191,19 @@ public class DirectoryCollection extends CollectionAbstract {
   public void iterateOverMFileCollection(Visitor visit) throws IOException {
     if (debug)
       System.out.printf(" iterateOverMFileCollection %s ", collectionDir);
+    List<MFile> snapshot = snapshotFiles;
+    if (snapshot != null) {
+      snapshot.forEach(visit::consume);
+      return;
+    }
+
     int count = 0;
     try (DirectoryStream<Path> ds = Files.newDirectoryStream(collectionDir, new MyStreamFilter())) {
       for (Path p : ds) {
         try {
           BasicFileAttributes attr = Files.readAttributes(p, BasicFileAttributes.class);
           if (!attr.isDirectory())
-            visit.consume(new MFileOS7(p));
+            visit.consume(new MFileOS7(p, attr));
           if (debug)
             System.out.printf("%d ", count++);
         } catch (IOException ioe) {
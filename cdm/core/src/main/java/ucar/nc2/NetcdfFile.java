@@ -6,6 +6,7 @@ package ucar.nc2;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -750,6 +751,27 @@ public class NetcdfFile implements FileCacheable, Closeable {
     this.cache = cache;
   }
 
+  /**
+   * A rough estimate of the memory used by the metadata and the cached data of this file, and the read buffer
+   * of the open file. Used by a FileCacheWeighted.
+   */
+  @Override
+  public long getEstimatedMemory() {
+    long size = (iosp == null) ? 0 : FILE_BUFFER_BYTES;
+    size += (long) allDimensions.size() * DIMENSION_BYTES;
+    size += (long) allAttributes.size() * ATTRIBUTE_BYTES;
+    for (Variable v : allVariables) {
+      size += VARIABLE_BYTES + (long) Iterables.size(v.attributes()) * ATTRIBUTE_BYTES + v.getCachedSizeBytes();
+    }
+    return size;
+  }
+
+  // rough sizes of the objects in the heap, for getEstimatedMemory()
+  private static final long FILE_BUFFER_BYTES = 8192;
+  private static final long DIMENSION_BYTES = 100;
+  private static final long ATTRIBUTE_BYTES = 200;
+  private static final long VARIABLE_BYTES = 1000;
+
   /** Show debug / underlying implementation details */
   public String getDetailInfo() {
     Formatter f = new Formatter();
@@ -1123,6 +1123,12 @@ public class Variable implements VariableSimpleIF, ProxyReader {
     return !(this instanceof Structure) && !isVariableLength && (getSize() * getElementSize() < getSizeToCache());
   }
 
+  /** Size in bytes of the data held in memory, from the builder or cached after a read. */
+  long getCachedSizeBytes() {
+    ucar.array.Array<?> data = cache.getData();
+    return (data == null) ? 0 : data.length() * getElementSize();
+  }
+
   /** Remove any cached values (but not srcData) */
   public void invalidateCache() {
     cache.setCachedData(null);
@@ -22,6 +22,7 @@ import ucar.nc2.iosp.IOServiceProvider;
 import ucar.nc2.util.CancelTask;
 import ucar.nc2.internal.cache.FileCache;
 import ucar.nc2.internal.cache.FileCacheIF;
+import ucar.nc2.internal.cache.FileCacheWeighted;
 import ucar.nc2.internal.cache.FileFactory;
 
 /**
@@ -73,6 +74,20 @@ public class NetcdfDatasets {
     netcdfFileCache = new FileCache("NetcdfFileCache ", minElementsInMemory, maxElementsInMemory, hardLimit, period);
   }
 
+  /**
+   * Enable file caching bounded by the estimated memory of the files, as well as their number.
+   * call this before calling acquireFile().
+   * When application terminates, call NetcdfDataset.shutdown().
+   *
+   * @param maxElementsInMemory trigger a cleanup if it goes over this number.
+   * @param maxMemory (bytes) if the files use more than this, a cleanup is done in the calling thread. Must be > 0.
+   * @param period (secs) do periodic cleanups every this number of seconds.
+   * @see ucar.nc2.internal.cache.FileCacheWeighted
+   */
+  public static synchronized void initNetcdfFileCacheWeighted(int maxElementsInMemory, long maxMemory, int period) {
+    netcdfFileCache = new FileCacheWeighted("NetcdfFileCache ", maxElementsInMemory, maxMemory, period);
+  }
+
   public static synchronized void disableNetcdfFileCache() {
     if (null != netcdfFileCache)
       netcdfFileCache.disable();
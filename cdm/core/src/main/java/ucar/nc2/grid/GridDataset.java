@@ -11,7 +11,11 @@ import ucar.nc2.constants.FeatureType;
 
 import java.io.Closeable;
 import java.util.Formatter;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /** A Dataset that contains Grids. */
 public interface GridDataset extends Closeable {
@@ -32,6 +36,49 @@ public interface GridDataset extends Closeable {
 
   Optional<Grid> findGrid(String name);
 
+  /**
+   * Read the same subset of several grids. The grids are read one after another by a single task on the executor,
+   * and each future is completed as soon as its grid has been read. If a grid cannot be read, its future completes
+   * exceptionally, and the other grids are still read.
+   * Implementations may resolve the subset once for grids that share a coordinate system, and order the reads to
+   * follow the layout of the data. They may also read a grid that is listed more than once only once, and return the
+   * same future for it each time, so that cancelling one cancels the others.
+   * <p>
+   * No I/O is merged: each grid is still a separate read of its own variable, even when the grids share their record
+   * or time ranges. What is saved is the per-grid subsetting, and the cost of a task per grid.
+   *
+   * @param grids read these grids, which must belong to this dataset.
+   * @param subset the same subset is read from each grid.
+   * @param executor the reads are made by a task running on this executor.
+   * @return a future for each grid, in the same order as grids.
+   */
+  default ImmutableList<CompletableFuture<GridReferencedArray>> readData(List<Grid> grids, GridSubset subset,
+      Executor executor) {
+    ImmutableList.Builder<CompletableFuture<GridReferencedArray>> builder = ImmutableList.builder();
+    for (int i = 0; i < grids.size(); i++) {
+      builder.add(new CompletableFuture<>());
+    }
+    ImmutableList<CompletableFuture<GridReferencedArray>> futures = builder.build();
+    try {
+      executor.execute(() -> {
+        for (int i = 0; i < grids.size(); i++) {
+          CompletableFuture<GridReferencedArray> future = futures.get(i);
+          if (future.isDone()) { // cancelled
+            continue;
+          }
+          try {
+            future.complete(grids.get(i).readData(subset));
+          } catch (Exception e) {
+            future.completeExceptionally(e);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      futures.forEach(future -> future.completeExceptionally(e));
+    }
+    return futures;
+  }
+
   default void toString(Formatter buf) {
     buf.format("name = %s%n", getName());
     buf.format("location = %s%n", getLocation());
@@ -8,6 +8,7 @@ import ucar.nc2.dataset.DatasetUrl;
 import ucar.nc2.time.CalendarDate;
 import ucar.nc2.time.CalendarDateFormatter;
 import ucar.nc2.util.CancelTask;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 import java.io.IOException;
@@ -15,6 +16,7 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Keep cache of open FileCacheable objects, for example NetcdfFile.
@@ -113,11 +115,15 @@ public class FileCache implements FileCacheIF {
 
   protected final ConcurrentHashMap<Object, CacheElement> cache; // unique files (by key, often = filename)
   protected final ConcurrentHashMap<FileCacheable, CacheElement.CacheFile> files; // list of all files in the cache
+  protected final AtomicLong totalWeight = new AtomicLong(); // sum of the weights of the files
 
   // debugging and stats
   protected final AtomicInteger cleanups = new AtomicInteger(); // how many cleanups
   protected final AtomicInteger hits = new AtomicInteger();
   protected final AtomicInteger miss = new AtomicInteger();
+  protected final AtomicInteger evictions = new AtomicInteger(); // files closed by cleanup
+  protected final AtomicLong loadNanos = new AtomicLong(); // total time spent opening files
+  protected volatile FileCacheMetrics metrics = FileCacheMetrics.NONE;
   protected ConcurrentHashMap<Object, Tracker> track;
   protected boolean trackAll;
 
@@ -196,6 +202,11 @@ public class FileCache implements FileCacheIF {
     this.disabled.set(false);
   }
 
+  /** Send the cache events to this listener, for monitoring. */
+  public void setMetrics(FileCacheMetrics metrics) {
+    this.metrics = (metrics == null) ? FileCacheMetrics.NONE : metrics;
+  }
+
   /**
    * Acquire a FileCacheable, and lock it so no one else can use it.
    * call FileCacheable.close when done.
@@ -255,16 +266,27 @@ public class FileCache implements FileCacheIF {
     FileCacheable ncfile = acquireCacheOnly(hashKey);
     if (ncfile != null) {
       hits.incrementAndGet();
+      metrics.recordHit(hashKey);
       if (t != null)
         t.hit++;
       return ncfile;
     }
     miss.incrementAndGet();
+    metrics.recordMiss(hashKey);
     if (t != null)
       t.miss++;
 
     // open the file
-    ncfile = factory.open(location, buffer_size, cancelTask, spiObject);
+    long start = System.nanoTime();
+    try {
+      ncfile = factory.open(location, buffer_size, cancelTask, spiObject);
+    } catch (IOException | RuntimeException e) {
+      metrics.recordLoad(hashKey, System.nanoTime() - start, false);
+      throw e;
+    }
+    long took = System.nanoTime() - start;
+    loadNanos.addAndGet(took);
+    metrics.recordLoad(hashKey, took, true);
     if (cacheLog.isDebugEnabled())
       cacheLog.debug("FileCache " + name + " acquire " + hashKey + " " + ncfile.getLocation());
     if (debugPrint)
@@ -304,12 +326,11 @@ public class FileCache implements FileCacheIF {
     boolean needSoft = false;
     synchronized (hasScheduled) {
       if (!hasScheduled.get()) {
-        int count = files.size();
-        if ((count > hardLimit) && (hardLimit > 0)) {
+        if (isOverHardLimit()) {
           needHard = true;
           hasScheduled.getAndSet(true); // tell other threads not to schedule another cleanup
 
-        } else if ((count > softLimit) && (softLimit > 0)) { // && wantsCleanup) { //
+        } else if (isOverSoftLimit()) {
           hasScheduled.getAndSet(true); // tell other threads not to schedule another cleanup
           needSoft = true;
         }
@@ -333,6 +354,21 @@ public class FileCache implements FileCacheIF {
     return ncfile;
   }
 
+  /** If true, a cleanup is done in the calling thread before acquire() returns. */
+  protected boolean isOverHardLimit() {
+    return (hardLimit > 0) && (files.size() > hardLimit);
+  }
+
+  /** If true, a cleanup is scheduled in the background thread. */
+  protected boolean isOverSoftLimit() {
+    return (softLimit > 0) && (files.size() > softLimit);
+  }
+
+  /** The weight of a file in the cache, recomputed each time it is released. Here, every file weighs 1. */
+  protected long weigh(FileCacheable ncfile) {
+    return 1;
+  }
+
   /**
    * Try to find a file in the cache.
    *
@@ -394,7 +430,7 @@ public class FileCache implements FileCacheIF {
   // LOOK should you remove the entire CacheElement ?
   private void remove(CacheElement.CacheFile want) {
     want.remove();
-    files.remove(want.ncfile);
+    removeFile(want.ncfile);
     try {
       want.ncfile.setFileCache(null); // unhook the caching
       want.ncfile.close();
@@ -422,7 +458,7 @@ public class FileCache implements FileCacheIF {
     synchronized (wantCacheElem) { // synch in order to traverse the list
       for (CacheElement.CacheFile want : wantCacheElem.list) {
         // LOOK can we use remove(want); ??
-        files.remove(want.ncfile);
+        removeFile(want.ncfile);
         try {
           want.ncfile.setFileCache(null); // unhook the caching
           want.ncfile.close(); // really close the file
@@ -467,6 +503,7 @@ public class FileCache implements FileCacheIF {
       }
       file.lastAccessed = System.currentTimeMillis();
       file.countAccessed++;
+      file.setWeight(weigh(ncfile));
 
       try {
         file.ncfile.release();
@@ -525,7 +562,8 @@ public class FileCache implements FileCacheIF {
     if (force) {
       cache.clear(); // deletes everything from the cache
       deleteList.addAll(files.values()); // add everything to the delete list
-      files.clear();
+      for (CacheElement.CacheFile file : deleteList)
+        removeFile(file.ncfile);
       // counter.set(0);
 
     } else {
@@ -538,18 +576,11 @@ public class FileCache implements FileCacheIF {
           file.remove(); // remove from the containing CacheElement
           deleteList.add(file);
           iter.remove();
+          file.uncount();
         }
       }
 
-      // remove empty cache elements
-      synchronized (cache) {
-        for (CacheElement elem : cache.values()) {
-          synchronized (elem) {
-            if (elem.list.isEmpty())
-              cache.remove(elem.hashKey);
-          }
-        }
-      }
+      removeEmptyElements();
     }
 
     // close all files in deleteList
@@ -626,8 +657,8 @@ public class FileCache implements FileCacheIF {
    * @param format add to this
    */
   public void showStats(Formatter format) {
-    format.format("  hits= %d miss= %d nfiles= %d elems= %d%n", hits.get(), miss.get(), files.size(),
-        cache.values().size());
+    format.format("  hits= %d miss= %d nfiles= %d elems= %d evictions= %d loadTime= %d msecs%n", hits.get(),
+        miss.get(), files.size(), cache.values().size(), evictions.get(), loadNanos.get() / 1000 / 1000);
   }
 
   public void showTracking(Formatter format) {
@@ -750,32 +781,11 @@ public class FileCache implements FileCacheIF {
               + maxElements + " due to locked files; currently at = " + (size - count));
       }
 
-      // remove empty cache elements
-      synchronized (cache) {
-        for (CacheElement elem : cache.values()) {
-          synchronized (elem) {
-            if (elem.list.isEmpty())
-              cache.remove(elem.hashKey);
-          }
-        }
-      }
+      removeEmptyElements();
 
       // now actually close the files
       long start = System.currentTimeMillis();
-      for (CacheElement.CacheFile file : deleteList) {
-        // counter.decrementAndGet();
-        if (null == files.remove(file.ncfile)) {
-          if (cacheLog.isDebugEnabled())
-            cacheLog.debug(" FileCache {} cleanup failed to remove {}%n", name, file.ncfile.getLocation());
-        }
-        try {
-          file.ncfile.setFileCache(null);
-          file.ncfile.close();
-          file.ncfile = null; // help the gc
-        } catch (IOException e) {
-          log.error("FileCache " + name + " close failed on " + file.getCacheName());
-        }
-      }
+      closeEvicted(deleteList);
 
       long took = System.currentTimeMillis() - start;
       if (cacheLog.isDebugEnabled())
@@ -790,6 +800,46 @@ public class FileCache implements FileCacheIF {
     }
   }
 
+  /** Remove a file from the files map, and its weight from the total. */
+  @Nullable
+  protected CacheElement.CacheFile removeFile(FileCacheable ncfile) {
+    CacheElement.CacheFile file = files.remove(ncfile);
+    if (file != null)
+      file.uncount();
+    return file;
+  }
+
+  /** Remove the cache elements that no longer have any files. */
+  protected void removeEmptyElements() {
+    synchronized (cache) {
+      for (CacheElement elem : cache.values()) {
+        synchronized (elem) {
+          if (elem.list.isEmpty())
+            cache.remove(elem.hashKey);
+        }
+      }
+    }
+  }
+
+  /** Close files that cleanup has locked and removed from their CacheElement. */
+  protected void closeEvicted(List<CacheElement.CacheFile> deleteList) {
+    for (CacheElement.CacheFile file : deleteList) {
+      if (null == removeFile(file.ncfile)) {
+        if (cacheLog.isDebugEnabled())
+          cacheLog.debug(" FileCache {} cleanup failed to remove {}%n", name, file.ncfile.getLocation());
+      }
+      evictions.incrementAndGet();
+      metrics.recordEviction(file.getHashKey(), file.weight);
+      try {
+        file.ncfile.setFileCache(null);
+        file.ncfile.close();
+        file.ncfile = null; // help the gc
+      } catch (IOException e) {
+        log.error("FileCache " + name + " close failed on " + file.getCacheName());
+      }
+    }
+  }
+
   // not private for testing
   class CacheElement {
     @GuardedBy("this")
@@ -805,6 +855,7 @@ public class FileCache implements FileCacheIF {
           cacheLog.error("files already has " + hashKey + " " + name);
       }
       files.put(ncfile, file);
+      file.count();
       if (cacheLog.isDebugEnabled())
         cacheLog.debug("CacheElement add to cache " + hashKey + " " + name);
     }
@@ -819,6 +870,7 @@ public class FileCache implements FileCacheIF {
           cacheLog.error("files (2) already has " + hashKey + " " + name);
       }
       files.put(ncfile, file);
+      file.count();
       return file;
     }
 
@@ -832,11 +884,15 @@ public class FileCache implements FileCacheIF {
       int countAccessed;
       long lastModified;
       long lastAccessed;
+      volatile long weight;
+      @GuardedBy("this")
+      private boolean counted; // weight is included in totalWeight
 
       private CacheFile(FileCacheable ncfile) {
         this.ncfile = ncfile;
         this.lastModified = ncfile.getLastModified();
         this.lastAccessed = System.currentTimeMillis();
+        this.weight = weigh(ncfile);
 
         ncfile.setFileCache(FileCache.this);
 
@@ -846,10 +902,33 @@ public class FileCache implements FileCacheIF {
           System.out.printf("  FileCache %s add to cache %s (hash %d)%n", name, hashKey, this.hashCode());
       }
 
+      // the weight may change while the file is in the cache, and the file may be removed concurrently
+      synchronized void setWeight(long weight) {
+        if (counted)
+          totalWeight.addAndGet(weight - this.weight);
+        this.weight = weight;
+      }
+
+      synchronized void count() {
+        if (!counted)
+          totalWeight.addAndGet(weight);
+        counted = true;
+      }
+
+      synchronized void uncount() {
+        if (counted)
+          totalWeight.addAndGet(-weight);
+        counted = false;
+      }
+
       String getCacheName() {
         return ncfile.getLocation();
       }
 
+      Object getHashKey() {
+        return hashKey;
+      }
+
       void remove() {
         synchronized (CacheElement.this) {
           if (!list.remove(this))
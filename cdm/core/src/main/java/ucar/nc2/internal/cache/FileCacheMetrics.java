@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 1998-2020 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.internal.cache;
+
+/**
+ * Listens to the events of a FileCache, for example to export them to a monitoring system.
+ * Methods are called in the thread that acquires or cleans up the cache, so they must be thread safe and fast.
+ * The default methods do nothing, override the ones you need.
+ *
+ * @see FileCache#setMetrics(FileCacheMetrics)
+ */
+public interface FileCacheMetrics {
+  FileCacheMetrics NONE = new FileCacheMetrics() {};
+
+  /** An unlocked file was found in the cache. */
+  default void recordHit(Object hashKey) {}
+
+  /** No unlocked file was found in the cache, so one will be opened. */
+  default void recordMiss(Object hashKey) {}
+
+  /**
+   * A file was opened after a miss.
+   *
+   * @param hashKey the cache key
+   * @param nanos how long it took to open
+   * @param success false if the open threw an exception
+   */
+  default void recordLoad(Object hashKey, long nanos, boolean success) {}
+
+  /**
+   * A file was closed by a cleanup to keep the cache under its limits.
+   *
+   * @param hashKey the cache key
+   * @param weight the weight of the file, its estimated memory in a FileCacheWeighted, otherwise 1.
+   */
+  default void recordEviction(Object hashKey, long weight) {}
+}
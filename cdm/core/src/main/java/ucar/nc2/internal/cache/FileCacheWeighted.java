@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 1998-2020 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.internal.cache;
+
+import com.google.common.base.Preconditions;
+import ucar.nc2.dataset.DatasetUrl;
+import ucar.nc2.time.CalendarDate;
+import ucar.nc2.util.CancelTask;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Formatter;
+import java.util.List;
+
+/**
+ * A FileCache bounded by the estimated memory of its files, as well as by their number.
+ * A GribCollection that uses hundreds of MB and a small netCDF-3 file no longer count the same.
+ * <p/>
+ * The weight of a file is {@link FileCacheable#getEstimatedMemory()}, recomputed each time the file is released,
+ * since files may read more of their metadata as they are used.
+ * When the total weight goes over maxMemory, the cache is cleaned up in the calling thread; when the number of files
+ * goes over maxElements, a cleanup is scheduled in the background. A cleanup closes unlocked files until both are
+ * under 90% of their limit.
+ * <p/>
+ * Eviction is frequency aware: the files whose keys have been acquired least often recently are closed first,
+ * and the least recently used among those. Frequencies are remembered after a file is closed, so a burst of files that
+ * are opened only once does not push out the files that are used all the time.
+ *
+ * @see FileCache
+ */
+@ThreadSafe
+public class FileCacheWeighted extends FileCache {
+  private static final double EVICT_TO = 0.9; // fraction of the limits that cleanup brings the cache down to
+  private static final long UNKNOWN_WEIGHT = 100 * 1000; // for files that dont estimate their memory
+
+  private final int maxElements;
+  private final long maxMemory;
+  private final FrequencySketch sketch;
+
+  /**
+   * Constructor.
+   *
+   * @param name of file cache
+   * @param maxElements if > 0, schedule a cleanup if there are more than this many files.
+   * @param maxMemory cleanup in the calling thread if the estimated memory of the files is more than this (bytes),
+   *        must be > 0.
+   * @param period if > 0, do periodic cleanups every this number of seconds.
+   */
+  public FileCacheWeighted(String name, int maxElements, long maxMemory, int period) {
+    super(name, 0, checkLimits(maxElements, maxMemory), -1, period);
+    this.maxElements = maxElements;
+    this.maxMemory = maxMemory;
+    this.sketch = new FrequencySketch(maxElements > 0 ? maxElements : 1000);
+  }
+
+  // check before the superclass schedules any cleanups
+  private static int checkLimits(int maxElements, long maxMemory) {
+    Preconditions.checkArgument(maxMemory > 0, "FileCacheWeighted maxMemory must be > 0, was %s", maxMemory);
+    return Math.max(maxElements, 0);
+  }
+
+  @Override
+  public FileCacheable acquire(FileFactory factory, Object hashKey, DatasetUrl location, int buffer_size,
+      CancelTask cancelTask, Object spiObject) throws IOException {
+    if (null == hashKey)
+      hashKey = location.getTrueurl();
+    if (null != hashKey)
+      sketch.increment(hashKey);
+    return super.acquire(factory, hashKey, location, buffer_size, cancelTask, spiObject);
+  }
+
+  @Override
+  protected long weigh(FileCacheable ncfile) {
+    long size = ncfile.getEstimatedMemory();
+    return (size < 0) ? UNKNOWN_WEIGHT : size;
+  }
+
+  /** The estimated memory of all the files in the cache. */
+  public long getWeight() {
+    return totalWeight.get();
+  }
+
+  public long getMaxMemory() {
+    return maxMemory;
+  }
+
+  @Override
+  protected boolean isOverHardLimit() {
+    return getWeight() > maxMemory;
+  }
+
+  @Override
+  protected boolean isOverSoftLimit() {
+    return (maxElements > 0) && (files.size() > maxElements);
+  }
+
+  /**
+   * Close unlocked files, least frequently used first, until the cache is under 90% of its limits.
+   * The argument is ignored, the limits are the ones given to the constructor.
+   */
+  @Override
+  synchronized void cleanup(int unused) {
+    try {
+      long weight = getWeight();
+      int size = files.size();
+      long wantWeight = (long) (EVICT_TO * maxMemory);
+      int wantSize = (maxElements > 0) ? (int) (EVICT_TO * maxElements) : Integer.MAX_VALUE;
+      if (weight <= wantWeight && size <= wantSize)
+        return;
+
+      if (cacheLog.isDebugEnabled())
+        cacheLog.debug("FileCacheWeighted {} cleanup started at {} for weight={} size={}", name,
+            CalendarDate.present(), weight, size);
+      cleanups.incrementAndGet();
+
+      List<Candidate> unlockedFiles = new ArrayList<>();
+      for (CacheElement.CacheFile file : files.values()) {
+        if (!file.isLocked.get())
+          unlockedFiles.add(new Candidate(file, sketch.frequency(file.getHashKey())));
+      }
+      Collections.sort(unlockedFiles);
+
+      List<CacheElement.CacheFile> deleteList = new ArrayList<>();
+      for (Candidate candidate : unlockedFiles) {
+        if (weight <= wantWeight && size <= wantSize)
+          break;
+        CacheElement.CacheFile file = candidate.cacheFile;
+        if (file.isLocked.compareAndSet(false, true)) { // lock it so it isnt used anywhere else
+          file.remove(); // remove from the containing element
+          deleteList.add(file);
+          weight -= candidate.weight;
+          size--;
+        }
+      }
+      if (weight > maxMemory) {
+        cacheLog.warn("FileCacheWeighted {} cleanup couldnt remove enough to keep under maxMemory= {} due to locked"
+            + " files; currently at = {}", name, maxMemory, weight);
+      }
+
+      removeEmptyElements();
+      closeEvicted(deleteList);
+
+      if (cacheLog.isDebugEnabled())
+        cacheLog.debug(" FileCacheWeighted {} cleanup removed={} weight={}", name, deleteList.size(), weight);
+
+    } finally {
+      // allow scheduling again
+      hasScheduled.set(false);
+    }
+  }
+
+  @Override
+  public void showStats(Formatter format) {
+    super.showStats(format);
+    format.format("  weight= %d maxMemory= %d maxElements= %d%n", getWeight(), maxMemory, maxElements);
+  }
+
+  // Freeze the values used for sorting, they may change while sorting.
+  private static class Candidate implements Comparable<Candidate> {
+    private final CacheElement.CacheFile cacheFile;
+    private final int frequency;
+    private final long lastAccessed;
+    private final long weight;
+
+    Candidate(CacheElement.CacheFile cacheFile, int frequency) {
+      this.cacheFile = cacheFile;
+      this.frequency = frequency;
+      this.lastAccessed = cacheFile.lastAccessed;
+      this.weight = cacheFile.weight;
+    }
+
+    @Override
+    public int compareTo(Candidate o) {
+      int c = Integer.compare(frequency, o.frequency);
+      return (c != 0) ? c : Long.compare(lastAccessed, o.lastAccessed);
+    }
+  }
+}
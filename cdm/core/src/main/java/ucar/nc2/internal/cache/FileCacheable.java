@@ -72,4 +72,15 @@ public interface FileCacheable {
    */
   void reacquire() throws IOException;
 
+  /**
+   * Estimate of the heap memory retained by this object while it is open, used by caches that are bounded by
+   * memory, like {@link ucar.nc2.internal.cache.FileCacheWeighted}. Must be cheap and safe to call from another
+   * thread.
+   *
+   * @return estimated size in bytes, or -1 if unknown.
+   */
+  default long getEstimatedMemory() {
+    return -1;
+  }
+
 }
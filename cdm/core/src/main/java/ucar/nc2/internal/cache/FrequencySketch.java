@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 1998-2020 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.internal.cache;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Approximate count of how often each key has been used, in a fixed amount of memory, including keys that are
+ * no longer in the cache. A count-min sketch of counters that saturate at 15, all halved after a number of
+ * increments so the counts follow recent use, as in the TinyLFU policy of the Caffeine cache.
+ */
+@ThreadSafe
+class FrequencySketch {
+  private static final int DEPTH = 4;
+  private static final int MAX_COUNT = 15;
+  private static final int MAX_WIDTH = 1 << 24;
+  private static final int[] SEEDS = {0x97cb3127, 0xc3a5c85c, 0x8ebc6af0, 0x5bd1e995};
+
+  private final byte[] table; // DEPTH rows of width counters
+  private final int width; // a power of 2
+  private final int sampleSize; // halve the counts after this many increments
+  private int additions;
+
+  /** @param maxElements expected number of keys in the cache */
+  FrequencySketch(int maxElements) {
+    int w = 16;
+    while (w < 4L * maxElements && w < MAX_WIDTH)
+      w <<= 1;
+    this.width = w;
+    this.table = new byte[DEPTH * w];
+    this.sampleSize = 10 * Math.max(16, maxElements);
+  }
+
+  synchronized void increment(Object key) {
+    int hash = spread(key.hashCode());
+    boolean added = false;
+    for (int i = 0; i < DEPTH; i++) {
+      int idx = i * width + indexOf(hash, i);
+      if (table[idx] < MAX_COUNT) {
+        table[idx]++;
+        added = true;
+      }
+    }
+    if (added && ++additions >= sampleSize)
+      reset();
+  }
+
+  /** The estimated number of recent uses of key, at most 15. */
+  synchronized int frequency(Object key) {
+    int hash = spread(key.hashCode());
+    int min = MAX_COUNT;
+    for (int i = 0; i < DEPTH; i++)
+      min = Math.min(min, table[i * width + indexOf(hash, i)]);
+    return min;
+  }
+
+  // age the counts
+  private void reset() {
+    for (int i = 0; i < table.length; i++)
+      table[i] >>= 1;
+    additions /= 2;
+  }
+
+  private int indexOf(int hash, int row) {
+    int h = (hash ^ SEEDS[row]) * 0x9e3779b9;
+    h ^= h >>> 16;
+    return h & (width - 1);
+  }
+
+  private static int spread(int h) {
+    h ^= h >>> 17;
+    h *= 0xed5eb5ab;
+    h ^= h >>> 15;
+    return h;
+  }
+}
@@ -1,5 +1,7 @@
 package ucar.nc2.internal.dataset;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -36,6 +38,13 @@ public class CoordSystemFactory {
   private static final Map<String, String> ncmlHash = new HashMap<>();
   private static boolean useMaximalCoordSys = true;
 
+  // Convention lookup cache: the Convention found for a header fingerprint, so that files with the same structure
+  // skip the isMine() search. It does not cache the coordinate systems, axes or transforms.
+  // LOOK coordinate system analysis still runs for every file: builders read coordinate values and add variables
+  // to each dataset, so their output can't be reused until they separate the structural analysis from that.
+  private static final Cache<String, ConventionMatch> conventionLookupCache =
+      CacheBuilder.newBuilder().maximumSize(1000).build();
+
   /**
    * Allow plug-ins to determine if it owns a file based on the file's Convention attribute.
    */
@@ -122,6 +131,7 @@ public class CoordSystemFactory {
   public static void registerConvention(String conventionName, CoordSystemBuilderFactory factory,
       ConventionNameOk match) {
     conventionList.add(new Convention(conventionName, factory, match));
+    conventionLookupCache.invalidateAll();
   }
 
   @Nullable
@@ -247,22 +257,44 @@ public class CoordSystemFactory {
       }
     }
     CoordSystemBuilderFactory coordSysFactory = null;
+    boolean isDefault = false;
 
-    // Try to match on convention name. Must be first in case NcML has set Convention name.
+    // A registered Convention with this exact name is found quickly.
     if (convName != null) {
-      coordSysFactory = findConventionByName(convName);
+      coordSysFactory = findRegisteredConventionByName(convName);
     }
 
-    // Try to match on isMine() TODO: why use orgFile instead of ds?
+    // Otherwise the search may call isMine() on every Convention; reuse what was found for the same header.
+    String fingerprint = null;
     if (coordSysFactory == null && ds.orgFile != null) {
-      coordSysFactory = findConventionByIsMine(ds.orgFile);
+      fingerprint = (convName == null ? "" : convName) + " " + HeaderFingerprint.compute(ds.orgFile);
+      ConventionMatch previous = conventionLookupCache.getIfPresent(fingerprint);
+      if (previous != null) {
+        coordSysFactory = previous.factory;
+        isDefault = previous.isDefault;
+      }
     }
 
-    boolean isDefault = false;
-    // if no convention class found, use the default
     if (coordSysFactory == null) {
-      coordSysFactory = new DefaultConventions.Factory();
-      isDefault = true;
+      // Try to match on convention name. Must be first in case NcML has set Convention name.
+      if (convName != null) {
+        coordSysFactory = findConventionByName(convName);
+      }
+
+      // Try to match on isMine() TODO: why use orgFile instead of ds?
+      if (coordSysFactory == null && ds.orgFile != null) {
+        coordSysFactory = findConventionByIsMine(ds.orgFile);
+      }
+
+      // if no convention class found, use the default
+      if (coordSysFactory == null) {
+        coordSysFactory = new DefaultConventions.Factory();
+        isDefault = true;
+      }
+
+      if (fingerprint != null) {
+        conventionLookupCache.put(fingerprint, new ConventionMatch(coordSysFactory, isDefault));
+      }
     }
 
     // Now process it.
@@ -352,6 +384,16 @@ public class CoordSystemFactory {
     return null;
   }
 
+  private static class ConventionMatch {
+    final CoordSystemBuilderFactory factory;
+    final boolean isDefault;
+
+    ConventionMatch(CoordSystemBuilderFactory factory, boolean isDefault) {
+      this.factory = factory;
+      this.isDefault = isDefault;
+    }
+  }
+
   private static class Convention {
     String convName;
     CoordSystemBuilderFactory factory;
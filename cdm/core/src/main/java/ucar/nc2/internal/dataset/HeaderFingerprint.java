@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 1998-2020 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.internal.dataset;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.Group;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Structure;
+import ucar.nc2.Variable;
+
+/**
+ * A hash of the structure of a file's header: its file type, groups, dimensions, variables and attributes.
+ * What usually changes between files of one collection is left out: the length of unlimited dimensions,
+ * and the values (not the names) of attributes like history and date_created.
+ * Files with the same fingerprint are recognized by the same Convention, since some Conventions check
+ * the file type in isMine().
+ */
+public class HeaderFingerprint {
+  // attributes whose values usually differ between files that have the same structure
+  private static final ImmutableSet<String> PER_FILE_ATTRIBUTES = ImmutableSet.of("history", "date_created",
+      "date_modified", "date_issued", "date_metadata_modified", "time_coverage_start", "time_coverage_end",
+      "time_coverage_duration", "id", "uuid", "tracking_id");
+  private static final char SEP = '\n';
+
+  /** Compute the fingerprint of the header of ncfile. Does not read any data. */
+  public static String compute(NetcdfFile ncfile) {
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    hasher.putUnencodedChars(Strings.nullToEmpty(ncfile.getFileTypeId())).putChar(SEP);
+    addGroup(hasher, ncfile.getRootGroup());
+    return hasher.hash().toString();
+  }
+
+  private static void addGroup(Hasher hasher, Group group) {
+    hasher.putUnencodedChars("group ").putUnencodedChars(group.getShortName()).putChar(SEP);
+    for (Dimension dim : group.getDimensions()) {
+      hasher.putUnencodedChars(dim.getShortName()).putBoolean(dim.isUnlimited()).putBoolean(dim.isVariableLength())
+          .putInt(dim.isUnlimited() ? -1 : dim.getLength()).putChar(SEP);
+    }
+    for (Attribute att : group.attributes()) {
+      addAttribute(hasher, att);
+    }
+    for (Variable v : group.getVariables()) {
+      addVariable(hasher, v);
+    }
+    for (Group nested : group.getGroups()) {
+      addGroup(hasher, nested);
+    }
+    hasher.putUnencodedChars("end group").putChar(SEP);
+  }
+
+  private static void addVariable(Hasher hasher, Variable v) {
+    hasher.putUnencodedChars(v.getShortName()).putChar(' ').putUnencodedChars(v.getDataType().toString())
+        .putChar(' ').putUnencodedChars(v.getDimensionsString()).putChar(SEP);
+    for (Attribute att : v.attributes()) {
+      addAttribute(hasher, att);
+    }
+    if (v instanceof Structure) {
+      for (Variable member : ((Structure) v).getVariables()) {
+        addVariable(hasher, member);
+      }
+      hasher.putUnencodedChars("end structure").putChar(SEP);
+    }
+  }
+
+  private static void addAttribute(Hasher hasher, Attribute att) {
+    if (PER_FILE_ATTRIBUTES.contains(att.getShortName())) {
+      hasher.putUnencodedChars(att.getShortName());
+    } else {
+      hasher.putUnencodedChars(att.toString()); // name and value
+    }
+    hasher.putChar(SEP);
+  }
+}
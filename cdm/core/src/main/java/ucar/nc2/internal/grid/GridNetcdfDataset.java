@@ -21,6 +21,9 @@ import ucar.unidata.geoloc.ProjectionRect;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /** GridDataset implementation wrapping a NetcdfDataset. */
 public class GridNetcdfDataset implements GridDataset {
@@ -203,6 +206,59 @@ public class GridNetcdfDataset implements GridDataset {
     return grids.stream().filter(g -> g.getName().equals(name)).findFirst();
   }
 
+  /**
+   * Read the same subset of several grids.
+   * The subset is resolved once for each coordinate system, and the grids are read in the order of their variables in
+   * the file, which usually follows the layout of their data. Each grid is a separate read of its variable; reads of
+   * shared record or time ranges are not merged.
+   * A grid that is in wantGrids more than once is read once, and gets the same future each time, so cancelling one
+   * of them cancels the others.
+   */
+  @Override
+  public ImmutableList<CompletableFuture<GridReferencedArray>> readData(List<Grid> wantGrids, GridSubset subset,
+      Executor executor) {
+    ImmutableList.Builder<CompletableFuture<GridReferencedArray>> builder = ImmutableList.builder();
+    Map<Grid, CompletableFuture<GridReferencedArray>> futures = new HashMap<>();
+    for (Grid grid : wantGrids) {
+      builder.add(futures.computeIfAbsent(grid, g -> new CompletableFuture<>()));
+    }
+    List<Grid> readOrder = new ArrayList<>(futures.keySet());
+    readOrder.sort(Comparator.comparingInt(grids::indexOf));
+
+    try {
+      executor.execute(() -> readGrids(readOrder, futures, subset));
+    } catch (RejectedExecutionException e) {
+      futures.values().forEach(future -> future.completeExceptionally(e));
+    }
+    return builder.build();
+  }
+
+  private void readGrids(List<Grid> readOrder, Map<Grid, CompletableFuture<GridReferencedArray>> futures,
+      GridSubset subset) {
+    // GridCS.equals() is not reliable, and the subset must be of the grid's own coordinate system
+    Map<GridCoordinateSystem, GridCoordinateSystem> subsetCoordSys = new IdentityHashMap<>();
+    for (Grid grid : readOrder) {
+      CompletableFuture<GridReferencedArray> future = futures.get(grid);
+      if (future.isDone()) { // cancelled
+        continue;
+      }
+      try {
+        if (grid instanceof GridVariable) {
+          GridCoordinateSystem subsetCs = subsetCoordSys.get(grid.getCoordinateSystem());
+          if (subsetCs == null) {
+            subsetCs = GridVariable.subsetCoordinateSystem(grid.getCoordinateSystem(), subset);
+            subsetCoordSys.put(grid.getCoordinateSystem(), subsetCs);
+          }
+          future.complete(((GridVariable) grid).readData(subsetCs));
+        } else {
+          future.complete(grid.readData(subset));
+        }
+      } catch (Exception e) {
+        future.completeExceptionally(e);
+      }
+    }
+  }
+
   @Override
   public FeatureType getFeatureType() {
     return featureType;
@@ -74,13 +74,22 @@ public class GridVariable implements Grid {
 
   @Override
   public GridReferencedArray readData(GridSubset subset) throws IOException, InvalidRangeException {
+    return readData(subsetCoordinateSystem(this.cs, subset));
+  }
+
+  /** Subset the coordinate system, which may be shared by several grids. */
+  static GridCoordinateSystem subsetCoordinateSystem(GridCoordinateSystem cs, GridSubset subset)
+      throws InvalidRangeException {
     Formatter errlog = new Formatter();
-    Optional<GridCoordinateSystem> opt = this.cs.subset(subset, errlog);
+    Optional<GridCoordinateSystem> opt = cs.subset(subset, errlog);
     if (!opt.isPresent()) {
       throw new InvalidRangeException(errlog.toString());
     }
+    return opt.get();
+  }
 
-    GridCoordinateSystem subsetCoordSys = opt.get();
+  /** Read the data for a subset of this grid's coordinate system, from subsetCoordinateSystem(). */
+  GridReferencedArray readData(GridCoordinateSystem subsetCoordSys) throws IOException, InvalidRangeException {
     List<RangeIterator> rangeIters = ((GridCS) subsetCoordSys).getRanges();
     List<Range> ranges = new ArrayList<>();
 
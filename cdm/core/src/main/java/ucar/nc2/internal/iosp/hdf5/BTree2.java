@@ -16,7 +16,8 @@ import java.util.List;
 /**
  * // Level 1A2
  *
- * These are used for symbols, not data i think. Version 1 is H5header.GroupBTree.
+ * These are used for symbols, and for the chunk index of datasets written by HDF5 1.10 or later (types 10 and 11).
+ * Version 1 is H5header.GroupBTree.
  *
  * Version 2 B-trees are "traditional" B-trees, with one major difference. Instead of just using a simple pointer
  * (or address in the file) to a child of an internal node, the pointer to the child node contains two additional
@@ -38,6 +39,12 @@ public class BTree2 {
   public final byte btreeType;
   private final int nodeSize; // size in bytes of btree nodes
   private final short recordSize; // size in bytes of btree records
+  private final int chunkRank; // number of dimensions of the chunk offsets, for record types 10 and 11
+
+  // size in bytes of the number of records in a child node
+  private int maxNrecSize;
+  // cumMaxNrecSize[depth]: size in bytes of the total number of records under a child of a node at that depth
+  private int[] cumMaxNrecSize;
 
   private final String owner;
   private final H5header h5;
@@ -46,9 +53,22 @@ public class BTree2 {
   public List<Entry2> entryList = new ArrayList<>();
 
   public BTree2(H5header h5, String owner, long address) throws IOException {
+    this(h5, owner, address, 0);
+  }
+
+  /**
+   * Read a version 2 B-tree.
+   *
+   * @param h5 the file header
+   * @param owner for debugging
+   * @param address of the B-tree header
+   * @param chunkRank number of dimensions of the chunk offsets in a dataset chunk index, else 0.
+   */
+  public BTree2(H5header h5, String owner, long address, int chunkRank) throws IOException {
     this.h5 = h5;
     this.raf = h5.getRandomAccessFile();
     this.owner = owner;
+    this.chunkRank = chunkRank;
 
     raf.seek(h5.getFileOffset(address));
 
@@ -78,6 +98,7 @@ public class BTree2 {
           rootNodeAddress);
     }
 
+    initNodeInfo(treeDepth);
     if (treeDepth > 0) {
       InternalNode node = new InternalNode(rootNodeAddress, numRecordsRootNode, recordSize, treeDepth);
       node.recurse();
@@ -87,6 +108,31 @@ public class BTree2 {
     }
   }
 
+  // the sizes of the variable length fields in the internal nodes depend on how many records fit in a node,
+  // see H5B2__hdr_init()
+  private void initNodeInfo(int treeDepth) {
+    int prefixSize = 10; // signature, version, type, checksum
+    long[] maxNrec = new long[treeDepth + 1];
+    long[] cumMaxNrec = new long[treeDepth + 1];
+    cumMaxNrecSize = new int[treeDepth + 1];
+
+    maxNrec[0] = (nodeSize - prefixSize) / recordSize;
+    cumMaxNrec[0] = maxNrec[0];
+    maxNrecSize = limitEncodedSize(maxNrec[0]);
+    for (int depth = 1; depth <= treeDepth; depth++) {
+      int pointerSize = h5.getSizeOffsets() + maxNrecSize + (depth > 1 ? cumMaxNrecSize[depth - 1] : 0);
+      maxNrec[depth] = (nodeSize - (prefixSize + pointerSize)) / (recordSize + pointerSize);
+      cumMaxNrec[depth] = (maxNrec[depth] + 1) * cumMaxNrec[depth - 1] + maxNrec[depth];
+      cumMaxNrecSize[depth] = limitEncodedSize(cumMaxNrec[depth]);
+    }
+  }
+
+  // number of bytes needed to encode values up to limit
+  private static int limitEncodedSize(long limit) {
+    int log2 = 63 - Long.numberOfLeadingZeros(Math.max(1, limit));
+    return log2 / 8 + 1;
+  }
+
   BTree2.Record1 getEntry1(int hugeObjectID) {
     for (Entry2 entry : entryList) {
       BTree2.Record1 record1 = (BTree2.Record1) entry.record;
@@ -135,14 +181,12 @@ public class BTree2 {
       }
       entries[nrecords] = new Entry2();
 
-      int maxNumRecords = nodeSize / recordSize; // LOOK ?? guessing
-      int maxNumRecordsPlusDesc = nodeSize / recordSize; // LOOK ?? guessing
       for (int i = 0; i < nrecords + 1; i++) {
         Entry2 e = entries[i];
         e.childAddress = h5.readOffset();
-        e.nrecords = h5.readVariableSizeUnsigned(1); // readVariableSizeMax(maxNumRecords);
+        e.nrecords = h5.readVariableSizeUnsigned(maxNrecSize);
         if (depth > 1)
-          e.totNrecords = h5.readVariableSizeUnsigned(2); // readVariableSizeMax(maxNumRecordsPlusDesc);
+          e.totNrecords = h5.readVariableSizeUnsigned(cumMaxNrecSize[depth - 1]);
 
         if (debugBtree2)
           debugOut.println(" BTree2 entry childAddress=" + e.childAddress + " nrecords=" + e.nrecords + " totNrecords="
@@ -229,6 +273,10 @@ public class BTree2 {
         return new Record8();
       case 9:
         return new Record9();
+      case 10:
+        return new Record10();
+      case 11:
+        return new Record11();
       default:
         throw new IllegalStateException();
     }
@@ -372,4 +420,33 @@ public class BTree2 {
     }
   }
 
+  // dataset chunks, not filtered
+  class Record10 {
+    long address;
+    long[] scaledOffset; // offset of the chunk divided by the chunk size, in each dimension
+
+    Record10() throws IOException {
+      address = h5.readOffset();
+      scaledOffset = new long[chunkRank];
+      for (int i = 0; i < chunkRank; i++)
+        scaledOffset[i] = raf.readLong();
+    }
+  }
+
+  // dataset chunks, filtered
+  class Record11 {
+    long address, chunkSize;
+    int filterMask;
+    long[] scaledOffset;
+
+    Record11() throws IOException {
+      address = h5.readOffset();
+      chunkSize = h5.readVariableSizeUnsigned(recordSize - h5.getSizeOffsets() - 4 - 8 * chunkRank);
+      filterMask = raf.readInt();
+      scaledOffset = new long[chunkRank];
+      for (int i = 0; i < chunkRank; i++)
+        scaledOffset[i] = raf.readLong();
+    }
+  }
+
 } // BTree2
@@ -5,7 +5,13 @@
 
 package ucar.nc2.internal.iosp.hdf5;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import javax.annotation.Nullable;
+import ucar.ma2.Range;
 import ucar.ma2.Section;
 import ucar.nc2.iosp.LayoutTiled;
 import ucar.unidata.io.RandomAccessFile;
@@ -26,6 +32,13 @@ import java.util.List;
  * The pointers out of internal nodes point to sub-trees while the pointers out of leaf nodes point to symbol nodes and
  * raw data chunks. Aside from that difference, internal nodes and leaf nodes are identical.
  *
+ * HDF5 1.10 and later may use other chunk indexes (layout message version 4): a single chunk, an implicit index
+ * (chunks stored in order), a fixed array, an extensible array or a version 2 B-tree. These are handled here too.
+ *
+ * The index is read once, on first use, into a {@link ChunkIndex}, which is kept in a cache bounded by memory.
+ * Readers then find the chunks that intersect a section by binary search, instead of walking the on-disk tree
+ * on every read.
+ *
  * @see "http://www.hdfgroup.org/HDF5/doc/H5.format.html#Btrees"
  */
 public class DataBTree {
@@ -34,14 +47,37 @@ public class DataBTree {
   private static final boolean debugChunkOrder = false;
   private static final java.io.PrintStream debugOut = System.out;
 
+  // chunk index types of the layout message version 4
+  static final int INDEX_BTREE1 = 0; // earlier layout message versions
+  static final int INDEX_SINGLE_CHUNK = 1;
+  static final int INDEX_IMPLICIT = 2;
+  static final int INDEX_FIXED_ARRAY = 3;
+  static final int INDEX_EXTENSIBLE_ARRAY = 4;
+  static final int INDEX_BTREE2 = 5;
+
+  private static final long CHUNK_INDEX_CACHE_BYTES = 64L * 1024 * 1024;
+
+  // Weak keys, so an index goes away with its DataBTree when the file is closed.
+  private static final Cache<DataBTree, ChunkIndex> chunkIndexCache =
+      CacheBuilder.newBuilder().weakKeys().maximumWeight(CHUNK_INDEX_CACHE_BYTES)
+          .weigher((DataBTree btree, ChunkIndex index) -> index.getSizeBytes()).build();
+
   private final H5header h5;
   private final RandomAccessFile raf;
   private final MemTracker memTracker;
 
   private final long rootNodeAddress;
   private final Tiling tiling;
+  private final int[] storageSize;
   private final int ndimStorage, wantType;
 
+  // layout message version 4
+  private final int indexType;
+  private final int flags;
+  private final long singleChunkSize;
+  private final int singleChunkFilterMask;
+  private final int[] dimLength, maxLength; // from the dataspace message
+
   private Object owner;
 
   public DataBTree(H5header h5, long rootNodeAddress, int[] varShape, int[] storageSize, MemTracker memTracker) {
@@ -49,10 +85,46 @@ public class DataBTree {
     this.raf = h5.getRandomAccessFile();
     this.rootNodeAddress = rootNodeAddress;
     this.tiling = new Tiling(varShape, storageSize);
+    this.storageSize = storageSize;
     this.ndimStorage = storageSize.length;
     this.memTracker = memTracker;
 
     wantType = 1;
+    this.indexType = INDEX_BTREE1;
+    this.flags = 0;
+    this.singleChunkSize = -1;
+    this.singleChunkFilterMask = 0;
+    this.dimLength = null;
+    this.maxLength = null;
+  }
+
+  /**
+   * Constructor for any chunk index type.
+   *
+   * @param h5 the file header
+   * @param msl the layout message, with the chunk index type and address
+   * @param varShape shape of the variable
+   * @param dimLength dataspace dimension lengths
+   * @param maxLength dataspace maximum dimension lengths, -1 if unlimited
+   * @param memTracker track memory use, may be null
+   */
+  DataBTree(H5header h5, H5objects.MessageLayout msl, int[] varShape, int[] dimLength, int[] maxLength,
+      MemTracker memTracker) {
+    this.h5 = h5;
+    this.raf = h5.getRandomAccessFile();
+    this.rootNodeAddress = msl.dataAddress;
+    this.tiling = new Tiling(varShape, msl.chunkSize);
+    this.storageSize = msl.chunkSize;
+    this.ndimStorage = storageSize.length;
+    this.memTracker = memTracker;
+
+    wantType = 1;
+    this.indexType = msl.chunkIndexType;
+    this.flags = msl.chunkFlags;
+    this.singleChunkSize = msl.singleChunkSize;
+    this.singleChunkFilterMask = msl.singleChunkFilterMask;
+    this.dimLength = dimLength;
+    this.maxLength = maxLength;
   }
 
   public void setOwner(Object owner) {
@@ -69,70 +141,459 @@ public class DataBTree {
     return new DataChunkIteratorNoFilter(want, nChunkDim);
   }
 
-  // An Iterator over the DataChunks in the btree.
+  /** Get the index of all the chunks, reading the B-tree if its not already in the cache. */
+  ChunkIndex getChunkIndex() throws IOException {
+    try {
+      return chunkIndexCache.get(this, this::readChunkIndex);
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      throw new IOException(cause);
+    }
+  }
+
+  // read all the entries of the chunk index
+  private ChunkIndex readChunkIndex() throws IOException {
+    ChunkIndex.Builder builder = new ChunkIndex.Builder(ndimStorage, storageSize);
+    raf.order(RandomAccessFile.LITTLE_ENDIAN); // header information is in le byte order
+    long chunkBytes = 1;
+    for (int size : storageSize)
+      chunkBytes *= size;
+
+    switch (indexType) {
+      case INDEX_BTREE1: {
+        Node root = new Node(rootNodeAddress, -1);
+        root.first(null);
+        while (root.hasNext()) {
+          DataChunk dc = root.next();
+          builder.add(dc.offset, dc.filePos, dc.size, dc.filterMask);
+        }
+        break;
+      }
+
+      case INDEX_SINGLE_CHUNK: {
+        long size = (singleChunkSize >= 0) ? singleChunkSize : chunkBytes;
+        builder.add(new int[ndimStorage], h5.getFileOffset(rootNodeAddress), (int) size, singleChunkFilterMask);
+        break;
+      }
+
+      case INDEX_IMPLICIT: { // chunks are stored in order, without filters
+        int rank = ndimStorage - 1;
+        long[] down = getDownChunks(-1);
+        int[] nchunks = new int[rank];
+        for (int d = 0; d < rank; d++)
+          nchunks[d] = (dimLength[d] + storageSize[d] - 1) / storageSize[d];
+        int[] scaled = new int[rank];
+        int[] offset = new int[ndimStorage];
+        boolean done = (rank > 0) && Arrays.stream(nchunks).anyMatch(n -> n == 0);
+        while (!done) {
+          long chunkIndex = 0;
+          for (int d = 0; d < rank; d++) {
+            offset[d] = scaled[d] * storageSize[d];
+            chunkIndex += scaled[d] * down[d];
+          }
+          builder.add(offset, h5.getFileOffset(rootNodeAddress) + chunkIndex * chunkBytes, (int) chunkBytes, 0);
+          // next chunk in row-major order
+          int d = rank - 1;
+          while (d >= 0 && ++scaled[d] == nchunks[d]) {
+            scaled[d] = 0;
+            d--;
+          }
+          done = (d < 0);
+        }
+        break;
+      }
+
+      case INDEX_FIXED_ARRAY: {
+        FixedArray array = new FixedArray(h5, rootNodeAddress);
+        addChunks(builder, array.addresses, array.chunkSizes, array.filterMasks, -1, chunkBytes);
+        break;
+      }
+
+      case INDEX_EXTENSIBLE_ARRAY: {
+        ExtensibleArray array = new ExtensibleArray(h5, rootNodeAddress);
+        int unlimitedDim = 0;
+        for (int d = 0; d < ndimStorage - 1; d++) {
+          if (maxLength[d] < 0)
+            unlimitedDim = d;
+        }
+        addChunks(builder, array.addresses, array.chunkSizes, array.filterMasks, unlimitedDim, chunkBytes);
+        break;
+      }
+
+      case INDEX_BTREE2: {
+        BTree2 btree = new BTree2(h5, String.valueOf(owner), rootNodeAddress, ndimStorage - 1);
+        int[] offset = new int[ndimStorage];
+        for (BTree2.Entry2 entry : btree.entryList) {
+          long[] scaled;
+          if (entry.record instanceof BTree2.Record11) {
+            BTree2.Record11 record = (BTree2.Record11) entry.record;
+            scaled = record.scaledOffset;
+            for (int d = 0; d < scaled.length; d++)
+              offset[d] = (int) (scaled[d] * storageSize[d]);
+            builder.add(offset, h5.getFileOffset(record.address), (int) record.chunkSize,
+                getFilterMask(offset, record.filterMask));
+          } else {
+            BTree2.Record10 record = (BTree2.Record10) entry.record;
+            scaled = record.scaledOffset;
+            for (int d = 0; d < scaled.length; d++)
+              offset[d] = (int) (scaled[d] * storageSize[d]);
+            builder.add(offset, h5.getFileOffset(record.address), (int) chunkBytes, 0);
+          }
+        }
+        break;
+      }
+
+      default:
+        throw new IllegalStateException("DataBTree: unknown chunk index type= " + indexType);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Add the chunks of a fixed or extensible array index, whose element i is the chunk with linear index i in the grid
+   * of chunks of the maximum dimensions. The unlimited dimension, if any, varies slowest ("swizzled").
+   */
+  private void addChunks(ChunkIndex.Builder builder, long[] addresses, @Nullable long[] sizes, @Nullable int[] masks,
+      int unlimitedDim, long chunkBytes) {
+    int rank = ndimStorage - 1;
+    long[] down = getDownChunks(unlimitedDim);
+    int[] order = getSwizzledOrder(unlimitedDim);
+    int[] offset = new int[ndimStorage];
+    for (int i = 0; i < addresses.length; i++) {
+      if (addresses[i] == -1)
+        continue; // not allocated
+      long rem = i;
+      for (int k = 0; k < rank; k++) {
+        int d = order[k];
+        offset[d] = (int) (rem / down[k] * storageSize[d]);
+        rem %= down[k];
+      }
+      if (sizes != null) {
+        builder.add(offset, h5.getFileOffset(addresses[i]), (int) sizes[i], getFilterMask(offset, masks[i]));
+      } else {
+        builder.add(offset, h5.getFileOffset(addresses[i]), (int) chunkBytes, 0);
+      }
+    }
+  }
+
+  // the order of the dimensions in the linear chunk index: the unlimited dimension moved to the front
+  private int[] getSwizzledOrder(int unlimitedDim) {
+    int rank = ndimStorage - 1;
+    int[] order = new int[rank];
+    int k = 0;
+    if (unlimitedDim >= 0)
+      order[k++] = unlimitedDim;
+    for (int d = 0; d < rank; d++) {
+      if (d != unlimitedDim)
+        order[k++] = d;
+    }
+    return order;
+  }
+
+  // down[k] = number of chunks in the max grid spanned by one step in the kth (swizzled) dimension
+  private long[] getDownChunks(int unlimitedDim) {
+    int rank = ndimStorage - 1;
+    int[] order = getSwizzledOrder(unlimitedDim);
+    long[] down = new long[rank];
+    long acc = 1;
+    for (int k = rank - 1; k >= 0; k--) {
+      down[k] = acc;
+      int d = order[k];
+      int max = (maxLength[d] < 0) ? dimLength[d] : maxLength[d];
+      acc *= (max + storageSize[d] - 1) / storageSize[d];
+    }
+    return down;
+  }
+
+  // partial edge chunks may be stored without filters
+  private int getFilterMask(int[] offset, int filterMask) {
+    if ((flags & 0x01) != 0) {
+      for (int d = 0; d < ndimStorage - 1; d++) {
+        if (offset[d] + storageSize[d] > dimLength[d])
+          return -1; // skip all filters
+      }
+    }
+    return filterMask;
+  }
+
+  // An Iterator over the DataChunks in the btree that intersect the wanted section.
   // returns the actual data from the btree leaf (level 0) nodes.
   // used by H5tiledLayout, when there are no filters
   class DataChunkIteratorNoFilter implements LayoutTiled.DataChunkIterator {
-    private final Node root;
+    private final ChunkIndex index;
+    private final int[] chunks;
     private final int nChunkDim;
+    private int next;
 
     /**
      * Constructor
      *
-     * @param want skip any nodes that are before this section
+     * @param want skip any chunks that dont intersect this section
      * @param nChunkDim number of chunk dimensions - may be less than the offset[] length
      * @throws IOException on error
      */
     DataChunkIteratorNoFilter(Section want, int nChunkDim) throws IOException {
       this.nChunkDim = nChunkDim;
-      root = new Node(rootNodeAddress, -1); // should we cache the nodes ???
-      int[] wantOrigin = (want != null) ? want.getOrigin() : null;
-      root.first(wantOrigin);
+      this.index = getChunkIndex();
+      this.chunks = index.findChunks(want);
     }
 
     public boolean hasNext() {
-      return root.hasNext(); // && !node.greaterThan(wantOrigin);
+      return next < chunks.length;
     }
 
     public LayoutTiled.DataChunk next() throws IOException {
-      DataChunk dc = root.next();
-      int[] offset = dc.offset;
-      if (offset.length > nChunkDim) { // may have to eliminate last offset
-        offset = new int[nChunkDim];
-        System.arraycopy(dc.offset, 0, offset, 0, nChunkDim);
-      }
+      int chunk = chunks[next++];
+      int[] offset = index.getOffset(chunk, nChunkDim); // may have to eliminate last offset
       if (debugChunkOrder)
-        System.out.printf("LayoutTiled.DataChunk next order %d%n", tiling.order(dc.offset));
+        System.out.printf("LayoutTiled.DataChunk next order %d%n", tiling.order(index.getOffset(chunk, ndimStorage)));
 
-      return new LayoutTiled.DataChunk(offset, dc.filePos);
+      return new LayoutTiled.DataChunk(offset, index.getFilePos(chunk));
     }
   }
 
-  // An Iterator over the DataChunks in the btree.
+  // An Iterator over the DataChunks in the btree that intersect the wanted section.
   // returns the data chunck info from the btree leaf (level 0) nodes
   // used by H5tiledLayoutBB, when there are filters
   public class DataChunkIterator {
-    private final Node root;
-    private final int[] wantOrigin;
+    private final ChunkIndex index;
+    private final int[] chunks;
+    private int next;
 
     /**
      * Constructor
      *
-     * @param want skip any nodes that are before this section
+     * @param want skip any chunks that dont intersect this section
      * @throws IOException on error
      */
     DataChunkIterator(Section want) throws IOException {
-      root = new Node(rootNodeAddress, -1); // should we cache the nodes ???
-      wantOrigin = (want != null) ? want.getOrigin() : null;
-      root.first(wantOrigin);
+      this.index = getChunkIndex();
+      this.chunks = index.findChunks(want);
     }
 
     public boolean hasNext() {
-      return root.hasNext(); // && !node.greaterThan(wantOrigin);
+      return next < chunks.length;
     }
 
     public DataChunk next() throws IOException {
-      return root.next();
+      int chunk = chunks[next++];
+      return new DataChunk(index.getSize(chunk), index.getFilterMask(chunk), index.getOffset(chunk, ndimStorage),
+          index.getFilePos(chunk));
+    }
+  }
+
+  /**
+   * The leaf entries of the btree, flattened into primitive arrays and sorted by chunk offset.
+   * Immutable, so it can be shared by concurrent readers.
+   */
+  static class ChunkIndex {
+    private final int ndim;
+    private final int[] chunkSize;
+    private final int nchunks;
+    private final int[] offsets; // int[nchunks * ndim]
+    private final long[] filePos;
+    private final int[] sizes;
+    private final int[] filterMasks;
+
+    private ChunkIndex(int ndim, int[] chunkSize, int nchunks, int[] offsets, long[] filePos, int[] sizes,
+        int[] filterMasks) {
+      this.ndim = ndim;
+      this.chunkSize = chunkSize;
+      this.nchunks = nchunks;
+      this.offsets = offsets;
+      this.filePos = filePos;
+      this.sizes = sizes;
+      this.filterMasks = filterMasks;
+    }
+
+    int getNumberOfChunks() {
+      return nchunks;
+    }
+
+    /** The first n offsets of the ith chunk. */
+    int[] getOffset(int i, int n) {
+      return Arrays.copyOfRange(offsets, i * ndim, i * ndim + n);
+    }
+
+    long getFilePos(int i) {
+      return filePos[i];
+    }
+
+    int getSize(int i) {
+      return sizes[i];
+    }
+
+    int getFilterMask(int i) {
+      return filterMasks[i];
+    }
+
+    int getSizeBytes() {
+      return (int) Math.min(Integer.MAX_VALUE, (long) nchunks * (4 * ndim + 16) + 64);
+    }
+
+    /**
+     * Find the chunks that intersect the wanted section, in order of their offsets.
+     * A strided section may get some chunks that fall between its strides.
+     *
+     * @param want the wanted section, may have fewer dimensions than the chunks. null means all.
+     * @return indices of the chunks.
+     */
+    int[] findChunks(@Nullable Section want) {
+      int rank = (want == null) ? 0 : Math.min(want.getRank(), ndim);
+      if (rank == 0) {
+        int[] all = new int[nchunks];
+        for (int i = 0; i < nchunks; i++)
+          all[i] = i;
+        return all;
+      }
+
+      // a chunk intersects dimension d if min[d] <= offset[d] <= max[d]
+      long[] min = new long[rank];
+      long[] max = new long[rank];
+      for (int d = 0; d < rank; d++) {
+        Range r = want.getRange(d);
+        if (r == null || r == Range.VLEN) {
+          min[d] = Long.MIN_VALUE;
+          max[d] = Long.MAX_VALUE;
+        } else {
+          min[d] = (long) r.first() - chunkSize[d] + 1;
+          max[d] = r.last();
+        }
+      }
+
+      IntList result = new IntList();
+      findChunks(0, nchunks, 0, rank, min, max, result);
+      return result.toArray();
+    }
+
+    // the chunks in [lo, hi) have the same offsets in dimensions 0..d-1, and so are sorted by dimension d
+    private void findChunks(int lo, int hi, int d, int rank, long[] min, long[] max, IntList result) {
+      int start = lowerBound(lo, hi, d, min[d]);
+      int end = upperBound(start, hi, d, max[d]);
+      if (d == rank - 1) {
+        for (int i = start; i < end; i++)
+          result.add(i);
+        return;
+      }
+      // each run of chunks with the same offset in this dimension
+      for (int i = start; i < end;) {
+        int runEnd = upperBound(i, end, d, offsets[i * ndim + d]);
+        findChunks(i, runEnd, d + 1, rank, min, max, result);
+        i = runEnd;
+      }
+    }
+
+    // first i in [lo, hi) with offset[d] >= value, else hi
+    private int lowerBound(int lo, int hi, int d, long value) {
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (offsets[mid * ndim + d] < value)
+          lo = mid + 1;
+        else
+          hi = mid;
+      }
+      return lo;
+    }
+
+    // first i in [lo, hi) with offset[d] > value, else hi
+    private int upperBound(int lo, int hi, int d, long value) {
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (offsets[mid * ndim + d] <= value)
+          lo = mid + 1;
+        else
+          hi = mid;
+      }
+      return lo;
+    }
+
+    static class Builder {
+      private final int ndim;
+      private final int[] chunkSize;
+      private int nchunks;
+      private int[] offsets = new int[0];
+      private long[] filePos = new long[0];
+      private int[] sizes = new int[0];
+      private int[] filterMasks = new int[0];
+
+      Builder(int ndim, int[] chunkSize) {
+        this.ndim = ndim;
+        this.chunkSize = chunkSize;
+      }
+
+      Builder add(int[] offset, long pos, int size, int filterMask) {
+        if (nchunks == filePos.length) {
+          int n = Math.max(16, 2 * nchunks);
+          offsets = Arrays.copyOf(offsets, n * ndim);
+          filePos = Arrays.copyOf(filePos, n);
+          sizes = Arrays.copyOf(sizes, n);
+          filterMasks = Arrays.copyOf(filterMasks, n);
+        }
+        System.arraycopy(offset, 0, offsets, nchunks * ndim, ndim);
+        filePos[nchunks] = pos;
+        sizes[nchunks] = size;
+        filterMasks[nchunks] = filterMask;
+        nchunks++;
+        return this;
+      }
+
+      ChunkIndex build() {
+        // the btree keeps its entries sorted, but dont count on it
+        Integer[] order = new Integer[nchunks];
+        boolean sorted = true;
+        for (int i = 0; i < nchunks; i++) {
+          order[i] = i;
+          if (i > 0 && compare(i - 1, i) > 0)
+            sorted = false;
+        }
+        if (sorted) {
+          return new ChunkIndex(ndim, chunkSize, nchunks, Arrays.copyOf(offsets, nchunks * ndim),
+              Arrays.copyOf(filePos, nchunks), Arrays.copyOf(sizes, nchunks), Arrays.copyOf(filterMasks, nchunks));
+        }
+
+        Arrays.sort(order, this::compare);
+        int[] sortedOffsets = new int[nchunks * ndim];
+        long[] sortedFilePos = new long[nchunks];
+        int[] sortedSizes = new int[nchunks];
+        int[] sortedFilterMasks = new int[nchunks];
+        for (int i = 0; i < nchunks; i++) {
+          int from = order[i];
+          System.arraycopy(offsets, from * ndim, sortedOffsets, i * ndim, ndim);
+          sortedFilePos[i] = filePos[from];
+          sortedSizes[i] = sizes[from];
+          sortedFilterMasks[i] = filterMasks[from];
+        }
+        return new ChunkIndex(ndim, chunkSize, nchunks, sortedOffsets, sortedFilePos, sortedSizes, sortedFilterMasks);
+      }
+
+      private int compare(int a, int b) {
+        for (int d = 0; d < ndim; d++) {
+          int c = Integer.compare(offsets[a * ndim + d], offsets[b * ndim + d]);
+          if (c != 0)
+            return c;
+        }
+        return 0;
+      }
+    }
+  }
+
+  // growable list of int
+  private static class IntList {
+    private int[] values = new int[16];
+    private int size;
+
+    void add(int value) {
+      if (size == values.length)
+        values = Arrays.copyOf(values, 2 * size);
+      values[size++] = value;
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(values, size);
     }
   }
 
@@ -298,6 +759,13 @@ public class DataBTree {
     public final int[] offset; // offset index of this chunk, reletive to entire array
     public final long filePos; // filePos of a single raw data chunk, already shifted by the offset if needed
 
+    DataChunk(int size, int filterMask, int[] offset, long filePos) {
+      this.size = size;
+      this.filterMask = filterMask;
+      this.offset = offset;
+      this.filePos = filePos;
+    }
+
     DataChunk(int ndim, boolean last) throws IOException {
       this.size = raf.readInt();
       this.filterMask = raf.readInt();
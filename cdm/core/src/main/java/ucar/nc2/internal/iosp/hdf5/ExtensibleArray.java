@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 1998-2020 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.internal.iosp.hdf5;
+
+import java.io.IOException;
+import java.util.Arrays;
+import ucar.unidata.io.RandomAccessFile;
+
+/**
+ * Level 1G "Extensible Array", used by HDF5 1.10 and later to index the chunks of a dataset with one unlimited
+ * dimension. Element i holds the chunk whose index in the grid of chunks is i, with the unlimited dimension
+ * varying slowest.
+ *
+ * The first elements are in the index block. The rest are in data blocks, which double in size every other
+ * super block. The data blocks of the first super blocks are pointed to by the index block, the others by
+ * secondary blocks. Large data blocks are divided into pages.
+ *
+ * @see "https://support.hdfgroup.org/HDF5/doc/H5.format.html#ExtensibleArray"
+ */
+class ExtensibleArray {
+  private static final int CLIENT_FILTERED_CHUNKS = 1;
+
+  final long[] addresses; // address of each chunk, or -1 if not allocated
+  final long[] chunkSizes; // filtered chunks only
+  final int[] filterMasks; // filtered chunks only
+
+  private final H5header h5;
+  private final RandomAccessFile raf;
+  private final boolean filtered;
+  private final int elementSize;
+  private final int blockOffsetSize; // size of the "block offset" field in data and secondary blocks
+  private final long pageElems; // number of elements in a data block page
+
+  ExtensibleArray(H5header h5, long address) throws IOException {
+    this.h5 = h5;
+    this.raf = h5.getRandomAccessFile();
+
+    // header
+    raf.seek(h5.getFileOffset(address));
+    String magic = raf.readString(4);
+    if (!magic.equals("EAHD"))
+      throw new IllegalStateException(magic + " should equal EAHD");
+    raf.readByte(); // version
+    int clientId = raf.readByte();
+    this.filtered = (clientId == CLIENT_FILTERED_CHUNKS);
+    this.elementSize = raf.readByte();
+    int maxNelmtsBits = raf.readByte();
+    int indexBlockElems = raf.readByte() & 0xff;
+    int dataBlockMinElems = raf.readByte() & 0xff;
+    int secondaryBlockMinDataPtrs = raf.readByte() & 0xff;
+    int pageBits = raf.readByte();
+    raf.skipBytes(4 * h5.getSizeLengths()); // number and size of secondary and data blocks
+    long maxIndexSet = h5.readLength(); // one more than the largest element index that was set
+    h5.readLength(); // number of elements
+    long indexBlockAddress = h5.readOffset();
+    // checksum
+
+    this.blockOffsetSize = (maxNelmtsBits + 7) / 8;
+    this.pageElems = 1L << pageBits;
+
+    if (maxIndexSet > Integer.MAX_VALUE)
+      throw new IllegalStateException("ExtensibleArray has too many elements= " + maxIndexSet);
+    int n = (int) maxIndexSet;
+    addresses = new long[n];
+    chunkSizes = filtered ? new long[n] : null;
+    filterMasks = filtered ? new int[n] : null;
+    Arrays.fill(addresses, -1);
+    if (indexBlockAddress == -1)
+      return; // no chunks were written
+
+    // the number of data blocks and their size in each super block, see H5EA__hdr_init()
+    int nsblks = 1 + (maxNelmtsBits - log2(dataBlockMinElems));
+    long[] sblkNdblks = new long[nsblks];
+    long[] sblkDblkNelmts = new long[nsblks];
+    for (int u = 0; u < nsblks; u++) {
+      sblkNdblks[u] = 1L << (u / 2);
+      sblkDblkNelmts[u] = (1L << ((u + 1) / 2)) * dataBlockMinElems;
+    }
+
+    // index block
+    int iblockNsblks = 2 * log2(secondaryBlockMinDataPtrs); // super blocks whose data blocks are in the index block
+    int iblockNdblks = 2 * (secondaryBlockMinDataPtrs - 1);
+    int iblockNsblkAddrs = nsblks - iblockNsblks;
+    raf.seek(h5.getFileOffset(indexBlockAddress));
+    magic = raf.readString(4);
+    if (!magic.equals("EAIB"))
+      throw new IllegalStateException(magic + " should equal EAIB");
+    raf.skipBytes(2 + h5.getSizeOffsets()); // version, client id, header address
+    readElements(0, (int) Math.min(indexBlockElems, n));
+    raf.seek(h5.getFileOffset(indexBlockAddress) + 6 + h5.getSizeOffsets() + (long) indexBlockElems * elementSize);
+    long[] iblockDblkAddrs = new long[iblockNdblks];
+    for (int i = 0; i < iblockNdblks; i++)
+      iblockDblkAddrs[i] = h5.readOffset();
+    long[] iblockSblkAddrs = new long[Math.max(0, iblockNsblkAddrs)];
+    for (int i = 0; i < iblockSblkAddrs.length; i++)
+      iblockSblkAddrs[i] = h5.readOffset();
+
+    // the data blocks, in order of their elements
+    long start = indexBlockElems;
+    int iblockDblk = 0;
+    for (int sblk = 0; sblk < nsblks && start < n; sblk++) {
+      long ndblks = sblkNdblks[sblk];
+      long dblkNelmts = sblkDblkNelmts[sblk];
+      long[] dblkAddrs;
+      byte[] pageInit = null; // only for paged data blocks in a secondary block
+      long dblkNpages = (dblkNelmts > pageElems) ? dblkNelmts / pageElems : 0;
+
+      if (sblk < iblockNsblks) {
+        dblkAddrs = Arrays.copyOfRange(iblockDblkAddrs, iblockDblk, iblockDblk + (int) ndblks);
+        iblockDblk += (int) ndblks;
+      } else {
+        long sblkAddr = iblockSblkAddrs[sblk - iblockNsblks];
+        if (sblkAddr == -1) {
+          start += ndblks * dblkNelmts;
+          continue;
+        }
+        // secondary block
+        raf.seek(h5.getFileOffset(sblkAddr));
+        magic = raf.readString(4);
+        if (!magic.equals("EASB"))
+          throw new IllegalStateException(magic + " should equal EASB");
+        raf.skipBytes(2 + h5.getSizeOffsets() + blockOffsetSize); // version, client id, header address, offset
+        if (dblkNpages > 0) {
+          pageInit = new byte[(int) ((ndblks * dblkNpages + 7) / 8)];
+          raf.readFully(pageInit);
+        }
+        dblkAddrs = new long[(int) ndblks];
+        for (int i = 0; i < ndblks; i++)
+          dblkAddrs[i] = h5.readOffset();
+      }
+
+      for (int dblk = 0; dblk < ndblks && start < n; dblk++) {
+        if (dblkAddrs[dblk] != -1) {
+          int count = (int) Math.min(dblkNelmts, n - start);
+          long pageInitStart = dblk * dblkNpages;
+          readDataBlock(dblkAddrs[dblk], (int) start, count, dblkNpages, pageInit, pageInitStart);
+        }
+        start += dblkNelmts;
+      }
+    }
+  }
+
+  private void readDataBlock(long address, int start, int count, long npages, byte[] pageInit, long pageInitStart)
+      throws IOException {
+    long pos = h5.getFileOffset(address);
+    raf.seek(pos);
+    String magic = raf.readString(4);
+    if (!magic.equals("EADB"))
+      throw new IllegalStateException(magic + " should equal EADB");
+    int prefixSize = 6 + h5.getSizeOffsets() + blockOffsetSize; // signature, version, client id, header, offset
+    if (npages == 0) {
+      raf.seek(pos + prefixSize);
+      readElements(start, count);
+      return;
+    }
+
+    // the pages follow the data block checksum, each followed by its own checksum
+    long pageStart = pos + prefixSize + 4;
+    for (int page = 0; page < npages; page++) {
+      int pageFirst = (int) (page * pageElems);
+      if (pageFirst >= count)
+        break;
+      if (pageInit != null && !FixedArray.isBitSet(pageInit, pageInitStart + page))
+        continue; // no chunks in this page were written
+      raf.seek(pageStart + page * (pageElems * elementSize + 4));
+      readElements(start + pageFirst, (int) Math.min(pageElems, count - pageFirst));
+    }
+  }
+
+  private void readElements(int start, int count) throws IOException {
+    for (int i = start; i < start + count; i++) {
+      addresses[i] = h5.readOffset();
+      if (filtered) {
+        chunkSizes[i] = h5.readVariableSizeUnsigned(elementSize - h5.getSizeOffsets() - 4);
+        filterMasks[i] = raf.readInt();
+      }
+    }
+  }
+
+  // log base 2 of a power of 2
+  private static int log2(int n) {
+    return 31 - Integer.numberOfLeadingZeros(n);
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 1998-2020 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.internal.iosp.hdf5;
+
+import java.io.IOException;
+import java.util.Arrays;
+import ucar.unidata.io.RandomAccessFile;
+
+/**
+ * Level 1H "Fixed Array", used by HDF5 1.10 and later to index the chunks of a dataset with no unlimited dimensions.
+ * Element i holds the chunk whose index in the (row-major) grid of chunks is i.
+ *
+ * @see "https://support.hdfgroup.org/HDF5/doc/H5.format.html#FixedArray"
+ */
+class FixedArray {
+  private static final int CLIENT_FILTERED_CHUNKS = 1;
+
+  final long[] addresses; // address of each chunk, or -1 if not allocated
+  final long[] chunkSizes; // filtered chunks only
+  final int[] filterMasks; // filtered chunks only
+
+  private final H5header h5;
+  private final RandomAccessFile raf;
+  private final boolean filtered;
+  private final int elementSize;
+
+  FixedArray(H5header h5, long address) throws IOException {
+    this.h5 = h5;
+    this.raf = h5.getRandomAccessFile();
+
+    // header
+    raf.seek(h5.getFileOffset(address));
+    String magic = raf.readString(4);
+    if (!magic.equals("FAHD"))
+      throw new IllegalStateException(magic + " should equal FAHD");
+    raf.readByte(); // version
+    int clientId = raf.readByte();
+    this.filtered = (clientId == CLIENT_FILTERED_CHUNKS);
+    this.elementSize = raf.readByte();
+    int pageBits = raf.readByte();
+    long nelems = h5.readLength();
+    long dataBlockAddress = h5.readOffset();
+    // checksum
+
+    if (nelems > Integer.MAX_VALUE)
+      throw new IllegalStateException("FixedArray has too many elements= " + nelems);
+    int n = (int) nelems;
+    addresses = new long[n];
+    chunkSizes = filtered ? new long[n] : null;
+    filterMasks = filtered ? new int[n] : null;
+    Arrays.fill(addresses, -1);
+    if (dataBlockAddress == -1)
+      return; // no chunks were written
+
+    // data block
+    raf.seek(h5.getFileOffset(dataBlockAddress));
+    magic = raf.readString(4);
+    if (!magic.equals("FADB"))
+      throw new IllegalStateException(magic + " should equal FADB");
+    raf.skipBytes(2 + h5.getSizeOffsets()); // version, client id, header address
+
+    long pageElems = 1L << pageBits;
+    if (n <= pageElems) {
+      readElements(0, n);
+      return;
+    }
+
+    // the elements are in pages, each followed by a checksum
+    int npages = (int) ((n + pageElems - 1) / pageElems);
+    byte[] pageInit = new byte[(npages + 7) / 8];
+    raf.readFully(pageInit);
+    raf.skipBytes(4); // checksum
+    long pageStart = raf.getFilePointer();
+    for (int page = 0; page < npages; page++) {
+      if (!isBitSet(pageInit, page))
+        continue; // no chunks in this page were written
+      raf.seek(pageStart + page * (pageElems * elementSize + 4));
+      int start = (int) (page * pageElems);
+      readElements(start, (int) Math.min(pageElems, n - start));
+    }
+  }
+
+  private void readElements(int start, int count) throws IOException {
+    for (int i = start; i < start + count; i++) {
+      addresses[i] = h5.readOffset();
+      if (filtered) {
+        chunkSizes[i] = h5.readVariableSizeUnsigned(elementSize - h5.getSizeOffsets() - 4);
+        filterMasks[i] = raf.readInt();
+      }
+    }
+  }
+
+  // bits are numbered from the high order bit of each byte, as in H5VM_bit_get()
+  static boolean isBitSet(byte[] bitmap, long bit) {
+    return (bitmap[(int) (bit / 8)] & (0x80 >> (bit % 8))) != 0;
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 1998-2020 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.internal.iosp.hdf5;
+
+/**
+ * The checksum used in HDF5 version 2 metadata (superblock, object headers, etc).
+ * This is Bob Jenkins' lookup3 "hashlittle", as in H5checksum.c.
+ */
+final class H5checksum {
+
+  private H5checksum() {}
+
+  /** Checksum of the bytes in buf[offset, offset+length), with initial value 0. */
+  static int lookup3(byte[] buf, int offset, int length) {
+    return lookup3(buf, offset, length, 0);
+  }
+
+  static int lookup3(byte[] buf, int offset, int length, int initval) {
+    int a, b, c;
+    a = b = c = 0xdeadbeef + length + initval;
+
+    int k = offset;
+    while (length > 12) {
+      a += (buf[k] & 0xff) | ((buf[k + 1] & 0xff) << 8) | ((buf[k + 2] & 0xff) << 16) | ((buf[k + 3] & 0xff) << 24);
+      b += (buf[k + 4] & 0xff) | ((buf[k + 5] & 0xff) << 8) | ((buf[k + 6] & 0xff) << 16)
+          | ((buf[k + 7] & 0xff) << 24);
+      c += (buf[k + 8] & 0xff) | ((buf[k + 9] & 0xff) << 8) | ((buf[k + 10] & 0xff) << 16)
+          | ((buf[k + 11] & 0xff) << 24);
+
+      // mix
+      a -= c;
+      a ^= Integer.rotateLeft(c, 4);
+      c += b;
+      b -= a;
+      b ^= Integer.rotateLeft(a, 6);
+      a += c;
+      c -= b;
+      c ^= Integer.rotateLeft(b, 8);
+      b += a;
+      a -= c;
+      a ^= Integer.rotateLeft(c, 16);
+      c += b;
+      b -= a;
+      b ^= Integer.rotateLeft(a, 19);
+      a += c;
+      c -= b;
+      c ^= Integer.rotateLeft(b, 4);
+      b += a;
+
+      length -= 12;
+      k += 12;
+    }
+
+    // the last block, all the case statements fall through
+    switch (length) {
+      case 12:
+        c += (buf[k + 11] & 0xff) << 24;
+      case 11:
+        c += (buf[k + 10] & 0xff) << 16;
+      case 10:
+        c += (buf[k + 9] & 0xff) << 8;
+      case 9:
+        c += buf[k + 8] & 0xff;
+      case 8:
+        b += (buf[k + 7] & 0xff) << 24;
+      case 7:
+        b += (buf[k + 6] & 0xff) << 16;
+      case 6:
+        b += (buf[k + 5] & 0xff) << 8;
+      case 5:
+        b += buf[k + 4] & 0xff;
+      case 4:
+        a += (buf[k + 3] & 0xff) << 24;
+      case 3:
+        a += (buf[k + 2] & 0xff) << 16;
+      case 2:
+        a += (buf[k + 1] & 0xff) << 8;
+      case 1:
+        a += buf[k] & 0xff;
+        break;
+      case 0:
+        return c;
+    }
+
+    // final
+    c ^= b;
+    c -= Integer.rotateLeft(b, 14);
+    a ^= c;
+    a -= Integer.rotateLeft(c, 11);
+    b ^= a;
+    b -= Integer.rotateLeft(a, 25);
+    c ^= b;
+    c -= Integer.rotateLeft(b, 16);
+    a ^= c;
+    a -= Integer.rotateLeft(c, 4);
+    b ^= a;
+    b -= Integer.rotateLeft(a, 14);
+    c ^= b;
+    c -= Integer.rotateLeft(b, 24);
+    return c;
+  }
+}
@@ -1331,7 +1331,8 @@ public class H5header implements HdfHeaderIF {
 
     int[] shape = makeVariableShape(facade.dobj.mdt, facade.dobj.mds, facade.dimList);
     if (vinfo.isChunked) { // make the data btree, but entries are not read in
-      vinfo.btree = new DataBTree(this, dataAddress, shape, vinfo.storageSize, memTracker);
+      vinfo.btree = new DataBTree(this, facade.dobj.msl, shape, facade.dobj.mds.dimLength, facade.dobj.mds.maxLength,
+          memTracker);
 
       if (vinfo.isChunked) { // add an attribute describing the chunk size
         List<Integer> chunksize = new ArrayList<>();
@@ -0,0 +1,925 @@
+/*
+ * Copyright (c) 1998-2020 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.internal.iosp.hdf5;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import javax.annotation.Nullable;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.Group;
+import ucar.nc2.Variable;
+import ucar.nc2.constants.CDM;
+import ucar.nc2.iosp.IospHelper;
+import ucar.nc2.iosp.NetcdfFormatUtils;
+
+/**
+ * Writes the HDF5 metadata of a netCDF-4 file, after all the data has been written.
+ * Uses superblock version 2, version 2 object headers, compact link storage in the groups,
+ * version 1 B-trees for the chunk index and global heap collections for variable length data.
+ * Only the subset of the format that the netCDF-4 data model needs is written.
+ *
+ * <pre>
+ * Each netCDF group is an HDF5 group.
+ * Each netCDF variable is an HDF5 dataset; a variable whose name is the same as a dimension in its group,
+ *   but is not its coordinate variable, has NETCDF4_NON_COORD prepended to its dataset name.
+ * Each shared dimension is a dimension scale; it is the dataset of its coordinate variable if there is one,
+ *   otherwise a placeholder dataset with no data, whose NAME starts with "This is a netCDF dimension but not a
+ *   netCDF variable".
+ * Variables refer to their dimension scales with a DIMENSION_LIST attribute, and each dimension scale lists the
+ *   variables that refer to it with a REFERENCE_LIST attribute, as the HDF5 dimension scale API does.
+ * The root group has the _NCProperties attribute that netCDF-C writes.
+ * </pre>
+ *
+ * @see "https://support.hdfgroup.org/HDF5/doc/H5.format.html"
+ */
+class H5headerWriter {
+  private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(H5headerWriter.class);
+
+  static final long UNDEF = -1L; // "undefined address"
+  static final int SUPERBLOCK_SIZE = 48;
+  private static final byte[] HEAD = {(byte) 0x89, 'H', 'D', 'F', '\r', '\n', 0x1a, '\n'};
+  private static final String NOT_A_VARIABLE = "This is a netCDF dimension but not a netCDF variable.%10d";
+  private static final int BTREE_K = 32; // chunk B-tree nodes have at most 2K entries
+  private static final String NCPROPERTIES = "version=2,netcdfjava=" + Optional
+      .ofNullable(H5headerWriter.class.getPackage().getImplementationVersion()).orElse("unknown");
+
+  // header message types
+  private static final int MSG_DATASPACE = 1;
+  private static final int MSG_LINK_INFO = 2;
+  private static final int MSG_DATATYPE = 3;
+  private static final int MSG_FILL_VALUE = 5;
+  private static final int MSG_LINK = 6;
+  private static final int MSG_LAYOUT = 8;
+  private static final int MSG_GROUP_INFO = 10;
+  private static final int MSG_FILTER_PIPELINE = 11;
+  private static final int MSG_ATTRIBUTE = 12;
+
+  private final H5iospWriter writer;
+  private final boolean extendedModel;
+  private final Map<Dimension, H5Object> scales = new IdentityHashMap<>();
+  private final Map<Dimension, Integer> dimids = new IdentityHashMap<>();
+  private final List<DimensionList> dimensionLists = new ArrayList<>();
+  private final Map<H5Object, ReferenceList> referenceLists = new LinkedHashMap<>();
+  private final List<H5Object> objects = new ArrayList<>();
+
+  H5headerWriter(H5iospWriter writer, boolean extendedModel) {
+    this.writer = writer;
+    this.extendedModel = extendedModel;
+  }
+
+  /** Write the metadata of all the groups and variables, then the superblock. The data must all be written. */
+  void write(Group root) throws IOException {
+    H5Object rootObject = makeGroup(root, "");
+    addReferenceLists();
+
+    // the sizes of the objects dont depend on the addresses they contain
+    for (H5Object obj : objects) {
+      obj.address = writer.allocate(obj.encode().length);
+    }
+
+    // now that the dimension scales have addresses, the DIMENSION_LISTs can be made
+    for (DimensionList dimList : dimensionLists) {
+      ByteBuffer ids = ByteBuffer.wrap(dimList.att.data).order(ByteOrder.LITTLE_ENDIAN);
+      for (Dimension dim : dimList.v.getDimensions()) {
+        H5Object scale = scales.get(findSharedDimension(dimList.v, dim));
+        if (scale == null) {
+          throw new IllegalStateException("No dimension scale for " + dim + " of " + dimList.v.getFullName());
+        }
+        byte[] ref = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(scale.address).array();
+        writer.heap.add(ref, 1, ids);
+      }
+    }
+    for (ReferenceList refList : referenceLists.values()) {
+      ByteBuffer refs = ByteBuffer.wrap(refList.att.data).order(ByteOrder.LITTLE_ENDIAN);
+      for (int i = 0; i < refList.datasets.size(); i++) {
+        refs.putLong(refList.datasets.get(i).address);
+        refs.putInt(refList.dims.get(i));
+        refs.putInt(0); // padding
+      }
+    }
+
+    for (H5Object obj : objects) {
+      writer.writeBytes(obj.address, ByteBuffer.wrap(obj.encode()));
+    }
+    writer.heap.finish();
+    writeSuperblock(rootObject.address, writer.getEof());
+  }
+
+  private void writeSuperblock(long rootAddress, long eof) throws IOException {
+    Encoder out = new Encoder(SUPERBLOCK_SIZE);
+    out.putBytes(HEAD);
+    out.put(2); // version
+    out.put(8); // size of offsets
+    out.put(8); // size of lengths
+    out.put(0); // flags
+    out.putLong(0); // base address
+    out.putLong(UNDEF); // superblock extension
+    out.putLong(eof);
+    out.putLong(rootAddress);
+    out.putInt(H5checksum.lookup3(out.buf, 0, out.position()));
+    writer.writeBytes(0, ByteBuffer.wrap(out.toByteArray()));
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////
+  // the netCDF-4 data model
+
+  private H5Object makeGroup(Group g, String name) throws IOException {
+    H5Object gobj = new H5Object(name);
+    gobj.add(MSG_LINK_INFO, 0, out -> {
+      out.put(0); // version
+      out.put(0); // flags: no creation order
+      out.putLong(UNDEF); // fractal heap, links are stored in this header
+      out.putLong(UNDEF); // name index B-tree
+    });
+    gobj.add(MSG_GROUP_INFO, 0, out -> {
+      out.put(0); // version
+      out.put(0); // flags: default values
+    });
+
+    // dimensions, in order so the dimension ids match
+    for (Dimension dim : g.getDimensions()) {
+      dimids.put(dim, dimids.size());
+    }
+    Set<Variable> coordinates = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (Dimension dim : g.getDimensions()) {
+      Variable coord = g.findVariableLocal(dim.getShortName());
+      if (coord != null && isCoordinateVariable(coord, dim)) {
+        coordinates.add(coord);
+        H5Object scale = makeDataset(coord, dim.getShortName());
+        scale.addAttribute(makeText(H5header.HDF5_CLASS, H5header.HDF5_DIMENSION_SCALE));
+        scale.addAttribute(makeText(H5header.HDF5_DIMENSION_NAME, dim.getShortName()));
+        scale.addAttribute(makeDimid(dimids.get(dim)));
+        if (coord.getRank() > 1) {
+          int[] coords = new int[coord.getRank()];
+          for (int i = 0; i < coords.length; i++) {
+            coords[i] = dimids.get(findSharedDimension(coord, coord.getDimension(i)));
+          }
+          scale.addAttribute(makeInts(NetcdfFormatUtils.NETCDF4_COORDINATES, coords));
+          addDimensionList(gobj, scale, coord);
+        }
+        gobj.addLink(scale);
+        scales.put(dim, scale);
+      } else {
+        H5Object scale = makeDimensionOnly(dim.getShortName(), dim.getLength(), dim.isUnlimited(), dimids.get(dim));
+        gobj.addLink(scale);
+        scales.put(dim, scale);
+      }
+    }
+
+    for (Variable v : g.getVariables()) {
+      if (coordinates.contains(v)) {
+        continue; // already made as a dimension scale
+      }
+      String dsName = v.getShortName();
+      if (g.findDimensionLocal(dsName) != null) {
+        dsName = NetcdfFormatUtils.NETCDF4_NON_COORD + dsName;
+      }
+      H5Object dataset = makeDataset(v, dsName);
+      if (v.getRank() > 0) {
+        addDimensionList(gobj, dataset, v);
+      }
+      gobj.addLink(dataset);
+    }
+
+    if (g.isRoot()) {
+      gobj.addAttribute(makeText(CDM.NCPROPERTIES, NCPROPERTIES));
+    }
+    if (!extendedModel && g.isRoot()) {
+      gobj.addAttribute(makeInts(NetcdfFormatUtils.NETCDF4_STRICT, new int[] {1}));
+    }
+    for (Attribute att : writer.getAttributes(g)) {
+      AttributeMessage matt = makeAttribute(att, null);
+      if (matt != null) {
+        gobj.addAttribute(matt);
+      }
+    }
+
+    for (Group nested : g.getGroups()) {
+      gobj.addLink(makeGroup(nested, nested.getShortName()));
+    }
+    return gobj;
+  }
+
+  // v is the coordinate variable of the dimension dim, which is in the same group
+  private boolean isCoordinateVariable(Variable v, Dimension dim) {
+    return v.getRank() > 0 && v.getDimension(0).isShared() && findSharedDimension(v, v.getDimension(0)) == dim;
+  }
+
+  // the Dimension object owned by the Group where the shared dimension lives
+  private Dimension findSharedDimension(Variable v, Dimension dim) {
+    if (!dim.isShared()) {
+      return dim;
+    }
+    Group g = v.getParentGroup();
+    while (g != null) {
+      Dimension have = g.findDimensionLocal(dim.getShortName());
+      if (have != null) {
+        return have;
+      }
+      g = g.getParentGroup();
+    }
+    throw new IllegalStateException("Cant find shared dimension " + dim.getShortName() + " of " + v.getFullName());
+  }
+
+  // the dimension scales are found after all the groups are made
+  private void addDimensionList(H5Object gobj, H5Object dataset, Variable v) {
+    int count = 0;
+    for (Dimension dim : v.getDimensions()) {
+      if (!dim.isShared()) { // make a dimension for it
+        int dimid = dimids.size();
+        dimids.put(dim, dimid);
+        H5Object scale = makeDimensionOnly(v.getShortName() + "_Dim" + count, dim.getLength(), false, dimid);
+        gobj.addLink(scale);
+        scales.put(dim, scale);
+      }
+      count++;
+    }
+    byte[] type = encode(H5headerWriter::encodeVlenReferenceType);
+    byte[] space = encode(out -> encodeDataspace(out, new int[] {v.getRank()}, null));
+    AttributeMessage att = new AttributeMessage(H5header.HDF5_DIMENSION_LIST, type, space, new byte[16 * v.getRank()]);
+    dataset.addAttribute(att);
+    dimensionLists.add(new DimensionList(v, dataset, att));
+  }
+
+  // Once all the DIMENSION_LISTs are known, add the REFERENCE_LIST of each dimension scale that is used.
+  // A multidimensional coordinate variable does not list itself; the HDF5 library can't attach a scale to itself.
+  private void addReferenceLists() {
+    for (DimensionList dimList : dimensionLists) {
+      for (int i = 0; i < dimList.v.getRank(); i++) {
+        H5Object scale = scales.get(findSharedDimension(dimList.v, dimList.v.getDimension(i)));
+        if (scale != null && scale != dimList.dataset) {
+          ReferenceList refList = referenceLists.computeIfAbsent(scale, k -> new ReferenceList());
+          refList.datasets.add(dimList.dataset);
+          refList.dims.add(i);
+        }
+      }
+    }
+    byte[] type = encode(H5headerWriter::encodeReferenceListType);
+    referenceLists.forEach((scale, refList) -> {
+      int n = refList.datasets.size();
+      refList.att = new AttributeMessage(H5header.HDF5_REFERENCE_LIST, type,
+          encode(out -> encodeDataspace(out, new int[] {n}, null)), new byte[16 * n]);
+      scale.addAttribute(refList.att);
+    });
+  }
+
+  // a dimension without a coordinate variable
+  private H5Object makeDimensionOnly(String name, int length, boolean isUnlimited, int dimid) {
+    H5Object scale = new H5Object(name);
+    scale.add(MSG_DATASPACE, 0, out -> encodeDataspace(out, new int[] {length}, new boolean[] {isUnlimited}));
+    scale.add(MSG_DATATYPE, 1, out -> encodeDatatype(out, DataType.FLOAT, 4));
+    scale.add(MSG_FILL_VALUE, 1, out -> encodeFillValue(out, isUnlimited ? 3 : 2, false, null));
+    if (isUnlimited) { // no data yet, chunked so it can be extended
+      scale.add(MSG_LAYOUT, 0, out -> encodeChunkedLayout(out, UNDEF, new int[] {1}, 4));
+    } else { // no data
+      scale.add(MSG_LAYOUT, 0, out -> encodeContiguousLayout(out, UNDEF, 4L * length));
+    }
+    scale.addAttribute(makeText(H5header.HDF5_CLASS, H5header.HDF5_DIMENSION_SCALE));
+    scale.addAttribute(makeText(H5header.HDF5_DIMENSION_NAME, String.format(NOT_A_VARIABLE, length)));
+    scale.addAttribute(makeDimid(dimid));
+    return scale;
+  }
+
+  private H5Object makeDataset(Variable v, String name) throws IOException {
+    H5iospWriter.Vinfo vinfo = (H5iospWriter.Vinfo) v.getSPobject();
+    int[] shape = v.getShape();
+    boolean[] unlimited = new boolean[shape.length];
+    for (int i = 0; i < shape.length; i++) {
+      unlimited[i] = v.getDimension(i).isUnlimited();
+    }
+
+    H5Object dataset = new H5Object(name);
+    dataset.add(MSG_DATASPACE, 0, out -> encodeDataspace(out, shape, unlimited));
+    dataset.add(MSG_DATATYPE, 1, out -> encodeDatatype(out, vinfo.dataType, vinfo.elemSize));
+    dataset.add(MSG_FILL_VALUE, 1,
+        out -> encodeFillValue(out, vinfo.isChunked ? 3 : 2, vinfo.fill, vinfo.isString() ? null : vinfo.fillValue));
+    if (vinfo.isChunked) {
+      long btree = writeChunkIndex(vinfo.getStoredChunks(), vinfo.chunking, vinfo.elemSize);
+      dataset.add(MSG_LAYOUT, 0, out -> encodeChunkedLayout(out, btree, vinfo.chunking, vinfo.elemSize));
+      if (vinfo.deflateLevel > 0) {
+        dataset.add(MSG_FILTER_PIPELINE, 1, out -> encodeFilters(out, vinfo));
+      }
+    } else {
+      dataset.add(MSG_LAYOUT, 0, out -> encodeContiguousLayout(out, vinfo.address, v.getSize() * vinfo.elemSize));
+    }
+
+    for (Attribute att : writer.getAttributes(v)) {
+      AttributeMessage matt = makeAttribute(att, v);
+      if (matt != null) {
+        dataset.addAttribute(matt);
+      }
+    }
+    return dataset;
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////
+  // attributes
+
+  @Nullable
+  private AttributeMessage makeAttribute(Attribute att, @Nullable Variable v) throws IOException {
+    String name = att.getShortName();
+    if (isInternal(name)) {
+      return null;
+    }
+    DataType dtype = att.getDataType();
+    if (v != null && name.equals(CDM.FILL_VALUE)) {
+      if (att.getLength() != 1) {
+        log.warn("_FillValue length must be one on var = {}", v.getFullName());
+        return null;
+      }
+      if (dtype != v.getDataType() && (dtype != DataType.STRING || v.getDataType() != DataType.CHAR)) {
+        log.warn("_FillValue type ({}) does not agree with variable '{}' type ({}).", dtype, v.getShortName(),
+            v.getDataType());
+        return null;
+      }
+    }
+
+    Array values = att.getValues();
+    if (values == null || att.getLength() == 0) { // an empty attribute has a null dataspace
+      DataType type = (dtype == DataType.STRING) ? DataType.CHAR : dtype;
+      return new AttributeMessage(name, encode(out -> encodeDatatype(out, type, 1)),
+          encode(out -> encodeDataspace(out, null, null)), new byte[0]);
+    }
+
+    switch (dtype) {
+      case STRING:
+        if (v != null && name.equals(CDM.FILL_VALUE)) { // char typed variable with string typed _FillValue
+          return makeText(name, att.getStringValue().getBytes(StandardCharsets.UTF_8));
+        }
+        if (!extendedModel) { // concatenate into a text attribute
+          StringBuilder text = new StringBuilder();
+          for (int i = 0; i < att.getLength(); i++) {
+            text.append(att.getStringValue(i));
+          }
+          return makeText(name, text.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] ids = new byte[16 * att.getLength()];
+        ByteBuffer bb = ByteBuffer.wrap(ids).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < att.getLength(); i++) {
+          byte[] sval = att.getStringValue(i).getBytes(StandardCharsets.UTF_8);
+          writer.heap.add(sval, sval.length, bb);
+        }
+        return new AttributeMessage(name, encode(out -> encodeDatatype(out, DataType.STRING, 16)),
+            encode(out -> encodeDataspace(out, new int[] {att.getLength()}, null)), ids);
+
+      case CHAR:
+        return makeText(name, IospHelper.convertCharToByte((char[]) values.get1DJavaArray(DataType.CHAR)));
+
+      case BYTE:
+      case UBYTE:
+      case SHORT:
+      case USHORT:
+      case INT:
+      case UINT:
+      case LONG:
+      case ULONG:
+      case FLOAT:
+      case DOUBLE:
+        return new AttributeMessage(name, encode(out -> encodeDatatype(out, dtype, dtype.getSize())),
+            encode(out -> encodeDataspace(out, new int[] {att.getLength()}, null)), encodeValues(values, dtype));
+
+      default:
+        log.warn("Attribute {} of type {} cannot be written, skipping", name, dtype);
+        return null;
+    }
+  }
+
+  // these are written by the writer, or are only added by the reader
+  private static boolean isInternal(String name) {
+    switch (name) {
+      case H5header.HDF5_CLASS:
+      case H5header.HDF5_DIMENSION_LIST:
+      case H5header.HDF5_DIMENSION_SCALE:
+      case H5header.HDF5_DIMENSION_LABELS:
+      case H5header.HDF5_REFERENCE_LIST:
+      case CDM.CHUNK_SIZES:
+      case CDM.COMPRESS:
+      case NetcdfFormatUtils.NETCDF4_COORDINATES:
+      case NetcdfFormatUtils.NETCDF4_DIMID:
+      case NetcdfFormatUtils.NETCDF4_STRICT:
+        return true;
+      default:
+        return CDM.NETCDF4_SPECIAL_ATTS.contains(name);
+    }
+  }
+
+  // a null terminated text attribute
+  private AttributeMessage makeText(String name, String value) {
+    byte[] b = value.getBytes(StandardCharsets.UTF_8);
+    return makeText(name, Arrays.copyOf(b, b.length + 1));
+  }
+
+  private AttributeMessage makeText(String name, byte[] value) {
+    byte[] text = (value.length == 0) ? new byte[1] : value;
+    return new AttributeMessage(name, encode(out -> encodeDatatype(out, DataType.CHAR, text.length)),
+        encode(out -> encodeDataspace(out, new int[0], null)), text);
+  }
+
+  private AttributeMessage makeDimid(int dimid) {
+    return new AttributeMessage(NetcdfFormatUtils.NETCDF4_DIMID, encode(out -> encodeDatatype(out, DataType.INT, 4)),
+        encode(out -> encodeDataspace(out, new int[0], null)),
+        ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(dimid).array());
+  }
+
+  private AttributeMessage makeInts(String name, int[] values) {
+    return new AttributeMessage(name, encode(out -> encodeDatatype(out, DataType.INT, 4)),
+        encode(out -> encodeDataspace(out, new int[] {values.length}, null)),
+        encodeValues(Array.factory(DataType.INT, new int[] {values.length}, values), DataType.INT));
+  }
+
+  /** The values as little endian bytes, converted to dataType. Only numeric and CHAR types. */
+  static byte[] encodeValues(Array values, DataType dataType) {
+    if (dataType == DataType.CHAR) {
+      if (values.getDataType() == DataType.CHAR) {
+        return IospHelper.convertCharToByte((char[]) values.get1DJavaArray(DataType.CHAR));
+      }
+      return ((byte[]) values.get1DJavaArray(DataType.BYTE)).clone();
+    }
+
+    int n = (int) values.getSize();
+    ByteBuffer bb = ByteBuffer.allocate(n * dataType.getSize()).order(ByteOrder.LITTLE_ENDIAN);
+    switch (dataType) {
+      case BYTE:
+      case UBYTE:
+        bb.put((byte[]) values.get1DJavaArray(dataType));
+        break;
+      case SHORT:
+      case USHORT:
+        bb.asShortBuffer().put((short[]) values.get1DJavaArray(dataType));
+        break;
+      case INT:
+      case UINT:
+        bb.asIntBuffer().put((int[]) values.get1DJavaArray(dataType));
+        break;
+      case LONG:
+      case ULONG:
+        bb.asLongBuffer().put((long[]) values.get1DJavaArray(dataType));
+        break;
+      case FLOAT:
+        bb.asFloatBuffer().put((float[]) values.get1DJavaArray(dataType));
+        break;
+      case DOUBLE:
+        bb.asDoubleBuffer().put((double[]) values.get1DJavaArray(dataType));
+        break;
+      default:
+        throw new IllegalArgumentException("Cant encode type " + dataType);
+    }
+    return bb.array();
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////
+  // header messages
+
+  private static void encodeDataspace(Encoder out, @Nullable int[] shape, @Nullable boolean[] unlimited) {
+    out.put(2); // version
+    if (shape == null) { // null dataspace
+      out.put(0);
+      out.put(0);
+      out.put(2);
+      return;
+    }
+    out.put(shape.length);
+    out.put(shape.length == 0 ? 0 : 1); // flags: max dimensions are present
+    out.put(shape.length == 0 ? 0 : 1); // scalar or simple
+    for (int len : shape) {
+      out.putLong(len);
+    }
+    for (int i = 0; i < shape.length; i++) {
+      out.putLong(unlimited != null && unlimited[i] ? UNDEF : shape[i]);
+    }
+  }
+
+  private static void encodeDatatype(Encoder out, DataType dtype, int size) {
+    switch (dtype) {
+      case FLOAT:
+        out.put(0x11); // version 1, floating point
+        out.put(0x20); // little endian, implied msb
+        out.put(31); // sign bit
+        out.put(0);
+        out.putInt(4);
+        out.putShort(0); // bit offset
+        out.putShort(32); // bit precision
+        out.put(23); // exponent location
+        out.put(8); // exponent size
+        out.put(0); // mantissa location
+        out.put(23); // mantissa size
+        out.putInt(127); // exponent bias
+        break;
+      case DOUBLE:
+        out.put(0x11);
+        out.put(0x20);
+        out.put(63);
+        out.put(0);
+        out.putInt(8);
+        out.putShort(0);
+        out.putShort(64);
+        out.put(52);
+        out.put(11);
+        out.put(0);
+        out.put(52);
+        out.putInt(1023);
+        break;
+      case CHAR: // null terminated ascii string of length size
+        out.put(0x13);
+        out.put(0);
+        out.put(0);
+        out.put(0);
+        out.putInt(size);
+        break;
+      case STRING:
+        out.put(0x19); // version 1, variable length
+        out.put(0x01); // string, null terminated
+        out.put(0x01); // UTF-8
+        out.put(0);
+        out.putInt(16);
+        encodeFixedPoint(out, 1, false);
+        break;
+      default:
+        encodeFixedPoint(out, dtype.getSize(), !dtype.isUnsigned());
+    }
+  }
+
+  private static void encodeFixedPoint(Encoder out, int size, boolean signed) {
+    out.put(0x10); // version 1, fixed point
+    out.put(signed ? 0x08 : 0); // little endian
+    out.put(0);
+    out.put(0);
+    out.putInt(size);
+    out.putShort(0); // bit offset
+    out.putShort(8 * size); // bit precision
+  }
+
+  // variable length sequence of object references
+  private static void encodeVlenReferenceType(Encoder out) {
+    out.put(0x19);
+    out.put(0); // sequence
+    out.put(0);
+    out.put(0);
+    out.putInt(16);
+    out.put(0x17); // version 1, reference
+    out.put(0); // object reference
+    out.put(0);
+    out.put(0);
+    out.putInt(8);
+  }
+
+  // compound {object reference dataset; int dimension}, 16 bytes like the C struct the HDF5 library uses
+  private static void encodeReferenceListType(Encoder out) {
+    out.put(0x36); // version 3, compound
+    out.putShort(2); // number of members
+    out.put(0);
+    out.putInt(16);
+    out.putBytes("dataset\0".getBytes(StandardCharsets.US_ASCII));
+    out.put(0); // byte offset, in one byte since the size is < 256
+    out.put(0x17); // version 1, reference
+    out.put(0); // object reference
+    out.put(0);
+    out.put(0);
+    out.putInt(8);
+    out.putBytes("dimension\0".getBytes(StandardCharsets.US_ASCII));
+    out.put(8);
+    encodeFixedPoint(out, 4, true);
+  }
+
+  private static void encodeFillValue(Encoder out, int allocTime, boolean fill, @Nullable byte[] value) {
+    out.put(2); // version
+    out.put(allocTime); // 2 = late, 3 = incremental
+    out.put(fill ? 2 : 1); // write time: 2 = if set, 1 = never
+    if (value == null) {
+      out.put(0);
+    } else {
+      out.put(1);
+      out.putInt(value.length);
+      out.putBytes(value);
+    }
+  }
+
+  private static void encodeContiguousLayout(Encoder out, long address, long size) {
+    out.put(3); // version
+    out.put(1); // contiguous
+    out.putLong(address);
+    out.putLong(size);
+  }
+
+  private static void encodeChunkedLayout(Encoder out, long btree, int[] chunking, int elemSize) {
+    out.put(3); // version
+    out.put(2); // chunked
+    out.put(chunking.length + 1);
+    out.putLong(btree);
+    for (int len : chunking) {
+      out.putInt(len);
+    }
+    out.putInt(elemSize);
+  }
+
+  private static void encodeFilters(Encoder out, H5iospWriter.Vinfo vinfo) {
+    boolean shuffle = vinfo.shuffle && vinfo.elemSize > 1;
+    out.put(2); // version
+    out.put(shuffle ? 2 : 1);
+    if (shuffle) {
+      out.putShort(2); // shuffle
+      out.putShort(1); // optional
+      out.putShort(1);
+      out.putInt(vinfo.elemSize);
+    }
+    out.putShort(1); // deflate
+    out.putShort(1);
+    out.putShort(1);
+    out.putInt(vinfo.deflateLevel);
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////
+  // chunk index
+
+  /**
+   * Write the version 1 B-tree that indexes the chunks of a variable.
+   * The leaves are filled completely, then the levels above them.
+   *
+   * @param chunks the stored chunks, sorted by their offsets.
+   * @return address of the root node, or UNDEF if there are no chunks.
+   */
+  private long writeChunkIndex(List<H5iospWriter.StoredChunk> chunks, int[] chunking, int elemSize)
+      throws IOException {
+    if (chunks.isEmpty()) {
+      return UNDEF;
+    }
+    int rank = chunking.length;
+    int keySize = 8 + 8 * (rank + 1);
+    int nodeSize = 24 + 2 * BTREE_K * 8 + (2 * BTREE_K + 1) * keySize;
+
+    List<IndexEntry> entries = new ArrayList<>(chunks.size());
+    for (H5iospWriter.StoredChunk chunk : chunks) {
+      int[] end = new int[rank];
+      for (int i = 0; i < rank; i++) {
+        end[i] = chunk.offset[i] + chunking[i];
+      }
+      entries.add(new IndexEntry(chunk.offset, chunk.nbytes, chunk.address, end));
+    }
+
+    for (int level = 0;; level++) {
+      int nnodes = (entries.size() + 2 * BTREE_K - 1) / (2 * BTREE_K);
+      long[] addresses = new long[nnodes];
+      for (int i = 0; i < nnodes; i++) {
+        addresses[i] = writer.allocate(nodeSize);
+      }
+
+      List<IndexEntry> parents = new ArrayList<>(nnodes);
+      for (int i = 0; i < nnodes; i++) {
+        List<IndexEntry> node = entries.subList(i * 2 * BTREE_K, Math.min(entries.size(), (i + 1) * 2 * BTREE_K));
+        Encoder out = new Encoder(nodeSize);
+        out.putBytes("TREE".getBytes(StandardCharsets.US_ASCII));
+        out.put(1); // raw data chunks
+        out.put(level);
+        out.putShort(node.size());
+        out.putLong(i > 0 ? addresses[i - 1] : UNDEF);
+        out.putLong(i < nnodes - 1 ? addresses[i + 1] : UNDEF);
+        for (IndexEntry entry : node) {
+          encodeChunkKey(out, entry.nbytes, entry.offset);
+          out.putLong(entry.address);
+        }
+        IndexEntry last = node.get(node.size() - 1);
+        encodeChunkKey(out, 0, last.end);
+        out.putZeros(nodeSize - out.position());
+        writer.writeBytes(addresses[i], ByteBuffer.wrap(out.toByteArray()));
+
+        IndexEntry first = node.get(0);
+        parents.add(new IndexEntry(first.offset, first.nbytes, addresses[i], last.end));
+      }
+
+      if (nnodes == 1) {
+        return addresses[0];
+      }
+      entries = parents;
+    }
+  }
+
+  private static void encodeChunkKey(Encoder out, int nbytes, int[] offset) {
+    out.putInt(nbytes);
+    out.putInt(0); // filter mask
+    for (int off : offset) {
+      out.putLong(off);
+    }
+    out.putLong(0); // the element size dimension
+  }
+
+  private static class IndexEntry {
+    final int[] offset;
+    final int nbytes;
+    final long address;
+    final int[] end; // offset of the chunk after the last one in this entry
+
+    IndexEntry(int[] offset, int nbytes, long address, int[] end) {
+      this.offset = offset;
+      this.nbytes = nbytes;
+      this.address = address;
+      this.end = end;
+    }
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////
+
+  private interface MessageEncoder {
+    void encode(Encoder out);
+  }
+
+  private static byte[] encode(MessageEncoder enc) {
+    Encoder out = new Encoder(64);
+    enc.encode(out);
+    return out.toByteArray();
+  }
+
+  /** An object (group or dataset) with a version 2 object header. */
+  private class H5Object {
+    final String name;
+    final List<Integer> types = new ArrayList<>();
+    final List<Integer> flags = new ArrayList<>();
+    final List<MessageEncoder> messages = new ArrayList<>();
+    long address = UNDEF;
+
+    H5Object(String name) {
+      this.name = name;
+      objects.add(this);
+    }
+
+    void add(int type, int flag, MessageEncoder enc) {
+      types.add(type);
+      flags.add(flag);
+      messages.add(enc);
+    }
+
+    void addAttribute(AttributeMessage att) {
+      add(MSG_ATTRIBUTE, 0, att::encode);
+    }
+
+    void addLink(H5Object child) {
+      byte[] name = child.name.getBytes(StandardCharsets.UTF_8);
+      add(MSG_LINK, 0, out -> {
+        out.put(1); // version
+        out.put(0x11); // 2 byte name length, charset present
+        out.put(1); // UTF-8
+        out.putShort(name.length);
+        out.putBytes(name);
+        out.putLong(child.address); // hard link
+      });
+    }
+
+    byte[] encode() {
+      Encoder out = new Encoder(256);
+      out.putBytes("OHDR".getBytes(StandardCharsets.US_ASCII));
+      out.put(2); // version
+      out.put(0x02); // 4 byte chunk size
+      int sizePos = out.position();
+      out.putInt(0);
+      for (int i = 0; i < messages.size(); i++) {
+        out.put(types.get(i));
+        int msgSizePos = out.position();
+        out.putShort(0);
+        out.put(flags.get(i));
+        int start = out.position();
+        messages.get(i).encode(out);
+        int msgSize = out.position() - start;
+        if (msgSize > 0xffff) {
+          throw new IllegalArgumentException("Header message too large (" + msgSize + " bytes) in object " + name);
+        }
+        out.putShortAt(msgSizePos, msgSize);
+      }
+      out.putIntAt(sizePos, out.position() - sizePos - 4);
+      out.putInt(H5checksum.lookup3(out.buf, 0, out.position()));
+      return out.toByteArray();
+    }
+  }
+
+  private static class AttributeMessage {
+    final String name;
+    final byte[] type;
+    final byte[] space;
+    final byte[] data;
+
+    AttributeMessage(String name, byte[] type, byte[] space, byte[] data) {
+      this.name = name;
+      this.type = type;
+      this.space = space;
+      this.data = data;
+    }
+
+    void encode(Encoder out) {
+      byte[] nameb = (name + '\0').getBytes(StandardCharsets.UTF_8);
+      out.put(3); // version
+      out.put(0); // flags
+      out.putShort(nameb.length);
+      out.putShort(type.length);
+      out.putShort(space.length);
+      out.put(1); // UTF-8
+      out.putBytes(nameb);
+      out.putBytes(type);
+      out.putBytes(space);
+      out.putBytes(data);
+    }
+  }
+
+  // the heap ids of a DIMENSION_LIST are filled in once the dimension scales have addresses
+  private static class DimensionList {
+    final Variable v;
+    final H5Object dataset;
+    final AttributeMessage att;
+
+    DimensionList(Variable v, H5Object dataset, AttributeMessage att) {
+      this.v = v;
+      this.dataset = dataset;
+      this.att = att;
+    }
+  }
+
+  // the datasets that refer to a dimension scale, and which of their dimensions; filled in like a DimensionList
+  private static class ReferenceList {
+    final List<H5Object> datasets = new ArrayList<>();
+    final List<Integer> dims = new ArrayList<>();
+    AttributeMessage att;
+  }
+
+  /** A growable little endian byte buffer. */
+  static class Encoder {
+    private byte[] buf;
+    private int pos;
+
+    Encoder(int capacity) {
+      buf = new byte[Math.max(capacity, 16)];
+    }
+
+    int position() {
+      return pos;
+    }
+
+    void put(int b) {
+      ensure(1);
+      buf[pos++] = (byte) b;
+    }
+
+    void putShort(int v) {
+      putShortAt(pos, v);
+      pos += 2;
+    }
+
+    void putInt(int v) {
+      putIntAt(pos, v);
+      pos += 4;
+    }
+
+    void putLong(long v) {
+      putIntAt(pos, (int) v);
+      putIntAt(pos + 4, (int) (v >>> 32));
+      pos += 8;
+    }
+
+    void putBytes(byte[] b) {
+      ensure(b.length);
+      System.arraycopy(b, 0, buf, pos, b.length);
+      pos += b.length;
+    }
+
+    void putZeros(int n) {
+      ensure(n);
+      pos += n; // buffer is zeroed
+    }
+
+    void putShortAt(int at, int v) {
+      ensure(at + 2 - pos);
+      buf[at] = (byte) v;
+      buf[at + 1] = (byte) (v >>> 8);
+    }
+
+    void putIntAt(int at, int v) {
+      ensure(at + 4 - pos);
+      buf[at] = (byte) v;
+      buf[at + 1] = (byte) (v >>> 8);
+      buf[at + 2] = (byte) (v >>> 16);
+      buf[at + 3] = (byte) (v >>> 24);
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(buf, pos);
+    }
+
+    private void ensure(int n) {
+      if (pos + n > buf.length) {
+        buf = Arrays.copyOf(buf, Math.max(2 * buf.length, pos + n));
+      }
+    }
+  }
+}
@@ -0,0 +1,948 @@
+/*
+ * Copyright (c) 1998-2020 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.internal.iosp.hdf5;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import javax.annotation.Nullable;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.IndexIterator;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
+import ucar.ma2.Section;
+import ucar.ma2.StructureData;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.Group;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Structure;
+import ucar.nc2.Variable;
+import ucar.nc2.constants.CDM;
+import ucar.nc2.internal.iosp.IospFileCreator;
+import ucar.nc2.iosp.Layout;
+import ucar.nc2.iosp.LayoutRegular;
+import ucar.nc2.iosp.NetcdfFileFormat;
+import ucar.nc2.iosp.NetcdfFormatUtils;
+import ucar.nc2.write.Nc4Chunking;
+import ucar.nc2.write.Nc4ChunkingDefault;
+import ucar.nc2.write.UnlimitedDimension;
+
+/**
+ * Writes netCDF-4 files in pure Java, without the netCDF-C library.
+ * Supports the numeric, CHAR and STRING types, groups, shared and unlimited dimensions, and chunked storage with
+ * the shuffle and deflate filters. Structures, enums and opaque types need the netCDF-C library (Nc4writer).
+ * <p/>
+ * Data is written as it arrives. Contiguous variables are written in place. Chunked variables are assembled in
+ * memory; a chunk is compressed and written by a background task as soon as all of its values have been written,
+ * so compression runs in parallel with the caller. Chunks are appended to the file in the order they finish.
+ * A chunk along an unlimited dimension is never complete, so it is flushed as soon as a write of that variable
+ * starts past it, eg at the next record; a later write into a flushed chunk reads it back. So only the chunks of
+ * the current records are held in memory. The number of chunks waiting to be compressed is bounded, so memory use
+ * does not depend on the file size, as long as the records are written in order.
+ * All of the metadata is written by close(), see H5headerWriter.
+ */
+public class H5iospWriter implements IospFileCreator {
+
+  private static final int nthreads = Runtime.getRuntime().availableProcessors();
+  private static Executor compressExecutor = Executors.newFixedThreadPool(nthreads,
+      new ThreadFactoryBuilder().setNameFormat("H5iospWriter-compress-%d").setDaemon(true).build());
+
+  /** Set the Executor used to compress and write chunks. */
+  public static void setExecutor(Executor exec) {
+    compressExecutor = exec;
+  }
+
+  final NetcdfFileFormat format;
+  private final Nc4Chunking chunker;
+  private final Semaphore pending = new Semaphore(4 * nthreads); // chunks being compressed
+  private final AtomicReference<Throwable> failure = new AtomicReference<>();
+  private final AtomicLong eof = new AtomicLong(H5headerWriter.SUPERBLOCK_SIZE);
+  private final Map<Object, Map<String, Attribute>> updatedAttributes = new IdentityHashMap<>();
+
+  final HeapWriter heap = new HeapWriter();
+  private FileChannel channel;
+  private NetcdfFile ncfile;
+
+  /**
+   * Constructor.
+   *
+   * @param format one of the netCDF-4 formats.
+   * @param chunker how to chunk the variables, or null for Nc4ChunkingDefault.
+   */
+  public H5iospWriter(NetcdfFileFormat format, @Nullable Nc4Chunking chunker) {
+    if (!format.isNetdf4format()) {
+      throw new IllegalArgumentException("H5iospWriter only writes netCDF-4 formats, not " + format);
+    }
+    this.format = format;
+    this.chunker = (chunker == null) ? new Nc4ChunkingDefault() : chunker;
+  }
+
+  @Override
+  public NetcdfFile create(String filename, Group.Builder rootGroup, int extra, long preallocateSize, boolean largeFile)
+      throws IOException {
+    // validate before creating the file
+    prepareGroup(rootGroup);
+
+    channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    ncfile = NetcdfFile.builder().setRootGroup(rootGroup).setLocation(filename).build();
+    return ncfile;
+  }
+
+  // Replace the unlimited dimensions with UnlimitedDimension, so their length can change. Attach a Vinfo to each
+  // variable.
+  private void prepareGroup(Group.Builder gb) {
+    if (format.equals(NetcdfFileFormat.NETCDF4_CLASSIC) && gb.getParentGroup() != null) {
+      throw new IllegalArgumentException("Nested groups are not allowed in the netCDF-4 classic model");
+    }
+
+    List<Dimension> dims = new ArrayList<>();
+    gb.getDimensions().forEach(dims::add);
+    for (Dimension dim : dims) {
+      gb.removeDimension(dim.getShortName());
+    }
+    for (Dimension dim : dims) {
+      if (dim.isUnlimited() && !(dim instanceof UnlimitedDimension)) {
+        gb.addDimension(new UnlimitedDimension(dim.getShortName(), dim.getLength()));
+      } else {
+        gb.addDimension(dim);
+      }
+    }
+
+    for (Variable.Builder<?> vb : gb.vbuilders) {
+      for (Dimension dim : vb.getDimensions()) {
+        if (dim.isUnlimited() && !(dim instanceof UnlimitedDimension)) {
+          gb.findDimension(dim.getShortName()).ifPresent(vb::replaceDimensionByName);
+        }
+      }
+      vb.setSPobject(makeVinfo(vb));
+    }
+
+    for (Group.Builder nested : gb.gbuilders) {
+      prepareGroup(nested);
+    }
+  }
+
+  private Vinfo makeVinfo(Variable.Builder<?> vb) {
+    DataType dtype = vb.dataType;
+    switch (dtype) {
+      case STRING:
+      case LONG:
+      case UBYTE:
+      case USHORT:
+      case UINT:
+      case ULONG:
+        if (!format.isExtendedModel()) {
+          throw new IllegalArgumentException(
+              "Variable " + vb.shortName + " type " + dtype + " is not allowed in the netCDF-4 classic model");
+        }
+        break;
+      case BYTE:
+      case SHORT:
+      case INT:
+      case FLOAT:
+      case DOUBLE:
+      case CHAR:
+        break;
+      default:
+        throw new IllegalArgumentException("Variable " + vb.shortName + " type " + dtype
+            + " is not supported by H5iospWriter; use the netCDF-C library (useJna)");
+    }
+
+    Vinfo vinfo = new Vinfo(dtype, (dtype == DataType.STRING) ? 16 : dtype.getSize());
+    vinfo.fillValue = makeFillValue(vb, vinfo);
+    int rank = vb.getRank();
+    if (rank > 0 && (vb.isUnlimited() || chunker.isChunked(vb))) {
+      long[] chunking = chunker.computeChunking(vb);
+      int[] shape = vb.getShape();
+      vinfo.chunking = new int[rank];
+      long chunkSize = vinfo.elemSize;
+      for (int i = 0; i < rank; i++) {
+        long len = Math.max(1, chunking[i]);
+        if (!vb.getDimension(i).isUnlimited()) {
+          len = Math.min(len, Math.max(1, shape[i]));
+        }
+        vinfo.chunking[i] = (int) len;
+        chunkSize *= len;
+      }
+      if (chunkSize > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Variable " + vb.shortName + " chunk is too large " + chunkSize);
+      }
+      vinfo.isChunked = true;
+      vinfo.deflateLevel = chunker.getDeflateLevel(vb);
+      vinfo.shuffle = chunker.isShuffle(vb);
+    }
+    return vinfo;
+  }
+
+  // the fill value as little endian bytes; null for STRING, whose fill value is the empty string
+  @Nullable
+  private byte[] makeFillValue(Variable.Builder<?> vb, Vinfo vinfo) {
+    if (vinfo.isString()) {
+      return null;
+    }
+    Attribute att = vb.getAttributeContainer().findAttribute(CDM.FILL_VALUE);
+    if (att != null && att.getLength() == 1) {
+      if (vinfo.dataType == DataType.CHAR && att.getDataType() == DataType.STRING) {
+        byte[] b = att.getStringValue().getBytes(StandardCharsets.UTF_8);
+        return new byte[] {(b.length == 0) ? 0 : b[0]};
+      }
+      if (att.getDataType() == vinfo.dataType) {
+        return H5headerWriter.encodeValues(att.getValues(), vinfo.dataType);
+      }
+    }
+    if (vinfo.dataType == DataType.CHAR) {
+      return new byte[1];
+    }
+    Number def = NetcdfFormatUtils.getFillValueDefault(vinfo.dataType);
+    Array value = Array.factory(vinfo.dataType, new int[] {1});
+    value.setObject(0, def);
+    return H5headerWriter.encodeValues(value, vinfo.dataType);
+  }
+
+  @Override
+  public void setFill(boolean fill) {
+    for (Variable v : ncfile.getVariables()) {
+      ((Vinfo) v.getSPobject()).fill = fill;
+    }
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////
+  // data
+
+  @Override
+  public synchronized void writeData(Variable v2, Section section, Array values)
+      throws IOException, InvalidRangeException {
+    checkFailure();
+    Vinfo vinfo = (Vinfo) v2.getSPobject();
+    if (section.getRank() != v2.getRank()) {
+      throw new InvalidRangeException("Section rank " + section.getRank() + " != variable rank " + v2.getRank());
+    }
+    if (values.getSize() != section.computeSize()) {
+      throw new IllegalArgumentException(
+          "values size " + values.getSize() + " != section size " + section.computeSize() + " for " + v2.getFullName());
+    }
+
+    // extend the unlimited dimensions
+    boolean extended = false;
+    for (int i = 0; i < v2.getRank(); i++) {
+      Dimension dim = v2.getDimension(i);
+      Range r = section.getRange(i);
+      if (dim.isUnlimited()) {
+        if (r.last() >= dim.getLength()) {
+          ((UnlimitedDimension) dim).setLength(r.last() + 1);
+          extended = true;
+        }
+      } else if (r.last() >= dim.getLength()) {
+        throw new InvalidRangeException("Section " + section + " out of range for " + v2.getNameAndDimensions());
+      }
+    }
+    if (extended) {
+      // need to let all unlimited variables know of new shape
+      for (Variable v : ncfile.getVariables()) {
+        if (v.isUnlimited()) {
+          v.resetShape(); // LOOK
+          v.invalidateCache();
+        }
+      }
+    }
+
+    byte[] bytes = toBytes(vinfo, values);
+    if (vinfo.isChunked) {
+      writeChunked(v2, vinfo, section, bytes);
+    } else {
+      writeContiguous(v2, vinfo, section, bytes);
+    }
+  }
+
+  // the values as little endian bytes, or heap ids for STRING
+  private byte[] toBytes(Vinfo vinfo, Array values) throws IOException {
+    if (!vinfo.isString()) {
+      return H5headerWriter.encodeValues(values, vinfo.dataType);
+    }
+    byte[] ids = new byte[16 * (int) values.getSize()];
+    ByteBuffer bb = ByteBuffer.wrap(ids).order(ByteOrder.LITTLE_ENDIAN);
+    IndexIterator ii = values.getIndexIterator();
+    while (ii.hasNext()) {
+      Object sval = ii.getObjectNext();
+      byte[] b = (sval == null) ? new byte[0] : sval.toString().getBytes(StandardCharsets.UTF_8);
+      heap.add(b, b.length, bb);
+    }
+    return ids;
+  }
+
+  private void writeContiguous(Variable v2, Vinfo vinfo, Section section, byte[] bytes)
+      throws IOException, InvalidRangeException {
+    if (vinfo.address == H5headerWriter.UNDEF) {
+      allocateContiguous(v2, vinfo);
+    }
+    Layout layout = new LayoutRegular(vinfo.address, vinfo.elemSize, v2.getShape(), section);
+    while (layout.hasNext()) {
+      Layout.Chunk chunk = layout.next();
+      writeBytes(chunk.getSrcPos(), ByteBuffer.wrap(bytes, (int) chunk.getDestElem() * vinfo.elemSize,
+          chunk.getNelems() * vinfo.elemSize));
+    }
+  }
+
+  private void allocateContiguous(Variable v2, Vinfo vinfo) throws IOException {
+    long size = v2.getSize() * vinfo.elemSize;
+    vinfo.address = allocate(size);
+    if (vinfo.fill || vinfo.isString()) {
+      byte[] pattern = fillPattern(vinfo, (int) Math.min(size, 1 << 20) / vinfo.elemSize);
+      for (long pos = 0; pos < size; pos += pattern.length) {
+        writeBytes(vinfo.address + pos, ByteBuffer.wrap(pattern, 0, (int) Math.min(pattern.length, size - pos)));
+      }
+    }
+  }
+
+  private byte[] fillPattern(Vinfo vinfo, int nelems) throws IOException {
+    byte[] value = vinfo.isString() ? heap.getEmptyString() : vinfo.fillValue;
+    byte[] result = new byte[nelems * vinfo.elemSize];
+    for (int i = 0; i < nelems; i++) {
+      System.arraycopy(value, 0, result, i * vinfo.elemSize, vinfo.elemSize);
+    }
+    return result;
+  }
+
+  /////////////////////////////////////////////////////
+  // chunks
+
+  private void writeChunked(Variable v2, Vinfo vinfo, Section section, byte[] bytes) throws IOException {
+    int rank = section.getRank();
+    int[] chunking = vinfo.chunking;
+    int[] shape = v2.getShape();
+
+    // the stride of each dimension in the values
+    int[] srcStride = new int[rank];
+    int stride = 1;
+    for (int i = rank - 1; i >= 0; i--) {
+      srcStride[i] = stride;
+      stride *= section.getShape(i);
+    }
+
+    // visit each chunk that intersects the section
+    int[] first = new int[rank];
+    int[] last = new int[rank];
+    for (int i = 0; i < rank; i++) {
+      first[i] = section.getRange(i).first() / chunking[i];
+      last[i] = section.getRange(i).last() / chunking[i];
+    }
+    flushPassed(v2, vinfo, first);
+
+    int[] index = first.clone();
+    while (true) {
+      ChunkKey key = new ChunkKey(index.clone());
+      ChunkBuffer buffer = vinfo.open.get(key);
+      if (buffer == null) {
+        buffer = makeChunkBuffer(vinfo, key);
+        vinfo.open.put(key, buffer);
+      }
+      buffer.nwritten += copyIntoChunk(vinfo, section, srcStride, key, bytes, buffer.data);
+      if (buffer.nwritten >= countValues(vinfo, key, v2, shape)) {
+        flush(vinfo, key, buffer);
+      }
+
+      // next chunk index
+      int dim = rank - 1;
+      while (dim >= 0) {
+        if (++index[dim] <= last[dim]) {
+          break;
+        }
+        index[dim] = first[dim];
+        dim--;
+      }
+      if (dim < 0) {
+        break;
+      }
+    }
+  }
+
+  // Flush the open chunks that are before the first chunk of this write along an unlimited dimension.
+  private void flushPassed(Variable v2, Vinfo vinfo, int[] first) throws IOException {
+    if (vinfo.open.isEmpty() || !v2.isUnlimited()) {
+      return;
+    }
+    for (Map.Entry<ChunkKey, ChunkBuffer> entry : new ArrayList<>(vinfo.open.entrySet())) {
+      int[] index = entry.getKey().index;
+      for (int i = 0; i < index.length; i++) {
+        if (v2.getDimension(i).isUnlimited() && index[i] < first[i]) {
+          flush(vinfo, entry.getKey(), entry.getValue());
+          break;
+        }
+      }
+    }
+  }
+
+  // The number of values in the chunk that are inside the variable. Unlimited dimensions count the whole chunk,
+  // since they may grow.
+  private long countValues(Vinfo vinfo, ChunkKey key, Variable v2, int[] shape) {
+    long result = 1;
+    for (int i = 0; i < shape.length; i++) {
+      int len = vinfo.chunking[i];
+      if (!v2.getDimension(i).isUnlimited()) {
+        len = Math.min(len, shape[i] - key.index[i] * len);
+      }
+      result *= len;
+    }
+    return result;
+  }
+
+  // Copy the values of the section that are in this chunk, return the number copied.
+  private int copyIntoChunk(Vinfo vinfo, Section section, int[] srcStride, ChunkKey key, byte[] src, byte[] chunk) {
+    int rank = section.getRank();
+    int elemSize = vinfo.elemSize;
+    int[] chunking = vinfo.chunking;
+
+    // the range of section indices in each dimension that fall in the chunk
+    int[] kfirst = new int[rank];
+    int[] klast = new int[rank];
+    int[] destStride = new int[rank];
+    int dstride = 1;
+    for (int i = rank - 1; i >= 0; i--) {
+      Range r = section.getRange(i);
+      int start = key.index[i] * chunking[i];
+      int end = start + chunking[i] - 1;
+      kfirst[i] = Math.max(0, (start - r.first() + r.stride() - 1) / r.stride());
+      klast[i] = Math.min(r.length() - 1, (end - r.first()) / r.stride());
+      if (kfirst[i] > klast[i]) {
+        return 0; // a strided section may skip a chunk
+      }
+      destStride[i] = dstride;
+      dstride *= chunking[i];
+    }
+
+    int inner = rank - 1;
+    Range innerRange = section.getRange(inner);
+    int innerStart = key.index[inner] * chunking[inner];
+    int ninner = klast[inner] - kfirst[inner] + 1;
+    int count = 0;
+    int[] k = kfirst.clone();
+    while (true) {
+      int srcElem = 0;
+      int destElem = 0;
+      for (int i = 0; i < inner; i++) {
+        Range r = section.getRange(i);
+        srcElem += k[i] * srcStride[i];
+        destElem += (r.first() + k[i] * r.stride() - key.index[i] * chunking[i]) * destStride[i];
+      }
+      srcElem += kfirst[inner];
+      destElem += innerRange.first() + kfirst[inner] * innerRange.stride() - innerStart;
+
+      if (innerRange.stride() == 1) {
+        System.arraycopy(src, srcElem * elemSize, chunk, destElem * elemSize, ninner * elemSize);
+      } else {
+        for (int j = 0; j < ninner; j++) {
+          System.arraycopy(src, (srcElem + j) * elemSize, chunk, (destElem + j * innerRange.stride()) * elemSize,
+              elemSize);
+        }
+      }
+      count += ninner;
+
+      // next row
+      int dim = inner - 1;
+      while (dim >= 0) {
+        if (++k[dim] <= klast[dim]) {
+          break;
+        }
+        k[dim] = kfirst[dim];
+        dim--;
+      }
+      if (dim < 0) {
+        break;
+      }
+    }
+    return count;
+  }
+
+  // A new chunk buffer, filled with the fill value, or with the chunk if it was already written.
+  private ChunkBuffer makeChunkBuffer(Vinfo vinfo, ChunkKey key) throws IOException {
+    int nelems = 1;
+    for (int len : vinfo.chunking) {
+      nelems *= len;
+    }
+    CompletableFuture<StoredChunk> future = vinfo.stored.remove(key);
+    if (future == null) {
+      return new ChunkBuffer(fillPattern(vinfo, nelems));
+    }
+
+    // LOOK the space of the old chunk is not reused
+    StoredChunk stored;
+    try {
+      stored = future.join();
+    } catch (CompletionException e) {
+      throw new IOException(e.getCause());
+    }
+    ByteBuffer bb = ByteBuffer.allocate(stored.nbytes);
+    long pos = stored.address;
+    while (bb.hasRemaining()) {
+      int n = channel.read(bb, pos);
+      if (n < 0) {
+        throw new IOException("Premature EOF reading chunk at " + stored.address);
+      }
+      pos += n;
+    }
+    byte[] data = bb.array();
+    if (vinfo.deflateLevel > 0) {
+      data = inflate(data, nelems * vinfo.elemSize);
+      if (vinfo.shuffle && vinfo.elemSize > 1) {
+        data = unshuffle(data, vinfo.elemSize);
+      }
+    }
+    return new ChunkBuffer(data);
+  }
+
+  // Submit the chunk to be compressed and written. Blocks if too many are waiting.
+  private void flush(Vinfo vinfo, ChunkKey key, ChunkBuffer buffer) throws IOException {
+    vinfo.open.remove(key);
+    try {
+      pending.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted writing chunk");
+    }
+    CompletableFuture<StoredChunk> future;
+    try {
+      future = CompletableFuture.supplyAsync(() -> storeChunk(vinfo, key, buffer.data), compressExecutor);
+    } catch (RuntimeException e) {
+      pending.release();
+      throw e;
+    }
+    future.whenComplete((stored, e) -> {
+      pending.release();
+      if (e != null) {
+        failure.compareAndSet(null, e);
+      }
+    });
+    vinfo.stored.put(key, future);
+  }
+
+  // runs in the executor
+  private StoredChunk storeChunk(Vinfo vinfo, ChunkKey key, byte[] data) {
+    byte[] bytes = data;
+    if (vinfo.deflateLevel > 0) {
+      if (vinfo.shuffle && vinfo.elemSize > 1) {
+        bytes = shuffle(bytes, vinfo.elemSize);
+      }
+      bytes = deflate(bytes, vinfo.deflateLevel);
+    }
+    try {
+      long address = allocate(bytes.length);
+      writeBytes(address, ByteBuffer.wrap(bytes));
+      int[] offset = new int[key.index.length];
+      for (int i = 0; i < offset.length; i++) {
+        offset[i] = key.index[i] * vinfo.chunking[i];
+      }
+      return new StoredChunk(offset, address, bytes.length);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // the bytes of each element are grouped together, which usually compresses better
+  static byte[] shuffle(byte[] data, int elemSize) {
+    int n = data.length / elemSize;
+    byte[] result = new byte[data.length];
+    for (int i = 0; i < n; i++) {
+      for (int b = 0; b < elemSize; b++) {
+        result[b * n + i] = data[i * elemSize + b];
+      }
+    }
+    return result;
+  }
+
+  static byte[] unshuffle(byte[] data, int elemSize) {
+    int n = data.length / elemSize;
+    byte[] result = new byte[data.length];
+    for (int i = 0; i < n; i++) {
+      for (int b = 0; b < elemSize; b++) {
+        result[i * elemSize + b] = data[b * n + i];
+      }
+    }
+    return result;
+  }
+
+  private static byte[] deflate(byte[] data, int level) {
+    Deflater deflater = new Deflater(level);
+    try {
+      deflater.setInput(data);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+      byte[] buf = new byte[8192];
+      while (!deflater.finished()) {
+        int n = deflater.deflate(buf);
+        out.write(buf, 0, n);
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static byte[] inflate(byte[] data, int size) throws IOException {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(data);
+      byte[] result = new byte[size];
+      int n = 0;
+      while (n < size && !inflater.finished()) {
+        int count = inflater.inflate(result, n, size - n);
+        if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        n += count;
+      }
+      if (n != size) {
+        throw new IOException("Inflated chunk has " + n + " bytes, expected " + size);
+      }
+      return result;
+    } catch (DataFormatException e) {
+      throw new IOException(e);
+    } finally {
+      inflater.end();
+    }
+  }
+
+  private void checkFailure() throws IOException {
+    Throwable e = failure.get();
+    if (e != null) {
+      Throwable cause = (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+      if (cause instanceof UncheckedIOException) {
+        throw ((UncheckedIOException) cause).getCause();
+      }
+      throw new IOException("Failed to write chunk", cause);
+    }
+  }
+
+  /** Reserve nbytes at the end of the file, return its address. */
+  long allocate(long nbytes) {
+    return eof.getAndAdd(nbytes);
+  }
+
+  long getEof() {
+    return eof.get();
+  }
+
+  /** Write the remaining bytes at the given address. Safe to call from multiple threads. */
+  void writeBytes(long address, ByteBuffer bb) throws IOException {
+    long pos = address;
+    while (bb.hasRemaining()) {
+      pos += channel.write(bb, pos);
+    }
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////
+  // attributes
+
+  @Override
+  public int appendStructureData(Structure s, StructureData sdata) {
+    throw new UnsupportedOperationException("H5iospWriter does not support Structures");
+  }
+
+  @Override
+  public void updateAttribute(Variable v2, Attribute att) {
+    setAttribute(v2, att);
+  }
+
+  @Override
+  public void updateAttribute(Group g, Attribute att) {
+    setAttribute(g, att);
+  }
+
+  // the attributes are written by close(), until then they can be changed
+  private synchronized void setAttribute(Object owner, Attribute att) {
+    if (channel == null) {
+      throw new IllegalStateException("File is closed");
+    }
+    updatedAttributes.computeIfAbsent(owner, k -> new LinkedHashMap<>()).put(att.getShortName(), att);
+  }
+
+  /** The attributes to write, with any updates. */
+  List<Attribute> getAttributes(Variable v) {
+    return mergeAttributes(v.attributes(), updatedAttributes.get(v));
+  }
+
+  List<Attribute> getAttributes(Group g) {
+    return mergeAttributes(g.attributes(), updatedAttributes.get(g));
+  }
+
+  private List<Attribute> mergeAttributes(Iterable<Attribute> atts, @Nullable Map<String, Attribute> updates) {
+    Map<String, Attribute> result = new LinkedHashMap<>();
+    for (Attribute att : atts) {
+      result.put(att.getShortName(), att);
+    }
+    if (updates != null) {
+      result.putAll(updates);
+    }
+    return new ArrayList<>(result.values());
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (channel == null) {
+      return;
+    }
+    try {
+      if (ncfile != null) {
+        finish();
+      }
+    } finally {
+      channel.close();
+      channel = null;
+    }
+  }
+
+  private void finish() throws IOException {
+    checkFailure();
+    for (Variable v : ncfile.getVariables()) {
+      Vinfo vinfo = (Vinfo) v.getSPobject();
+      if (vinfo.isChunked) {
+        if (vinfo.isString()) { // there is no fill value, so every chunk must exist
+          makeMissingChunks(v, vinfo);
+        }
+        for (Map.Entry<ChunkKey, ChunkBuffer> entry : new ArrayList<>(vinfo.open.entrySet())) {
+          flush(vinfo, entry.getKey(), entry.getValue());
+        }
+      } else if (vinfo.address == H5headerWriter.UNDEF && vinfo.isString() && v.getSize() > 0) {
+        allocateContiguous(v, vinfo);
+      }
+    }
+
+    // wait for the chunks to be written
+    int npermits = 4 * nthreads;
+    try {
+      pending.acquire(npermits);
+      pending.release(npermits);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for chunks to be written");
+    }
+    checkFailure();
+
+    new H5headerWriter(this, format.isExtendedModel()).write(ncfile.getRootGroup());
+  }
+
+  private void makeMissingChunks(Variable v, Vinfo vinfo) throws IOException {
+    int[] shape = v.getShape();
+    int rank = shape.length;
+    int[] nchunks = new int[rank];
+    for (int i = 0; i < rank; i++) {
+      if (shape[i] == 0) {
+        return;
+      }
+      nchunks[i] = (shape[i] + vinfo.chunking[i] - 1) / vinfo.chunking[i];
+    }
+    int[] index = new int[rank];
+    while (true) {
+      ChunkKey key = new ChunkKey(index.clone());
+      if (!vinfo.open.containsKey(key) && !vinfo.stored.containsKey(key)) {
+        vinfo.open.put(key, makeChunkBuffer(vinfo, key));
+      }
+      int dim = rank - 1;
+      while (dim >= 0) {
+        if (++index[dim] < nchunks[dim]) {
+          break;
+        }
+        index[dim] = 0;
+        dim--;
+      }
+      if (dim < 0) {
+        break;
+      }
+    }
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////
+
+  /** Per-variable storage information. */
+  static class Vinfo {
+    final DataType dataType;
+    final int elemSize;
+    byte[] fillValue;
+    boolean fill = true;
+
+    long address = H5headerWriter.UNDEF; // contiguous
+
+    boolean isChunked;
+    int[] chunking;
+    int deflateLevel;
+    boolean shuffle;
+    final Map<ChunkKey, ChunkBuffer> open = new HashMap<>();
+    final Map<ChunkKey, CompletableFuture<StoredChunk>> stored = new HashMap<>();
+
+    Vinfo(DataType dataType, int elemSize) {
+      this.dataType = dataType;
+      this.elemSize = elemSize;
+    }
+
+    boolean isString() {
+      return dataType == DataType.STRING;
+    }
+
+    /** The chunks that have been written, sorted by offset. Only call when they are all done. */
+    List<StoredChunk> getStoredChunks() {
+      List<StoredChunk> result = new ArrayList<>(stored.size());
+      for (CompletableFuture<StoredChunk> future : stored.values()) {
+        result.add(future.join());
+      }
+      result.sort(Vinfo::compareOffsets);
+      return result;
+    }
+
+    private static int compareOffsets(StoredChunk a, StoredChunk b) {
+      for (int i = 0; i < a.offset.length; i++) {
+        int c = Integer.compare(a.offset[i], b.offset[i]);
+        if (c != 0) {
+          return c;
+        }
+      }
+      return 0;
+    }
+  }
+
+  static class ChunkKey {
+    final int[] index; // chunk index in each dimension
+
+    ChunkKey(int[] index) {
+      this.index = index;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return (o instanceof ChunkKey) && Arrays.equals(index, ((ChunkKey) o).index);
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(index);
+    }
+  }
+
+  static class ChunkBuffer {
+    final byte[] data;
+    long nwritten;
+
+    ChunkBuffer(byte[] data) {
+      this.data = data;
+    }
+  }
+
+  static class StoredChunk {
+    final int[] offset;
+    final long address;
+    final int nbytes;
+
+    StoredChunk(int[] offset, long address, int nbytes) {
+      this.offset = offset;
+      this.address = address;
+      this.nbytes = nbytes;
+    }
+  }
+
+  /** Writes global heap collections. Each new collection is allocated at the end of the file. */
+  class HeapWriter {
+    private static final int MIN_COLLECTION_SIZE = 4096;
+    private static final int MAX_COLLECTION_SIZE = 1024 * 1024;
+    private long address = H5headerWriter.UNDEF;
+    private H5headerWriter.Encoder objects;
+    private int size;
+    private int nobjects;
+    private byte[] emptyString;
+
+    /**
+     * Add an object to the heap, and put its heap id into dest.
+     *
+     * @param data the object
+     * @param nelems number of elements in the object, eg the number of bytes in a String
+     * @param dest put the 16 byte heap id here
+     */
+    synchronized void add(byte[] data, int nelems, ByteBuffer dest) throws IOException {
+      int need = 16 + pad8(data.length);
+      if (address == H5headerWriter.UNDEF || 16 + objects.position() + need > size || nobjects == 0xffff) {
+        finish();
+        // each collection is twice as big as the last, up to MAX_COLLECTION_SIZE
+        size = Math.max(16 + need, (size == 0) ? MIN_COLLECTION_SIZE : Math.min(2 * size, MAX_COLLECTION_SIZE));
+        address = allocate(size);
+        objects = new H5headerWriter.Encoder(Math.min(size, 4096));
+        nobjects = 0;
+      }
+      int index = ++nobjects;
+      objects.putShort(index);
+      objects.putShort(0); // reference count
+      objects.putInt(0);
+      objects.putLong(data.length);
+      objects.putBytes(data);
+      objects.putZeros(pad8(data.length) - data.length);
+
+      dest.putInt(nelems);
+      dest.putLong(address);
+      dest.putInt(index);
+    }
+
+    /** The heap id of an empty String, used as the fill value of STRING variables. */
+    synchronized byte[] getEmptyString() throws IOException {
+      if (emptyString == null) {
+        emptyString = new byte[16];
+        add(new byte[0], 0, ByteBuffer.wrap(emptyString).order(ByteOrder.LITTLE_ENDIAN));
+      }
+      return emptyString;
+    }
+
+    /** Write the current collection. */
+    synchronized void finish() throws IOException {
+      if (address == H5headerWriter.UNDEF) {
+        return;
+      }
+      H5headerWriter.Encoder out = new H5headerWriter.Encoder(size);
+      out.putBytes("GCOL".getBytes(StandardCharsets.US_ASCII));
+      out.put(1); // version
+      out.putZeros(3);
+      out.putLong(size);
+      out.putBytes(objects.toByteArray());
+      int free = size - out.position();
+      if (free >= 16) { // the free space object
+        out.putShort(0);
+        out.putShort(0);
+        out.putInt(0);
+        out.putLong(free);
+      }
+      out.putZeros(size - out.position());
+      writeBytes(address, ByteBuffer.wrap(out.toByteArray()));
+      address = H5headerWriter.UNDEF;
+    }
+
+    private int pad8(int n) {
+      return (n + 7) & ~7;
+    }
+  }
+}
@@ -1565,6 +1565,12 @@ public class H5objects {
     int[] chunkSize; // only for chunked, otherwise must use Dataspace
     int dataSize;
 
+    // version 4 chunked layout: how the chunks are indexed, see DataBTree
+    byte chunkIndexType; // 0 = version 1 B-tree (layout version < 4), else one of DataBTree.INDEX_*
+    byte chunkFlags;
+    long singleChunkSize = -1; // single chunk index: size of the filtered chunk, or -1 if not filtered
+    int singleChunkFilterMask;
+
     public String toString() {
       StringBuilder sbuff = new StringBuilder();
       sbuff.append(" type= ").append(+type).append(" (");
@@ -1593,6 +1599,8 @@ public class H5objects {
         sbuff.append(")");
       }
 
+      if (chunkIndexType != 0)
+        sbuff.append(" chunkIndexType=").append(chunkIndexType);
       sbuff.append(" dataSize=").append(dataSize);
       sbuff.append(" dataAddress=").append(dataAddress);
       return sbuff.toString();
@@ -1659,12 +1667,44 @@ public class H5objects {
           dataAddress = header.readOffset();
           contiguousSize = header.readLength();
 
-        } else if (type == 2) {
+        } else if (type == 2 && version == 3) {
           ndims = raf.readByte();
           dataAddress = header.readOffset();
           chunkSize = new int[ndims];
           for (int i = 0; i < ndims; i++)
             chunkSize[i] = raf.readInt();
+
+        } else if (type == 2) { // version 4 adds the HDF5 1.10 chunk indexes
+          chunkFlags = raf.readByte();
+          ndims = raf.readByte();
+          int dimSizeLength = raf.readByte();
+          chunkSize = new int[ndims];
+          for (int i = 0; i < ndims; i++)
+            chunkSize[i] = (int) header.readVariableSizeUnsigned(dimSizeLength);
+
+          chunkIndexType = raf.readByte();
+          switch (chunkIndexType) {
+            case DataBTree.INDEX_SINGLE_CHUNK:
+              if ((chunkFlags & 0x02) != 0) { // the single chunk is filtered
+                singleChunkSize = header.readLength();
+                singleChunkFilterMask = raf.readInt();
+              }
+              break;
+            case DataBTree.INDEX_IMPLICIT:
+              break;
+            case DataBTree.INDEX_FIXED_ARRAY:
+              raf.skipBytes(1); // page bits, also in the fixed array header
+              break;
+            case DataBTree.INDEX_EXTENSIBLE_ARRAY:
+              raf.skipBytes(5); // creation parameters, also in the extensible array header
+              break;
+            case DataBTree.INDEX_BTREE2:
+              raf.skipBytes(6); // node size, split and merge percent, also in the B-tree header
+              break;
+            default:
+              throw new IllegalStateException("MessageLayout: unknown chunk index type= " + chunkIndexType);
+          }
+          dataAddress = header.readOffset();
         }
       }
 
@@ -20,6 +20,8 @@ public class N3header {
   static final byte[] MAGIC = {0x43, 0x44, 0x46, 0x01};
   // 64-bit offset format : only affects the variable offset value
   static final byte[] MAGIC_LONG = {0x43, 0x44, 0x46, 0x02};
+  // 64-bit data format (CDF-5) : counts, lengths and sizes are 64 bits, adds the unsigned and 64-bit integer types
+  static final byte[] MAGIC_DATA = {0x43, 0x44, 0x46, 0x05};
   static final int MAGIC_DIM = 10;
   static final int MAGIC_VAR = 11;
   static final int MAGIC_ATT = 12;
@@ -31,6 +33,7 @@ public class N3header {
     switch (NetcdfFileFormat.findNetcdfFormatType(raf)) {
       case NETCDF3:
       case NETCDF3_64BIT_OFFSET:
+      case NETCDF3_64BIT_DATA:
         return true;
       default:
         return false;
@@ -65,6 +68,7 @@ public class N3header {
   long recStart = Integer.MAX_VALUE; // where the record data starts LOOK can it really be bigger than MAX_INTEGER ?
 
   boolean useLongOffset;
+  boolean useLongData; // CDF-5, always uses long offsets
   private final N3iosp n3iospNew;
   long nonRecordDataSize; // size of non-record variables
   Dimension udim; // the unlimited dimension
@@ -114,28 +118,31 @@ public class N3header {
     if (!isMagicBytes(b)) {
       throw new IOException("Not a netCDF file " + raf.getLocation());
     }
-    if ((b[3] != 1) && (b[3] != 2))
+    if ((b[3] != 1) && (b[3] != 2) && (b[3] != 5))
       throw new IOException("Not a netCDF file " + raf.getLocation());
-    useLongOffset = (b[3] == 2);
+    useLongData = (b[3] == 5);
+    useLongOffset = (b[3] == 2) || useLongData;
 
     // number of records
-    numrecs = raf.readInt();
+    long nrecs = readCount();
     if (debugOut != null)
-      debugOut.format("numrecs= %d%n", numrecs);
-    if (numrecs == -1) {
+      debugOut.format("numrecs= %d%n", nrecs);
+    if (nrecs == -1) {
       isStreaming = true;
       numrecs = 0;
+    } else {
+      numrecs = checkCount(nrecs, "numrecs");
     }
 
     // dimensions
     int numdims = 0;
     int magic = raf.readInt();
     if (magic == 0) {
-      raf.readInt(); // skip 32 bits
+      readCount(); // skip 32 bits, 64 bits in CDF-5
     } else {
       if (magic != MAGIC_DIM)
         throw new IOException("Misformed netCDF file - dim magic number wrong " + raf.getLocation());
-      numdims = raf.readInt();
+      numdims = checkCount(readCount(), "number of dimensions");
       if (debugOut != null)
         debugOut.format("numdims= %d%n", numdims);
     }
@@ -147,7 +154,7 @@ public class N3header {
       if (debugOut != null)
         debugOut.format("  dim %d pos= %d%n", i, raf.getFilePointer());
       String name = readString();
-      int len = raf.readInt();
+      int len = checkCount(readCount(), "length of dimension " + name);
       Dimension dim;
       if (len == 0) {
         dim = Dimension.builder().setName(name).setIsUnlimited(true).setLength(numrecs).build();
@@ -168,11 +175,11 @@ public class N3header {
     int nvars = 0;
     magic = raf.readInt();
     if (magic == 0) {
-      raf.readInt(); // skip 32 bits
+      readCount(); // skip 32 bits, 64 bits in CDF-5
     } else {
       if (magic != MAGIC_VAR)
         throw new IOException("Misformed netCDF file  - var magic number wrong " + raf.getLocation());
-      nvars = raf.readInt();
+      nvars = checkCount(readCount(), "number of variables");
       if (debugOut != null)
         debugOut.format("numdims= %d%n", numdims);
     }
@@ -187,10 +194,10 @@ public class N3header {
       // get element count in non-record dimensions
       long velems = 1;
       boolean isRecord = false;
-      int rank = raf.readInt();
+      int rank = checkCount(readCount(), "rank of variable " + name);
       List<Dimension> dims = new ArrayList<>();
       for (int j = 0; j < rank; j++) {
-        int dimIndex = raf.readInt();
+        int dimIndex = checkCount(readCount(), "dimension index");
         Dimension dim = fileDimensions.get(dimIndex);
         if (dim.isUnlimited()) {
           isRecord = true;
@@ -219,7 +226,7 @@ public class N3header {
       var.setDataType(dataType);
 
       // size and beginning data position in file
-      long vsize = raf.readInt();
+      long vsize = readCount();
       long begin = useLongOffset ? raf.readLong() : (long) raf.readInt();
 
       if (debugOut != null) {
@@ -281,7 +288,7 @@ public class N3header {
     if (uvars.size() == 1) {
       Variable.Builder<?> uvar = uvars.get(0);
       DataType dtype = uvar.dataType;
-      if ((dtype == DataType.CHAR) || (dtype == DataType.BYTE) || (dtype == DataType.SHORT)) {
+      if (dtype.getSize() < 4) { // CHAR, BYTE, SHORT, and in CDF-5, UBYTE and USHORT
         long vsize = dtype.getSize(); // works for all netcdf-3 data types
         List<Dimension> dims = uvar.getDimensions();
         for (Dimension curDim : dims) {
@@ -355,6 +362,7 @@ public class N3header {
     out.format("  raf length= %s %n", actual);
     out.format("  isStreaming= %s %n", isStreaming);
     out.format("  useLongOffset= %s %n", useLongOffset);
+    out.format("  useLongData= %s %n", useLongData);
     out.format("  dataStart= %d%n", dataStart);
     out.format("  nonRecordData size= %d %n", nonRecordDataSize);
     out.format("  unlimited dimension = %s %n", udim);
@@ -382,11 +390,11 @@ public class N3header {
     int natts = 0;
     int magic = raf.readInt();
     if (magic == 0) {
-      raf.readInt(); // skip 32 bits
+      readCount(); // skip 32 bits, 64 bits in CDF-5
     } else {
       if (magic != MAGIC_ATT)
         throw new IOException("Misformed netCDF file  - att magic number wrong");
-      natts = raf.readInt();
+      natts = checkCount(readCount(), "number of attributes");
     }
     if (fout != null)
       fout.format(" num atts= %d%n", natts);
@@ -411,7 +419,7 @@ public class N3header {
       } else {
         if (fout != null)
           fout.format(" begin read val pos= %d%n", raf.getFilePointer());
-        int nelems = raf.readInt();
+        int nelems = checkCount(readCount(), "length of attribute " + name);
 
         DataType dtype = getDataType(type);
         Attribute.Builder builder = Attribute.builder(name).setDataType(dtype);
@@ -442,7 +450,7 @@ public class N3header {
   }
 
   int readAttributeValue(DataType type, IndexIterator ii) throws IOException {
-    if (type == DataType.BYTE) {
+    if ((type == DataType.BYTE) || (type == DataType.UBYTE)) {
       byte b = (byte) raf.read();
       // if (debug) out.println(" byte val = "+b);
       ii.setByteNext(b);
@@ -454,13 +462,13 @@ public class N3header {
       ii.setCharNext(c);
       return 1;
 
-    } else if (type == DataType.SHORT) {
+    } else if ((type == DataType.SHORT) || (type == DataType.USHORT)) {
       short s = raf.readShort();
       // if (debug) out.println(" short val = "+s);
       ii.setShortNext(s);
       return 2;
 
-    } else if (type == DataType.INT) {
+    } else if ((type == DataType.INT) || (type == DataType.UINT)) {
       int i = raf.readInt();
       // if (debug) out.println(" int val = "+i);
       ii.setIntNext(i);
@@ -477,17 +485,34 @@ public class N3header {
       // if (debug) out.println(" double val = "+d);
       ii.setDoubleNext(d);
       return 8;
+
+    } else if ((type == DataType.LONG) || (type == DataType.ULONG)) {
+      long l = raf.readLong();
+      ii.setLongNext(l);
+      return 8;
     }
     return 0;
   }
 
+  // read a count, length or size: 32 bits, or 64 bits in CDF-5
+  long readCount() throws IOException {
+    return useLongData ? raf.readLong() : raf.readInt();
+  }
+
+  // the CDM uses ints for these, even when CDF-5 allows 64 bits
+  private int checkCount(long count, String what) throws IOException {
+    if (count < 0 || count > Integer.MAX_VALUE)
+      throw new IOException("Misformed or unsupported netCDF file - " + what + " = " + count + " " + raf.getLocation());
+    return (int) count;
+  }
+
   // read a string = (nelems, byte array), then skip to 4 byte boundary
   String readString() throws IOException {
     return readString(StandardCharsets.UTF_8);
   }
 
   private String readString(Charset charset) throws IOException {
-    int nelems = raf.readInt();
+    int nelems = checkCount(readCount(), "string length");
     byte[] b = new byte[nelems];
     raf.readFully(b);
     skip(nelems); // pad to 4 byte boundary
@@ -543,6 +568,16 @@ public class N3header {
         return DataType.FLOAT;
       case 6:
         return DataType.DOUBLE;
+      case 7:
+        return DataType.UBYTE;
+      case 8:
+        return DataType.USHORT;
+      case 9:
+        return DataType.UINT;
+      case 10:
+        return DataType.LONG;
+      case 11:
+        return DataType.ULONG;
       default:
         throw new IllegalArgumentException("unknown type == " + type);
     }
@@ -561,6 +596,16 @@ public class N3header {
       return 5;
     else if (dt == DataType.DOUBLE)
       return 6;
+    else if (dt == DataType.UBYTE)
+      return 7;
+    else if (dt == DataType.USHORT)
+      return 8;
+    else if (dt == DataType.UINT)
+      return 9;
+    else if (dt == DataType.LONG)
+      return 10;
+    else if (dt == DataType.ULONG)
+      return 11;
 
     throw new IllegalArgumentException("unknown DataType == " + dt);
   }
@@ -16,6 +16,7 @@ import ucar.nc2.Attribute;
 import ucar.nc2.Dimension;
 import ucar.nc2.Group;
 import ucar.nc2.Variable;
+import ucar.nc2.iosp.NetcdfFileFormat;
 import ucar.nc2.write.UnlimitedDimension;
 import ucar.unidata.io.RandomAccessFile;
 
@@ -46,6 +47,7 @@ class N3headerWriter extends N3header {
     this.recsize = existingHeader.recsize;
     this.recStart = existingHeader.recStart;
     this.useLongOffset = existingHeader.useLongOffset;
+    this.useLongData = existingHeader.useLongData;
 
     if (existingHeader.udim != null) {
       this.unlimitedDim = new UnlimitedDimension(existingHeader.udim.getShortName(), existingHeader.udim.getLength());
@@ -69,11 +71,12 @@ class N3headerWriter extends N3header {
    * Write the header out, based on ncfile structures.
    *
    * @param extra if > 0, pad header with extra bytes
-   * @param largeFile if large file format
+   * @param format NETCDF3, NETCDF3_64BIT_OFFSET or NETCDF3_64BIT_DATA
    * @throws IOException on write error
    */
-  void create(Group.Builder rootGroup, int extra, boolean largeFile) throws IOException {
-    writeHeader(rootGroup, extra, largeFile, false);
+  void create(Group.Builder rootGroup, int extra, NetcdfFileFormat format) throws IOException {
+    this.useLongData = (format == NetcdfFileFormat.NETCDF3_64BIT_DATA);
+    writeHeader(rootGroup, extra, useLongData || format == NetcdfFileFormat.NETCDF3_64BIT_OFFSET, false);
   }
 
   void setRootGroup(Group rootGroup) {
@@ -103,24 +106,24 @@ class N3headerWriter extends N3header {
 
     // magic number
     raf.seek(0);
-    raf.write(largeFile ? N3header.MAGIC_LONG : N3header.MAGIC);
+    raf.write(useLongData ? N3header.MAGIC_DATA : largeFile ? N3header.MAGIC_LONG : N3header.MAGIC);
 
     // numrecs
-    raf.writeInt(0);
+    writeCount(0);
 
     // dims
     Iterable<Dimension> dims = rootGroup.getDimensions();
     int numdims = Iterables.size(dims);
     if (numdims == 0) {
       raf.writeInt(0);
-      raf.writeInt(0);
+      writeCount(0);
     } else {
       raf.writeInt(N3header.MAGIC_DIM);
-      raf.writeInt(numdims);
+      writeCount(numdims);
     }
     for (Dimension dim : dims) {
       writeString(dim.getShortName());
-      raf.writeInt(dim.isUnlimited() ? 0 : dim.getLength());
+      writeCount(dim.isUnlimited() ? 0 : dim.getLength());
       if (dim.isUnlimited()) {
         udim = dim; // needed?
         unlimitedDim = dim instanceof UnlimitedDimension ? (UnlimitedDimension) dim
@@ -204,31 +207,33 @@ class N3headerWriter extends N3header {
   // calculate the size writing a header would take
   int sizeHeader(boolean largeFile) {
     int size = 4; // magic number
-    size += 4; // numrecs
+
+    int countSize = useLongData ? 8 : 4;
+    size += countSize; // numrecs
 
     // dims
-    size += 8; // magic, ndims
+    size += 4 + countSize; // magic, ndims
     for (Dimension dim : rootGroup.getDimensions()) {
-      size += sizeString(dim.getShortName()) + 4; // name, len
+      size += sizeString(dim.getShortName()) + countSize; // name, len
     }
 
     // global attributes
     size += sizeAtts(rootGroup.attributes());
 
     // variables
-    size += 8; // magic, nvars
+    size += 4 + countSize; // magic, nvars
     for (Variable var : rootGroup.getVariables()) {
       size += sizeString(var.getShortName());
 
       // dimensions
-      size += 4; // ndims
-      size += 4 * var.getDimensions().size(); // dim id
+      size += countSize; // ndims
+      size += countSize * var.getDimensions().size(); // dim id
 
       // variable attributes
       size += sizeAtts(var.attributes());
 
-      size += 8; // data type, variable size
-      size += (largeFile) ? 8 : 4;
+      size += 4 + countSize; // data type, variable size
+      size += (largeFile || useLongData) ? 8 : 4;
     }
 
     return size;
@@ -239,33 +244,33 @@ class N3headerWriter extends N3header {
     int n = Iterables.size(atts);
     if (n == 0) {
       raf.writeInt(0);
-      raf.writeInt(0);
+      writeCount(0);
     } else {
       raf.writeInt(MAGIC_ATT);
-      raf.writeInt(n);
+      writeCount(n);
     }
 
-    int count = 0;
     for (Attribute att : atts) {
       writeString(att.getShortName());
-      int type = getType(att.getDataType());
+      int type = getFileType(att.getDataType());
       raf.writeInt(type);
 
       if (type == 2) {
         writeStringValues(att);
       } else {
         int nelems = att.getLength();
-        raf.writeInt(nelems);
+        writeCount(nelems);
         int nbytes = 0;
         for (int j = 0; j < nelems; j++)
-          nbytes += writeAttributeValue(att.getNumericValue(j));
+          nbytes += writeAttributeValue(att.getDataType(), att.getNumericValue(j));
         pad(nbytes, (byte) 0);
       }
     }
   }
 
   private int sizeAtts(Iterable<Attribute> atts) {
-    int size = 8; // magic, natts
+    int countSize = useLongData ? 8 : 4;
+    int size = 4 + countSize; // magic, natts
 
     for (Attribute att : atts) {
       size += sizeString(att.getShortName());
@@ -275,11 +280,8 @@ class N3headerWriter extends N3header {
       if (type == 2) {
         size += sizeStringValues(att);
       } else {
-        size += 4; // nelems
-        int nelems = att.getLength();
-        int nbytes = 0;
-        for (int j = 0; j < nelems; j++)
-          nbytes += sizeAttributeValue(att.getNumericValue(j));
+        size += countSize; // nelems
+        int nbytes = att.getLength() * att.getDataType().getSize();
         size += nbytes;
         size += padding(nbytes);
       }
@@ -314,50 +316,34 @@ class N3headerWriter extends N3header {
     return size;
   }
 
-  private int writeAttributeValue(Number numValue) throws IOException {
-    if (numValue instanceof Byte) {
-      raf.write(numValue.byteValue());
-      return 1;
-
-    } else if (numValue instanceof Short) {
-      raf.writeShort(numValue.shortValue());
-      return 2;
-
-    } else if (numValue instanceof Integer) {
-      raf.writeInt(numValue.intValue());
-      return 4;
-
-    } else if (numValue instanceof Float) {
-      raf.writeFloat(numValue.floatValue());
-      return 4;
-
-    } else if (numValue instanceof Double) {
-      raf.writeDouble(numValue.doubleValue());
-      return 8;
+  // use the attribute's DataType, since unsigned values may be widened
+  private int writeAttributeValue(DataType dataType, Number numValue) throws IOException {
+    switch (dataType) {
+      case BYTE:
+      case UBYTE:
+        raf.write(numValue.byteValue());
+        return 1;
+      case SHORT:
+      case USHORT:
+        raf.writeShort(numValue.shortValue());
+        return 2;
+      case INT:
+      case UINT:
+        raf.writeInt(numValue.intValue());
+        return 4;
+      case LONG:
+      case ULONG:
+        raf.writeLong(numValue.longValue());
+        return 8;
+      case FLOAT:
+        raf.writeFloat(numValue.floatValue());
+        return 4;
+      case DOUBLE:
+        raf.writeDouble(numValue.doubleValue());
+        return 8;
     }
 
-    throw new IllegalStateException("unknown attribute type == " + numValue.getClass().getName());
-  }
-
-  private int sizeAttributeValue(Number numValue) {
-
-    if (numValue instanceof Byte) {
-      return 1;
-
-    } else if (numValue instanceof Short) {
-      return 2;
-
-    } else if (numValue instanceof Integer) {
-      return 4;
-
-    } else if (numValue instanceof Float) {
-      return 4;
-
-    } else if (numValue instanceof Double) {
-      return 8;
-    }
-
-    throw new IllegalStateException("unknown attribute type == " + numValue.getClass().getName());
+    throw new IllegalStateException("unknown attribute type == " + dataType);
   }
 
   private void writeVars(Group.Builder rootGroup, ArrayList<Variable.Builder<?>> uvarb, boolean largeFile)
@@ -365,10 +351,10 @@ class N3headerWriter extends N3header {
     int n = rootGroup.vbuilders.size();
     if (n == 0) {
       raf.writeInt(0);
-      raf.writeInt(0);
+      writeCount(0);
     } else {
       raf.writeInt(MAGIC_VAR);
-      raf.writeInt(n);
+      writeCount(n);
     }
 
     for (Variable.Builder<?> var : rootGroup.vbuilders) {
@@ -377,10 +363,10 @@ class N3headerWriter extends N3header {
       // dimensions
       long vsize = var.dataType.getSize(); // works for all netcdf-3 data types
       List<Dimension> dims = var.getDimensions();
-      raf.writeInt(dims.size());
+      writeCount(dims.size());
       for (Dimension dim : dims) {
         int dimIndex = findDimensionIndex(rootGroup, dim);
-        raf.writeInt(dimIndex);
+        writeCount(dimIndex);
 
         if (!dim.isUnlimited())
           vsize *= dim.getLength();
@@ -394,11 +380,15 @@ class N3headerWriter extends N3header {
 
       // data type, variable size, beginning file position
       DataType dtype = var.dataType;
-      int type = getType(dtype);
+      int type = getFileType(dtype);
       raf.writeInt(type);
 
-      int vsizeWrite = (vsize < MAX_UNSIGNED_INT) ? (int) vsize : -1;
-      raf.writeInt(vsizeWrite);
+      if (useLongData) {
+        raf.writeLong(vsize);
+      } else {
+        int vsizeWrite = (vsize < MAX_UNSIGNED_INT) ? (int) vsize : -1;
+        raf.writeInt(vsizeWrite);
+      }
       long pos = raf.getFilePointer();
       if (largeFile)
         raf.writeLong(0); // come back to this later
@@ -412,7 +402,7 @@ class N3headerWriter extends N3header {
       // 2/15/2011: we will continue to write the (incorrect) padded vsize into the header, but we will use the unpadded
       // size to read/write
       if (uvarb.size() == 1 && uvarb.get(0) == var) {
-        if ((dtype == DataType.CHAR) || (dtype == DataType.BYTE) || (dtype == DataType.SHORT)) {
+        if (dtype.getSize() < 4) { // CHAR, BYTE, SHORT, and in CDF-5, UBYTE and USHORT
           vsize = unpaddedVsize;
         }
       }
@@ -423,13 +413,13 @@ class N3headerWriter extends N3header {
   // write a string then pad to 4 byte boundary
   private void writeString(String s) throws IOException {
     byte[] b = s.getBytes(StandardCharsets.UTF_8); // all strings are encoded in UTF-8 Unicode.
-    raf.writeInt(b.length);
+    writeCount(b.length);
     raf.write(b);
     pad(b.length, (byte) 0);
   }
 
   private int sizeString(String s) {
-    int size = s.length() + 4;
+    int size = s.length() + (useLongData ? 8 : 4);
     return size + padding(s.length());
   }
 
@@ -443,6 +433,23 @@ class N3headerWriter extends N3header {
     throw new IllegalStateException("unknown Dimension == " + wantDim);
   }
 
+  // write a count, length or size: 32 bits, or 64 bits in CDF-5
+  private void writeCount(long count) throws IOException {
+    if (useLongData)
+      raf.writeLong(count);
+    else
+      raf.writeInt((int) count);
+  }
+
+  // the unsigned and 64-bit types are only allowed in CDF-5
+  private int getFileType(DataType dt) {
+    int type = getType(dt);
+    if (type > 6 && !useLongData)
+      throw new IllegalArgumentException(
+          "DataType " + dt + " is only allowed in the " + NetcdfFileFormat.NETCDF3_64BIT_DATA + " format");
+    return type;
+  }
+
   // pad to a 4 byte boundary
   private void pad(int nbytes, byte fill) throws IOException {
     int pad = padding(nbytes);
@@ -453,7 +460,7 @@ class N3headerWriter extends N3header {
   void writeNumrecs() throws IOException {
     // set number of records in the header
     raf.seek(4);
-    raf.writeInt(numrecs);
+    writeCount(numrecs);
   }
 
   void setNumrecs(int n) {
@@ -486,12 +493,12 @@ class N3headerWriter extends N3header {
 
     if (type == 2) { // String
       String s = att.getStringValue();
-      int org = raf.readInt();
+      int org = (int) readCount();
       int size = org + padding(org); // ok to use the padding
       int max = Math.min(size, s.length()); // cant make any longer than size
       if (max > org) { // adjust if its using the padding, but not if its shorter
         raf.seek(pos + 4);
-        raf.writeInt(max);
+        writeCount(max);
       }
 
       byte[] b = new byte[size];
@@ -500,17 +507,17 @@ class N3headerWriter extends N3header {
       raf.write(b);
 
     } else {
-      int nelems = raf.readInt();
+      int nelems = (int) readCount();
       int max = Math.min(nelems, att.getLength()); // cant make any longer
       for (int j = 0; j < max; j++)
-        writeAttributeValue(att.getNumericValue(j));
+        writeAttributeValue(have, att.getNumericValue(j));
     }
   }
 
   private long findAtt(long start_pos, String want) throws IOException {
     raf.seek(start_pos + 4);
 
-    int natts = raf.readInt();
+    int natts = (int) readCount();
     for (int i = 0; i < natts; i++) {
       String name = readString();
       if (name.equals(want))
@@ -521,7 +528,7 @@ class N3headerWriter extends N3header {
       if (type == 2) {
         readString();
       } else {
-        int nelems = raf.readInt();
+        int nelems = (int) readCount();
         DataType dtype = getDataType(type);
         int[] shape = {nelems};
         Array arr = Array.factory(dtype, shape);
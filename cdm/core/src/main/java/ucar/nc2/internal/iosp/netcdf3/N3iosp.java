@@ -78,6 +78,13 @@ public class N3iosp extends AbstractIOServiceProvider implements IOServiceProvid
    * Note also that all netCDF variables and records are padded to 4 byte boundaries.
    */
 
+  /*
+   * 64-BIT DATA (CDF-5, from PnetCDF)
+   * Same layout as the 64-bit offset format, but all counts, dimension lengths and variable sizes are 64 bits,
+   * so there is no limit on the size of a variable or record. Adds the unsigned byte, short and int types,
+   * and signed and unsigned 64-bit ints. The CDM still limits dimension lengths to Integer.MAX_VALUE.
+   */
+
   protected N3header header;
   protected long lastModified; // used by sync
   private final boolean debugRecord = false;
@@ -143,6 +150,8 @@ public class N3iosp extends AbstractIOServiceProvider implements IOServiceProvid
       return Boolean.TRUE;
     }
     if (message.equals(IOSP_MESSAGE_GET_NETCDF_FILE_FORMAT)) {
+      if (header.useLongData)
+        return NetcdfFileFormat.NETCDF3_64BIT_DATA;
       return header.useLongOffset ? NetcdfFileFormat.NETCDF3_64BIT_OFFSET : NetcdfFileFormat.NETCDF3;
     }
     return super.sendIospMessage(message);
@@ -6,7 +6,13 @@ package ucar.nc2.internal.iosp.netcdf3;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import ucar.ma2.Array;
 import ucar.ma2.ArrayChar;
 import ucar.ma2.ArrayObject;
@@ -31,18 +37,36 @@ import ucar.nc2.internal.iosp.IospFileCreator;
 import ucar.nc2.iosp.Layout;
 import ucar.nc2.iosp.LayoutRegular;
 import ucar.nc2.iosp.LayoutRegularSegmented;
+import ucar.nc2.iosp.NetcdfFileFormat;
 import ucar.nc2.iosp.NetcdfFormatUtils;
 import ucar.nc2.util.CancelTask;
 import ucar.unidata.io.RandomAccessFile;
 
 /** IOServiceProviderWriter for Netcdf3 files. */
 public class N3iospWriter extends N3iosp implements IospFileCreator, IospFileUpdater {
+  // max size of the buffer used to assemble whole records before writing them
+  private static final int MAX_RECORD_BUFFER = 4 * 1024 * 1024;
+
   private boolean fill = true;
   private final IOServiceProvider iosp;
+  private final NetcdfFileFormat format;
   private N3headerWriter headerw;
 
   public N3iospWriter(IOServiceProvider iosp) {
+    this(iosp, NetcdfFileFormat.NETCDF3);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param iosp the existing iosp, when updating a file.
+   * @param format format of a new file: NETCDF3, NETCDF3_64BIT_OFFSET or NETCDF3_64BIT_DATA.
+   */
+  public N3iospWriter(IOServiceProvider iosp, NetcdfFileFormat format) {
+    if (!format.isNetdf3format())
+      throw new IllegalArgumentException("N3iospWriter does not support format " + format);
     this.iosp = iosp; // WHY ?
+    this.format = format;
   }
 
   @Override
@@ -59,7 +83,8 @@ public class N3iospWriter extends N3iosp implements IospFileCreator, IospFileUpd
 
     this.headerw = new N3headerWriter(this, raf);
     // The rootGroup is modified to be specific to the output file.
-    headerw.create(rootGroup, extra, largeFile);
+    headerw.create(rootGroup, extra,
+        (largeFile && format == NetcdfFileFormat.NETCDF3) ? NetcdfFileFormat.NETCDF3_64BIT_OFFSET : format);
     this.header = headerw;
 
     NetcdfFile.Builder<?> ncfileb = NetcdfFile.builder().setRootGroup(rootGroup).setLocation(filename);
@@ -148,11 +173,62 @@ public class N3iospWriter extends N3iosp implements IospFileCreator, IospFileUpd
   @Override
   public int appendStructureData(Structure s, StructureData sdata) throws IOException, InvalidRangeException {
     int recnum = header.numrecs;
-    setNumrecs(recnum + 1);
-    writeRecordData(s, recnum, sdata);
+    extendRecords(recnum + 1);
+
+    Map<String, Array> values = new HashMap<>();
+    StructureMembers members = sdata.getStructureMembers();
+    for (Variable vm : s.getVariables()) {
+      StructureMembers.Member m = members.findMember(vm.getShortName());
+      if (null == m)
+        continue; // this means that the data is missing from the StructureData, it is written with the fill value
+      values.put(vm.getShortName(), convertStringToChar(vm, sdata.getArray(m)));
+    }
+    writeRecordBuffer(recnum, 1, values);
     return recnum;
   }
 
+  /**
+   * Write complete records of all the record variables, assembled in memory and written with one sequential write.
+   * This is much faster than writing each variable separately, which writes a small piece to each record.
+   * Record variables missing from values are written with their fill value, overwriting any existing data in those
+   * records. Records between the current number of records and startRec are filled as usual.
+   *
+   * @param startRec index of the first record to write.
+   * @param values data for the record variables, keyed by variable name. Each array has the shape of its variable,
+   *        with the same length nrecs of the outer (record) dimension.
+   * @return the number of records written.
+   */
+  public int writeRecords(int startRec, Map<String, Array> values) throws IOException, InvalidRangeException {
+    if (values.isEmpty())
+      throw new IllegalArgumentException("writeRecords: no data");
+
+    int nrecs = -1;
+    Map<String, Array> recordValues = new HashMap<>();
+    for (Map.Entry<String, Array> entry : values.entrySet()) {
+      Variable v = ncfile.findVariable(entry.getKey());
+      if (v == null)
+        throw new IllegalArgumentException("writeRecords: no variable named " + entry.getKey());
+      if (!v.isUnlimited() || v instanceof Structure)
+        throw new IllegalArgumentException("writeRecords: " + entry.getKey() + " is not a record variable");
+      Array data = convertStringToChar(v, entry.getValue());
+      if (data.getRank() != v.getRank())
+        throw new InvalidRangeException("writeRecords: " + entry.getKey() + " data must have rank " + v.getRank());
+      if (nrecs < 0)
+        nrecs = data.getShape()[0];
+      else if (nrecs != data.getShape()[0])
+        throw new InvalidRangeException("writeRecords: all data must have the same number of records");
+      if (data.getSize() != nrecs * getRecordElems(v))
+        throw new InvalidRangeException("writeRecords: " + entry.getKey() + " data has wrong shape");
+      recordValues.put(v.getShortName(), data);
+    }
+
+    if (startRec > header.numrecs)
+      setNumrecs(startRec); // fill any skipped records
+    extendRecords(startRec + nrecs);
+    writeRecordBuffer(startRec, nrecs, recordValues);
+    return nrecs;
+  }
+
   private void writeRecordData(ucar.nc2.Structure s, Section section, ArrayStructure structureArray)
       throws java.io.IOException, ucar.ma2.InvalidRangeException {
     int countSrcRecnum = 0;
@@ -175,12 +251,7 @@ public class N3iospWriter extends N3iosp implements IospFileCreator, IospFileUpd
       if (null == m)
         continue; // this means that the data is missing from the ArrayStructure
 
-      // convert String member data into CHAR data
-      Array data = sdata.getArray(m);
-      if (data instanceof ArrayObject && vm.getDataType() == DataType.CHAR && vm.getRank() > 0) {
-        int strlen = vm.getShape(vm.getRank() - 1);
-        data = ArrayChar.makeFromStringArray((ArrayObject) data, strlen); // turn it into an ArrayChar
-      }
+      Array data = convertStringToChar(vm, sdata.getArray(m));
 
       // layout of the destination
       N3header.Vinfo vinfo = (N3header.Vinfo) vm.getSPobject();
@@ -197,6 +268,103 @@ public class N3iospWriter extends N3iosp implements IospFileCreator, IospFileUpd
     }
   }
 
+  // convert String data into CHAR data
+  private Array convertStringToChar(Variable v, Array data) {
+    if (data instanceof ArrayObject && v.getDataType() == DataType.CHAR && v.getRank() > 0) {
+      int strlen = v.getShape(v.getRank() - 1);
+      return ArrayChar.makeFromStringArray((ArrayObject) data, strlen); // turn it into an ArrayChar
+    }
+    return data;
+  }
+
+  // number of elements of a record variable in one record
+  private static long getRecordElems(Variable v) {
+    long n = 1;
+    for (int i = 1; i < v.getRank(); i++)
+      n *= v.getShape(i);
+    return n;
+  }
+
+  /**
+   * Assemble records [startRec, startRec + nrecs) of all the record variables in memory in their on-disk interleaved
+   * order, and write them sequentially, in as few writes as the buffer size allows.
+   *
+   * @param values data keyed by record variable short name. Missing variables are written with the fill value.
+   */
+  private void writeRecordBuffer(int startRec, int nrecs, Map<String, Array> values) throws IOException {
+    if (header.recsize == 0 || nrecs <= 0)
+      return;
+    if (header.recsize > Integer.MAX_VALUE)
+      throw new IllegalArgumentException("Cant write records when recsize > " + Integer.MAX_VALUE);
+    int recsize = (int) header.recsize;
+
+    // the source of the data for each record variable, in file order
+    List<Variable> recordVars = new ArrayList<>();
+    List<IndexIterator> sources = new ArrayList<>();
+    for (Variable v : ncfile.getVariables()) {
+      if (!v.isUnlimited() || (v instanceof Structure))
+        continue;
+      Array data = values.get(v.getShortName());
+      recordVars.add(v);
+      sources.add((data != null) ? data.getIndexIterator() : makeConstantArray(v).getIndexIterator());
+    }
+
+    int recsPerWrite = Math.max(1, Math.min(nrecs, MAX_RECORD_BUFFER / recsize));
+    ByteBuffer bb = ByteBuffer.allocate(recsPerWrite * recsize); // big endian
+    for (int rec = 0; rec < nrecs; rec += recsPerWrite) {
+      int n = Math.min(recsPerWrite, nrecs - rec);
+      Arrays.fill(bb.array(), 0, n * recsize, (byte) 0); // padding
+      for (int i = 0; i < recordVars.size(); i++) {
+        Variable v = recordVars.get(i);
+        N3header.Vinfo vinfo = (N3header.Vinfo) v.getSPobject();
+        int offset = (int) (vinfo.begin - header.recStart);
+        int nelems = (int) getRecordElems(v);
+        for (int r = 0; r < n; r++) {
+          bb.position(r * recsize + offset);
+          putValues(bb, sources.get(i), v.getDataType(), nelems);
+        }
+      }
+      raf.seek(header.recStart + (startRec + rec) * header.recsize);
+      raf.write(bb.array(), 0, n * recsize);
+    }
+  }
+
+  private void putValues(ByteBuffer bb, IndexIterator ii, DataType dataType, int nelems) {
+    switch (dataType) {
+      case BYTE:
+      case UBYTE:
+      case CHAR:
+        for (int k = 0; k < nelems; k++)
+          bb.put(ii.getByteNext());
+        break;
+      case SHORT:
+      case USHORT:
+        for (int k = 0; k < nelems; k++)
+          bb.putShort(ii.getShortNext());
+        break;
+      case INT:
+      case UINT:
+        for (int k = 0; k < nelems; k++)
+          bb.putInt(ii.getIntNext());
+        break;
+      case FLOAT:
+        for (int k = 0; k < nelems; k++)
+          bb.putFloat(ii.getFloatNext());
+        break;
+      case DOUBLE:
+        for (int k = 0; k < nelems; k++)
+          bb.putDouble(ii.getDoubleNext());
+        break;
+      case LONG:
+      case ULONG:
+        for (int k = 0; k < nelems; k++)
+          bb.putLong(ii.getLongNext());
+        break;
+      default:
+        throw new IllegalStateException("dataType= " + dataType);
+    }
+  }
+
   /**
    * write data to a file for a variable.
    *
@@ -205,7 +373,7 @@ public class N3iospWriter extends N3iosp implements IospFileCreator, IospFileUpd
    * @param dataType dataType of the variable
    */
   private void writeData(Array values, Layout index, DataType dataType) throws java.io.IOException {
-    if ((dataType == DataType.BYTE) || (dataType == DataType.CHAR)) {
+    if ((dataType == DataType.BYTE) || (dataType == DataType.UBYTE) || (dataType == DataType.CHAR)) {
       IndexIterator ii = values.getIndexIterator();
       while (index.hasNext()) {
         Layout.Chunk chunk = index.next();
@@ -228,7 +396,7 @@ public class N3iospWriter extends N3iosp implements IospFileCreator, IospFileUpd
       }
       return;
 
-    } else if (dataType == DataType.SHORT) {
+    } else if ((dataType == DataType.SHORT) || (dataType == DataType.USHORT)) {
       IndexIterator ii = values.getIndexIterator();
       while (index.hasNext()) {
         Layout.Chunk chunk = index.next();
@@ -238,7 +406,7 @@ public class N3iospWriter extends N3iosp implements IospFileCreator, IospFileUpd
       }
       return;
 
-    } else if (dataType == DataType.INT) {
+    } else if ((dataType == DataType.INT) || (dataType == DataType.UINT)) {
       IndexIterator ii = values.getIndexIterator();
       while (index.hasNext()) {
         Layout.Chunk chunk = index.next();
@@ -267,6 +435,16 @@ public class N3iospWriter extends N3iosp implements IospFileCreator, IospFileUpd
           raf.writeDouble(ii.getDoubleNext());
       }
       return;
+
+    } else if ((dataType == DataType.LONG) || (dataType == DataType.ULONG)) {
+      IndexIterator ii = values.getIndexIterator();
+      while (index.hasNext()) {
+        Layout.Chunk chunk = index.next();
+        raf.seek(chunk.getSrcPos());
+        for (int k = 0; k < chunk.getNelems(); k++)
+          raf.writeLong(ii.getLongNext());
+      }
+      return;
     }
 
     throw new IllegalStateException("dataType= " + dataType);
@@ -276,7 +454,19 @@ public class N3iospWriter extends N3iosp implements IospFileCreator, IospFileUpd
     if (n <= header.numrecs)
       return;
     int startRec = header.numrecs;
+    extendRecords(n);
 
+    // extend file, handle filling
+    if (fill)
+      fillRecordVariables(startRec, n);
+    else
+      raf.setMinLength(header.calcFileSize());
+  }
+
+  // set the number of records, without writing anything to them
+  private void extendRecords(int n) {
+    if (n <= header.numrecs)
+      return;
     ((N3headerWriter) header).setNumrecs(n);
 
     // need to let all unlimited variables know of new shape
@@ -286,12 +476,6 @@ public class N3iospWriter extends N3iosp implements IospFileCreator, IospFileUpd
         v.invalidateCache();
       }
     }
-
-    // extend file, handle filling
-    if (fill)
-      fillRecordVariables(startRec, n);
-    else
-      raf.setMinLength(header.calcFileSize());
   }
 
   /**
@@ -316,7 +500,7 @@ public class N3iospWriter extends N3iosp implements IospFileCreator, IospFileUpd
   }
 
   public void flush() throws java.io.IOException {
-    if (raf != null) {
+    if (raf != null && header != null) { // header is null if create() failed
       raf.flush();
       ((N3headerWriter) header).writeNumrecs();
       raf.flush();
@@ -346,52 +530,47 @@ public class N3iospWriter extends N3iosp implements IospFileCreator, IospFileUpd
     }
   }
 
-  private void fillRecordVariables(int recStart, int recEnd) throws IOException, InvalidRangeException {
-    // do each record completely, should be a bit more efficient
-
-    for (int i = recStart; i < recEnd; i++) { // do one record at a time
-      Range r = new Range(i, i);
-
-      // run through each variable
-      for (Variable v : ncfile.getVariables()) {
-        if (!v.isUnlimited() || (v instanceof Structure))
-          continue;
-        Section.Builder recordSection = Section.builder().appendRanges(v.getRanges());
-        recordSection.setRange(0, r);
-        writeData(v, recordSection.build(), makeConstantArray(v));
-      }
-    }
+  private void fillRecordVariables(int recStart, int recEnd) throws IOException {
+    // assemble whole records in memory, so each batch of records is a single write
+    writeRecordBuffer(recStart, recEnd - recStart, new HashMap<>());
   }
 
   private Array makeConstantArray(Variable v) {
     Class<?> classType = v.getDataType().getPrimitiveClassType();
     // int [] shape = v.getShape();
     Attribute att = v.findAttribute(CDM.FILL_VALUE);
+    // the default depends on the signedness, eg NC_FILL_UBYTE
+    Number fillValue = (att == null) ? NetcdfFormatUtils.getFillValueDefault(v.getDataType()) : att.getNumericValue();
 
     Object storage = null;
     if (classType == double.class) {
       double[] storageP = new double[1];
-      storageP[0] = (att == null) ? NetcdfFormatUtils.NC_FILL_DOUBLE : att.getNumericValue().doubleValue();
+      storageP[0] = fillValue.doubleValue();
       storage = storageP;
 
     } else if (classType == float.class) {
       float[] storageP = new float[1];
-      storageP[0] = (att == null) ? NetcdfFormatUtils.NC_FILL_FLOAT : att.getNumericValue().floatValue();
+      storageP[0] = fillValue.floatValue();
+      storage = storageP;
+
+    } else if (classType == long.class) {
+      long[] storageP = new long[1];
+      storageP[0] = fillValue.longValue();
       storage = storageP;
 
     } else if (classType == int.class) {
       int[] storageP = new int[1];
-      storageP[0] = (att == null) ? NetcdfFormatUtils.NC_FILL_INT : att.getNumericValue().intValue();
+      storageP[0] = fillValue.intValue();
       storage = storageP;
 
     } else if (classType == short.class) {
       short[] storageP = new short[1];
-      storageP[0] = (att == null) ? NetcdfFormatUtils.NC_FILL_SHORT : att.getNumericValue().shortValue();
+      storageP[0] = fillValue.shortValue();
       storage = storageP;
 
     } else if (classType == byte.class) {
       byte[] storageP = new byte[1];
-      storageP[0] = (att == null) ? NetcdfFormatUtils.NC_FILL_BYTE : att.getNumericValue().byteValue();
+      storageP[0] = fillValue.byteValue();
       storage = storageP;
 
     } else if (classType == char.class) {
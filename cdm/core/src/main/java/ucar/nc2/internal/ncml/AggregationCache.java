@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 1998-2020 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.internal.ncml;
+
+import com.google.common.primitives.Ints;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import thredds.inventory.MFile;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.IndexIterator;
+import ucar.nc2.internal.ncml.AggregationCacheProto.AggHeader;
+import ucar.nc2.internal.ncml.AggregationCacheProto.AggMember;
+import ucar.nc2.internal.ncml.AggregationCacheProto.CachedVar;
+
+/**
+ * The persistent cache of a joinExisting aggregation, in binary form.
+ * For each member dataset, holds the number of coordinates and the values of the cached variables, keyed by the
+ * member id, lastModified and size.
+ * <p/>
+ * File layout:
+ *
+ * <pre>
+ * MAGIC_START
+ * int version
+ * AggHeader (length delimited)
+ * AggMember (length delimited), repeated
+ * </pre>
+ *
+ * New members are appended to the end of the file; a later record for the same id replaces an earlier one.
+ * The file is read sequentially through a buffered stream, since every record is parsed anyway.
+ */
+class AggregationCache {
+  private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(AggregationCache.class);
+
+  static final String MAGIC_START = "NcmlAggregationCache";
+  private static final int version = 1;
+  private static final int BUFFER_SIZE = 8192;
+
+  /**
+   * Read the cache file.
+   *
+   * @return the cache, or null if its not a cache file of this version, or its for a different aggregation.
+   */
+  @Nullable
+  static AggregationCache read(File cacheFile, AggHeader want) throws IOException {
+    try (InputStream is = new FileInputStream(cacheFile)) {
+      CodedInputStream in = CodedInputStream.newInstance(is, BUFFER_SIZE);
+      if (!readPreamble(in))
+        return null; // eg the old XML format
+      AggHeader header = AggHeader.parseFrom(readDelimited(in));
+      if (!header.equals(want))
+        return null;
+
+      AggregationCache result = new AggregationCache();
+      try {
+        while (!in.isAtEnd()) {
+          AggMember member = AggMember.parseFrom(readDelimited(in));
+          result.members.put(member.getId(), member);
+          result.nrecords++;
+        }
+      } catch (InvalidProtocolBufferException e) {
+        // an append was interrupted, use what we have. The next append will truncate it.
+        logger.warn("Truncated aggregation cache {}", cacheFile.getPath());
+      }
+      return result;
+    }
+  }
+
+  // true if it starts with MAGIC_START and this version
+  private static boolean readPreamble(CodedInputStream in) throws IOException {
+    byte[] magic = MAGIC_START.getBytes(StandardCharsets.UTF_8);
+    try {
+      if (!Arrays.equals(in.readRawBytes(magic.length), magic))
+        return false;
+      return Ints.fromByteArray(in.readRawBytes(4)) == version; // written by DataOutputStream.writeInt
+    } catch (InvalidProtocolBufferException e) {
+      return false; // too short
+    }
+  }
+
+  private static byte[] readDelimited(CodedInputStream in) throws IOException {
+    int size = in.readRawVarint32();
+    return in.readRawBytes(size);
+  }
+
+  /**
+   * Find the end of the last complete record, skipping over the records without parsing them.
+   *
+   * @return the file position to append to, or -1 if its not a cache file of this version.
+   */
+  private static long findEnd(FileChannel channel) throws IOException {
+    channel.position(0);
+    CodedInputStream in = CodedInputStream.newInstance(Channels.newInputStream(channel), BUFFER_SIZE);
+    if (!readPreamble(in))
+      return -1;
+    long end = -1;
+    try {
+      in.skipRawBytes(in.readRawVarint32()); // the header
+      end = in.getTotalBytesRead();
+      while (!in.isAtEnd()) {
+        in.skipRawBytes(in.readRawVarint32());
+        end = in.getTotalBytesRead();
+      }
+    } catch (InvalidProtocolBufferException e) {
+      logger.warn("Truncated aggregation cache, last record starts at {}", end);
+    }
+    return end;
+  }
+
+  /**
+   * Write the members to the cache file. Give up if the file is locked by another writer.
+   * An append first truncates any partial record left by an interrupted write.
+   *
+   * @param append append to an existing file, else write a new one starting with the header.
+   * @return true if written.
+   */
+  static boolean write(File cacheFile, AggHeader header, List<AggMember> members, boolean append) throws IOException {
+    try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+      // Try acquiring the lock without blocking. This method returns
+      // null or throws an exception if the file is already locked.
+      FileLock lock;
+      try {
+        lock = channel.tryLock();
+      } catch (OverlappingFileLockException e) {
+        // File is already locked in this thread or virtual machine
+        return false; // give up
+      }
+      if (lock == null) {
+        return false;
+      }
+
+      // only change the file once we hold the lock
+      long start = append ? findEnd(channel) : 0;
+      if (start < 0) {
+        return false; // not something we can append to
+      }
+      channel.truncate(start);
+      channel.position(start);
+
+      // closing the channel also releases the lock, so just flush this
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+      if (!append) {
+        out.write(MAGIC_START.getBytes(StandardCharsets.UTF_8));
+        out.writeInt(version);
+        header.writeDelimitedTo(out);
+      }
+      for (AggMember member : members) {
+        member.writeDelimitedTo(out);
+      }
+      out.flush();
+      return true;
+    }
+  }
+
+  static AggHeader makeHeader(Aggregation.Type type, String dimName) {
+    AggHeader.Builder builder = AggHeader.newBuilder().setType(type.toString());
+    if (dimName != null)
+      builder.setDimName(dimName);
+    return builder.build();
+  }
+
+  /** True if the member was made from this file, as it is now. */
+  static boolean isCurrent(AggMember member, @Nullable MFile mfile) {
+    if (mfile == null)
+      return true;
+    return mfile.getLastModified() == member.getLastModified() && mfile.getLength() == member.getSize();
+  }
+
+  static AggMember.Builder makeMember(String id, @Nullable MFile mfile, int ncoords) {
+    AggMember.Builder builder = AggMember.newBuilder().setId(id).setNcoords(ncoords);
+    if (mfile != null) {
+      builder.setLastModified(mfile.getLastModified());
+      builder.setSize(mfile.getLength());
+    }
+    return builder;
+  }
+
+  /** Encode the data, or return null if its not a type that can be cached. */
+  @Nullable
+  static CachedVar encodeData(String varName, Array data) {
+    DataType dtype = data.getDataType();
+    CachedVar.Builder builder = CachedVar.newBuilder().setVarName(varName).setDataType(dtype.name());
+    for (int len : data.getShape())
+      builder.addShape(len);
+
+    if (dtype == DataType.STRING) {
+      IndexIterator ii = data.getIndexIterator();
+      while (ii.hasNext())
+        builder.addSdata(String.valueOf(ii.getObjectNext()));
+    } else if (dtype.isNumeric() || dtype == DataType.CHAR) {
+      ByteBuffer bb = data.getDataAsByteBuffer();
+      bb.rewind();
+      builder.setData(ByteString.copyFrom(bb));
+    } else {
+      return null;
+    }
+    return builder.build();
+  }
+
+  static Array decodeData(CachedVar cached) {
+    DataType dtype = DataType.valueOf(cached.getDataType());
+    int[] shape = new int[cached.getShapeCount()];
+    for (int i = 0; i < shape.length; i++)
+      shape[i] = cached.getShape(i);
+
+    if (dtype == DataType.STRING) {
+      Array data = Array.factory(dtype, shape);
+      IndexIterator ii = data.getIndexIterator();
+      for (String s : cached.getSdataList())
+        ii.setObjectNext(s);
+      return data;
+    }
+    return Array.factory(dtype, shape, cached.getData().asReadOnlyByteBuffer().slice());
+  }
+
+  ////////////////////////////////////////////////////////////////
+  private final Map<String, AggMember> members = new HashMap<>();
+  private int nrecords;
+
+  private AggregationCache() {}
+
+  @Nullable
+  AggMember findMember(String id) {
+    return members.get(id);
+  }
+
+  /** Number of records in the file, including the ones that have been replaced by a later record. */
+  int getNumberOfRecords() {
+    return nrecords;
+  }
+}
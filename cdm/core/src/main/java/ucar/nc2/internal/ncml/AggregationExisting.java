@@ -6,25 +6,18 @@
 package ucar.nc2.internal.ncml;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.nio.channels.FileChannel;
-import java.nio.channels.FileLock;
-import java.nio.channels.OverlappingFileLockException;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import org.jdom2.Element;
+import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import thredds.client.catalog.Catalog;
-import thredds.inventory.MFile;
 import ucar.ma2.Array;
 import ucar.ma2.DataType;
+import ucar.ma2.MAMath;
 import ucar.nc2.Attribute;
 import ucar.nc2.Dimension;
 import ucar.nc2.Group;
@@ -35,7 +28,8 @@ import ucar.nc2.constants.CF;
 import ucar.nc2.constants._Coordinate;
 import ucar.nc2.dataset.NetcdfDataset;
 import ucar.nc2.dataset.VariableDS;
-import ucar.nc2.time.CalendarDate;
+import ucar.nc2.internal.ncml.AggregationCacheProto.AggMember;
+import ucar.nc2.internal.ncml.AggregationCacheProto.CachedVar;
 import ucar.nc2.util.CancelTask;
 
 /**
@@ -46,6 +40,10 @@ import ucar.nc2.util.CancelTask;
 class AggregationExisting extends AggregationOuter {
   private static final Logger log = LoggerFactory.getLogger(AggregationExisting.class);
 
+  // ids of the datasets in the persistent cache file, and the number of cached variables each has there
+  private Map<String, Integer> persisted;
+  private int persistedRecords; // number of records in the cache file
+
   AggregationExisting(NetcdfDataset.Builder<?> ncd, String dimName, String recheckS) {
     super(ncd, dimName, Type.joinExisting, recheckS);
   }
@@ -172,23 +170,13 @@ class AggregationExisting extends AggregationOuter {
 
   /**
    * Persist info (ncoords, coordValues) from joinExisting, since that can be expensive to
-   * recreate.
+   * recreate. Only the datasets that are new or changed since the cache file was read are appended to it,
+   * unless it has too many replaced records, in which case it is rewritten.
    */
   public void persistWrite() throws IOException {
-    if (diskCache2 == null) {
-      return;
-    }
-
-    String cacheName = getCacheName();
-    if (cacheName == null) {
-      return;
-    }
-    if (cacheName.startsWith("file:")) { // LOOK HACK
-      cacheName = cacheName.substring(5);
-    }
-    File cacheFile = diskCache2.getCacheFile(cacheName);
+    File cacheFile = getPersistFile();
     if (cacheFile == null) {
-      throw new IllegalStateException();
+      return;
     }
 
     // only write out if something changed after the cache file was last written, or if the file has been deleted
@@ -203,203 +191,163 @@ class AggregationExisting extends AggregationOuter {
       }
     }
 
-    // Get a file channel for the file
-    try (FileOutputStream fos = new FileOutputStream(cacheFile);
-        FileChannel channel = fos.getChannel();
-        PrintWriter out = new PrintWriter(new OutputStreamWriter(fos, StandardCharsets.UTF_8))) {
-
-      // Try acquiring the lock without blocking. This method returns
-      // null or throws an exception if the file is already locked.
-      FileLock lock;
-      try {
-        lock = channel.tryLock();
-      } catch (OverlappingFileLockException e) {
-        // File is already locked in this thread or virtual machine
-        return; // give up
-      }
-      if (lock == null) {
-        return;
-      }
-
-      out.print("<?xml version='1.0' encoding='UTF-8'?>\n");
-      out.print("<aggregation xmlns='http://www.unidata.ucar.edu/namespaces/netcdf/ncml-2.2' version='3' ");
-      out.print("type='" + type + "' ");
-      if (dimName != null) {
-        out.print("dimName='" + dimName + "' ");
-      }
-      if (datasetManager.getRecheck() != null) {
-        out.print("recheckEvery='" + datasetManager.getRecheck() + "' ");
+    List<AggDataset> nestedDatasets = getDatasets();
+    List<AggMember> all = new ArrayList<>();
+    List<AggMember> changed = new ArrayList<>();
+    for (AggDataset dataset : nestedDatasets) {
+      AggDatasetOuter dod = (AggDatasetOuter) dataset;
+      if (dod.getId() == null) {
+        logger.warn("id is null");
+        continue;
       }
-      out.print(">\n");
 
-      List<AggDataset> nestedDatasets = getDatasets();
-      for (AggDataset dataset : nestedDatasets) {
-        AggDatasetOuter dod = (AggDatasetOuter) dataset;
-        if (dod.getId() == null) {
-          logger.warn("id is null");
-        }
-
-        out.print("  <netcdf id='" + dod.getId() + "' ");
-        out.print("ncoords='" + dod.getNcoords(null) + "' >\n");
-
-        for (CacheVar pv : cacheList) {
-          Array data = pv.getData(dod.getId());
-          if (data != null) {
-            out.print("    <cache varName='" + pv.varName + "' >");
-            while (data.hasNext()) {
-              out.printf("%s ", data.next());
-            }
-            out.print("</cache>\n");
-            if (logger.isDebugEnabled()) {
-              logger.debug(
-                  " wrote array = " + pv.varName + " nelems= " + data.getSize() + " for " + dataset.getLocation());
-            }
+      AggMember.Builder builder = AggregationCache.makeMember(dod.getId(), dod.getMFile(), dod.getNcoords(null));
+      for (CacheVar pv : cacheList) {
+        Array data = pv.getData(dod.getId());
+        if (data != null) {
+          CachedVar cached = AggregationCache.encodeData(pv.varName, data);
+          if (cached != null) {
+            builder.addVars(cached);
           }
         }
-        out.print("  </netcdf>\n");
       }
+      AggMember member = builder.build();
+      all.add(member);
 
-      out.print("</aggregation>\n");
-
-      long time = datasetManager.getLastScanned();
-      if (time == 0) {
-        time = System.currentTimeMillis(); // no scans (eg all static) will have a 0
+      Integer nvars = (persisted == null) ? null : persisted.get(member.getId());
+      if (nvars == null || nvars < member.getVarsCount()) {
+        changed.add(member);
       }
+    }
 
-      if (!cacheFile.setLastModified(time)) {
-        logger.warn("FAIL to set lastModified on {}", cacheFile.getPath());
-      }
+    boolean append = persisted != null && cacheFile.exists();
+    if (append && changed.isEmpty()) {
       cacheDirty = false;
-
-      if (logger.isDebugEnabled()) {
-        logger.debug("Aggregation persisted = " + cacheFile.getPath() + " lastModified= "
-            + CalendarDate.of(datasetManager.getLastScanned()));
-      }
+      return;
+    }
+    if (append && persistedRecords + changed.size() > 2 * all.size()) {
+      append = false; // too much garbage, compact it
     }
-  }
 
-  // read info from the persistent XML file, if it exists
-  protected void persistRead() {
-    if (diskCache2 == null) {
-      return;
+    List<AggMember> members = append ? changed : all;
+    if (!AggregationCache.write(cacheFile, AggregationCache.makeHeader(type, dimName), members, append)) {
+      return; // locked by someone else
+    }
+    if (!append) {
+      persisted = new HashMap<>();
+      persistedRecords = 0;
+    }
+    for (AggMember member : members) {
+      persisted.put(member.getId(), member.getVarsCount());
     }
+    persistedRecords += members.size();
 
-    String cacheName = getCacheName();
-    if (cacheName == null) {
-      return;
+    long time = datasetManager.getLastScanned();
+    if (time == 0) {
+      time = System.currentTimeMillis(); // no scans (eg all static) will have a 0
     }
-    if (cacheName.startsWith("file:")) // LOOK
-    {
-      cacheName = cacheName.substring(5);
+
+    if (!cacheFile.setLastModified(time)) {
+      logger.warn("FAIL to set lastModified on {}", cacheFile.getPath());
     }
+    cacheDirty = false;
 
-    File cacheFile = diskCache2.getCacheFile(cacheName);
-    if (cacheFile == null) {
-      throw new IllegalStateException();
+    if (logger.isDebugEnabled()) {
+      logger.debug("Aggregation persisted = {} {} members append={}", cacheFile.getPath(), members.size(), append);
     }
-    if (!cacheFile.exists()) {
+  }
+
+  // read info from the persistent cache file, if it exists
+  protected void persistRead() {
+    File cacheFile = getPersistFile();
+    if (cacheFile == null || !cacheFile.exists()) {
       return;
     }
-    long lastWritten = cacheFile.lastModified();
 
     if (logger.isDebugEnabled()) {
-      logger.debug(" Try to Read cache {} " + cacheFile.getPath());
+      logger.debug(" Try to Read cache {} ", cacheFile.getPath());
     }
 
-    Element aggElem;
+    AggregationCache cache;
     try {
-      aggElem = ucar.nc2.internal.util.xml.Parse.readRootElement("file:" + cacheFile.getPath());
+      cache = AggregationCache.read(cacheFile, AggregationCache.makeHeader(type, dimName));
     } catch (IOException e) {
       if (debugCache) {
-        System.out.println(" No cache for " + cacheName + " - " + e.getMessage());
+        System.out.println(" No cache for " + cacheFile.getPath() + " - " + e.getMessage());
       }
       return;
     }
-
-    String version = aggElem.getAttributeValue("version");
-    if (!"3".equals(version)) {
-      return; // dont read old cache files, recreate
+    if (cache == null) {
+      return; // dont read old or foreign cache files, recreate
     }
 
-    // use a map to find datasets to avoid O(n**2) searching
-    Map<String, AggDataset> map = new HashMap<>();
+    persisted = new HashMap<>();
+    persistedRecords = cache.getNumberOfRecords();
     for (AggDataset ds : getDatasets()) {
-      map.put(ds.getId(), ds);
-    }
-
-    List<Element> ncList = aggElem.getChildren("netcdf", Catalog.ncmlNS);
-    for (Element netcdfElemNested : ncList) {
-      String id = netcdfElemNested.getAttributeValue("id");
-      AggDatasetOuter dod = (AggDatasetOuter) map.get(id);
-
-      if (null == dod) {
-        // this should mean that the dataset has been deleted. so not a problem
+      String id = ds.getId();
+      AggMember member = (id == null) ? null : cache.findMember(id);
+      if (member == null) {
+        continue; // a new dataset
+      }
+      AggDatasetOuter dod = (AggDatasetOuter) ds;
+      if (!AggregationCache.isCurrent(member, dod.getMFile())) { // skip datasets that have changed
         if (logger.isDebugEnabled()) {
-          logger.debug(" have cache but no dataset= {}", id);
+          logger.debug(" dataset was changed= {}", dod.getMFile());
         }
         continue;
       }
       if (logger.isDebugEnabled()) {
         logger.debug(" use cache for dataset= {}", id);
       }
-
-      MFile mfile = dod.getMFile();
-      if (mfile != null && mfile.getLastModified() > lastWritten) { // skip datasets that have changed
-        if (logger.isDebugEnabled()) {
-          logger.debug(" dataset was changed= {}", mfile);
-        }
-        continue;
-      }
+      persisted.put(id, member.getVarsCount());
 
       if (dod.ncoord == 0) {
-        String ncoordsS = netcdfElemNested.getAttributeValue("ncoords");
-        try {
-          dod.ncoord = Integer.parseInt(ncoordsS);
-          if (logger.isDebugEnabled()) {
-            logger.debug(" Read the cache; ncoords = {}", dod.ncoord);
-          }
-        } catch (NumberFormatException e) {
-          logger.error("bad ncoord attribute on dataset=" + id);
-        }
+        dod.ncoord = member.getNcoords();
       }
 
       // if (dod.coordValue != null) continue; // allow ncml to override
 
-      List<Element> cacheElemList = netcdfElemNested.getChildren("cache", Catalog.ncmlNS);
-      for (Element cacheElemNested : cacheElemList) {
-        String varName = cacheElemNested.getAttributeValue("varName");
-        CacheVar pv = findCacheVariable(varName);
-        if (pv != null) {
-          String sdata = cacheElemNested.getText();
-          if (sdata.isEmpty()) {
-            continue;
-          }
-          if (logger.isDebugEnabled()) {
-            logger.debug(" read data for var = " + varName + " size= " + sdata.length());
-          }
-
-          // long start = System.nanoTime();
-          String[] vals = sdata.split(" ");
-
-          try {
-            Array data = Array.makeArray(pv.dtype, vals);
-            pv.putData(id, data);
-            countCacheUse++;
-
-          } catch (Exception e) {
-            logger.warn("Error reading cached data ", e);
+      for (CachedVar cached : member.getVarsList()) {
+        CacheVar pv = findCacheVariable(cached.getVarName());
+        if (pv == null) {
+          logger.warn("not a cache var=" + cached.getVarName());
+          continue;
+        }
+        try {
+          Array data = AggregationCache.decodeData(cached);
+          if (data.getDataType() != pv.dtype) {
+            data = MAMath.convert(data, pv.dtype);
           }
-
-        } else {
-          logger.warn("not a cache var=" + varName);
+          pv.putData(id, data);
+          countCacheUse++;
+        } catch (Exception e) {
+          logger.warn("Error reading cached data ", e);
         }
       }
     }
+  }
+
+  @Nullable
+  private File getPersistFile() {
+    if (diskCache2 == null) {
+      return null;
+    }
 
+    String cacheName = getCacheName();
+    if (cacheName == null) {
+      return null;
+    }
+    if (cacheName.startsWith("file:")) { // LOOK HACK
+      cacheName = cacheName.substring(5);
+    }
+    File cacheFile = diskCache2.getCacheFile(cacheName);
+    if (cacheFile == null) {
+      throw new IllegalStateException();
+    }
+    return cacheFile;
   }
 
-  // name to use in the DiskCache2 for the persistent XML info.
-  // Document root is aggregation
+  // name to use in the DiskCache2 for the persistent cache file.
 
   // has the name getCacheName()
   private String getCacheName() {
@@ -5,17 +5,19 @@
 package ucar.nc2.internal.ncml;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.EnumSet;
 import java.util.Formatter;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.concurrent.Callable;
-import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.FutureTask;
 import thredds.inventory.MFile;
 import ucar.ma2.Array;
 import ucar.ma2.DataType;
@@ -147,6 +149,23 @@ abstract class AggregationOuter extends Aggregation implements ProxyReader {
       }
     }
 
+    // find the number of coordinates of all datasets concurrently; they are cached in the datasets
+    if (executor != null && nestedDatasets.size() > 1) {
+      List<Callable<Array>> scanners = new ArrayList<>();
+      for (AggDataset nested : nestedDatasets) {
+        AggDatasetOuter dod = (AggDatasetOuter) nested;
+        scanners.add(() -> {
+          dod.getNcoords(cancelTask);
+          return null;
+        });
+      }
+      try {
+        readNested(scanners, cancelTask);
+      } catch (InvalidRangeException e) {
+        throw new IOException(e.getMessage(), e);
+      }
+    }
+
     totalCoords = 0;
     for (AggDataset nested : nestedDatasets) {
       AggDatasetOuter dod = (AggDatasetOuter) nested;
@@ -394,7 +413,7 @@ abstract class AggregationOuter extends Aggregation implements ProxyReader {
     if (debug)
       System.out.println("   agg wants range=" + mainv.getFullName() + "(" + joinRange + ")");
 
-    // LOOK: could multithread here
+    List<Callable<Array>> readers = new ArrayList<>();
     List<AggDataset> nestedDatasets = getDatasets();
     for (AggDataset nested : nestedDatasets) {
       AggDatasetOuter dod = (AggDatasetOuter) nested;
@@ -402,14 +421,16 @@ abstract class AggregationOuter extends Aggregation implements ProxyReader {
       if (nestedJoinRange == null)
         continue;
 
-      Array varData;
       if ((type == Type.joinNew) || (type == Type.forecastModelRunCollection)) {
-        varData = dod.read(mainv, cancelTask, innerSection);
+        readers.add(() -> dod.read(mainv, cancelTask, innerSection));
       } else {
-        nestedSection.set(0, nestedJoinRange);
-        varData = dod.read(mainv, cancelTask, nestedSection);
+        List<Range> wantSection = new ArrayList<>(nestedSection);
+        wantSection.set(0, nestedJoinRange);
+        readers.add(() -> dod.read(mainv, cancelTask, wantSection));
       }
+    }
 
+    for (Array varData : readNested(readers, cancelTask)) {
       if ((cancelTask != null) && cancelTask.isCancel())
         return null;
       varData = MAMath.convert(varData, dtype); // just in case it need to be converted
@@ -421,6 +442,88 @@ abstract class AggregationOuter extends Aggregation implements ProxyReader {
     return sectionData;
   }
 
+  // at most this many reads of nested datasets are queued on the executor for one readNested() call
+  private static final int MAX_READS_IN_FLIGHT = 8;
+
+  // true while a thread runs a read that readNested() queued on the executor
+  private static final ThreadLocal<Boolean> onExecutor = ThreadLocal.withInitial(() -> false);
+
+  /**
+   * Read from the nested datasets, in order. If the executor is set, at most MAX_READS_IN_FLIGHT reads are queued
+   * on it at a time, the next one as each result is taken; the results are still returned in order.
+   * The calling thread does not wait for a read that has not started yet, it runs it itself, so progress does
+   * not depend on a free executor thread. Reads that are themselves running on the executor (nested aggregations)
+   * are done sequentially, so a fixed size executor does not deadlock, and the number of open files stays bounded.
+   * Stops early if cancelTask is cancelled.
+   *
+   * @param readers read from one nested dataset each
+   * @return iterator over the results, in the order of the readers
+   */
+  private Iterable<Array> readNested(List<Callable<Array>> readers, CancelTask cancelTask)
+      throws IOException, InvalidRangeException {
+    List<Array> results = new ArrayList<>();
+    if (executor == null || readers.size() < 2 || onExecutor.get()) {
+      for (Callable<Array> reader : readers) {
+        if ((cancelTask != null) && cancelTask.isCancel())
+          break;
+        results.add(callReader(reader));
+      }
+      return results;
+    }
+
+    Deque<FutureTask<Array>> inFlight = new ArrayDeque<>();
+    Iterator<Callable<Array>> todo = readers.iterator();
+    try {
+      while (todo.hasNext() || !inFlight.isEmpty()) {
+        while (todo.hasNext() && inFlight.size() < MAX_READS_IN_FLIGHT) {
+          FutureTask<Array> future = new FutureTask<>(todo.next());
+          inFlight.add(future);
+          executor.execute(() -> {
+            onExecutor.set(true);
+            try {
+              future.run();
+            } finally {
+              onExecutor.set(false);
+            }
+          });
+        }
+        if ((cancelTask != null) && cancelTask.isCancel())
+          break;
+        FutureTask<Array> future = inFlight.remove();
+        future.run(); // no-op if it has already started on the executor
+        results.add(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Aggregation read interrupted", e);
+    } catch (ExecutionException e) {
+      throwCause(e.getCause());
+    } finally {
+      for (FutureTask<Array> future : inFlight)
+        future.cancel(false); // no-op for the ones that are done
+    }
+    return results;
+  }
+
+  private static Array callReader(Callable<Array> reader) throws IOException, InvalidRangeException {
+    try {
+      return reader.call();
+    } catch (Exception e) {
+      throwCause(e);
+      return null; // not reached
+    }
+  }
+
+  private static void throwCause(Throwable cause) throws IOException, InvalidRangeException {
+    if (cause instanceof IOException)
+      throw (IOException) cause;
+    if (cause instanceof InvalidRangeException)
+      throw (InvalidRangeException) cause;
+    if (cause instanceof RuntimeException)
+      throw (RuntimeException) cause;
+    throw new IOException(cause);
+  }
+
   /**
    * Read an aggregation variable: A variable whose data spans multiple files.
    * This is an implementation of ProxyReader, so must fulfill that contract.
@@ -460,73 +563,27 @@ abstract class AggregationOuter extends Aggregation implements ProxyReader {
     Array allData = Array.factory(dtype, mainv.getShape());
     int destPos = 0;
 
-    List<AggDataset> nestedDatasets = getDatasets();
-    if (executor != null) {
-      CompletionService<Result> completionService = new ExecutorCompletionService<>(executor);
-
-      int count = 0;
-      for (AggDataset vnested : nestedDatasets)
-        completionService.submit(new ReaderTask(vnested, mainv, cancelTask, count++));
-
-      try {
-        int n = nestedDatasets.size();
-        for (int i = 0; i < n; ++i) {
-          Result r = completionService.take().get();
-          if (r != null) {
-            r.data = MAMath.convert(r.data, dtype); // just in case it needs to be converted
-            int size = (int) r.data.getSize();
-            Array.arraycopy(r.data, 0, allData, size * r.index, size);
-          }
-        }
-      } catch (InterruptedException e) {
-        Thread.currentThread().interrupt();
-      } catch (ExecutionException e) {
-        throw new IOException(e.getMessage());
-      }
-
-    } else {
-
-      for (AggDataset vnested : nestedDatasets) {
-        Array varData = vnested.read(mainv, cancelTask);
-        if ((cancelTask != null) && cancelTask.isCancel())
-          return null;
-        varData = MAMath.convert(varData, dtype); // just in case it need to be converted
+    List<Callable<Array>> readers = new ArrayList<>();
+    for (AggDataset vnested : getDatasets())
+      readers.add(() -> vnested.read(mainv, cancelTask));
 
-        Array.arraycopy(varData, 0, allData, destPos, (int) varData.getSize());
-        destPos += varData.getSize();
-      }
+    Iterable<Array> results;
+    try {
+      results = readNested(readers, cancelTask);
+    } catch (InvalidRangeException e) {
+      throw new IOException(e.getMessage(), e);
     }
 
-    return allData;
-  }
-
-  private static class ReaderTask implements Callable<Result> {
-    AggDataset ds;
-    Variable mainv;
-    CancelTask cancelTask;
-    int index;
-
-    ReaderTask(AggDataset ds, Variable mainv, CancelTask cancelTask, int index) {
-      this.ds = ds;
-      this.mainv = mainv;
-      this.cancelTask = cancelTask;
-      this.index = index;
-    }
+    for (Array varData : results) {
+      if ((cancelTask != null) && cancelTask.isCancel())
+        return null;
+      varData = MAMath.convert(varData, dtype); // just in case it need to be converted
 
-    public Result call() throws Exception {
-      Array data = ds.read(mainv, cancelTask);
-      return new Result(data, index);
+      Array.arraycopy(varData, 0, allData, destPos, (int) varData.getSize());
+      destPos += varData.getSize();
     }
-  }
 
-  private static class Result {
-    Array data;
-    int index;
-
-    Result(Array data, int index) {
-      this.data = data;
-      this.index = index;
-    }
+    return allData;
   }
 
   @Override
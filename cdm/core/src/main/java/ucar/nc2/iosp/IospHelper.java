@@ -16,6 +16,7 @@ import java.io.OutputStream;
 import java.nio.*;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
 
@@ -23,6 +24,12 @@ import java.util.ArrayList;
 public class IospHelper {
   private static final boolean showLayoutTypes = false;
 
+  // A strided section makes one small chunk per element. Chunks that are this close together are read as one block
+  // and decimated in memory, instead of a seek and a small read for each one. When the section is dense enough,
+  // this reads whole rows at a time.
+  private static final int COALESCE_MAX_GAP = 8 * 1024;
+  private static final int COALESCE_MAX_BLOCK = 1024 * 1024;
+
   /**
    * Read data subset from RandomAccessFile, create primitive array of size Layout.getTotalNelems.
    * Reading is controlled by the Layout object.
@@ -70,12 +77,7 @@ public class IospHelper {
 
     if (dataType.getPrimitiveClassType() == byte.class || dataType == DataType.CHAR) {
       byte[] pa = (byte[]) arr;
-      while (layout.hasNext()) {
-        Layout.Chunk chunk = layout.next();
-        raf.order(byteOrder);
-        raf.seek(chunk.getSrcPos());
-        raf.readFully(pa, (int) chunk.getDestElem(), chunk.getNelems());
-      }
+      readChunks(raf, layout, pa, byteOrder);
       if (convertChar && dataType == DataType.CHAR)
         return convertByteToChar(pa);
       else
@@ -83,52 +85,27 @@ public class IospHelper {
 
     } else if (dataType.getPrimitiveClassType() == short.class) {
       short[] pa = (short[]) arr;
-      while (layout.hasNext()) {
-        Layout.Chunk chunk = layout.next();
-        raf.order(byteOrder);
-        raf.seek(chunk.getSrcPos());
-        raf.readShort(pa, (int) chunk.getDestElem(), chunk.getNelems());
-      }
+      readChunks(raf, layout, pa, byteOrder);
       return pa;
 
     } else if (dataType.getPrimitiveClassType() == int.class) {
       int[] pa = (int[]) arr;
-      while (layout.hasNext()) {
-        Layout.Chunk chunk = layout.next();
-        raf.order(byteOrder);
-        raf.seek(chunk.getSrcPos());
-        raf.readInt(pa, (int) chunk.getDestElem(), chunk.getNelems());
-      }
+      readChunks(raf, layout, pa, byteOrder);
       return pa;
 
     } else if (dataType == DataType.FLOAT) {
       float[] pa = (float[]) arr;
-      while (layout.hasNext()) {
-        Layout.Chunk chunk = layout.next();
-        raf.order(byteOrder);
-        raf.seek(chunk.getSrcPos());
-        raf.readFloat(pa, (int) chunk.getDestElem(), chunk.getNelems());
-      }
+      readChunks(raf, layout, pa, byteOrder);
       return pa;
 
     } else if (dataType == DataType.DOUBLE) {
       double[] pa = (double[]) arr;
-      while (layout.hasNext()) {
-        Layout.Chunk chunk = layout.next();
-        raf.order(byteOrder);
-        raf.seek(chunk.getSrcPos());
-        raf.readDouble(pa, (int) chunk.getDestElem(), chunk.getNelems());
-      }
+      readChunks(raf, layout, pa, byteOrder);
       return pa;
 
     } else if (dataType.getPrimitiveClassType() == long.class) {
       long[] pa = (long[]) arr;
-      while (layout.hasNext()) {
-        Layout.Chunk chunk = layout.next();
-        raf.order(byteOrder);
-        raf.seek(chunk.getSrcPos());
-        raf.readLong(pa, (int) chunk.getDestElem(), chunk.getNelems());
-      }
+      readChunks(raf, layout, pa, byteOrder);
       return pa;
 
     } else if (dataType == DataType.STRUCTURE) {
@@ -161,6 +138,120 @@ public class IospHelper {
     throw new IllegalStateException("unknown type= " + dataType);
   }
 
+  // Read all the chunks of the layout into the primitive array pa, coalescing chunks that are close together.
+  private static void readChunks(RandomAccessFile raf, Layout layout, Object pa, ByteOrder byteOrder)
+      throws IOException {
+    raf.order(byteOrder);
+    int elemSize = getPrimitiveSize(pa);
+
+    // the pending batch of chunks, all within [blockStart, blockEnd)
+    int count = 0;
+    long[] srcPos = new long[16];
+    long[] destElem = new long[16];
+    int[] nelems = new int[16];
+    long blockStart = 0, blockEnd = 0;
+    byte[] block = null;
+
+    while (layout.hasNext()) {
+      Layout.Chunk chunk = layout.next(); // may be reused by the layout, so copy its values
+      long pos = chunk.getSrcPos();
+      long end = pos + (long) chunk.getNelems() * elemSize;
+      if (count > 0 && (pos < blockEnd || pos - blockEnd > COALESCE_MAX_GAP || end - blockStart > COALESCE_MAX_BLOCK)) {
+        block = readBatch(raf, pa, elemSize, count, srcPos, destElem, nelems, blockStart, blockEnd, block);
+        count = 0;
+      }
+      if (count == srcPos.length) {
+        srcPos = Arrays.copyOf(srcPos, 2 * count);
+        destElem = Arrays.copyOf(destElem, 2 * count);
+        nelems = Arrays.copyOf(nelems, 2 * count);
+      }
+      if (count == 0) {
+        blockStart = pos;
+      }
+      srcPos[count] = pos;
+      destElem[count] = chunk.getDestElem();
+      nelems[count] = chunk.getNelems();
+      blockEnd = end;
+      count++;
+    }
+    if (count > 0) {
+      readBatch(raf, pa, elemSize, count, srcPos, destElem, nelems, blockStart, blockEnd, block);
+    }
+  }
+
+  // Read one batch of chunks, reusing the block buffer if possible. Return the block buffer.
+  private static byte[] readBatch(RandomAccessFile raf, Object pa, int elemSize, int count, long[] srcPos,
+      long[] destElem, int[] nelems, long blockStart, long blockEnd, byte[] block) throws IOException {
+    if (count == 1) { // nothing to coalesce, read directly into the array
+      raf.seek(srcPos[0]);
+      readPrimitives(raf, pa, (int) destElem[0], nelems[0]);
+      return block;
+    }
+
+    int size = (int) (blockEnd - blockStart);
+    if (block == null || block.length < size) {
+      block = new byte[size];
+    }
+    raf.seek(blockStart);
+    raf.readFully(block, 0, size);
+
+    ByteBuffer bb = ByteBuffer.wrap(block, 0, size).order(raf.getByteOrder());
+    for (int i = 0; i < count; i++) {
+      int offset = (int) (srcPos[i] - blockStart);
+      int dest = (int) destElem[i];
+      int n = nelems[i];
+      if (pa instanceof byte[]) {
+        System.arraycopy(block, offset, pa, dest, n);
+      } else if (pa instanceof short[]) {
+        short[] sa = (short[]) pa;
+        for (int k = 0; k < n; k++)
+          sa[dest + k] = bb.getShort(offset + k * elemSize);
+      } else if (pa instanceof int[]) {
+        int[] ia = (int[]) pa;
+        for (int k = 0; k < n; k++)
+          ia[dest + k] = bb.getInt(offset + k * elemSize);
+      } else if (pa instanceof float[]) {
+        float[] fa = (float[]) pa;
+        for (int k = 0; k < n; k++)
+          fa[dest + k] = bb.getFloat(offset + k * elemSize);
+      } else if (pa instanceof double[]) {
+        double[] da = (double[]) pa;
+        for (int k = 0; k < n; k++)
+          da[dest + k] = bb.getDouble(offset + k * elemSize);
+      } else {
+        long[] la = (long[]) pa;
+        for (int k = 0; k < n; k++)
+          la[dest + k] = bb.getLong(offset + k * elemSize);
+      }
+    }
+    return block;
+  }
+
+  private static void readPrimitives(RandomAccessFile raf, Object pa, int dest, int n) throws IOException {
+    if (pa instanceof byte[])
+      raf.readFully((byte[]) pa, dest, n);
+    else if (pa instanceof short[])
+      raf.readShort((short[]) pa, dest, n);
+    else if (pa instanceof int[])
+      raf.readInt((int[]) pa, dest, n);
+    else if (pa instanceof float[])
+      raf.readFloat((float[]) pa, dest, n);
+    else if (pa instanceof double[])
+      raf.readDouble((double[]) pa, dest, n);
+    else
+      raf.readLong((long[]) pa, dest, n);
+  }
+
+  private static int getPrimitiveSize(Object pa) {
+    if (pa instanceof byte[])
+      return 1;
+    if (pa instanceof short[])
+      return 2;
+    if (pa instanceof int[] || pa instanceof float[])
+      return 4;
+    return 8;
+  }
+
   /**
    * Read data subset from PositioningDataInputStream, create primitive array of size Layout.getTotalNelems.
    * Reading is controlled by the Layout object.
@@ -4,6 +4,8 @@
  */
 package ucar.nc2.units;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import ucar.units.*;
 
 /**
@@ -27,6 +29,12 @@ public class SimpleUnit {
   protected static Unit secsUnit, dateReferenceUnit;
   protected static boolean debugParse;
 
+  // Parsed units and conversion factors, keyed by unit string, since the same few strings are parsed over and over.
+  // ucar.units.Unit is immutable, so it can be shared.
+  private static final int maxCacheSize = 1000;
+  private static final Cache<String, Unit> unitCache = CacheBuilder.newBuilder().maximumSize(maxCacheSize).build();
+  private static final Cache<String, Double> factorCache = CacheBuilder.newBuilder().maximumSize(maxCacheSize).build();
+
   static {
     try {
       UnitFormat udunit = UnitFormatManager.instance();
@@ -72,8 +80,7 @@ public class SimpleUnit {
    * @see ucar.units.UnitFormat#parse
    */
   public static SimpleUnit factoryWithExceptions(String name) throws UnitException {
-    UnitFormat format = UnitFormatManager.instance();
-    Unit uu = format.parse(name);
+    Unit uu = parseUnit(name);
     // if (isDateUnit(uu)) return new DateUnit(name);
     if (isTimeUnit(uu))
       return new TimeUnit(name);
@@ -82,8 +89,26 @@ public class SimpleUnit {
 
   // need subclass access
   protected static Unit makeUnit(String name) throws UnitException {
-    UnitFormat format = UnitFormatManager.instance();
-    return format.parse(name);
+    return parseUnit(name);
+  }
+
+  // parse with the default UnitFormat, using the cache
+  private static Unit parseUnit(String name) throws UnitException {
+    if (name == null) {
+      return UnitFormatManager.instance().parse(name); // let it throw the usual exception
+    }
+    Unit uu = unitCache.getIfPresent(name);
+    if (uu == null) {
+      uu = UnitFormatManager.instance().parse(name);
+      unitCache.put(name, uu);
+    }
+    return uu;
+  }
+
+  /** Clear the cache of parsed units, eg after changing the UnitFormatManager or UnitDBManager instance. */
+  public static void clearCache() {
+    unitCache.invalidateAll();
+    factorCache.invalidateAll();
   }
 
   /**
@@ -97,8 +122,7 @@ public class SimpleUnit {
   public static boolean isCompatible(String unitString1, String unitString2) {
     Unit uu1, uu2;
     try {
-      UnitFormat format = UnitFormatManager.instance();
-      uu1 = format.parse(unitString1);
+      uu1 = parseUnit(unitString1);
     } catch (Exception e) {
       if (debugParse)
         System.out.println("Parse " + unitString1 + " got Exception1 " + e);
@@ -106,8 +130,7 @@ public class SimpleUnit {
     }
 
     try {
-      UnitFormat format = UnitFormatManager.instance();
-      uu2 = format.parse(unitString2);
+      uu2 = parseUnit(unitString2);
     } catch (Exception e) {
       if (debugParse)
         System.out.println("Parse " + unitString2 + " got Exception2 " + e);
@@ -126,9 +149,8 @@ public class SimpleUnit {
    * @throws UnitException if units parsing fails
    */
   public static boolean isCompatibleWithExceptions(String unitString1, String unitString2) throws UnitException {
-    UnitFormat format = UnitFormatManager.instance();
-    Unit uu1 = format.parse(unitString1);
-    Unit uu2 = format.parse(unitString2);
+    Unit uu1 = parseUnit(unitString1);
+    Unit uu2 = parseUnit(unitString2);
     return uu1.isCompatible(uu2);
   }
 
@@ -197,9 +219,15 @@ public class SimpleUnit {
    */
   public static double getConversionFactor(String inputUnitString, String outputUnitString)
       throws IllegalArgumentException {
-    SimpleUnit inputUnit = SimpleUnit.factory(inputUnitString);
-    SimpleUnit outputUnit = SimpleUnit.factory(outputUnitString);
-    return inputUnit.convertTo(1.0, outputUnit);
+    String key = inputUnitString + '\n' + outputUnitString;
+    Double factor = factorCache.getIfPresent(key);
+    if (factor == null) {
+      SimpleUnit inputUnit = SimpleUnit.factory(inputUnitString);
+      SimpleUnit outputUnit = SimpleUnit.factory(outputUnitString);
+      factor = inputUnit.convertTo(1.0, outputUnit);
+      factorCache.put(key, factor);
+    }
+    return factor;
   }
 
   ////////////////////////////////////////////////
@@ -262,8 +290,7 @@ public class SimpleUnit {
   public boolean isCompatible(String unitString) {
     Unit uuWant;
     try {
-      UnitFormat format = UnitFormatManager.instance();
-      uuWant = format.parse(unitString);
+      uuWant = parseUnit(unitString);
     } catch (Exception e) {
       return false;
     }
@@ -124,7 +124,8 @@ public class NetcdfCopier implements Closeable {
       return Attribute.builder().setName(org.getShortName()).setStringValue(f.toString()).build();
     }
 
-    if (!org.getDataType().isUnsigned()) {
+    // CDF-5 has unsigned types
+    if (!org.getDataType().isUnsigned() || getOutputFormat() == NetcdfFileFormat.NETCDF3_64BIT_DATA) {
       return org;
     }
 
@@ -10,6 +10,7 @@ import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import javax.annotation.Nullable;
 import ucar.ma2.Array;
@@ -26,6 +27,7 @@ import ucar.nc2.Group;
 import ucar.nc2.NetcdfFile;
 import ucar.nc2.Structure;
 import ucar.nc2.Variable;
+import ucar.nc2.internal.iosp.hdf5.H5iospWriter;
 import ucar.nc2.internal.iosp.netcdf3.N3iospWriter;
 import ucar.nc2.iosp.IOServiceProvider;
 import ucar.nc2.internal.iosp.IospFileCreator;
@@ -89,6 +91,7 @@ public class NetcdfFormatWriter implements Closeable {
     private long preallocateSize;
     private Nc4Chunking chunker;
     private boolean useJna;
+    private boolean useJavaWriter;
     private IOServiceProvider iosp; // existing only
     private Group.Builder rootGroup = Group.builder().setName("");
 
@@ -118,7 +121,7 @@ public class NetcdfFormatWriter implements Closeable {
     }
 
     /**
-     * Set the fill flag. Only used by netcdf-3.
+     * Set the fill flag. Only used by netcdf-3 and the Java netcdf-4 writer.
      * If true, the data is first written with fill values.
      * Default is fill = true, to follow the C library.
      * Set false if you expect to write all data values, which makes writing faster.
@@ -154,13 +157,24 @@ public class NetcdfFormatWriter implements Closeable {
 
     /**
      * Set if you want to use JNA / netcdf c library to do the writing. Default is false.
-     * JNA must be used for Netcdf-4. This is used to write to Netcdf-3 format with jna.
+     * JNA must be used for Netcdf-4, unless setUseJavaWriter(true). This is used to write to Netcdf-3 format with jna.
      */
     public Builder setUseJna(boolean useJna) {
       this.useJna = useJna;
       return this;
     }
 
+    /**
+     * Set if you want to write Netcdf-4 files in pure Java, without the netcdf C library. Default is false.
+     * Only the numeric, CHAR and STRING types are supported. Chunks are compressed in parallel.
+     *
+     * @see ucar.nc2.internal.iosp.hdf5.H5iospWriter
+     */
+    public Builder setUseJavaWriter(boolean useJavaWriter) {
+      this.useJavaWriter = useJavaWriter;
+      return this;
+    }
+
     /** Add a global attribute */
     public Builder addAttribute(Attribute att) {
       rootGroup.addAttribute(att);
@@ -264,8 +278,10 @@ public class NetcdfFormatWriter implements Closeable {
     this.chunker = builder.chunker;
     this.format = builder.format;
 
-    this.useJna = builder.useJna || format.isNetdf4format();
-    if (useJna) {
+    this.useJna = builder.useJna || (format.isNetdf4format() && !builder.useJavaWriter);
+    if (format.isNetdf4format() && !useJna) {
+      spiw = new H5iospWriter(format, chunker);
+    } else if (useJna) {
       String className = "ucar.nc2.jni.netcdf.Nc4writer";
       IospFileCreator spi;
       try {
@@ -281,7 +297,7 @@ public class NetcdfFormatWriter implements Closeable {
       }
       spiw = spi;
     } else {
-      spiw = new N3iospWriter(builder.getIosp());
+      spiw = new N3iospWriter(builder.getIosp(), format.isNetdf3format() ? format : NetcdfFileFormat.NETCDF3);
     }
 
     // If anything fails, make sure that resources are closed.
@@ -476,6 +492,49 @@ public class NetcdfFormatWriter implements Closeable {
     return spiw.appendStructureData(s, sdata);
   }
 
+  /**
+   * Write a batch of complete records to the record (unlimited dimension) variables.
+   * For netcdf-3 files, the records are assembled in memory in their on-disk interleaved order and written
+   * sequentially, instead of writing a small piece of each record for each variable. Record variables not in values
+   * are written with their fill value. For other formats, each variable is written separately.
+   *
+   * <pre>
+   * Map&lt;String, Array&gt; batch = new HashMap&lt;&gt;();
+   * batch.put("time", timeData); // shape (nrecs)
+   * batch.put("temperature", tempData); // shape (nrecs, nz)
+   * writer.writeRecords(writer.getOutputFile().getUnlimitedDimension().getLength(), batch);
+   * </pre>
+   *
+   * @param startRec index of the first record to write.
+   * @param values data keyed by variable name. Each array has the rank of its variable, and all have the same
+   *        length nrecs of the outer (record) dimension.
+   * @return the number of records written.
+   * @throws IOException if I/O error
+   * @throws InvalidRangeException if values have illegal shapes
+   */
+  public int writeRecords(int startRec, Map<String, Array> values) throws IOException, InvalidRangeException {
+    if (spiw instanceof N3iospWriter) {
+      return ((N3iospWriter) spiw).writeRecords(startRec, values);
+    }
+
+    int nrecs = 0;
+    for (Map.Entry<String, Array> entry : values.entrySet()) {
+      Variable v = findVariable(entry.getKey());
+      Preconditions.checkNotNull(v, "no variable named %s", entry.getKey());
+      Preconditions.checkArgument(v.isUnlimited(), "%s is not a record variable", entry.getKey());
+      Array data = entry.getValue();
+      int[] origin = new int[data.getRank()];
+      origin[0] = startRec;
+      if (v.getDataType() == DataType.CHAR && data.getElementType() == String.class) {
+        writeStringDataToChar(v, origin, data);
+      } else {
+        write(v, origin, data);
+      }
+      nrecs = data.getShape()[0];
+    }
+    return nrecs;
+  }
+
   /**
    * Update the value of an existing attribute. Attribute is found by name, which must match exactly.
    * You cannot make an attribute longer, or change the number of values.
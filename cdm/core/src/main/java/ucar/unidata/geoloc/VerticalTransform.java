@@ -5,8 +5,10 @@
 package ucar.unidata.geoloc;
 
 import java.io.IOException;
+import java.util.Arrays;
 import javax.annotation.Nullable;
 import ucar.ma2.ArrayDouble;
+import ucar.ma2.IndexIterator;
 import ucar.ma2.InvalidRangeException;
 import ucar.ma2.Range;
 
@@ -42,6 +44,48 @@ public interface VerticalTransform {
    */
   ArrayDouble.D1 getCoordinateArray1D(int timeIndex, int xIndex, int yIndex) throws IOException, InvalidRangeException;
 
+  /**
+   * Get the 3D vertical coordinate array for this time step, for a window of the y and x dimensions.
+   * Must be in "canonical order" : z, y, x.
+   * Implementations may compute just the window; the default sections the full array.
+   *
+   * @param timeIndex the time index. Ignored if !isTimeDependent().
+   * @param yRange the y window, or null for all of it
+   * @param xRange the x window, or null for all of it
+   * @return vertical coordinate array, with shape (nz, yRange.length(), xRange.length())
+   * @throws java.io.IOException problem reading the data
+   * @throws ucar.ma2.InvalidRangeException timeIndex or window out of bounds
+   */
+  default ArrayDouble.D3 getCoordinateArray(int timeIndex, @Nullable Range yRange, @Nullable Range xRange)
+      throws IOException, InvalidRangeException {
+    ArrayDouble.D3 data = getCoordinateArray(timeIndex);
+    if (yRange == null && xRange == null)
+      return data;
+    return (ArrayDouble.D3) data.sectionNoReduce(Arrays.asList(null, yRange, xRange));
+  }
+
+  /**
+   * Get the vertical coordinate values for this time step and window, written into the caller's buffer
+   * in "canonical order" : z, y, x. Allows a buffer to be reused across time steps.
+   *
+   * @param timeIndex the time index. Ignored if !isTimeDependent().
+   * @param yRange the y window, or null for all of it
+   * @param xRange the x window, or null for all of it
+   * @param result put the values here, starting at 0. Must be at least nz * ny * nx long.
+   * @throws java.io.IOException problem reading the data
+   * @throws ucar.ma2.InvalidRangeException timeIndex or window out of bounds
+   */
+  default void getCoordinateValues(int timeIndex, @Nullable Range yRange, @Nullable Range xRange, double[] result)
+      throws IOException, InvalidRangeException {
+    ArrayDouble.D3 data = getCoordinateArray(timeIndex, yRange, xRange);
+    if (result.length < data.getSize())
+      throw new IllegalArgumentException("result buffer too small: " + result.length + " < " + data.getSize());
+    IndexIterator ii = data.getIndexIterator();
+    int count = 0;
+    while (ii.hasNext())
+      result[count++] = ii.getDoubleNext();
+  }
+
   /** Get the unit string for the vertical coordinate. */
   @Nullable
   String getUnitString();
@@ -5,9 +5,18 @@
 package ucar.unidata.geoloc.vertical;
 
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 import javax.annotation.Nullable;
-import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
 import ucar.ma2.Array;
+import ucar.ma2.ArrayDouble;
+import ucar.ma2.DataType;
+import ucar.ma2.Index;
 import ucar.ma2.InvalidRangeException;
 import ucar.ma2.Range;
 import ucar.nc2.*;
@@ -18,12 +27,29 @@ import ucar.unidata.util.Parameter;
 import java.io.IOException;
 import java.util.List;
 
-/** Abstract superclass for implementations of VerticalTransform. */
-@Immutable
+/**
+ * Abstract superclass for implementations of VerticalTransform.
+ * The input arrays read with readArray() are kept in a bounded cache, so repeated calls for the same time step,
+ * or for different windows of it, read the data only once.
+ * <p/>
+ * Instances are thread-safe. The cache is the only mutable state; it is a concurrent Guava Cache, and the arrays in it
+ * are never modified after they are read.
+ */
+@ThreadSafe
 abstract class AbstractVerticalTransform implements VerticalTransform {
+  // bound on the total size of the input arrays cached by each transform
+  private static final long INPUT_CACHE_BYTES = 64 * 1000 * 1000;
+
+  // compute the levels in parallel when the window has at least this many values
+  static final int PARALLEL_THRESHOLD = 100 * 1000;
+
   protected final String units;
   private final Dimension timeDim;
 
+  // key = variable full name and time index (-1 if the variable has no time dimension). Arrays must not be modified.
+  private final Cache<String, Array> inputCache = CacheBuilder.newBuilder().maximumWeight(INPUT_CACHE_BYTES)
+      .weigher((String key, Array data) -> (int) Math.min(Integer.MAX_VALUE, data.getSizeBytes())).build();
+
   /**
    * Construct a VerticalCoordinate
    *
@@ -64,6 +90,7 @@ abstract class AbstractVerticalTransform implements VerticalTransform {
    * time index if applicable. If the variable does not have a time
    * dimension, the data array will have the same rank as the Variable.
    * If the variable has a time dimension, the data array will have rank-1.
+   * The Array is cached and shared between calls, so it must not be modified.
    *
    * @param v variable to read
    * @param timeIndex time index, ignored if !isTimeDependent()
@@ -73,19 +100,160 @@ abstract class AbstractVerticalTransform implements VerticalTransform {
    * @throws InvalidRangeException _more_
    */
   Array readArray(Variable v, int timeIndex) throws IOException, InvalidRangeException {
-    int[] shape = v.getShape();
-    int[] origin = new int[v.getRank()];
-
+    int dimIndex = -1;
     if (getTimeDimension() != null) {
-      int dimIndex = v.findDimensionIndex(getTimeDimension().getShortName());
-      if (dimIndex >= 0) {
-        shape[dimIndex] = 1;
-        origin[dimIndex] = timeIndex;
-        return v.read(origin, shape).reduce(dimIndex);
+      dimIndex = v.findDimensionIndex(getTimeDimension().getShortName());
+    }
+    final int timeDimIndex = dimIndex;
+    String key = v.getFullName() + "@" + (timeDimIndex >= 0 ? timeIndex : -1);
+    try {
+      return inputCache.get(key, () -> {
+        int[] shape = v.getShape();
+        int[] origin = new int[v.getRank()];
+        if (timeDimIndex >= 0) {
+          shape[timeDimIndex] = 1;
+          origin[timeDimIndex] = timeIndex;
+          return v.read(origin, shape).reduce(timeDimIndex);
+        }
+        return v.read(origin, shape);
+      });
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      if (cause instanceof InvalidRangeException)
+        throw (InvalidRangeException) cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      throw new IOException(cause);
+    }
+  }
+
+  @Override
+  public ArrayDouble.D3 getCoordinateArray(int timeIndex, @Nullable Range yRange, @Nullable Range xRange)
+      throws IOException, InvalidRangeException {
+    return computeWindow(timeIndex, yRange, xRange, null).toArray();
+  }
+
+  @Override
+  public void getCoordinateValues(int timeIndex, @Nullable Range yRange, @Nullable Range xRange, double[] result)
+      throws IOException, InvalidRangeException {
+    computeWindow(timeIndex, yRange, xRange, result);
+  }
+
+  /**
+   * Compute the vertical coordinate values for this time step and window.
+   * Subclasses override this to evaluate just the window; this default copies it out of getCoordinateArray().
+   *
+   * @param timeIndex the time index. Ignored if !isTimeDependent().
+   * @param yRange the y window, or null for all of it
+   * @param xRange the x window, or null for all of it
+   * @param result put the values here, or null to allocate
+   * @return the computed Window
+   */
+  Window computeWindow(int timeIndex, @Nullable Range yRange, @Nullable Range xRange, @Nullable double[] result)
+      throws IOException, InvalidRangeException {
+    ArrayDouble.D3 data = getCoordinateArray(timeIndex);
+    int[] shape = data.getShape();
+    Window window = new Window(shape[0], new int[] {shape[1], shape[2]}, yRange, xRange, result);
+    int count = 0;
+    for (int z = 0; z < window.nz; z++) {
+      for (int y : window.yIndex) {
+        for (int x : window.xIndex) {
+          window.values[count++] = data.get(z, y, x);
+        }
       }
     }
+    return window;
+  }
+
+  /**
+   * A y, x window of the grid, and the values computed for it, in z, y, x order.
+   * The levels can be computed concurrently, since each one writes to its own part of values.
+   */
+  static class Window {
+    final int nz, ny, nx;
+    final int[] yIndex, xIndex; // index into the full grid
+    final double[] values;
+
+    /**
+     * @param nz number of levels
+     * @param shape2D shape of the full (y, x) grid
+     * @param yRange the y window, or null for all of it
+     * @param xRange the x window, or null for all of it
+     * @param result put the values here, or null to allocate
+     */
+    Window(int nz, int[] shape2D, @Nullable Range yRange, @Nullable Range xRange, @Nullable double[] result)
+        throws InvalidRangeException {
+      this.nz = nz;
+      this.yIndex = makeIndex(yRange, shape2D[0]);
+      this.xIndex = makeIndex(xRange, shape2D[1]);
+      this.ny = yIndex.length;
+      this.nx = xIndex.length;
+      long size = (long) nz * ny * nx;
+      if (size > Integer.MAX_VALUE)
+        throw new IllegalArgumentException("vertical coordinate window too large: " + size);
+      if (result == null) {
+        result = new double[(int) size];
+      } else if (result.length < size) {
+        throw new IllegalArgumentException("result buffer too small: " + result.length + " < " + size);
+      }
+      this.values = result;
+    }
+
+    private static int[] makeIndex(@Nullable Range range, int len) throws InvalidRangeException {
+      if (range == null)
+        return IntStream.range(0, len).toArray();
+      if (range.last() >= len)
+        throw new InvalidRangeException("window " + range + " exceeds grid length " + len);
+      int[] result = new int[range.length()];
+      for (int i = 0; i < result.length; i++)
+        result[i] = range.element(i);
+      return result;
+    }
+
+    /** Number of points in one level. */
+    int getPointCount() {
+      return ny * nx;
+    }
+
+    /** Copy the values of a 2D (y, x) array in this window. */
+    double[] extract(Array data2D) {
+      Index index = data2D.getIndex();
+      double[] result = new double[getPointCount()];
+      int count = 0;
+      for (int y : yIndex) {
+        for (int x : xIndex) {
+          result[count++] = data2D.getDouble(index.set(y, x));
+        }
+      }
+      return result;
+    }
+
+    /** Call level for each z, concurrently if the window is large. */
+    void forEachLevel(IntConsumer level) {
+      IntStream levels = IntStream.range(0, nz);
+      if (nz > 1 && (long) nz * getPointCount() >= PARALLEL_THRESHOLD)
+        levels = levels.parallel();
+      levels.forEach(level);
+    }
+
+    ArrayDouble.D3 toArray() {
+      double[] storage = values;
+      int size = nz * getPointCount();
+      if (storage.length != size) {
+        storage = new double[size];
+        System.arraycopy(values, 0, storage, 0, size);
+      }
+      return (ArrayDouble.D3) Array.factory(DataType.DOUBLE, new int[] {nz, ny, nx}, storage);
+    }
+  }
 
-    return v.read(origin, shape);
+  /** Copy the values of a 1D array. Always a new array, since data1D may be cached. */
+  static double[] toDoubles(Array data1D) {
+    if (data1D.getDataType() == DataType.DOUBLE)
+      return (double[]) data1D.copyTo1DJavaArray();
+    return (double[]) data1D.get1DJavaArray(DataType.DOUBLE);
   }
 
   @Override
@@ -5,7 +5,7 @@
 
 package ucar.unidata.geoloc.vertical;
 
-import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
 import ucar.nc2.Variable;
 import ucar.nc2.NetcdfFile;
 import ucar.nc2.Dimension;
@@ -26,7 +26,7 @@ import java.io.IOException;
  * @see <a href="http://cf-pcmdi.llnl.gov/">http://cf-pcmdi.llnl.gov/</a>
  * @since May 6, 2008
  */
-@Immutable
+@ThreadSafe
 public class AtmosLnPressure extends AbstractVerticalTransform {
   public static final String P0 = "ReferencePressureVariableName";
   public static final String LEV = "VerticalCoordinateVariableName";
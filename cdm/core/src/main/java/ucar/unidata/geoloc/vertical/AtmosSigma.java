@@ -6,7 +6,7 @@ package ucar.unidata.geoloc.vertical;
 
 import java.io.IOException;
 import java.util.List;
-import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
 import ucar.ma2.Array;
 import ucar.ma2.ArrayDouble;
 import ucar.ma2.ArrayDouble.D1;
@@ -23,7 +23,7 @@ import ucar.unidata.util.Parameter;
  * <p>
  * <strong>pressure(x,y,z) = ptop + sigma(z)*surfacePressure(x,y)</strong>
  */
-@Immutable
+@ThreadSafe
 public class AtmosSigma extends AbstractVerticalTransform {
 
   /** P-naught identifier */
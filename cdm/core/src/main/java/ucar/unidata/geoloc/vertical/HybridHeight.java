@@ -4,7 +4,7 @@
  */
 package ucar.unidata.geoloc.vertical;
 
-import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
 import ucar.ma2.*;
 import ucar.ma2.ArrayDouble.D1;
 import ucar.nc2.*;
@@ -21,7 +21,7 @@ import java.util.List;
  *
  * @see "http://cfconventions.org/Data/cf-conventions/cf-conventions-1.8/cf-conventions.html#atmosphere-hybrid-height-coordinate"
  */
-@Immutable
+@ThreadSafe
 public class HybridHeight extends AbstractVerticalTransform {
 
   /** Surface pressure name identifier */
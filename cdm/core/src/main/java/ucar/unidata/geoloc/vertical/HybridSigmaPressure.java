@@ -5,7 +5,8 @@
 package ucar.unidata.geoloc.vertical;
 
 import com.google.common.base.Preconditions;
-import javax.annotation.concurrent.Immutable;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
 import ucar.ma2.*;
 import ucar.ma2.ArrayDouble.D1;
 import ucar.nc2.*;
@@ -25,7 +26,7 @@ import java.util.List;
  *
  * @see "http://cfconventions.org/Data/cf-conventions/cf-conventions-1.8/cf-conventions.html#_atmosphere_hybrid_sigma_pressure_coordinate"
  */
-@Immutable
+@ThreadSafe
 public class HybridSigmaPressure extends AbstractVerticalTransform {
 
   /** P-naught identifier */
@@ -105,41 +106,39 @@ public class HybridSigmaPressure extends AbstractVerticalTransform {
    * @throws InvalidRangeException _more_
    */
   public ArrayDouble.D3 getCoordinateArray(int timeIndex) throws IOException, InvalidRangeException {
-    Array psArray = readArray(psVar, timeIndex);
-    Array aArray = aVar.read();
-    Array bArray = bVar.read();
+    return computeWindow(timeIndex, null, null, null).toArray();
+  }
 
-    int nz = (int) aArray.getSize();
-    Index aIndex = aArray.getIndex();
-    Index bIndex = bArray.getIndex();
+  @Override
+  Window computeWindow(int timeIndex, @Nullable Range yRange, @Nullable Range xRange, @Nullable double[] result)
+      throws IOException, InvalidRangeException {
+    Array psArray = readSurfacePressure(timeIndex);
+    double[] a = toDoubles(readArray(aVar, timeIndex));
+    double[] b = toDoubles(readArray(bVar, timeIndex));
+
+    Window window = new Window(a.length, psArray.getShape(), yRange, xRange, result);
+    double[] ps = window.extract(psArray);
+    double[] press = window.values;
+    int npts = window.getPointCount();
+
+    window.forEachLevel(z -> {
+      double term1 = a[z] * scaleA;
+      double bz = b[z];
+      int start = z * npts;
+      for (int i = 0; i < npts; i++) {
+        press[start + i] = term1 + bz * ps[i];
+      }
+    });
+    return window;
+  }
 
+  private Array readSurfacePressure(int timeIndex) throws IOException, InvalidRangeException {
+    Array psArray = readArray(psVar, timeIndex);
     // it's possible to have rank 3 because pressure can have a level, usually 1
     // Check if rank 3 and try to reduce
     if (psArray.getRank() == 3)
       psArray = psArray.reduce(0);
-
-    int[] shape2D = psArray.getShape();
-    int ny = shape2D[0];
-    int nx = shape2D[1];
-
-    Index psIndex = psArray.getIndex();
-
-    ArrayDouble.D3 press = new ArrayDouble.D3(nz, ny, nx);
-
-    double ps;
-    for (int z = 0; z < nz; z++) {
-      double term1 = aArray.getDouble(aIndex.set(z)) * scaleA;
-      double bz = bArray.getDouble(bIndex.set(z));
-
-      for (int y = 0; y < ny; y++) {
-        for (int x = 0; x < nx; x++) {
-          ps = psArray.getDouble(psIndex.set(y, x));
-          press.set(z, y, x, term1 + bz * ps);
-        }
-      }
-    }
-
-    return press;
+    return psArray;
   }
 
   /**
@@ -154,19 +153,14 @@ public class HybridSigmaPressure extends AbstractVerticalTransform {
    */
   public D1 getCoordinateArray1D(int timeIndex, int xIndex, int yIndex) throws IOException, InvalidRangeException {
 
-    Array psArray = readArray(psVar, timeIndex);
-    Array aArray = aVar.read();
-    Array bArray = bVar.read();
+    Array psArray = readSurfacePressure(timeIndex);
+    Array aArray = readArray(aVar, timeIndex);
+    Array bArray = readArray(bVar, timeIndex);
 
     int nz = (int) aArray.getSize();
     Index aIndex = aArray.getIndex();
     Index bIndex = bArray.getIndex();
 
-    // it's possible to have rank 3 because pressure can have a level, usually 1
-    // Check if rank 3 and try to reduce
-    if (psArray.getRank() == 3)
-      psArray = psArray.reduce(0);
-
     Index psIndex = psArray.getIndex();
 
     ArrayDouble.D1 press = new ArrayDouble.D1(nz);
@@ -4,7 +4,8 @@
  */
 package ucar.unidata.geoloc.vertical;
 
-import javax.annotation.concurrent.Immutable;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
 import ucar.ma2.*;
 import ucar.nc2.*;
 import ucar.nc2.constants.CDM;
@@ -19,7 +20,7 @@ import java.util.List;
  * 
  * @see "http://cfconventions.org/Data/cf-conventions/cf-conventions-1.8/cf-conventions.html#_ocean_s_coordinate"
  */
-@Immutable
+@ThreadSafe
 public class OceanS extends AbstractVerticalTransform {
   /** The eta variable name identifier */
   public static final String ETA = "Eta_variableName";
@@ -88,12 +89,21 @@ public class OceanS extends AbstractVerticalTransform {
    */
   @Override
   public ArrayDouble.D3 getCoordinateArray(int timeIndex) throws IOException, InvalidRangeException {
+    return computeWindow(timeIndex, null, null, null).toArray();
+  }
+
+  @Override
+  Window computeWindow(int timeIndex, @Nullable Range yRange, @Nullable Range xRange, @Nullable double[] result)
+      throws IOException, InvalidRangeException {
     Array etaArray = readArray(etaVar, timeIndex);
     Array sArray = readArray(sVar, timeIndex);
     Array depthArray = readArray(depthVar, timeIndex);
-    Array c = makeC(sArray, a, b);
+    Array cArray = makeC(sArray, a, b);
 
-    return makeHeight(etaArray, sArray, depthArray, c, depth_c);
+    Window window = new Window((int) sArray.getSize(), etaArray.getShape(), yRange, xRange, result);
+    makeHeight(window, window.extract(etaArray), toDoubles(sArray), window.extract(depthArray), toDoubles(cArray),
+        depth_c);
+    return window;
   }
 
   /**
@@ -163,51 +173,37 @@ public class OceanS extends AbstractVerticalTransform {
    * S(x,y,z) = depth_c*s(z) + (depth(x,y)-depth_c)*C(z)
    * /
    *
-   * @param eta eta Array
-   * @param s s Array
-   * @param depth depth Array
-   * @param c c Array
+   * @param window compute this window, put the result in window.values
+   * @param eta eta values in the window
+   * @param s s values
+   * @param depth depth values in the window
+   * @param c c values
    * @param depth_c value of depth_c
-   * @return hieght data
    */
-  private ArrayDouble.D3 makeHeight(Array eta, Array s, Array depth, Array c, double depth_c) {
-    int nz = (int) s.getSize();
-    Index sIndex = s.getIndex();
-    Index cIndex = c.getIndex();
+  private void makeHeight(Window window, double[] eta, double[] s, double[] depth, double[] c, double depth_c) {
+    double[] height = window.values;
+    int npts = window.getPointCount();
 
-    int[] shape2D = eta.getShape();
-    int ny = shape2D[0];
-    int nx = shape2D[1];
-    Index etaIndex = eta.getIndex();
-    Index depthIndex = depth.getIndex();
-
-    ArrayDouble.D3 height = new ArrayDouble.D3(nz, ny, nx);
-
-    for (int z = 0; z < nz; z++) {
-      double sz = s.getDouble(sIndex.set(z));
-      double cz = c.getDouble(cIndex.set(z));
+    window.forEachLevel(z -> {
+      double sz = s[z];
+      double cz = c[z];
 
       double term1 = depth_c * sz;
+      int start = z * npts;
 
-      for (int y = 0; y < ny; y++) {
-        for (int x = 0; x < nx; x++) {
-          // -sachin 03/23/09 modifications according to corrected equation.
-          double fac1 = depth.getDouble(depthIndex.set(y, x));
-          double term2 = (fac1 - depth_c) * cz;
+      for (int i = 0; i < npts; i++) {
+        // -sachin 03/23/09 modifications according to corrected equation.
+        double fac1 = depth[i];
+        double term2 = (fac1 - depth_c) * cz;
 
-          double Sterm = term1 + term2;
+        double Sterm = term1 + term2;
 
-          double term3 = eta.getDouble(etaIndex.set(y, x));
-          double term4 = 1 + Sterm / fac1;
-          double hterm = Sterm + term3 * term4;
-
-          height.set(z, y, x, hterm);
-
-        }
+        double term3 = eta[i];
+        double term4 = 1 + Sterm / fac1;
+        double hterm = Sterm + term3 * term4;
+        height[start + i] = hterm;
       }
-    }
-
-    return height;
+    });
   }
 
 
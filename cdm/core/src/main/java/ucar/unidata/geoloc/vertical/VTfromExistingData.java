@@ -5,7 +5,7 @@
 
 package ucar.unidata.geoloc.vertical;
 
-import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
 import ucar.ma2.*;
 import ucar.ma2.ArrayDouble.D1;
 import ucar.nc2.Dimension;
@@ -19,7 +19,7 @@ import java.util.List;
  * This implements a VerticalTransform using an existing 3D variable.
  * This is a common case when the 3D pressure or height field is stored in the file.
  */
-@Immutable
+@ThreadSafe
 public class VTfromExistingData extends AbstractVerticalTransform {
   /** The name of the Parameter whose value is the variable that contains the 2D Height or Pressure field */
   public static final String existingDataField = "existingDataField";
@@ -7,7 +7,7 @@ package ucar.unidata.geoloc.vertical;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
 import ucar.ma2.Array;
 import ucar.ma2.ArrayDouble;
 import ucar.ma2.ArrayDouble.D1;
@@ -16,7 +16,7 @@ import ucar.ma2.Range;
 import ucar.unidata.geoloc.VerticalTransform;
 
 /** A subset of a vertical transform. */
-@Immutable
+@ThreadSafe
 public class VerticalTransformSubset extends AbstractVerticalTransform {
   private final VerticalTransform original;
   private final Range t_range;
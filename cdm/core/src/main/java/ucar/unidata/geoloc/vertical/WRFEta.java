@@ -4,12 +4,16 @@
  */
 package ucar.unidata.geoloc.vertical;
 
-import javax.annotation.concurrent.Immutable;
+import java.util.function.IntToDoubleFunction;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
 import ucar.ma2.Array;
 import ucar.ma2.ArrayDouble;
+import ucar.ma2.DataType;
 import ucar.ma2.Index;
 import ucar.ma2.IndexIterator;
 import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
 import ucar.ma2.ArrayDouble.D1;
 import ucar.nc2.Dimension;
 import ucar.nc2.Variable;
@@ -19,7 +23,7 @@ import java.io.IOException;
 import java.util.List;
 
 /** Models the vertical coordinate for the Weather Research and Forecast (WRF) model's vertical Eta coordinate */
-@Immutable
+@ThreadSafe
 public class WRFEta extends AbstractVerticalTransform {
   public static final String BasePressureVariable = "base_presure";
   public static final String PerturbationPressureVariable = "perturbation_presure";
@@ -133,6 +137,61 @@ public class WRFEta extends AbstractVerticalTransform {
     return array;
   }
 
+  /**
+   * Compute only the window, with the same arithmetic as getCoordinateArray(). A staggered value depends on at most
+   * two of the input values along each staggered dimension, see extrapinterpolate().
+   */
+  @Override
+  Window computeWindow(int timeIndex, @Nullable Range yRange, @Nullable Range xRange, @Nullable double[] result)
+      throws IOException, InvalidRangeException {
+    Array pertArray = getTimeSlice(pertVar, timeIndex);
+    Array baseArray = getTimeSlice(baseVar, timeIndex);
+    int[] shape = pertArray.getShape();
+    int ny = shape[1];
+    int nx = shape[2];
+
+    Window window = new Window(shape[0], new int[] {isYStag ? ny + 1 : ny, isXStag ? nx + 1 : nx}, yRange, xRange,
+        result);
+    double[] values = window.values;
+    int npts = window.getPointCount();
+
+    window.forEachLevel(z -> {
+      Index pertIndex = pertArray.getIndex();
+      Index baseIndex = baseArray.getIndex();
+      // the unstaggered value
+      ValueAt value = (j, i) -> {
+        double d = pertArray.getDouble(pertIndex.set(z, j, i)) + baseArray.getDouble(baseIndex.set(z, j, i));
+        if (isZStag) {
+          d = d / 9.81; // convert geopotential to height
+        }
+        return d;
+      };
+      int count = z * npts;
+      for (int y : window.yIndex) {
+        for (int x : window.xIndex) {
+          IntToDoubleFunction row = j -> isXStag ? stagger(x, nx, i -> value.get(j, i)) : value.get(j, x);
+          values[count++] = isYStag ? stagger(y, ny, row) : row.applyAsDouble(y);
+        }
+      }
+    });
+    return window;
+  }
+
+  // the value at the input (j, i) of one level
+  private interface ValueAt {
+    double get(int j, int i);
+  }
+
+  // the value at index i after adding a stagger to a dimension of length n, as extrapinterpolate() computes it
+  private static double stagger(int i, int n, IntToDoubleFunction array) {
+    if (i == 0) {
+      return 1.5 * array.applyAsDouble(0) - 0.5 * array.applyAsDouble(1);
+    }
+    if (i == n) {
+      return 1.5 * array.applyAsDouble(n - 1) - 0.5 * array.applyAsDouble(n - 2);
+    }
+    return 0.5 * (array.applyAsDouble(i - 1) + array.applyAsDouble(i));
+  }
 
   /**
    * Get the 1D vertical coordinate array for this time step and point
@@ -146,21 +205,8 @@ public class WRFEta extends AbstractVerticalTransform {
    */
   @Override
   public D1 getCoordinateArray1D(int timeIndex, int xIndex, int yIndex) throws IOException, InvalidRangeException {
-    ArrayDouble.D3 data = getCoordinateArray(timeIndex);
-
-    int[] origin = new int[3];
-    int[] shape = new int[3];
-
-    origin[0] = 0;
-    origin[1] = yIndex;
-    origin[2] = xIndex;
-
-    shape[0] = data.getShape()[0];
-    shape[1] = 1;
-    shape[2] = 1;
-
-    Array tmp = data.section(origin, shape);
-    return (ArrayDouble.D1) tmp.reduce();
+    Window column = computeWindow(timeIndex, new Range(yIndex, yIndex), new Range(xIndex, xIndex), null);
+    return (ArrayDouble.D1) Array.factory(DataType.DOUBLE, new int[] {column.nz}, column.values);
   }
 
   /**
@@ -255,20 +301,7 @@ public class WRFEta extends AbstractVerticalTransform {
    * @throws IOException problem getting Array
    */
   private Array getTimeSlice(Variable v, int timeIndex) throws IOException, InvalidRangeException {
-    // ADD: this would make a good utility method
-    // ADD: use Array.slice?
-    int[] shape = v.getShape();
-    int[] origin = new int[v.getRank()];
-
-    if (getTimeDimension() != null) {
-      int dimIndex = v.findDimensionIndex(getTimeDimension().getShortName());
-      if (dimIndex >= 0) {
-        shape[dimIndex] = 1;
-        origin[dimIndex] = timeIndex;
-      }
-    }
-
-    return v.read(origin, shape).reduce();
+    return readArray(v, timeIndex).reduce();
   }
 
 }
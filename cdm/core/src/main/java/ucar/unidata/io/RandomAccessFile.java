@@ -459,6 +459,11 @@ public class RandomAccessFile implements DataInput, DataOutput, FileCacheable, C
     return file.lastModified();
   }
 
+  @Override
+  public long getEstimatedMemory() {
+    return buffer.length;
+  }
+
   /**
    * Return true if file pointer is at end of file.
    *
@@ -567,6 +572,11 @@ public class RandomAccessFile implements DataInput, DataOutput, FileCacheable, C
     this.bigEndian = bo.equals(ByteOrder.BIG_ENDIAN);
   }
 
+  /** The current endian mode, used by reads of short, int, float, double, long, char. */
+  public ByteOrder getByteOrder() {
+    return bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+  }
+
   /**
    * Copy the contents of the buffer to the disk.
    *
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 1998-2020 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package thredds.client.catalog.tools;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Test {@link ParallelCatalogCrawler} and {@link CatalogCache} on local catalogs. */
+public class TestParallelCatalogCrawler {
+  private static final String header = "<?xml version='1.0' encoding='UTF-8'?>\n"
+      + "<catalog name='%s' version='1.0' xmlns='http://www.unidata.ucar.edu/namespaces/thredds/InvCatalog/v1.0'"
+      + " xmlns:xlink='http://www.w3.org/1999/xlink'>\n";
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private final ExecutorService exec = Executors.newFixedThreadPool(4);
+
+  @After
+  public void cleanup() {
+    exec.shutdownNow();
+  }
+
+  @Test
+  public void testCrawl() throws Exception {
+    // top -> sub0..sub4, each -> leaf, which refers back to top
+    StringBuilder top = new StringBuilder(String.format(header, "top"));
+    top.append("<dataset name='topData' urlPath='top.nc'/>\n");
+    for (int i = 0; i < 5; i++) {
+      top.append(String.format("<catalogRef xlink:href='sub%d.xml' xlink:title='sub%d'/>%n", i, i));
+      write(String.format("sub%d.xml", i),
+          String.format(header, "sub" + i) + "<dataset name='coll" + i + "'>\n"
+              + String.format("  <dataset name='data%d-a' urlPath='a%d.nc'/>%n", i, i)
+              + String.format("  <dataset name='data%d-b' urlPath='b%d.nc'/>%n", i, i) + "</dataset>\n"
+              + String.format("<catalogRef xlink:href='leaf%d.xml' xlink:title='leaf%d'/>%n", i, i) + "</catalog>");
+      write(String.format("leaf%d.xml", i), String.format(header, "leaf" + i)
+          + String.format("<dataset name='leaf%d' urlPath='leaf%d.nc'/>%n", i, i)
+          + "<catalogRef xlink:href='top.xml' xlink:title='back to top'/>\n" + "</catalog>");
+    }
+    top.append("</catalog>");
+    File topFile = write("top.xml", top.toString());
+
+    CatalogCache cache = new CatalogCache(100);
+    ParallelCatalogCrawler crawler = new ParallelCatalogCrawler(exec, cache, null, null);
+    Set<String> names = ConcurrentHashMap.newKeySet();
+    int count = crawler.crawl(topFile.toURI().toString(), ds -> names.add(ds.getName()));
+
+    assertThat(crawler.getNumReadFailures()).isEqualTo(0);
+    assertThat(count).isEqualTo(11); // the cycle back to top is only read once
+    assertThat(names).contains("topData");
+    assertThat(names).contains("data3-b");
+    assertThat(names).contains("leaf4");
+    assertThat(crawler.getNumDatasets()).isEqualTo(names.size());
+    assertThat(cache.getMisses()).isEqualTo(11);
+
+    // nothing changed: all from the cache
+    crawler.crawl(topFile.toURI().toString(), ds -> {
+    });
+    assertThat(cache.getMisses()).isEqualTo(11);
+    assertThat(cache.getHits()).isEqualTo(11);
+
+    // one changed
+    File changed = new File(tempFolder.getRoot(), "leaf2.xml");
+    assertThat(changed.setLastModified(changed.lastModified() + 10000)).isTrue();
+    crawler.crawl(topFile.toURI().toString(), ds -> {
+    });
+    assertThat(cache.getMisses()).isEqualTo(12);
+  }
+
+  @Test
+  public void testMissingCatref() throws Exception {
+    File topFile = write("top.xml", String.format(header, "top")
+        + "<catalogRef xlink:href='notThere.xml' xlink:title='missing'/>\n" + "</catalog>");
+    ParallelCatalogCrawler crawler = new ParallelCatalogCrawler(exec, new CatalogCache(10), null, null);
+    int count = crawler.crawl(topFile.toURI().toString(), ds -> {
+    });
+    assertThat(count).isEqualTo(1);
+    assertThat(crawler.getNumReadFailures()).isEqualTo(1);
+    assertThat(crawler.getErrorMessages()).contains("notThere.xml");
+  }
+
+  @Test
+  public void testListenerThrows() throws Exception {
+    File topFile = write("top.xml", String.format(header, "top")
+        + "<catalogRef xlink:href='sub.xml' xlink:title='sub'/>\n" + "<dataset name='bad' urlPath='bad.nc'/>\n"
+        + "</catalog>");
+    write("sub.xml", String.format(header, "sub") + "<dataset name='good' urlPath='good.nc'/>\n" + "</catalog>");
+    ParallelCatalogCrawler crawler = new ParallelCatalogCrawler(exec, new CatalogCache(10), null, null);
+    Set<String> names = ConcurrentHashMap.newKeySet();
+    crawler.crawl(topFile.toURI().toString(), ds -> {
+      if (ds.getName().equals("bad"))
+        throw new IllegalStateException("listener failed");
+      names.add(ds.getName());
+    });
+    assertThat(crawler.getNumReadFailures()).isEqualTo(1);
+    assertThat(crawler.getErrorMessages()).contains("listener failed");
+    assertThat(names).containsExactly("good"); // the other catalog is still crawled
+  }
+
+  @Test
+  public void testManyPending() throws Exception {
+    // more catalogs waiting to be read than a Phaser has parties
+    int n = 70000;
+    StringBuilder top = new StringBuilder(String.format(header, "top"));
+    for (int i = 0; i < n; i++) {
+      top.append(String.format("<catalogRef xlink:href='missing%d.xml' xlink:title='m%d'/>%n", i, i));
+    }
+    top.append("</catalog>");
+    File topFile = write("top.xml", top.toString());
+
+    // one thread, so all of them are pending until the top catalog is done
+    ExecutorService single = Executors.newSingleThreadExecutor();
+    try {
+      ParallelCatalogCrawler crawler = new ParallelCatalogCrawler(single, new CatalogCache(10), null, null);
+      int count = crawler.crawl(topFile.toURI().toString(), ds -> {
+      });
+      assertThat(count).isEqualTo(1);
+      assertThat(crawler.getNumReadFailures()).isEqualTo(n);
+    } finally {
+      single.shutdownNow();
+    }
+  }
+
+  private File write(String name, String contents) throws IOException {
+    File file = new File(tempFolder.getRoot(), name);
+    Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+}
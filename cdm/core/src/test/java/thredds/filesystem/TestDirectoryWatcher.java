@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 1998-2020 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.filesystem;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import thredds.inventory.MFile;
+
+/** Test {@link DirectoryCrawler} and {@link DirectoryWatcher} */
+public class TestDirectoryWatcher {
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void testCrawl() throws IOException {
+    Path top = makeTree(tempFolder.getRoot());
+    Set<Path> dirs = new HashSet<>();
+    List<MFile> files = DirectoryCrawler.crawl(top, true, mfile -> mfile.getName().endsWith(".nc"), dirs::add);
+    assertThat(files).hasSize(12);
+    assertThat(dirs).hasSize(4);
+
+    assertThat(DirectoryCrawler.crawl(top, false, null, null)).hasSize(4);
+  }
+
+  @Test
+  public void testWatch() throws Exception {
+    Path top = makeTree(tempFolder.getRoot());
+    try (DirectoryWatcher watcher = new DirectoryWatcher()) {
+      watcher.register(top, true);
+      assertThat(watcher.getNumberOfDirectories()).isEqualTo(4);
+
+      Path added = Files.createFile(top.resolve("sub1/added.nc"));
+      DirectoryWatcher.Changes changes = waitFor(watcher, added);
+      assertThat(changes.getDeletedDirectories()).isEmpty();
+
+      // files added to a new directory before it is watched are found
+      Path newDir = Files.createDirectory(top.resolve("sub4"));
+      Path inNewDir = Files.createFile(newDir.resolve("new.nc"));
+      waitFor(watcher, inNewDir);
+      assertThat(watcher.getNumberOfDirectories()).isEqualTo(5);
+
+      Path moved = top.resolve("moved");
+      Files.move(top.resolve("sub2"), moved);
+      changes = waitFor(watcher, top.resolve("sub2"));
+      assertThat(changes.getDeletedDirectories()).contains(top.resolve("sub2"));
+    }
+  }
+
+  // the events come from another thread, so wait for them
+  private static DirectoryWatcher.Changes waitFor(DirectoryWatcher watcher, Path expect) throws InterruptedException {
+    Set<Path> paths = new HashSet<>();
+    DirectoryWatcher.Changes last = null;
+    for (int i = 0; i < 100 && !paths.contains(expect); i++) {
+      Thread.sleep(100);
+      DirectoryWatcher.Changes changes = watcher.pollChanges();
+      assertThat(changes).isNotNull();
+      paths.addAll(changes.getPaths());
+      if (changes.getPaths().contains(expect))
+        last = changes;
+    }
+    assertThat(paths).contains(expect);
+    return last;
+  }
+
+  // 4 directories with 3 .nc files and 1 .ncx file each
+  private static Path makeTree(File root) throws IOException {
+    Path top = root.toPath().resolve("top");
+    Path dir = top;
+    for (int i = 0; i < 4; i++) {
+      Files.createDirectories(dir);
+      for (int j = 0; j < 3; j++)
+        Files.createFile(dir.resolve("file" + j + ".nc"));
+      Files.createFile(dir.resolve("index.ncx"));
+      dir = top.resolve("sub" + (i + 1));
+    }
+    return top;
+  }
+}
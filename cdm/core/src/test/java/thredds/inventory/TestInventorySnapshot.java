@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 1998-2020 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.inventory;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import thredds.inventory.partition.DirectoryCollection;
+import ucar.nc2.time.CalendarDate;
+
+/** Test {@link InventorySnapshot} */
+public class TestInventorySnapshot {
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    Path dir = tempFolder.newFolder().toPath();
+    for (int i = 1; i <= 3; i++)
+      Files.write(dir.resolve("model_2020010" + i + ".nc"), new byte[i]);
+    DirectoryCollection dcm = new DirectoryCollection("snapshotTest", dir, true, null, null);
+    dcm.setDateExtractor(new DateExtractorFromName("model_#yyyyMMdd", true));
+    Path snapshotFile = tempFolder.newFolder().toPath().resolve("snapshotTest.inv");
+    dcm.writeSnapshot(snapshotFile);
+
+    InventorySnapshot snapshot = InventorySnapshot.read(snapshotFile);
+    assertThat(snapshot).isNotNull();
+    assertThat(snapshot.isSnapshotOf(dcm)).isTrue();
+    List<MFile> files = snapshot.getFiles(dcm);
+    assertThat(files).hasSize(3);
+    MFile first = files.get(0);
+    assertThat(first.getPath()).isEqualTo(dir.resolve("model_20200101.nc").toString());
+    assertThat(first.getLength()).isEqualTo(1L);
+    assertThat(first.getLastModified()).isEqualTo(Files.getLastModifiedTime(dir.resolve("model_20200101.nc")).toMillis());
+    assertThat(dcm.extractDate(first)).isEqualTo(CalendarDate.parseISOformat(null, "2020-01-01T00:00:00Z"));
+
+    assertThat(InventorySnapshot.read(dir.resolve("nothere.inv"))).isNull();
+    assertThat(InventorySnapshot.read(dir.resolve("model_20200101.nc"))).isNull();
+  }
+
+  @Test
+  public void testUseAndReconcile() throws IOException {
+    Path dir = tempFolder.newFolder().toPath();
+    for (int i = 1; i <= 3; i++)
+      Files.write(dir.resolve("file" + i + ".nc"), new byte[i]);
+    DirectoryCollection dcm = new DirectoryCollection("snapshotTest", dir, true, null, null);
+    Path snapshotFile = tempFolder.newFolder().toPath().resolve("snapshotTest.inv");
+    dcm.writeSnapshot(snapshotFile);
+
+    // a restart, with one file added in the meantime
+    Files.write(dir.resolve("file4.nc"), new byte[4]);
+    DirectoryCollection restarted = new DirectoryCollection("snapshotTest", dir, true, null, null);
+    assertThat(restarted.useSnapshot(snapshotFile)).isTrue();
+    assertThat(restarted.getFilenames()).hasSize(3);
+    assertThat(restarted.reconcileSnapshot()).isTrue();
+    assertThat(restarted.getFilenames()).hasSize(4);
+    assertThat(restarted.reconcileSnapshot()).isFalse();
+
+    // not a snapshot of this collection
+    DirectoryCollection other = new DirectoryCollection("otherName", dir, true, null, null);
+    assertThat(other.useSnapshot(snapshotFile)).isFalse();
+  }
+}
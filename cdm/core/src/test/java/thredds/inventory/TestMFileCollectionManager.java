@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 1998-2020 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.inventory;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import thredds.filesystem.ControllerOS;
+
+/** Test {@link MFileCollectionManager} scans, and the events they send */
+public class TestMFileCollectionManager {
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private final List<CollectionManager.TriggerEvent> events = new ArrayList<>();
+  private final AtomicInteger listings = new AtomicInteger(); // full scans of the collection
+
+  @Test
+  public void testWatchForChanges() throws Exception {
+    Path top = makeTree();
+    MFileCollectionManager dcm = open(top, null);
+    assertThat(dcm.watchForChanges()).isTrue();
+    assertThat(dcm.scan(true)).isTrue();
+    assertThat(listings.get()).isEqualTo(1);
+    assertThat(getPaths(dcm)).hasSize(6);
+
+    Path added = Files.createFile(top.resolve("sub/added.nc"));
+    assertThat(scanForChanges(dcm)).containsExactly(path(added));
+
+    Path modified = top.resolve("file0.nc");
+    Files.write(modified, new byte[10]);
+    Files.setLastModifiedTime(modified, FileTime.fromMillis(System.currentTimeMillis() + 10000));
+    assertThat(scanForChanges(dcm)).containsExactly(path(modified));
+
+    Path deleted = top.resolve("file1.nc");
+    Files.delete(deleted);
+    assertThat(scanForChanges(dcm)).containsExactly(path(deleted));
+
+    // there are no events for the files in a directory that is moved away
+    Files.move(top.resolve("sub"), tempFolder.getRoot().toPath().resolve("moved"));
+    assertThat(scanForChanges(dcm)).containsExactly(path(top.resolve("sub/file0.nc")),
+        path(top.resolve("sub/file1.nc")), path(top.resolve("sub/file2.nc")), path(added));
+    assertThat(getPaths(dcm)).containsExactly(path(modified), path(top.resolve("file2.nc")));
+
+    // nothing was listed again
+    assertThat(listings.get()).isEqualTo(1);
+    dcm.close();
+  }
+
+  @Test
+  public void testEventsLost() throws Exception {
+    Path top = makeTree();
+    MFileCollectionManager dcm = open(top, null);
+    assertThat(dcm.watchForChanges()).isTrue();
+    assertThat(dcm.scan(true)).isTrue();
+
+    // too many events for one directory between scans
+    for (int i = 0; i < 1000; i++)
+      Files.createFile(top.resolve("many" + i + ".nc"));
+    Thread.sleep(500);
+    assertThat(scanForChanges(dcm)).hasSize(1000);
+    assertThat(listings.get()).isEqualTo(2);
+
+    // watching again
+    Path added = Files.createFile(top.resolve("added.nc"));
+    assertThat(scanForChanges(dcm)).containsExactly(path(added));
+    assertThat(listings.get()).isEqualTo(2);
+    dcm.close();
+  }
+
+  @Test
+  public void testTooRecent() throws Exception {
+    Path top = makeTree();
+    MFileCollectionManager dcm = open(top, "2 sec");
+    assertThat(dcm.watchForChanges()).isTrue();
+    assertThat(dcm.scan(true)).isTrue();
+    assertThat(getPaths(dcm)).hasSize(6);
+
+    Path added = Files.createFile(top.resolve("added.nc"));
+    Thread.sleep(500);
+    assertThat(dcm.scan(true)).isFalse();
+    assertThat(getPaths(dcm)).doesNotContain(path(added));
+
+    // checked again without any new event
+    Thread.sleep(2000);
+    events.clear();
+    assertThat(dcm.scan(true)).isTrue();
+    assertThat(events).hasSize(1);
+    assertThat(events.get(0).getChangedFiles()).containsExactly(path(added));
+    assertThat(listings.get()).isEqualTo(1);
+    dcm.close();
+  }
+
+  @Test
+  public void testSnapshot() throws Exception {
+    Path top = makeTree();
+    Path snapshotFile = tempFolder.newFolder().toPath().resolve("test.inv");
+    MFileCollectionManager before = open(top, null);
+    before.writeSnapshot(snapshotFile);
+    List<String> saved = getPaths(before);
+    assertThat(saved).hasSize(6);
+
+    // a restart, with changes in the meantime
+    Path added = Files.createFile(top.resolve("sub/added.nc"));
+    Path deleted = top.resolve("file1.nc");
+    Files.delete(deleted);
+    Path modified = top.resolve("sub/file2.nc");
+    Files.setLastModifiedTime(modified, FileTime.fromMillis(System.currentTimeMillis()));
+    listings.set(0);
+    events.clear();
+
+    MFileCollectionManager dcm = open(top, null);
+    assertThat(dcm.useSnapshot(snapshotFile)).isTrue();
+    assertThat(getPaths(dcm)).containsExactlyElementsIn(saved);
+    assertThat(listings.get()).isEqualTo(0);
+
+    assertThat(dcm.reconcileSnapshot()).isTrue();
+    assertThat(listings.get()).isEqualTo(1);
+    assertThat(events).hasSize(1);
+    assertThat(events.get(0).getChangedFiles()).containsExactly(path(added), path(deleted), path(modified));
+    List<String> paths = getPaths(dcm);
+    assertThat(paths).hasSize(6);
+    assertThat(paths).contains(path(added));
+    assertThat(paths).doesNotContain(path(deleted));
+
+    // only once
+    assertThat(dcm.reconcileSnapshot()).isFalse();
+    assertThat(listings.get()).isEqualTo(1);
+    assertThat(events).hasSize(1);
+
+    // a snapshot of another collection is not used
+    MFileCollectionManager other = MFileCollectionManager.open("other", top + "/**/.*\\.nc$", null, new Formatter());
+    assertThat(other.useSnapshot(snapshotFile)).isFalse();
+  }
+
+  private MFileCollectionManager open(Path top, String olderThan) {
+    Formatter errlog = new Formatter();
+    MFileCollectionManager dcm = MFileCollectionManager.open("test", top + "/**/.*\\.nc$", olderThan, errlog);
+    dcm.setController(new ControllerOS() {
+      @Override
+      public Iterator<MFile> getInventoryAll(CollectionConfig mc, boolean recheck) {
+        listings.incrementAndGet();
+        return super.getInventoryAll(mc, recheck);
+      }
+    });
+    dcm.addEventListener(events::add);
+    return dcm;
+  }
+
+  // the events come from another thread, so scan until they are seen
+  private List<String> scanForChanges(MFileCollectionManager dcm) throws Exception {
+    events.clear();
+    for (int i = 0; i < 50 && events.isEmpty(); i++) {
+      Thread.sleep(100);
+      dcm.scan(true);
+    }
+    assertThat(events).hasSize(1);
+    assertThat(events.get(0).getType()).isEqualTo(CollectionUpdateType.always);
+    return events.get(0).getChangedFiles();
+  }
+
+  private static List<String> getPaths(MFileCollectionManager dcm) {
+    List<String> result = new ArrayList<>();
+    for (MFile mfile : dcm.getFilesSorted())
+      result.add(mfile.getPath());
+    return result;
+  }
+
+  private static String path(Path path) {
+    return path.toString().replace('\\', '/');
+  }
+
+  // 3 .nc files and 1 .ncx file in top and in top/sub, last modified an hour ago
+  private Path makeTree() throws IOException {
+    Path top = tempFolder.getRoot().toPath().resolve("top");
+    FileTime anHourAgo = FileTime.from(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1), TimeUnit.MILLISECONDS);
+    for (Path dir : new Path[] {top, top.resolve("sub")}) {
+      Files.createDirectories(dir);
+      for (int i = 0; i < 3; i++)
+        Files.setLastModifiedTime(Files.createFile(dir.resolve("file" + i + ".nc")), anHourAgo);
+      Files.createFile(dir.resolve("index.ncx"));
+    }
+    return top;
+  }
+}
@@ -1,11 +1,14 @@
 package ucar.nc2.grid;
 
+import com.google.common.collect.ImmutableList;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 import ucar.array.Array;
 import ucar.array.ArrayType;
+import ucar.array.Arrays;
 import ucar.ma2.DataType;
 import ucar.ma2.InvalidRangeException;
+import ucar.nc2.AttributeContainer;
 import ucar.nc2.time.CalendarDate;
 import ucar.unidata.util.test.TestDir;
 import ucar.unidata.util.test.category.NeedsCdmUnitTest;
@@ -13,6 +16,13 @@ import ucar.unidata.util.test.category.NeedsCdmUnitTest;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Formatter;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.fail;
@@ -273,6 +283,156 @@ public class TestReadGridDataset {
     }
   }
 
+  @Test
+  public void readGridsAsync() throws Exception {
+    String filename = TestDir.cdmLocalTestDataDir + "ncml/fmrc/GFS_Puerto_Rico_191km_20090729_0000.nc";
+    Formatter errlog = new Formatter();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (GridDataset ncd = GridDatasetFactory.openGridDataset(filename, errlog)) {
+      Grid grid = ncd.findGrid("Temperature_isobaric").orElse(null);
+      assertThat(grid).isNotNull();
+
+      GridSubset subset = new GridSubset();
+      subset.setTime(CalendarDate.parseISOformat(null, "2009-08-02T12:00:00Z"));
+      subset.setVertCoord(700.0);
+      GridReferencedArray expected = grid.readData(subset);
+
+      // the same grid twice gets the same data twice, from one read
+      List<CompletableFuture<GridReferencedArray>> futures =
+          ncd.readData(ImmutableList.of(grid, grid), subset, executor);
+      assertThat(futures).hasSize(2);
+      assertThat(futures.get(0)).isSameInstanceAs(futures.get(1));
+      for (CompletableFuture<GridReferencedArray> future : futures) {
+        GridReferencedArray geoArray = future.get(10, TimeUnit.SECONDS);
+        assertThat(geoArray.gridName()).isEqualTo("Temperature_isobaric");
+        assertThat(geoArray.data().getShape()).isEqualTo(new int[] {1, 1, 39, 45});
+        assertThat(Arrays.copyPrimitiveArray(geoArray.data()))
+            .isEqualTo(Arrays.copyPrimitiveArray(expected.data()));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void readGridsAsyncSharedCoordinateSystems() throws Exception {
+    // 17 grids with 4 coordinate systems, their dimensions in different orders
+    String filename = TestDir.cdmLocalTestDataDir + "permuteTest.nc";
+    Formatter errlog = new Formatter();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (GridDataset ncd = GridDatasetFactory.openGridDataset(filename, errlog)) {
+      List<Grid> grids = ncd.getGrids().reverse();
+      assertThat(grids).hasSize(17);
+      GridSubset subset = new GridSubset().setHorizStride(2);
+
+      List<CompletableFuture<GridReferencedArray>> futures = ncd.readData(grids, subset, executor);
+      assertThat(futures).hasSize(grids.size());
+      for (int i = 0; i < grids.size(); i++) {
+        GridReferencedArray expected = grids.get(i).readData(subset);
+        GridReferencedArray geoArray = futures.get(i).get(10, TimeUnit.SECONDS);
+        assertThat(geoArray.gridName()).isEqualTo(grids.get(i).getName());
+        assertThat(geoArray.data().getShape()).isEqualTo(expected.data().getShape());
+        assertThat(Arrays.copyPrimitiveArray(geoArray.data()))
+            .isEqualTo(Arrays.copyPrimitiveArray(expected.data()));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void readGridsAsyncWithFailure() throws Exception {
+    String filename = TestDir.cdmLocalTestDataDir + "permuteTest.nc";
+    Formatter errlog = new Formatter();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (GridDataset ncd = GridDatasetFactory.openGridDataset(filename, errlog)) {
+      Grid first = ncd.findGrid("tzyx").orElseThrow(IllegalStateException::new);
+      Grid last = ncd.findGrid("xy").orElseThrow(IllegalStateException::new);
+      Grid failing = new FailingGrid(first);
+      GridSubset subset = new GridSubset();
+
+      List<CompletableFuture<GridReferencedArray>> futures =
+          ncd.readData(ImmutableList.of(first, failing, last), subset, executor);
+      assertThat(futures.get(0).get(10, TimeUnit.SECONDS).gridName()).isEqualTo("tzyx");
+      assertThat(futures.get(2).get(10, TimeUnit.SECONDS).gridName()).isEqualTo("xy");
+      try {
+        futures.get(1).get(10, TimeUnit.SECONDS);
+        fail();
+      } catch (ExecutionException e) {
+        assertThat(e.getCause()).isInstanceOf(IOException.class);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void readGridsAsyncRejected() throws Exception {
+    String filename = TestDir.cdmLocalTestDataDir + "permuteTest.nc";
+    Formatter errlog = new Formatter();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    executor.shutdown();
+    try (GridDataset ncd = GridDatasetFactory.openGridDataset(filename, errlog)) {
+      List<CompletableFuture<GridReferencedArray>> futures =
+          ncd.readData(ncd.getGrids().subList(0, 3), new GridSubset(), executor);
+      assertThat(futures).hasSize(3);
+      for (CompletableFuture<GridReferencedArray> future : futures) {
+        assertThat(future.isCompletedExceptionally()).isTrue();
+        try {
+          future.get();
+          fail();
+        } catch (ExecutionException e) {
+          assertThat(e.getCause()).isInstanceOf(RejectedExecutionException.class);
+        }
+      }
+    }
+  }
+
+  // a Grid whose data cannot be read
+  private static class FailingGrid implements Grid {
+    private final Grid grid;
+
+    FailingGrid(Grid grid) {
+      this.grid = grid;
+    }
+
+    public String getName() {
+      return "failing";
+    }
+
+    public String getDescription() {
+      return grid.getDescription();
+    }
+
+    public String getUnits() {
+      return grid.getUnits();
+    }
+
+    public AttributeContainer attributes() {
+      return grid.attributes();
+    }
+
+    public ArrayType getArrayType() {
+      return grid.getArrayType();
+    }
+
+    public GridCoordinateSystem getCoordinateSystem() {
+      return grid.getCoordinateSystem();
+    }
+
+    public GridReferencedArray readData(GridSubset subset) throws IOException {
+      throw new IOException("cannot read " + getName());
+    }
+
+    public boolean hasMissing() {
+      return grid.hasMissing();
+    }
+
+    public boolean isMissing(double val) {
+      return grid.isMissing(val);
+    }
+  }
+
   @Test
   public void testFileNotFound() throws IOException {
     String filename = TestDir.cdmLocalTestDataDir + "conventions/fileNot.nc";
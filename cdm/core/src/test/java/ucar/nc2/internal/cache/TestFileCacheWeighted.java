@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 1998-2020 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.internal.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+import ucar.nc2.dataset.DatasetUrl;
+import ucar.nc2.util.CancelTask;
+
+/** Test {@link FileCacheWeighted} */
+public class TestFileCacheWeighted {
+
+  @Test
+  public void testBoundedByMemory() throws IOException {
+    FileCacheWeighted cache = new FileCacheWeighted("test", 100, 1000, -1);
+    List<Fake> opened = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      Fake fake = (Fake) cache.acquire(factory(300), DatasetUrl.create(null, "small" + i));
+      fake.close(); // release to the cache
+      opened.add(fake);
+      assertThat(cache.getWeight() <= 1000 + 300).isTrue(); // the one just opened was locked
+    }
+    assertThat(cache.getWeight() <= 1000).isTrue();
+    assertThat(opened.get(0).closed).isTrue();
+    assertThat(opened.get(19).closed).isFalse();
+
+    // a file bigger than the cache is closed as soon as it is released and another file is opened
+    Fake big = (Fake) cache.acquire(factory(5000), DatasetUrl.create(null, "big"));
+    big.close();
+    assertThat(big.closed).isFalse();
+    cache.acquire(factory(300), DatasetUrl.create(null, "small100")).close();
+    assertThat(big.closed).isTrue();
+    cache.clearCache(true);
+  }
+
+  @Test
+  public void testWeightChangesOnRelease() throws IOException {
+    FileCacheWeighted cache = new FileCacheWeighted("test", 100, 1000, -1);
+    Fake fake = (Fake) cache.acquire(factory(100), DatasetUrl.create(null, "grows"));
+    assertThat(cache.getWeight()).isEqualTo(100L);
+    fake.size = 700; // eg records read in
+    fake.close();
+    assertThat(cache.getWeight()).isEqualTo(700L);
+    cache.clearCache(true);
+  }
+
+  @Test
+  public void testWeightIsTracked() throws IOException {
+    FileCacheWeighted cache = new FileCacheWeighted("test", 100, 1000, -1);
+    Fake a = (Fake) cache.acquire(factory(200), DatasetUrl.create(null, "a"));
+    Fake b = (Fake) cache.acquire(factory(300), DatasetUrl.create(null, "b"));
+    Fake a2 = (Fake) cache.acquire(factory(250), DatasetUrl.create(null, "a")); // a is locked, so opened again
+    assertThat(cache.getWeight()).isEqualTo(750L);
+    a.close();
+    b.size = 400;
+    b.close();
+    assertThat(cache.getWeight()).isEqualTo(850L);
+
+    cache.eject("a");
+    assertThat(a.closed).isTrue();
+    assertThat(a2.closed).isTrue();
+    assertThat(cache.getWeight()).isEqualTo(400L);
+    a2.close(); // no longer in the cache
+    assertThat(cache.getWeight()).isEqualTo(400L);
+
+    cache.acquire(factory(100), DatasetUrl.create(null, "c")).close();
+    assertThat(cache.getWeight()).isEqualTo(500L);
+    cache.clearCache(false);
+    assertThat(cache.getWeight()).isEqualTo(0L);
+    assertThat(cache.showCache()).isEmpty();
+  }
+
+  @Test
+  public void testMaxMemoryMustBePositive() {
+    try {
+      new FileCacheWeighted("test", 100, 0, -1);
+      throw new AssertionError("maxMemory of 0 should fail");
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage()).contains("maxMemory");
+    }
+  }
+
+  @Test
+  public void testFrequentFilesAreKept() throws IOException {
+    FileCacheWeighted cache = new FileCacheWeighted("test", 100, 1000, -1);
+    DatasetUrl popular = DatasetUrl.create(null, "popular");
+    Fake first = (Fake) cache.acquire(factory(400), popular);
+    first.close();
+    for (int i = 0; i < 5; i++)
+      cache.acquire(factory(400), popular).close();
+
+    // a scan of files that are used once does not evict the popular one, even though it is the least recently used
+    for (int i = 0; i < 10; i++)
+      cache.acquire(factory(400), DatasetUrl.create(null, "once" + i)).close();
+    assertThat(first.closed).isFalse();
+    assertThat(cache.acquire(factory(400), popular)).isEqualTo(first);
+    cache.clearCache(true);
+  }
+
+  @Test
+  public void testMetrics() throws IOException {
+    AtomicInteger hits = new AtomicInteger();
+    AtomicInteger misses = new AtomicInteger();
+    AtomicInteger failures = new AtomicInteger();
+    AtomicLong evicted = new AtomicLong();
+    FileCacheWeighted cache = new FileCacheWeighted("test", 100, 1000, -1);
+    cache.setMetrics(new FileCacheMetrics() {
+      public void recordHit(Object hashKey) {
+        hits.incrementAndGet();
+      }
+
+      public void recordMiss(Object hashKey) {
+        misses.incrementAndGet();
+      }
+
+      public void recordLoad(Object hashKey, long nanos, boolean success) {
+        if (!success)
+          failures.incrementAndGet();
+      }
+
+      public void recordEviction(Object hashKey, long weight) {
+        evicted.addAndGet(weight);
+      }
+    });
+
+    DatasetUrl durl = DatasetUrl.create(null, "file");
+    cache.acquire(factory(600), durl).close();
+    cache.acquire(factory(600), durl).close();
+    cache.acquire(factory(600), DatasetUrl.create(null, "other")).close();
+    try {
+      cache.acquire((location, bufferSize, cancelTask, spiObject) -> {
+        throw new IOException("cant open");
+      }, DatasetUrl.create(null, "bad"));
+    } catch (IOException e) {
+      assertThat(e.getMessage()).isEqualTo("cant open");
+    }
+
+    assertThat(hits.get()).isEqualTo(1);
+    assertThat(misses.get()).isEqualTo(3);
+    assertThat(failures.get()).isEqualTo(1);
+    assertThat(evicted.get()).isEqualTo(600L);
+    cache.clearCache(true);
+  }
+
+  private static FileFactory factory(long size) {
+    return (DatasetUrl location, int buffer_size, CancelTask cancelTask, Object iospMessage) -> new Fake(
+        location.getTrueurl(), size);
+  }
+
+  private static class Fake implements FileCacheable {
+    final String location;
+    volatile long size;
+    FileCacheIF cache;
+    boolean closed;
+
+    Fake(String location, long size) {
+      this.location = location;
+      this.size = size;
+    }
+
+    @Override
+    public String getLocation() {
+      return location;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      if (cache != null && cache.release(this))
+        return;
+      closed = true;
+    }
+
+    @Override
+    public long getLastModified() {
+      return 0;
+    }
+
+    @Override
+    public synchronized void setFileCache(FileCacheIF fileCache) {
+      this.cache = fileCache;
+    }
+
+    @Override
+    public void release() {}
+
+    @Override
+    public void reacquire() {}
+
+    @Override
+    public long getEstimatedMemory() {
+      return size;
+    }
+  }
+}
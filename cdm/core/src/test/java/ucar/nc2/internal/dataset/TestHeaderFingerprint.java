@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 1998-2020 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.internal.dataset;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.Section;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.Group;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Variable;
+import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.dataset.NetcdfDatasets;
+import ucar.nc2.dataset.spi.CoordSystemBuilderFactory;
+import ucar.nc2.iosp.AbstractIOServiceProvider;
+import ucar.nc2.util.CancelTask;
+import ucar.unidata.io.RandomAccessFile;
+
+/** Test {@link HeaderFingerprint} and its use in {@link CoordSystemFactory} */
+public class TestHeaderFingerprint {
+
+  @Test
+  public void testFingerprint() {
+    String fp = HeaderFingerprint.compute(makeFile(10, "created today", "temp"));
+    // the length of the unlimited dimension and the history dont matter
+    assertThat(HeaderFingerprint.compute(makeFile(11, "created tomorrow", "temp"))).isEqualTo(fp);
+    // the variables do
+    assertThat(HeaderFingerprint.compute(makeFile(10, "created today", "pressure")).equals(fp)).isFalse();
+  }
+
+  @Test
+  public void testFileTypeInFingerprint() {
+    NetcdfFile hdf4 = makeFile(10, "created today", "temp", makeIosp("HDF4-EOS"));
+    String fp = HeaderFingerprint.compute(hdf4);
+    assertThat(HeaderFingerprint.compute(makeFile(10, "created today", "temp")).equals(fp)).isFalse();
+    assertThat(HeaderFingerprint.compute(makeFile(10, "created today", "temp", makeIosp("HDF5"))).equals(fp)).isFalse();
+    assertThat(HeaderFingerprint.compute(makeFile(11, "created tomorrow", "temp", makeIosp("HDF4-EOS"))))
+        .isEqualTo(fp);
+  }
+
+  @Test
+  public void testConventionSearchedOncePerStructure() throws IOException {
+    AtomicInteger count = new AtomicInteger();
+    CoordSystemFactory.registerConvention("FingerprintTest", new CoordSystemBuilderFactory() {
+      public String getConventionName() {
+        return "FingerprintTest";
+      }
+
+      public boolean isMine(NetcdfFile ncfile) {
+        if (ncfile.getRootGroup().findAttribute("fingerprintTest") == null)
+          return false;
+        count.incrementAndGet();
+        return true;
+      }
+
+      public CoordSystemBuilder open(NetcdfDataset.Builder<?> datasetBuilder) {
+        // the name is only set by CoordSystemFactory when the file has a Conventions attribute
+        CoordSystemBuilder builder = new CoordSystemBuilder(datasetBuilder);
+        builder.setConventionUsed("FingerprintTest");
+        return builder;
+      }
+    });
+
+    EnumSet<NetcdfDataset.Enhance> mode = EnumSet.of(NetcdfDataset.Enhance.CoordSystems);
+    NetcdfDataset ds = NetcdfDatasets.enhance(makeFile(10, "first", "temp"), mode, null);
+    assertThat(ds.getConventionUsed()).isEqualTo("FingerprintTest");
+    assertThat(count.get()).isEqualTo(1);
+
+    ds = NetcdfDatasets.enhance(makeFile(12, "second", "temp"), mode, null);
+    assertThat(ds.getConventionUsed()).isEqualTo("FingerprintTest");
+    assertThat(count.get()).isEqualTo(1);
+
+    ds = NetcdfDatasets.enhance(makeFile(12, "third", "pressure"), mode, null);
+    assertThat(ds.getConventionUsed()).isEqualTo("FingerprintTest");
+    assertThat(count.get()).isEqualTo(2);
+  }
+
+  private static NetcdfFile makeFile(int ntimes, String history, String varName) {
+    return makeFile(ntimes, history, varName, null);
+  }
+
+  private static NetcdfFile makeFile(int ntimes, String history, String varName, AbstractIOServiceProvider iosp) {
+    Group.Builder root = Group.builder();
+    root.addDimension(Dimension.builder("time", ntimes).setIsUnlimited(true).build());
+    root.addDimension(new Dimension("x", 7));
+    root.addAttribute(new Attribute("history", history));
+    root.addAttribute(new Attribute("fingerprintTest", "yes"));
+    root.addVariable(Variable.builder().setName(varName).setDataType(DataType.FLOAT).setParentGroupBuilder(root)
+        .setDimensionsByName("time x").addAttribute(new Attribute("units", "K")));
+    return NetcdfFile.builder().setRootGroup(root).setLocation(varName).setIosp(iosp).build();
+  }
+
+  // only the file type matters here
+  private static AbstractIOServiceProvider makeIosp(String fileTypeId) {
+    return new AbstractIOServiceProvider() {
+      public boolean isValidFile(RandomAccessFile raf) {
+        return false;
+      }
+
+      public void build(RandomAccessFile raf, Group.Builder rootGroup, CancelTask cancelTask) {}
+
+      public Array readData(Variable v2, Section section) {
+        throw new UnsupportedOperationException();
+      }
+
+      public String getFileTypeId() {
+        return fileTypeId;
+      }
+
+      public String getFileTypeDescription() {
+        return fileTypeId;
+      }
+    };
+  }
+}
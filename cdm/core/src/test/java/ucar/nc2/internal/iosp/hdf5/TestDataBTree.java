@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 1998-2020 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.internal.iosp.hdf5;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Section;
+
+/** Test {@link DataBTree.ChunkIndex} */
+public class TestDataBTree {
+  private static final int[] shape = {20, 13, 17};
+  private static final int[] chunkSize = {1, 5, 4, 8}; // last dimension is the element size
+
+  @Test
+  public void testFindChunks() throws InvalidRangeException {
+    DataBTree.ChunkIndex index = makeIndex(false);
+    assertThat(index.getNumberOfChunks()).isEqualTo(20 * 3 * 5);
+    assertThat(index.findChunks(null).length).isEqualTo(index.getNumberOfChunks());
+
+    checkFindChunks(index, "0:19, 6, 9"); // time series
+    checkFindChunks(index, "3, :, :");
+    checkFindChunks(index, "2:8, 4:5, 3:4");
+    checkFindChunks(index, "0:19:3, 0:12:7, 16");
+    checkFindChunks(index, "7:9"); // fewer dimensions than the chunks
+
+    // the chunks of a time series, in order
+    int[] found = index.findChunks(new Section("0:19, 6, 9"));
+    assertThat(found.length).isEqualTo(20);
+    for (int i = 0; i < found.length; i++) {
+      assertThat(index.getOffset(found[i], 3)).isEqualTo(new int[] {i, 5, 8});
+      assertThat(index.getFilePos(found[i])).isEqualTo(filePos(i, 5, 8));
+    }
+  }
+
+  @Test
+  public void testUnsorted() throws InvalidRangeException {
+    DataBTree.ChunkIndex index = makeIndex(true);
+    checkFindChunks(index, "0:19, 6, 9");
+    checkFindChunks(index, "2:8, 4:5, 3:4");
+    int[] found = index.findChunks(new Section("4, 12, 16"));
+    assertThat(found.length).isEqualTo(1);
+    assertThat(index.getFilePos(found[0])).isEqualTo(filePos(4, 10, 16));
+    assertThat(index.getSize(found[0])).isEqualTo(4 * 10 + 16);
+  }
+
+  private DataBTree.ChunkIndex makeIndex(boolean reversed) {
+    DataBTree.ChunkIndex.Builder builder = new DataBTree.ChunkIndex.Builder(chunkSize.length, chunkSize);
+    List<int[]> offsets = new ArrayList<>();
+    for (int t = 0; t < shape[0]; t += chunkSize[0])
+      for (int y = 0; y < shape[1]; y += chunkSize[1])
+        for (int x = 0; x < shape[2]; x += chunkSize[2])
+          offsets.add(new int[] {t, y, x, 0});
+    for (int i = 0; i < offsets.size(); i++) {
+      int[] offset = offsets.get(reversed ? offsets.size() - 1 - i : i);
+      builder.add(offset, filePos(offset[0], offset[1], offset[2]), offset[0] * 10 + offset[2], 0);
+    }
+    return builder.build();
+  }
+
+  private static long filePos(int t, int y, int x) {
+    return 1000L * t + 100 * y + x;
+  }
+
+  // compare to a brute force search
+  private void checkFindChunks(DataBTree.ChunkIndex index, String spec) throws InvalidRangeException {
+    Section want = new Section(spec);
+    want = Section.fill(want, Arrays.copyOf(shape, want.getRank()));
+    List<Integer> expected = new ArrayList<>();
+    for (int i = 0; i < index.getNumberOfChunks(); i++) {
+      int[] offset = index.getOffset(i, want.getRank());
+      int[] size = new int[want.getRank()];
+      System.arraycopy(chunkSize, 0, size, 0, size.length);
+      if (new Section(offset, size).intersects(want))
+        expected.add(i);
+    }
+
+    int[] found = index.findChunks(want);
+    List<Integer> result = new ArrayList<>();
+    for (int i : found)
+      result.add(i);
+    // strided sections may also find chunks that fall between the strides
+    assertThat(result.containsAll(expected)).isTrue();
+    boolean strided = false;
+    for (int d = 0; d < want.getRank(); d++) {
+      strided |= want.getRange(d).stride() > 1;
+    }
+    if (!strided) {
+      assertThat(result).isEqualTo(expected);
+    }
+  }
+}
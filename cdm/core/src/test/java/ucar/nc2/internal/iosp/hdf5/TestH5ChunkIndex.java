@@ -0,0 +1,534 @@
+/*
+ * Copyright (c) 1998-2020 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.internal.iosp.hdf5;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.IndexIterator;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Section;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Variable;
+import ucar.nc2.iosp.NetcdfFileFormat;
+import ucar.nc2.write.Nc4Chunking;
+import ucar.nc2.write.NetcdfFormatWriter;
+
+/**
+ * Read the chunk indexes of version 4 layout messages (HDF5 1.10 and later): single chunk, implicit, fixed array,
+ * extensible array and version 2 B-tree. Each test writes a file with {@link H5iospWriter}, replaces the version 1
+ * B-tree of one variable with the index laid out as in the HDF5 file format specification, and checks the values
+ * read back, including the chunks that the index leaves unallocated.
+ */
+public class TestH5ChunkIndex {
+  private static final int NT = 10, NZ = 6, NY = 10, NX = 12;
+  private static final long UNDEF = -1;
+  private static final double FILL_TEMP = -999.0;
+  private static final int FILL_FIXED = -1;
+
+  // temp(time, y, x) is deflated, with 10 x 3 x 3 chunks; fixed(z, y, x) is not, with 3 x 3 x 3 chunks
+  private static final Nc4Chunking chunking = new Nc4Chunking() {
+    public boolean isChunked(Variable v) {
+      return true;
+    }
+
+    public boolean isChunked(Variable.Builder<?> vb) {
+      return true;
+    }
+
+    public long[] getChunking(Variable v) {
+      return null;
+    }
+
+    public long[] computeChunking(Variable.Builder<?> vb) {
+      switch (vb.shortName) {
+        case "temp":
+          return new long[] {1, 4, 5};
+        case "fixed":
+          return new long[] {2, 4, 5};
+        default:
+          return new long[] {NY, NX};
+      }
+    }
+
+    public int getDeflateLevel(Variable.Builder<?> vb) {
+      return vb.shortName.equals("temp") ? 5 : 0;
+    }
+
+    public boolean isShuffle(Variable.Builder<?> vb) {
+      return vb.shortName.equals("temp");
+    }
+  };
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private String source;
+
+  @Before
+  public void writeSource() throws IOException, InvalidRangeException {
+    source = tempFolder.newFile().getAbsolutePath();
+    NetcdfFormatWriter.Builder writerb =
+        NetcdfFormatWriter.createNewNetcdf4(NetcdfFileFormat.NETCDF4, source, chunking).setUseJavaWriter(true);
+    writerb.addUnlimitedDimension("time");
+    writerb.addDimension("z", NZ);
+    writerb.addDimension("y", NY);
+    writerb.addDimension("x", NX);
+    writerb.addVariable("temp", DataType.DOUBLE, "time y x").addAttribute(new Attribute("_FillValue", FILL_TEMP));
+    writerb.addVariable("fixed", DataType.INT, "z y x").addAttribute(new Attribute("_FillValue", FILL_FIXED));
+    writerb.addVariable("single", DataType.SHORT, "y x");
+    try (NetcdfFormatWriter writer = writerb.build()) {
+      for (int t = 0; t < NT; t++) {
+        writer.write("temp", new int[] {t, 0, 0},
+            Array.makeArray(DataType.DOUBLE, NY * NX, t * 1000, 1).reshape(new int[] {1, NY, NX}));
+      }
+      writer.write("fixed", makeFixed());
+      writer.write("single", Array.makeArray(DataType.SHORT, NY * NX, 0, 1).reshape(new int[] {NY, NX}));
+    }
+  }
+
+  private static Array makeFixed() {
+    Array data = Array.factory(DataType.INT, new int[] {NZ, NY, NX});
+    IndexIterator ii = data.getIndexIterator();
+    while (ii.hasNext()) {
+      ii.next();
+      int[] pos = ii.getCurrentCounter();
+      ii.setIntCurrent(pos[0] * 1000 + pos[1] * NX + pos[2]);
+    }
+    return data;
+  }
+
+  @Test
+  public void testSingleChunk() throws Exception {
+    String filename = rewrite("single", (chunks, out) -> {
+      assertThat(chunks.size()).isEqualTo(1);
+      return new LayoutInfo(DataBTree.INDEX_SINGLE_CHUNK, new byte[0], chunks.get(0).filePos);
+    });
+    try (NetcdfFile ncfile = NetcdfFiles.open(filename)) {
+      Array data = ncfile.findVariable("single").read();
+      for (int i = 0; i < NY * NX; i++)
+        assertThat(data.getShort(i)).isEqualTo((short) i);
+      assertThat(ncfile.findVariable("single").read("7, 3:11:4").getShort(2)).isEqualTo((short) (7 * NX + 11));
+    }
+  }
+
+  @Test
+  public void testImplicit() throws Exception {
+    // all the chunks, unfiltered and in row-major order
+    String filename = rewrite("fixed", (chunks, out) -> {
+      long address = out.address();
+      for (Chunk chunk : chunks)
+        out.bb.put(chunk.data);
+      return new LayoutInfo(DataBTree.INDEX_IMPLICIT, new byte[0], address);
+    });
+    checkFixed(filename, new int[0]);
+  }
+
+  @Test
+  public void testFixedArray() throws Exception {
+    // 8 elements per page; chunk 7 is not allocated, and the last page (chunks 24 to 26) is not initialized
+    int pageBits = 3;
+    String filename = rewrite("fixed", (chunks, out) -> {
+      int npages = 4;
+      long dataBlock = out.address();
+      int start = out.bb.position();
+      out.bb.put("FADB".getBytes(StandardCharsets.US_ASCII)).put((byte) 0).put((byte) 0).putLong(0);
+      out.bb.put((byte) 0xe0); // page init bits, high order bit first
+      out.checksum(start);
+      for (int page = 0; page < npages; page++) {
+        start = out.bb.position();
+        for (int i = page * 8; i < Math.min((page + 1) * 8, chunks.size()); i++)
+          out.bb.putLong(i != 7 ? chunks.get(i).filePos : UNDEF);
+        out.checksum(start);
+      }
+
+      long header = out.address();
+      start = out.bb.position();
+      out.bb.put("FAHD".getBytes(StandardCharsets.US_ASCII)).put((byte) 0).put((byte) 0).put((byte) 8)
+          .put((byte) pageBits).putLong(chunks.size()).putLong(dataBlock);
+      out.checksum(start);
+      return new LayoutInfo(DataBTree.INDEX_FIXED_ARRAY, new byte[] {(byte) pageBits}, header);
+    });
+    checkFixed(filename, new int[] {7, 24, 25, 26});
+  }
+
+  @Test
+  public void testExtensibleArray() throws Exception {
+    // 4 elements in the index block, data blocks of 4, 8, 8, 8, 16, 16 elements pointed to by the index block, then
+    // secondary blocks with 4 data blocks of 16 elements, in pages of 8.
+    int maxBits = 10, indexElems = 4, dblkMinElems = 4, sblkMinPtrs = 4, pageBits = 3;
+    // chunk size is 2 bytes, since a chunk has 160 bytes before it is filtered
+    int elemSize = 8 + 2 + 4;
+    String filename = rewrite("temp", (chunks, out) -> {
+      int n = chunks.size(); // 90
+      int[] dblkElems = {4, 8, 8, 8, 16, 16};
+      int dblkStart = out.bb.position();
+      long[] dblkAddrs = new long[dblkElems.length];
+      int first = indexElems;
+      for (int k = 0; k < dblkElems.length; k++) {
+        dblkAddrs[k] = writeDataBlock(out, chunks, first, first - indexElems, dblkElems[k], 8, elemSize);
+        first += dblkElems[k];
+      }
+
+      // the 5th super block has elements 64 to 127: the second data block has chunks 80 to 89 and is only
+      // partly initialized, the others are not allocated
+      assertThat(first).isEqualTo(64);
+      long dblk0 = writeDataBlock(out, chunks, 64, 60, 16, 8, elemSize);
+      long dblk1 = writeDataBlock(out, chunks, 80, 76, 16, 8, elemSize);
+      int dblkBytes = out.bb.position() - dblkStart;
+      long sblk = out.address();
+      int start = out.bb.position();
+      out.bb.put("EASB".getBytes(StandardCharsets.US_ASCII)).put((byte) 0).put((byte) 1).putLong(0)
+          .putShort((short) 60);
+      out.bb.put((byte) 0xe0); // 4 data blocks of 2 pages: page 1 of data block 1 is not initialized
+      out.bb.putLong(dblk0).putLong(dblk1).putLong(UNDEF).putLong(UNDEF);
+      out.checksum(start);
+      int sblkBytes = out.bb.position() - start;
+
+      long iblock = out.address();
+      start = out.bb.position();
+      out.bb.put("EAIB".getBytes(StandardCharsets.US_ASCII)).put((byte) 0).put((byte) 1).putLong(0);
+      for (int i = 0; i < indexElems; i++)
+        putElement(out.bb, chunks.get(i));
+      for (long addr : dblkAddrs)
+        out.bb.putLong(addr);
+      // 9 super blocks, the first 4 are in the index block
+      out.bb.putLong(sblk);
+      for (int i = 0; i < 4; i++)
+        out.bb.putLong(UNDEF);
+      out.checksum(start);
+
+      long header = out.address();
+      start = out.bb.position();
+      out.bb.put("EAHD".getBytes(StandardCharsets.US_ASCII)).put((byte) 0).put((byte) 1).put((byte) elemSize)
+          .put((byte) maxBits).put((byte) indexElems).put((byte) dblkMinElems).put((byte) sblkMinPtrs)
+          .put((byte) pageBits);
+      out.bb.putLong(1).putLong(sblkBytes).putLong(8).putLong(dblkBytes); // secondary and data blocks
+      out.bb.putLong(n).putLong(n).putLong(iblock);
+      out.checksum(start);
+      byte[] params = {(byte) maxBits, (byte) indexElems, (byte) sblkMinPtrs, (byte) dblkMinElems, (byte) pageBits};
+      return new LayoutInfo(DataBTree.INDEX_EXTENSIBLE_ARRAY, params, header);
+    });
+    // elements 88 and 89 are in the page that is not initialized
+    checkTemp(filename, new int[] {88, 89});
+  }
+
+  // elements first to first + nelems of an extensible array, in pages if nelems > pageElems
+  private static long writeDataBlock(Appender out, List<Chunk> chunks, int first, int blockOffset, int nelems,
+      int pageElems, int elemSize) {
+    long address = out.address();
+    int start = out.bb.position();
+    out.bb.put("EADB".getBytes(StandardCharsets.US_ASCII)).put((byte) 0).put((byte) 1).putLong(0)
+        .putShort((short) blockOffset);
+    if (nelems <= pageElems) {
+      for (int i = first; i < first + nelems; i++)
+        putElement(out.bb, i < chunks.size() ? chunks.get(i) : null);
+      out.checksum(start);
+      return address;
+    }
+    out.checksum(start);
+    for (int page = 0; page < nelems / pageElems; page++) {
+      start = out.bb.position();
+      for (int i = first + page * pageElems; i < first + (page + 1) * pageElems; i++)
+        putElement(out.bb, i < chunks.size() ? chunks.get(i) : null);
+      out.checksum(start);
+    }
+    assertThat(out.bb.position() - start).isEqualTo(pageElems * elemSize + 4);
+    return address;
+  }
+
+  // a filtered chunk: address, chunk size, filter mask
+  private static void putElement(ByteBuffer bb, Chunk chunk) {
+    if (chunk == null) {
+      bb.putLong(UNDEF).putShort((short) 0).putInt(0);
+    } else {
+      bb.putLong(chunk.filePos).putShort((short) chunk.size).putInt(chunk.filterMask);
+    }
+  }
+
+  @Test
+  public void testBTree2() throws Exception {
+    // one leaf with type 11 (filtered) records, which need not be in order; chunk 0 is not allocated
+    int recordSize = 8 + 2 + 4 + 3 * 8;
+    String filename = rewrite("temp", (chunks, out) -> {
+      long leaf = out.address();
+      int start = out.bb.position();
+      out.bb.put("BTLF".getBytes(StandardCharsets.US_ASCII)).put((byte) 0).put((byte) 11);
+      for (int i = chunks.size() - 1; i > 0; i--) {
+        Chunk chunk = chunks.get(i);
+        out.bb.putLong(chunk.filePos).putShort((short) chunk.size).putInt(chunk.filterMask);
+        for (long scaled : chunk.scaled)
+          out.bb.putLong(scaled);
+      }
+      out.checksum(start);
+      long header = writeBTree2Header(out, 11, recordSize, 0, leaf, chunks.size() - 1, chunks.size() - 1);
+      return new LayoutInfo(DataBTree.INDEX_BTREE2, new byte[] {0, 16, 0, 0, 100, 40}, header);
+    });
+    checkTemp(filename, new int[] {0});
+  }
+
+  @Test
+  public void testBTree2Depth2() throws Exception {
+    // Type 10 (unfiltered) records of 32 bytes in nodes of 4096 bytes: a leaf holds at most (4096 - 10) / 32 = 127
+    // records, so the number of records in a child is 1 byte. A node at depth 1 holds at most
+    // (4096 - 10 - 9) / (32 + 9) = 99 records, and has at most 100 * 127 + 99 = 12799 records below it, so the
+    // total number of records in a child of the root is 2 bytes.
+    String filename = rewrite("fixed", (chunks, out) -> {
+      Node root = writeNode(out, chunks, 2);
+      assertThat(root.total).isEqualTo(chunks.size());
+      long header = writeBTree2Header(out, 10, 32, 2, root.address, root.nrecords, root.total);
+      return new LayoutInfo(DataBTree.INDEX_BTREE2, new byte[] {0, 16, 0, 0, 100, 40}, header);
+    });
+    checkFixed(filename, new int[0]);
+  }
+
+  private static class Node {
+    long address;
+    int nrecords, total;
+  }
+
+  // a subtree of the given depth holding the records in order; internal nodes have 2 records and 3 children
+  private static Node writeNode(Appender out, List<Chunk> records, int depth) {
+    List<Node> children = new ArrayList<>();
+    List<Chunk> nodeRecords = new ArrayList<>();
+    if (depth == 0) {
+      nodeRecords.addAll(records);
+    } else {
+      int n = (records.size() - 2) / 3;
+      int[] ends = {n, 2 * n + 1, records.size()};
+      int first = 0;
+      for (int k = 0; k < 3; k++) {
+        children.add(writeNode(out, records.subList(first, ends[k]), depth - 1));
+        if (k < 2)
+          nodeRecords.add(records.get(ends[k]));
+        first = ends[k] + 1;
+      }
+    }
+
+    Node node = new Node();
+    node.address = out.address();
+    node.nrecords = nodeRecords.size();
+    node.total = nodeRecords.size();
+    int start = out.bb.position();
+    out.bb.put((depth == 0 ? "BTLF" : "BTIN").getBytes(StandardCharsets.US_ASCII)).put((byte) 0).put((byte) 10);
+    for (Chunk chunk : nodeRecords) {
+      out.bb.putLong(chunk.filePos);
+      for (long scaled : chunk.scaled)
+        out.bb.putLong(scaled);
+    }
+    for (Node child : children) {
+      out.bb.putLong(child.address).put((byte) child.nrecords);
+      if (depth > 1)
+        out.bb.putShort((short) child.total);
+      node.total += child.total;
+    }
+    out.checksum(start);
+    out.bb.position(start + 4096);
+    return node;
+  }
+
+  private static long writeBTree2Header(Appender out, int type, int recordSize, int depth, long root, int nrecords,
+      long total) {
+    long header = out.address();
+    int start = out.bb.position();
+    out.bb.put("BTHD".getBytes(StandardCharsets.US_ASCII)).put((byte) 0).put((byte) type).putInt(4096)
+        .putShort((short) recordSize).putShort((short) depth).put((byte) 100).put((byte) 40).putLong(root)
+        .putShort((short) nrecords).putLong(total);
+    out.checksum(start);
+    return header;
+  }
+
+  // missing are the indexes of the chunks in the grid of chunks that are not allocated
+  private void checkFixed(String filename, int[] missing) throws IOException, InvalidRangeException {
+    int[] grid = {3, 3, 3};
+    int[] chunk = {2, 4, 5};
+    try (NetcdfFile ncfile = NetcdfFiles.open(filename)) {
+      Variable v = ncfile.findVariable("fixed");
+      checkChunkCount(v, 27 - missing.length);
+      Array data = v.read();
+      IndexIterator ii = data.getIndexIterator();
+      while (ii.hasNext()) {
+        int value = ii.getIntNext();
+        int[] pos = ii.getCurrentCounter();
+        boolean isMissing = isMissing(pos, chunk, grid, missing);
+        assertThat(value).isEqualTo(isMissing ? FILL_FIXED : pos[0] * 1000 + pos[1] * NX + pos[2]);
+      }
+      Array section = v.read("1:5:2, 5, 11");
+      assertThat(section.getInt(2)).isEqualTo(5000 + 5 * NX + 11);
+    }
+  }
+
+  private void checkTemp(String filename, int[] missing) throws IOException, InvalidRangeException {
+    int[] grid = {NT, 3, 3};
+    int[] chunk = {1, 4, 5};
+    try (NetcdfFile ncfile = NetcdfFiles.open(filename)) {
+      Variable v = ncfile.findVariable("temp");
+      checkChunkCount(v, NT * 9 - missing.length);
+      Array data = v.read();
+      IndexIterator ii = data.getIndexIterator();
+      while (ii.hasNext()) {
+        double value = ii.getDoubleNext();
+        int[] pos = ii.getCurrentCounter();
+        boolean isMissing = isMissing(pos, chunk, grid, missing);
+        assertThat(value).isEqualTo(isMissing ? FILL_TEMP : pos[0] * 1000.0 + pos[1] * NX + pos[2]);
+      }
+      // a time series through all the chunks
+      Array series = v.read(new Section(new int[] {0, 5, 7}, new int[] {NT, 1, 1}));
+      for (int t = 1; t < NT; t++)
+        assertThat(series.getDouble(t)).isEqualTo(t * 1000.0 + 5 * NX + 7);
+    }
+  }
+
+  private static boolean isMissing(int[] pos, int[] chunk, int[] grid, int[] missing) {
+    int index = 0;
+    for (int d = 0; d < pos.length; d++)
+      index = index * grid[d] + pos[d] / chunk[d];
+    for (int m : missing) {
+      if (m == index)
+        return true;
+    }
+    return false;
+  }
+
+  private static void checkChunkCount(Variable v, int expected) throws IOException {
+    H5header.Vinfo vinfo = (H5header.Vinfo) v.getSPobject();
+    assertThat(vinfo.btree.getChunkIndex().getNumberOfChunks()).isEqualTo(expected);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////////////
+  // rewrite the source file with a version 4 layout message for one variable
+
+  private static class Chunk {
+    long filePos;
+    int size, filterMask;
+    long[] scaled; // offset divided by the chunk size
+    byte[] data;
+  }
+
+  private static class LayoutInfo {
+    final int indexType;
+    final byte[] params; // index type specific
+    final long address;
+
+    LayoutInfo(int indexType, byte[] params, long address) {
+      this.indexType = indexType;
+      this.params = params;
+      this.address = address;
+    }
+  }
+
+  // data appended to the file, starting at base
+  private static class Appender {
+    final ByteBuffer bb = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+    final long base;
+
+    Appender(long base) {
+      this.base = base;
+    }
+
+    long address() {
+      return base + bb.position();
+    }
+
+    void checksum(int start) {
+      bb.putInt(H5checksum.lookup3(bb.array(), start, bb.position() - start));
+    }
+  }
+
+  private interface IndexWriter {
+    // the chunks are in row-major order
+    LayoutInfo write(List<Chunk> chunks, Appender out) throws IOException;
+  }
+
+  private String rewrite(String varName, IndexWriter indexWriter) throws IOException {
+    byte[] file = Files.readAllBytes(Paths.get(source));
+    List<Chunk> chunks = new ArrayList<>();
+    int[] chunkSize;
+    try (NetcdfFile ncfile = NetcdfFiles.open(source)) {
+      Variable v = ncfile.findVariable(varName);
+      H5header.Vinfo vinfo = (H5header.Vinfo) v.getSPobject();
+      chunkSize = vinfo.storageSize;
+      DataBTree.ChunkIndex index = vinfo.btree.getChunkIndex();
+      int rank = v.getRank();
+      for (int i = 0; i < index.getNumberOfChunks(); i++) {
+        Chunk chunk = new Chunk();
+        chunk.filePos = index.getFilePos(i);
+        chunk.size = index.getSize(i);
+        chunk.filterMask = index.getFilterMask(i);
+        int[] offset = index.getOffset(i, rank);
+        chunk.scaled = new long[rank];
+        for (int d = 0; d < rank; d++)
+          chunk.scaled[d] = offset[d] / chunkSize[d];
+        chunk.data = new byte[chunk.size];
+        System.arraycopy(file, (int) chunk.filePos, chunk.data, 0, chunk.size);
+        chunks.add(chunk);
+      }
+    }
+    chunks.sort((c1, c2) -> {
+      for (int d = 0; d < c1.scaled.length; d++) {
+        int cmp = Long.compare(c1.scaled[d], c2.scaled[d]);
+        if (cmp != 0)
+          return cmp;
+      }
+      return 0;
+    });
+
+    int pos = findLayoutMessage(file, chunkSize);
+    int ndims = chunkSize.length;
+    int oldSize = 3 + 8 + 4 * ndims;
+
+    long base = (file.length + 7) / 8 * 8;
+    Appender out = new Appender(base);
+    LayoutInfo info = indexWriter.write(chunks, out);
+
+    // version 4 layout message in place of the version 3 one
+    ByteBuffer msg = ByteBuffer.wrap(file, pos, oldSize).order(ByteOrder.LITTLE_ENDIAN);
+    msg.put((byte) 4).put((byte) 2).put((byte) 0).put((byte) ndims).put((byte) 1); // flags, dimension size length
+    for (int size : chunkSize)
+      msg.put((byte) size);
+    msg.put((byte) info.indexType).put(info.params).putLong(info.address);
+
+    String filename = tempFolder.newFile().getAbsolutePath();
+    byte[] result = new byte[(int) base + out.bb.position()];
+    System.arraycopy(file, 0, result, 0, file.length);
+    System.arraycopy(out.bb.array(), 0, result, (int) base, out.bb.position());
+    Files.write(Paths.get(filename), result);
+    return filename;
+  }
+
+  // the version 3 chunked layout message with these chunk sizes
+  private static int findLayoutMessage(byte[] file, int[] chunkSize) {
+    int ndims = chunkSize.length;
+    int found = -1;
+    outer: for (int i = 0; i + 11 + 4 * ndims < file.length; i++) {
+      if (file[i] != 3 || file[i + 1] != 2 || file[i + 2] != ndims)
+        continue;
+      ByteBuffer bb = ByteBuffer.wrap(file, i + 11, 4 * ndims).order(ByteOrder.LITTLE_ENDIAN);
+      for (int size : chunkSize) {
+        if (bb.getInt() != size)
+          continue outer;
+      }
+      assertThat(found).isEqualTo(-1);
+      found = i;
+    }
+    assertThat(found).isAtLeast(0);
+    return found;
+  }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 1998-2020 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.internal.iosp.hdf5;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.Group;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Variable;
+import ucar.nc2.constants.CDM;
+import ucar.nc2.iosp.NetcdfFileFormat;
+import ucar.nc2.iosp.NetcdfFormatUtils;
+import ucar.nc2.write.Nc4ChunkingStrategyGrib;
+import ucar.nc2.write.NetcdfCopier;
+import ucar.nc2.write.NetcdfFormatWriter;
+import ucar.unidata.util.test.TestDir;
+
+/** Test {@link H5iospWriter} by reading back what it writes. */
+public class TestH5iospWriter {
+  private static final int NT = 150, NY = 17, NX = 23;
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void testChecksum() {
+    assertThat(H5checksum.lookup3(new byte[0], 0, 0)).isEqualTo(0xdeadbeef);
+    byte[] b = "Four score and seven years ago".getBytes(StandardCharsets.US_ASCII);
+    assertThat(H5checksum.lookup3(b, 0, b.length)).isEqualTo(0x17770551);
+    assertThat(H5checksum.lookup3(b, 0, b.length, 1)).isEqualTo(0xcd628161);
+  }
+
+  @Test
+  public void testShuffle() {
+    byte[] data = new byte[24];
+    for (int i = 0; i < data.length; i++)
+      data[i] = (byte) i;
+    byte[] shuffled = H5iospWriter.shuffle(data, 4);
+    assertThat(shuffled[1]).isEqualTo((byte) 4); // second element, first byte
+    assertThat(H5iospWriter.unshuffle(shuffled, 4)).isEqualTo(data);
+  }
+
+  @Test
+  public void testWriteRead() throws IOException, InvalidRangeException {
+    String filename = tempFolder.newFile().getAbsolutePath();
+    NetcdfFormatWriter.Builder writerb = NetcdfFormatWriter
+        .createNewNetcdf4(NetcdfFileFormat.NETCDF4, filename, new Nc4ChunkingStrategyGrib(5, true))
+        .setUseJavaWriter(true);
+    writerb.addAttribute(new Attribute("title", "H5iospWriter"));
+    writerb.addAttribute(Attribute.builder("strings").setValues(ImmutableList.of("a", "bb"), false).build());
+    writerb.addUnlimitedDimension("time");
+    writerb.addDimension("y", NY);
+    writerb.addDimension("x", NX);
+    writerb.addDimension("nchar", 5);
+    writerb.addVariable("time", DataType.DOUBLE, "time").addAttribute(new Attribute("units", "hours since 2020-01-01"));
+    writerb.addVariable("y", DataType.FLOAT, "y");
+    writerb.addVariable("temp", DataType.DOUBLE, "time y x").addAttribute(new Attribute("_FillValue", -999.0));
+    writerb.addVariable("count", DataType.UINT, "y x");
+    writerb.addVariable("text", DataType.CHAR, "y nchar");
+    writerb.addVariable("names", DataType.STRING, "time");
+    writerb.addVariable("scalar", DataType.SHORT, "");
+    Group.Builder sub = Group.builder().setName("sub").setParentGroup(writerb.getRootGroup());
+    writerb.getRootGroup().addGroup(sub);
+    sub.addDimension(new Dimension("y", 3));
+    sub.addVariable(Variable.builder().setName("y").setDataType(DataType.INT).setParentGroupBuilder(sub)
+        .setDimensionsByName("y"));
+    sub.addVariable(Variable.builder().setName("unwritten").setDataType(DataType.LONG).setParentGroupBuilder(sub)
+        .setDimensionsByName("y x"));
+
+    try (NetcdfFormatWriter writer = writerb.build()) {
+      writer.write("y", Array.makeArray(DataType.FLOAT, NY, -45, 3));
+      for (int t = 0; t < NT; t++) {
+        writer.write("time", new int[] {t}, Array.factory(DataType.DOUBLE, new int[] {1}, new double[] {6 * t}));
+        Array data = Array.makeArray(DataType.DOUBLE, NY * NX, t * 1000, 1).reshape(new int[] {1, NY, NX});
+        writer.write("temp", new int[] {t, 0, 0}, data);
+        writer.write("names", new int[] {t}, Array.factory(DataType.STRING, new int[] {1}, new Object[] {"n" + t}));
+      }
+      // a row at a time, then overwrite one value after its chunk has been written
+      Array count = Array.makeArray(DataType.UINT, NY * NX, 0, 1).reshape(new int[] {NY, NX});
+      for (int y = 0; y < NY; y++) {
+        writer.write("count", new int[] {y, 0}, count.sectionNoReduce(new int[] {y, 0}, new int[] {1, NX}, null));
+      }
+      writer.write("count", new int[] {3, 4}, Array.factory(DataType.UINT, new int[] {1, 1}, new int[] {-5}));
+      writer.writeStringDataToChar(writer.findVariable("text"),
+          Array.factory(DataType.STRING, new int[] {2}, new Object[] {"abc", "hello"}));
+      writer.write("scalar", Array.factory(DataType.SHORT, new int[0], new short[] {7}));
+      writer.write("sub/y", Array.makeArray(DataType.INT, 3, 1, 1));
+    }
+
+    try (NetcdfFile ncfile = NetcdfFiles.open(filename)) {
+      assertThat(ncfile.getFileTypeId()).isEqualTo("NetCDF-4");
+      assertThat(ncfile.getRootGroup().findAttributeString("title", null)).isEqualTo("H5iospWriter");
+      assertThat(ncfile.getRootGroup().findAttribute("strings").getStringValue(1)).isEqualTo("bb");
+
+      Dimension time = ncfile.findDimension("time");
+      assertThat(time.isUnlimited()).isTrue();
+      assertThat(time.getLength()).isEqualTo(NT);
+      assertThat(ncfile.findDimension("/sub/y").getLength()).isEqualTo(3);
+
+      Variable temp = ncfile.findVariable("temp");
+      assertThat(temp.getDimensionsString()).isEqualTo("time y x");
+      assertThat(temp.findAttribute("_FillValue").getNumericValue()).isEqualTo(-999.0);
+      Array data = temp.read();
+      for (int i = 0; i < NT * NY * NX; i++) {
+        int t = i / (NY * NX);
+        assertThat(data.getDouble(i)).isEqualTo(t * 1000 + i % (NY * NX));
+      }
+      assertThat(ncfile.findVariable("time").read().getDouble(NT - 1)).isEqualTo(6.0 * (NT - 1));
+      assertThat(ncfile.findVariable("names").read().getObject(42)).isEqualTo("n42");
+
+      Variable countVar = ncfile.findVariable("count");
+      assertThat(countVar.getDataType()).isEqualTo(DataType.UINT);
+      Array count = countVar.read();
+      assertThat(count.getInt(3 * NX + 4)).isEqualTo(-5);
+      assertThat(count.getInt(NY * NX - 1)).isEqualTo(NY * NX - 1);
+
+      Array text = ncfile.findVariable("text").read("0:2, :");
+      assertThat(text.getChar(5)).isEqualTo('h');
+      assertThat(text.getChar(10)).isEqualTo((char) 0); // fill value
+      assertThat(ncfile.findVariable("scalar").read().getShort(0)).isEqualTo((short) 7);
+
+      assertThat(ncfile.findVariable("sub/y").read().getInt(2)).isEqualTo(3);
+      Variable unwritten = ncfile.findVariable("sub/unwritten");
+      assertThat(unwritten.getDimensionsString()).isEqualTo("y x");
+      assertThat(unwritten.read().getLong(0)).isEqualTo(NetcdfFormatUtils.NC_FILL_INT64);
+    }
+  }
+
+  // Records that are only partly written never complete their chunks; they are flushed when the next record starts.
+  @Test
+  public void testPartialRecords() throws IOException, InvalidRangeException {
+    String filename = tempFolder.newFile().getAbsolutePath();
+    NetcdfFormatWriter.Builder writerb =
+        NetcdfFormatWriter.createNewNetcdf4(NetcdfFileFormat.NETCDF4, filename, null).setUseJavaWriter(true);
+    writerb.addUnlimitedDimension("time");
+    writerb.addDimension("y", NY);
+    writerb.addDimension("x", NX);
+    writerb.addVariable("temp", DataType.INT, "time y x");
+
+    try (NetcdfFormatWriter writer = writerb.build()) {
+      H5iospWriter.Vinfo vinfo = (H5iospWriter.Vinfo) writer.findVariable("temp").getSPobject();
+      assertThat(vinfo.chunking[0]).isGreaterThan(1);
+      for (int t = 0; t < NT; t++) {
+        Array data = Array.makeArray(DataType.INT, NX, t * NX, 1).reshape(new int[] {1, 1, NX});
+        writer.write("temp", new int[] {t, 0, 0}, data);
+        for (H5iospWriter.ChunkKey key : vinfo.open.keySet()) {
+          assertThat(key.index[0]).isEqualTo(t / vinfo.chunking[0]);
+        }
+      }
+      // back into a chunk that has been flushed
+      writer.write("temp", new int[] {0, 1, 0}, Array.factory(DataType.INT, new int[] {1, 1, 1}, new int[] {-1}));
+    }
+
+    try (NetcdfFile ncfile = NetcdfFiles.open(filename)) {
+      Array data = ncfile.findVariable("temp").read();
+      for (int t = 0; t < NT; t++) {
+        assertThat(data.getInt(t * NY * NX + NX - 1)).isEqualTo(t * NX + NX - 1);
+        assertThat(data.getInt(t * NY * NX + NX + 1)).isEqualTo(NetcdfFormatUtils.NC_FILL_INT);
+      }
+      assertThat(data.getInt(NX)).isEqualTo(-1);
+      assertThat(data.getInt(3)).isEqualTo(3);
+    }
+  }
+
+  // The dimension scale attributes of a copy of a file written by the netCDF-C library are the same as the original.
+  @Test
+  public void testDimensionScales() throws Exception {
+    String original = TestDir.cdmLocalTestDataDir + "testCFGridWriter.nc4";
+    String filename = tempFolder.newFile().getAbsolutePath();
+    try (NetcdfFile ncfile = NetcdfFiles.open(original)) {
+      NetcdfFormatWriter.Builder writerb =
+          NetcdfFormatWriter.createNewNetcdf4(NetcdfFileFormat.NETCDF4, filename, null).setUseJavaWriter(true);
+      NetcdfCopier.create(ncfile, writerb).write(null);
+    }
+
+    try (NetcdfFile expected = openOriginalAttributes(original);
+        NetcdfFile copy = openOriginalAttributes(filename)) {
+      assertThat(copy.getRootGroup().findAttributeString(CDM.NCPROPERTIES, "")).startsWith("version=2,");
+      Map<Long, String> expectedNames = getDatasetNames(expected);
+      Map<Long, String> copyNames = getDatasetNames(copy);
+      int nreferences = 0;
+      for (Variable v : expected.getVariables()) {
+        Variable cv = copy.findVariable(v.getFullName());
+        assertThat(cv).isNotNull();
+        for (String name : new String[] {H5header.HDF5_CLASS, H5header.HDF5_DIMENSION_NAME,
+            H5header.HDF5_DIMENSION_LIST, H5header.HDF5_REFERENCE_LIST + ".dimension"}) {
+          assertWithMessage(v.getFullName() + " " + name).that(cv.findAttribute(name)).isEqualTo(v.findAttribute(name));
+        }
+        Attribute refs = v.findAttribute(H5header.HDF5_REFERENCE_LIST + ".dataset");
+        Attribute copyRefs = cv.findAttribute(H5header.HDF5_REFERENCE_LIST + ".dataset");
+        assertThat(copyRefs == null).isEqualTo(refs == null);
+        if (refs != null) {
+          assertThat(copyRefs.getLength()).isEqualTo(refs.getLength());
+          for (int i = 0; i < refs.getLength(); i++) {
+            String name = expectedNames.get(refs.getNumericValue(i).longValue());
+            assertThat(name).isNotNull();
+            assertThat(copyNames.get(copyRefs.getNumericValue(i).longValue())).isEqualTo(name);
+            nreferences++;
+          }
+        }
+      }
+      assertThat(nreferences).isGreaterThan(0);
+    }
+  }
+
+  private static NetcdfFile openOriginalAttributes(String filename) throws Exception {
+    return NetcdfFiles.open(filename, H5iospOriginalAttributes.class.getName(), -1, null, null);
+  }
+
+  // the object header address of each variable
+  private static Map<Long, String> getDatasetNames(NetcdfFile ncfile) {
+    Map<Long, String> result = new HashMap<>();
+    for (Variable v : ncfile.getVariables()) {
+      H5header.Vinfo vinfo = (H5header.Vinfo) v.getSPobject();
+      result.put(vinfo.facade.dobj.getAddress(), v.getFullName());
+    }
+    return result;
+  }
+
+  /** Keeps the HDF5 dimension scale attributes. */
+  public static class H5iospOriginalAttributes extends H5iosp {
+    public H5iospOriginalAttributes() {
+      includeOriginalAttributes = true;
+    }
+  }
+
+  @Test
+  public void testClassicModel() throws IOException {
+    String filename = tempFolder.newFile().getAbsolutePath();
+    NetcdfFormatWriter.Builder writerb =
+        NetcdfFormatWriter.createNewNetcdf4(NetcdfFileFormat.NETCDF4_CLASSIC, filename, null).setUseJavaWriter(true);
+    writerb.addDimension("x", 3);
+    writerb.addVariable("s", DataType.STRING, "x");
+    try (NetcdfFormatWriter writer = writerb.build()) {
+      throw new AssertionError("STRING is not allowed in the classic model");
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage()).contains("classic model");
+    }
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 1998-2020 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.internal.ncml;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Variable;
+import ucar.nc2.dataset.NetcdfDatasets;
+import ucar.nc2.internal.util.CompareNetcdf2;
+
+/**
+ * Compare reading joinExisting and joinNew aggregations, and aggregations of aggregations,
+ * with and without {@link Aggregation#setExecutor}.
+ */
+public class TestAggOuterExecutor {
+
+  @Test
+  public void testJoinExisting() throws IOException, InvalidRangeException {
+    // jan.nc has 31 times, feb.nc has 28
+    compare("aggExisting.xml", "T", "time", "T(25:40, :, :)", "T(0:58:7, 1, 2)", "T(31:58, 0, :)", "time(30:31)");
+  }
+
+  @Test
+  public void testJoinNew() throws IOException, InvalidRangeException {
+    compare("aggSynthetic.xml", "T", "time", "T(1:2, :, :)", "T(0:2:2, 1, 2)");
+  }
+
+  // each nested dataset is itself an aggregation, read on a single thread executor
+  private static final String aggNested = "<?xml version='1.0' encoding='UTF-8'?>\n"
+      + "<netcdf xmlns='http://www.unidata.ucar.edu/namespaces/netcdf/ncml-2.2'>\n" // leavit
+      + "  <aggregation dimName='time' type='joinExisting'>\n" // leavit
+      + "    <netcdf>\n" // leavit
+      + "      <aggregation dimName='time' type='joinExisting'>\n" // leavit
+      + "        <netcdf location='nc/jan.nc'/>\n" // leavit
+      + "        <netcdf location='nc/feb.nc'/>\n" // leavit
+      + "      </aggregation>\n" // leavit
+      + "    </netcdf>\n" // leavit
+      + "    <netcdf>\n" // leavit
+      + "      <aggregation dimName='time' type='joinExisting'>\n" // leavit
+      + "        <netcdf location='nc/feb.nc'/>\n" // leavit
+      + "        <netcdf location='nc/jan.nc'/>\n" // leavit
+      + "      </aggregation>\n" // leavit
+      + "    </netcdf>\n" // leavit
+      + "  </aggregation>\n" // leavit
+      + "</netcdf>";
+
+  @Test(timeout = 60000) // the nested reads must not wait for a free executor thread
+  public void testNestedOnSingleThread() throws IOException, InvalidRangeException {
+    // 59 times in each nested aggregation
+    String filename = "file:./" + TestNcmlRead.topDir + "aggNested.xml";
+    compare(aggNested, filename, 1, "T", "time", "T(50:70, :, :)", "T(0:117:5, 1, 2)", "T(59:117, 0, :)");
+  }
+
+  private void compare(String ncml, String... specs) throws IOException, InvalidRangeException {
+    compare(null, "file:./" + TestNcmlRead.topDir + ncml, 3, specs);
+  }
+
+  // ncml is null to read the filename, else the ncml is read with filename as its location
+  private void compare(String ncml, String filename, int nthreads, String... specs)
+      throws IOException, InvalidRangeException {
+    List<Array> expected = read(ncml, filename, specs);
+
+    ExecutorService pool = Executors.newFixedThreadPool(nthreads);
+    AtomicInteger count = new AtomicInteger();
+    Executor counting = task -> {
+      count.incrementAndGet();
+      pool.execute(task);
+    };
+    Aggregation.setExecutor(counting);
+    try {
+      List<Array> result = read(ncml, filename, specs);
+      assertThat(count.get()).isGreaterThan(0);
+      for (int i = 0; i < specs.length; i++) {
+        assertThat(result.get(i).getShape()).isEqualTo(expected.get(i).getShape());
+        assertThat(CompareNetcdf2.compareData(specs[i], expected.get(i), result.get(i))).isTrue();
+      }
+    } finally {
+      Aggregation.setExecutor(null);
+      pool.shutdownNow();
+    }
+  }
+
+  // a full variable name, or a section spec
+  private static List<Array> read(String ncml, String filename, String... specs)
+      throws IOException, InvalidRangeException {
+    List<Array> result = new ArrayList<>();
+    try (NetcdfFile ncfile = ncml == null ? NetcdfDatasets.openDataset(filename, true, null)
+        : NetcdfDatasets.openNcmlDataset(new StringReader(ncml), filename, null)) {
+      for (String spec : specs) {
+        int pos = spec.indexOf('(');
+        if (pos < 0) {
+          Variable v = ncfile.findVariable(spec);
+          assertThat(v).isNotNull();
+          result.add(v.read());
+        } else {
+          Variable v = ncfile.findVariable(spec.substring(0, pos));
+          assertThat(v).isNotNull();
+          result.add(v.read(spec.substring(pos + 1, spec.length() - 1)));
+        }
+      }
+    }
+    return result;
+  }
+}
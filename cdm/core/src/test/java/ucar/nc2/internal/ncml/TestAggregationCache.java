@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 1998-2020 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.internal.ncml;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.MAMath;
+import ucar.nc2.internal.ncml.AggregationCacheProto.AggHeader;
+import ucar.nc2.internal.ncml.AggregationCacheProto.AggMember;
+import ucar.nc2.internal.ncml.AggregationCacheProto.CachedVar;
+
+/** Test {@link AggregationCache} */
+public class TestAggregationCache {
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private final AggHeader header = AggregationCache.makeHeader(Aggregation.Type.joinExisting, "time");
+
+  @Test
+  public void testEncodeData() {
+    Array dvals = Array.makeArray(DataType.DOUBLE, 7, 1.5, 0.25);
+    Array result = AggregationCache.decodeData(AggregationCache.encodeData("time", dvals));
+    assertThat(result.getDataType()).isEqualTo(DataType.DOUBLE);
+    assertThat(MAMath.nearlyEquals(dvals, result)).isTrue();
+
+    Array svals = Array.makeArray(DataType.STRING, new String[] {"2020-01-01", "2020-01-02"});
+    result = AggregationCache.decodeData(AggregationCache.encodeData("svar", svals));
+    assertThat(result.getObject(1)).isEqualTo("2020-01-02");
+
+    Array ivals = Array.makeArray(DataType.INT, new String[] {"-1", "42", "99"});
+    result = AggregationCache.decodeData(AggregationCache.encodeData("ivar", ivals));
+    assertThat(result.getInt(1)).isEqualTo(42);
+  }
+
+  @Test
+  public void testWriteAppendRead() throws IOException {
+    File cacheFile = tempFolder.newFile();
+    assertThat(AggregationCache.write(cacheFile, header, ImmutableList.of(member("a", 3), member("b", 4)), false))
+        .isTrue();
+    assertThat(AggregationCache.write(cacheFile, header, ImmutableList.of(member("c", 5), member("a", 6)), true))
+        .isTrue();
+
+    AggregationCache cache = AggregationCache.read(cacheFile, header);
+    assertThat(cache).isNotNull();
+    assertThat(cache.getNumberOfRecords()).isEqualTo(4);
+    assertThat(cache.findMember("a").getNcoords()).isEqualTo(6); // later record wins
+    assertThat(cache.findMember("b").getNcoords()).isEqualTo(4);
+    assertThat(cache.findMember("missing")).isNull();
+
+    Array data = AggregationCache.decodeData(cache.findMember("c").getVars(0));
+    assertThat(data.getSize()).isEqualTo(5);
+    assertThat(data.getDouble(4)).isEqualTo(4.0);
+
+    // a different aggregation
+    assertThat(AggregationCache.read(cacheFile, AggregationCache.makeHeader(Aggregation.Type.joinExisting, "other")))
+        .isNull();
+  }
+
+  @Test
+  public void testTruncated() throws IOException {
+    File cacheFile = tempFolder.newFile();
+    AggregationCache.write(cacheFile, header, ImmutableList.of(member("a", 3), member("b", 4)), false);
+    try (RandomAccessFile raf = new RandomAccessFile(cacheFile, "rw")) {
+      raf.setLength(raf.length() - 5);
+    }
+    AggregationCache cache = AggregationCache.read(cacheFile, header);
+    assertThat(cache).isNotNull();
+    assertThat(cache.findMember("a")).isNotNull();
+    assertThat(cache.findMember("b")).isNull();
+
+    // the partial record is dropped before appending
+    assertThat(AggregationCache.write(cacheFile, header, ImmutableList.of(member("c", 5)), true)).isTrue();
+    cache = AggregationCache.read(cacheFile, header);
+    assertThat(cache.getNumberOfRecords()).isEqualTo(2);
+    assertThat(cache.findMember("a").getNcoords()).isEqualTo(3);
+    assertThat(cache.findMember("b")).isNull();
+    assertThat(cache.findMember("c").getNcoords()).isEqualTo(5);
+  }
+
+  @Test
+  public void testAppendToOtherFile() throws IOException {
+    File cacheFile = tempFolder.newFile();
+    Files.write(cacheFile.toPath(), "not a cache".getBytes(StandardCharsets.UTF_8));
+    assertThat(AggregationCache.write(cacheFile, header, ImmutableList.of(member("a", 3)), true)).isFalse();
+    assertThat(AggregationCache.read(cacheFile, header)).isNull();
+  }
+
+  @Test
+  public void testOldXmlFormat() throws IOException {
+    File cacheFile = tempFolder.newFile();
+    Files.write(cacheFile.toPath(), "<?xml version='1.0' encoding='UTF-8'?>\n<aggregation version='3'/>\n"
+        .getBytes(StandardCharsets.UTF_8));
+    assertThat(AggregationCache.read(cacheFile, header)).isNull();
+  }
+
+  private AggMember member(String id, int ncoords) {
+    CachedVar time = AggregationCache.encodeData("time", Array.makeArray(DataType.DOUBLE, ncoords, 0, 1));
+    return AggregationCache.makeMember(id, null, ncoords).addVars(time).build();
+  }
+}
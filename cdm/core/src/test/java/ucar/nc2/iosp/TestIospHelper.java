@@ -9,21 +9,31 @@ import static com.google.common.truth.Truth.assertThat;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
+import java.nio.file.Files;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import ucar.ma2.Array;
 import ucar.ma2.ArrayObject;
 import ucar.ma2.DataType;
 import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Section;
 import ucar.nc2.stream.NcStream;
+import ucar.unidata.io.RandomAccessFile;
 
 /** Test {@link ucar.nc2.iosp.IospHelper} */
 public class TestIospHelper {
 
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
   @Test
   public void testCopyToOutputStreamFloat() throws IOException {
     ByteArrayOutputStream bos = new ByteArrayOutputStream();
@@ -163,4 +173,57 @@ public class TestIospHelper {
     }
   }
 
+  @Test
+  public void testReadStrided() throws IOException, InvalidRangeException {
+    // rows of 3000 ints are farther apart than the coalescing gap, rows of 100 are not
+    checkReadStrided(new int[] {50, 3000}, DataType.INT, ByteOrder.BIG_ENDIAN, "0:49:4, 1:2999:4");
+    checkReadStrided(new int[] {50, 3000}, DataType.INT, ByteOrder.BIG_ENDIAN, "10:40:10, 5:2000");
+    checkReadStrided(new int[] {3, 200, 100}, DataType.DOUBLE, ByteOrder.LITTLE_ENDIAN, "0:2, 1:199:3, 0:99:7");
+    checkReadStrided(new int[] {3, 200, 100}, DataType.SHORT, ByteOrder.LITTLE_ENDIAN, "1, 0:199:2, 3:50");
+    checkReadStrided(new int[] {3, 200, 100}, DataType.BYTE, ByteOrder.BIG_ENDIAN, ":, :, 99");
+    // larger than one coalesced block
+    checkReadStrided(new int[] {700, 500}, DataType.FLOAT, ByteOrder.BIG_ENDIAN, ":, 0:499:2");
+  }
+
+  private void checkReadStrided(int[] shape, DataType dataType, ByteOrder byteOrder, String sectionSpec)
+      throws IOException, InvalidRangeException {
+    int elemSize = dataType.getSize();
+    int header = 13; // not aligned
+    int n = (int) Section.computeSize(shape);
+    ByteBuffer bb = ByteBuffer.allocate(header + n * elemSize).order(byteOrder);
+    bb.position(header);
+    for (int i = 0; i < n; i++) {
+      switch (dataType) {
+        case BYTE:
+          bb.put((byte) i);
+          break;
+        case SHORT:
+          bb.putShort((short) i);
+          break;
+        case INT:
+          bb.putInt(i);
+          break;
+        case FLOAT:
+          bb.putFloat(i);
+          break;
+        default:
+          bb.putDouble(i);
+      }
+    }
+    File file = tempFolder.newFile();
+    Files.write(file.toPath(), bb.array());
+
+    Section section = Section.fill(new Section(sectionSpec), shape);
+    Array expected = Array.makeArray(dataType, n, 0, 1).reshape(shape).sectionNoReduce(section.getRanges()).copy();
+    try (RandomAccessFile raf = new RandomAccessFile(file.getPath(), "r")) {
+      Layout layout = new LayoutRegular(header, elemSize, shape, section);
+      Object data = IospHelper.readDataFill(raf, layout, dataType, null, byteOrder);
+      Array result = Array.factory(dataType, section.getShape(), data);
+      assertThat(result.getSize()).isEqualTo(expected.getSize());
+      for (int i = 0; i < result.getSize(); i++) {
+        assertThat(result.getDouble(i)).isEqualTo(expected.getDouble(i));
+      }
+    }
+  }
+
 }
@@ -7,6 +7,11 @@ package ucar.nc2.units;
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -154,4 +159,37 @@ public class TestSimpleUnit {
     assertThat(scaled.getScale()).isEqualTo(9900.0);
   }
 
+  @Test
+  public void testConcurrentParse() throws Exception {
+    String[] units = {"degrees_north", "hours since 1970-01-01", "K", "m/s", "hPa", "1 days", "degC", "kg m-2 s-1"};
+    double[] expected = new double[units.length];
+    for (int i = 0; i < units.length; i++)
+      expected[i] = SimpleUnit.factory(units[i]).convertTo(1.0, SimpleUnit.factory(units[i]));
+
+    ExecutorService exec = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (int t = 0; t < 32; t++) {
+        results.add(exec.submit(() -> {
+          for (int n = 0; n < 100; n++) {
+            for (int i = 0; i < units.length; i++) {
+              SimpleUnit su = SimpleUnit.factoryWithExceptions(units[i]);
+              if (su.convertTo(1.0, su) != expected[i] || !SimpleUnit.isCompatible(units[i], units[i]))
+                return false;
+            }
+          }
+          return true;
+        }));
+      }
+      for (Future<Boolean> result : results)
+        assertThat(result.get()).isTrue();
+    } finally {
+      exec.shutdownNow();
+    }
+
+    assertThat(SimpleUnit.getConversionFactor("km", "m")).isEqualTo(1000.0);
+    assertThat(SimpleUnit.getConversionFactor("km", "m")).isEqualTo(1000.0); // from the cache
+    assertThat(SimpleUnit.getConversionFactor("hours", "minutes")).isEqualTo(60.0);
+  }
+
 }
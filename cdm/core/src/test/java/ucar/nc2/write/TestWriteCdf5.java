@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 1998-2020 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.write;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Variable;
+import ucar.nc2.iosp.NetcdfFileFormat;
+import ucar.nc2.iosp.NetcdfFormatUtils;
+
+/** Test writing and reading the netcdf-3 64-bit data (CDF-5) format. */
+public class TestWriteCdf5 {
+  private static final int NREC = 5, NX = 7;
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void testWriteRead() throws IOException, InvalidRangeException {
+    String filename = tempFolder.newFile().getAbsolutePath();
+    NetcdfFormatWriter.Builder writerb =
+        NetcdfFormatWriter.builder().setFormat(NetcdfFileFormat.NETCDF3_64BIT_DATA).setLocation(filename);
+    writerb.addAttribute(new Attribute("title", "CDF-5"));
+    writerb.addAttribute(Attribute.fromArray("ulongs",
+        Array.factory(DataType.ULONG, new int[] {2}, new long[] {-1L, Long.MAX_VALUE})));
+    writerb.addUnlimitedDimension("time");
+    writerb.addDimension("x", NX);
+    // the only record variable, so it is not padded
+    writerb.addVariable("ushorts", DataType.USHORT, "time");
+    writerb.addVariable("ubytes", DataType.UBYTE, "x").addAttribute(Attribute.fromArray("valid_max",
+        Array.factory(DataType.UBYTE, new int[] {1}, new byte[] {(byte) 250})));
+    writerb.addVariable("uints", DataType.UINT, "x");
+    writerb.addVariable("longs", DataType.LONG, "x");
+    writerb.addVariable("unwritten", DataType.UINT, "x");
+
+    try (NetcdfFormatWriter writer = writerb.build()) {
+      writer.write("ubytes", Array.makeArray(DataType.UBYTE, NX, 248, 1));
+      int[] uints = new int[NX];
+      for (int i = 0; i < NX; i++)
+        uints[i] = (int) (4294967290L - i);
+      writer.write("uints", Array.factory(DataType.UINT, new int[] {NX}, uints));
+      writer.write("longs", Array.makeArray(DataType.LONG, NX, 1.0e15, 1));
+      for (int rec = 0; rec < NREC; rec++) {
+        writer.write("ushorts", new int[] {rec},
+            Array.factory(DataType.USHORT, new int[] {1}, new short[] {(short) (65530 + rec)}));
+      }
+    }
+
+    try (RandomAccessFile raf = new RandomAccessFile(filename, "r")) {
+      assertThat(raf.readInt()).isEqualTo(0x43444605); // CDF5
+      assertThat(raf.readLong()).isEqualTo((long) NREC);
+    }
+
+    try (NetcdfFile ncfile = NetcdfFiles.open(filename)) {
+      assertThat(ncfile.sendIospMessage(NetcdfFile.IOSP_MESSAGE_GET_NETCDF_FILE_FORMAT))
+          .isEqualTo(NetcdfFileFormat.NETCDF3_64BIT_DATA);
+      assertThat(ncfile.getRootGroup().findAttributeString("title", null)).isEqualTo("CDF-5");
+      Attribute ulongs = ncfile.getRootGroup().findAttribute("ulongs");
+      assertThat(ulongs.getDataType()).isEqualTo(DataType.ULONG);
+      assertThat(ulongs.getNumericValue(0).longValue()).isEqualTo(-1L);
+      assertThat(ulongs.getNumericValue(1).longValue()).isEqualTo(Long.MAX_VALUE);
+
+      Variable ubytes = ncfile.findVariable("ubytes");
+      assertThat(ubytes.getDataType()).isEqualTo(DataType.UBYTE);
+      assertThat(ubytes.findAttribute("valid_max").getDataType()).isEqualTo(DataType.UBYTE);
+      assertThat(ubytes.read().getInt(NX - 1)).isEqualTo(248 + NX - 1);
+
+      Array uints = ncfile.findVariable("uints").read();
+      assertThat(uints.isUnsigned()).isTrue();
+      assertThat(uints.getLong(NX - 1)).isEqualTo(4294967290L - NX + 1);
+      assertThat(ncfile.findVariable("longs").read().getLong(NX - 1)).isEqualTo(1000000000000000L + NX - 1);
+      assertThat(ncfile.findVariable("unwritten").read().getInt(3)).isEqualTo(NetcdfFormatUtils.NC_FILL_UINT);
+
+      Variable ushorts = ncfile.findVariable("ushorts");
+      assertThat(ushorts.getShape()).isEqualTo(new int[] {NREC});
+      Array data = ushorts.read();
+      for (int rec = 0; rec < NREC; rec++) {
+        assertThat(data.getInt(rec)).isEqualTo(65530 + rec);
+      }
+    }
+  }
+
+  @Test
+  public void testUnsignedNotAllowedInClassic() throws IOException {
+    String filename = tempFolder.newFile().getAbsolutePath();
+    NetcdfFormatWriter.Builder writerb = NetcdfFormatWriter.createNewNetcdf3(filename);
+    writerb.addDimension("x", NX);
+    writerb.addVariable("uints", DataType.UINT, "x");
+    try (NetcdfFormatWriter writer = writerb.build()) {
+      throw new AssertionError("UINT is not allowed in the classic format");
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage()).contains("NETCDF3_64BIT_DATA");
+    }
+  }
+
+  @Test
+  public void testWriteOffsetFormat() throws IOException {
+    String filename = tempFolder.newFile().getAbsolutePath();
+    NetcdfFormatWriter.Builder writerb =
+        NetcdfFormatWriter.builder().setFormat(NetcdfFileFormat.NETCDF3_64BIT_OFFSET).setLocation(filename);
+    writerb.addDimension("x", NX);
+    writerb.addVariable("ints", DataType.INT, "x");
+    try (NetcdfFormatWriter writer = writerb.build()) {
+      assertThat(writer.getFormat()).isEqualTo(NetcdfFileFormat.NETCDF3_64BIT_OFFSET);
+    }
+
+    try (NetcdfFile ncfile = NetcdfFiles.open(filename)) {
+      assertThat(ncfile.sendIospMessage(NetcdfFile.IOSP_MESSAGE_GET_NETCDF_FILE_FORMAT))
+          .isEqualTo(NetcdfFileFormat.NETCDF3_64BIT_OFFSET);
+      assertThat(ncfile.findVariable("ints").read().getInt(0)).isEqualTo(NetcdfFormatUtils.NC_FILL_INT);
+    }
+  }
+}
@@ -17,9 +17,12 @@ import ucar.nc2.NetcdfFile;
 import ucar.nc2.NetcdfFiles;
 import ucar.nc2.Variable;
 import ucar.nc2.constants.CDM;
+import ucar.nc2.iosp.NetcdfFormatUtils;
 import ucar.unidata.util.test.Assert2;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Simple example to create a new netCDF file corresponding to the following CDL:
@@ -324,4 +327,59 @@ public class TestWriteRecord {
       }
     }
   }
+
+  @Test
+  public void testNC3WriteRecordBatch() throws IOException, InvalidRangeException {
+    String filename = tempFolder.newFile().getAbsolutePath();
+    int nx = 3;
+
+    NetcdfFormatWriter.Builder writerb = NetcdfFormatWriter.createNewNetcdf3(filename);
+    writerb.addUnlimitedDimension("time");
+    writerb.addDimension("x", nx);
+    writerb.addDimension("strlen", 5);
+    writerb.addVariable("x", DataType.FLOAT, "x");
+    writerb.addVariable("time", DataType.DOUBLE, "time");
+    writerb.addVariable("temp", DataType.SHORT, "time x");
+    writerb.addVariable("name", DataType.CHAR, "time strlen");
+    writerb.addVariable("flag", DataType.BYTE, "time").addAttribute(new Attribute(CDM.FILL_VALUE, (byte) -3));
+
+    try (NetcdfFormatWriter writer = writerb.build()) {
+      writer.write("x", Array.makeArray(DataType.FLOAT, nx, 1, 1));
+      for (int batch = 0; batch < 2; batch++) {
+        int nrecs = 4;
+        int startRec = batch * 6; // skip records 4 and 5
+        Map<String, Array> values = new HashMap<>();
+        values.put("time", Array.makeArray(DataType.DOUBLE, nrecs, startRec, 1));
+        values.put("temp", Array.makeArray(DataType.SHORT, nrecs * nx, 10 * startRec, 1).reshape(new int[] {nrecs, nx}));
+        String[] names = new String[nrecs];
+        for (int i = 0; i < nrecs; i++)
+          names[i] = "n" + (startRec + i);
+        values.put("name", Array.factory(DataType.STRING, new int[] {nrecs}, names));
+        Assert.assertEquals(nrecs, writer.writeRecords(startRec, values));
+      }
+    }
+
+    try (NetcdfFile ncfile = NetcdfFiles.open(filename)) {
+      Assert.assertEquals(10, ncfile.getUnlimitedDimension().getLength());
+      Assert2.assertNearlyEquals(3.0, ncfile.findVariable("x").read().getFloat(2));
+
+      Array time = ncfile.findVariable("time").read();
+      Array temp = ncfile.findVariable("temp").read();
+      ArrayChar name = (ArrayChar) ncfile.findVariable("name").read();
+      Array flag = ncfile.findVariable("flag").read();
+      for (int rec = 0; rec < 10; rec++) {
+        Assert.assertEquals(-3, flag.getByte(rec));
+        if (rec == 4 || rec == 5) { // filled
+          Assert.assertEquals(NetcdfFormatUtils.NC_FILL_DOUBLE, time.getDouble(rec), 0.0);
+          Assert.assertEquals(NetcdfFormatUtils.NC_FILL_SHORT, temp.getShort(rec * nx));
+          continue;
+        }
+        int startRec = rec < 4 ? 0 : 6;
+        Assert.assertEquals(rec, time.getDouble(rec), 0.0);
+        for (int i = 0; i < nx; i++)
+          Assert.assertEquals(10 * startRec + (rec - startRec) * nx + i, temp.getShort(rec * nx + i));
+        Assert.assertEquals("n" + rec, name.getString(rec));
+      }
+    }
+  }
 }
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 1998-2020 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.unidata.geoloc.vertical;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+import ucar.ma2.Array;
+import ucar.ma2.ArrayDouble;
+import ucar.ma2.DataType;
+import ucar.ma2.Index;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.Group;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Variable;
+import ucar.unidata.geoloc.VerticalTransform;
+import ucar.unidata.util.Parameter;
+
+/** Test the windowed evaluation of vertical transforms against the full array. */
+public class TestVerticalTransformWindow {
+  private static final int NT = 2, NZ = 3, NY = 40, NX = 50;
+
+  @Test
+  public void testHybridSigmaPressure() throws Exception {
+    Dimension timeDim = new Dimension("time", NT);
+    Group.Builder root = Group.builder().setName("").addDimensions(
+        ImmutableList.of(timeDim, new Dimension("lev", NZ), new Dimension("y", NY), new Dimension("x", NX)));
+    addVariable(root, "ps", "time y x", Array.makeArray(DataType.DOUBLE, NT * NY * NX, 100000, 1)
+        .reshape(new int[] {NT, NY, NX}));
+    addVariable(root, "a", "lev", Array.makeArray(DataType.DOUBLE, NZ, 0.1, 0.1));
+    addVariable(root, "b", "lev", Array.makeArray(DataType.DOUBLE, NZ, 0.9, -0.1));
+    addVariable(root, "P0", "", Array.factory(DataType.DOUBLE, new int[0], new double[] {100000}));
+    NetcdfFile ncfile = NetcdfFile.builder().setRootGroup(root).build();
+
+    VerticalTransform vt = HybridSigmaPressure.create(ncfile, timeDim,
+        ImmutableList.of(new Parameter(HybridSigmaPressure.PS, "ps"), new Parameter(HybridSigmaPressure.A, "a"),
+            new Parameter(HybridSigmaPressure.B, "b"), new Parameter(HybridSigmaPressure.P0, "P0")));
+
+    ArrayDouble.D3 full = vt.getCoordinateArray(1);
+    assertThat(full.getShape()).isEqualTo(new int[] {NZ, NY, NX});
+    // press = a * p0 + b * ps
+    assertThat(full.get(2, 3, 4)).isWithin(1.0e-6).of(0.3 * 100000 + 0.7 * (100000 + NY * NX + 3 * NX + 4));
+
+    Range yRange = new Range(5, 30, 5);
+    Range xRange = new Range(1, 2);
+    ArrayDouble.D3 window = vt.getCoordinateArray(1, yRange, xRange);
+    assertThat(window.getShape()).isEqualTo(new int[] {NZ, yRange.length(), xRange.length()});
+    checkWindow(full, window, yRange, xRange);
+
+    // reuse the callers buffer
+    double[] values = new double[NZ * NY * NX];
+    vt.getCoordinateValues(1, yRange, xRange, values);
+    int count = 0;
+    for (int z = 0; z < NZ; z++) {
+      for (int y : yRange) {
+        for (int x : xRange) {
+          assertThat(values[count++]).isEqualTo(full.get(z, y, x));
+        }
+      }
+    }
+
+    // the subset uses the same windows
+    VerticalTransform subset = vt.subset(null, null, yRange, xRange);
+    checkWindow(full, subset.getCoordinateArray(1), yRange, xRange);
+
+    try {
+      vt.getCoordinateArray(0, new Range(0, NY), null);
+      throw new AssertionError("should have failed");
+    } catch (InvalidRangeException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testOceanS() throws Exception {
+    Dimension timeDim = new Dimension("time", NT);
+    NetcdfFile ncfile = makeOceanFile(timeDim);
+    VerticalTransform vt = OceanS.create(ncfile, timeDim,
+        ImmutableList.of(new Parameter(OceanS.ETA, "eta"), new Parameter(OceanS.S, "s"),
+            new Parameter(OceanS.DEPTH, "depth"), new Parameter(OceanS.A, "a"), new Parameter(OceanS.B, "b"),
+            new Parameter(OceanS.DEPTH_C, "depth_c")));
+    checkTransform(vt);
+  }
+
+  @Test
+  public void testOceanSG1() throws Exception {
+    Dimension timeDim = new Dimension("time", NT);
+    NetcdfFile ncfile = makeOceanFile(timeDim);
+    VerticalTransform vt = OceanSG1.create(ncfile, timeDim,
+        ImmutableList.of(new Parameter(OceanSG1.ETA, "eta"), new Parameter(OceanSG1.S, "s"),
+            new Parameter(OceanSG1.DEPTH, "depth"), new Parameter(OceanSG1.DEPTH_C, "depth_c"),
+            new Parameter(OceanSG1.C, "C")));
+    checkTransform(vt);
+  }
+
+  @Test
+  public void testOceanSG2() throws Exception {
+    Dimension timeDim = new Dimension("time", NT);
+    NetcdfFile ncfile = makeOceanFile(timeDim);
+    VerticalTransform vt = OceanSG2.create(ncfile, timeDim,
+        ImmutableList.of(new Parameter(OceanSG2.ETA, "eta"), new Parameter(OceanSG2.S, "s"),
+            new Parameter(OceanSG2.DEPTH, "depth"), new Parameter(OceanSG2.DEPTH_C, "depth_c"),
+            new Parameter(OceanSG2.C, "C")));
+    checkTransform(vt);
+  }
+
+  @Test
+  public void testWRFEta() throws Exception {
+    // pressure on the staggered x and y grid
+    Dimension timeDim = new Dimension("time", NT);
+    NetcdfFile ncfile = makeWrfFile(timeDim, NZ, NY - 1, NX - 1);
+    VerticalTransform vt = WRFEta.create(ncfile, timeDim,
+        ImmutableList.of(new Parameter(WRFEta.PerturbationPressureVariable, "pert"),
+            new Parameter(WRFEta.BasePressureVariable, "base"), new Parameter(WRFEta.IsStaggeredX, "true"),
+            new Parameter(WRFEta.IsStaggeredY, "true")));
+    checkTransform(vt);
+
+    // height on the staggered z grid
+    ncfile = makeWrfFile(timeDim, NZ, NY, NX - 1);
+    vt = WRFEta.create(ncfile, timeDim,
+        ImmutableList.of(new Parameter(WRFEta.PerturbationGeopotentialVariable, "pert"),
+            new Parameter(WRFEta.BaseGeopotentialVariable, "base"), new Parameter(WRFEta.IsStaggeredX, "true"),
+            new Parameter(WRFEta.IsStaggeredZ, "true")));
+    checkTransform(vt);
+  }
+
+  // pert(time, lev, y, x) and base(time, lev, y, x), which vary nonlinearly in y and x
+  private NetcdfFile makeWrfFile(Dimension timeDim, int nz, int ny, int nx) {
+    Group.Builder root = Group.builder().setName("").addDimensions(
+        ImmutableList.of(timeDim, new Dimension("lev", nz), new Dimension("y", ny), new Dimension("x", nx)));
+    Array pert = Array.factory(DataType.DOUBLE, new int[] {NT, nz, ny, nx});
+    Array base = Array.factory(DataType.DOUBLE, new int[] {NT, nz, ny, nx});
+    Index index = pert.getIndex();
+    for (int t = 0; t < NT; t++) {
+      for (int z = 0; z < nz; z++) {
+        for (int y = 0; y < ny; y++) {
+          for (int x = 0; x < nx; x++) {
+            index.set(t, z, y, x);
+            pert.setDouble(index, 100 * t + 10 * Math.sin(0.3 * y) * Math.cos(0.2 * x) + z);
+            base.setDouble(index, 90000 - 1000 * z + y * y + 0.5 * x * x);
+          }
+        }
+      }
+    }
+    addVariable(root, "pert", "time lev y x", pert);
+    addVariable(root, "base", "time lev y x", base);
+    return NetcdfFile.builder().setRootGroup(root).build();
+  }
+
+  // eta(time, y, x), depth(y, x), s(lev) and C(lev), and the scalars of the ocean s-coordinate formulas
+  private NetcdfFile makeOceanFile(Dimension timeDim) {
+    Group.Builder root = Group.builder().setName("").addDimensions(
+        ImmutableList.of(timeDim, new Dimension("lev", NZ), new Dimension("y", NY), new Dimension("x", NX)));
+    addVariable(root, "eta", "time y x",
+        Array.makeArray(DataType.DOUBLE, NT * NY * NX, -1, 0.0005).reshape(new int[] {NT, NY, NX}));
+    addVariable(root, "depth", "y x", Array.makeArray(DataType.DOUBLE, NY * NX, 20, 0.25).reshape(new int[] {NY, NX}));
+    addVariable(root, "s", "lev", Array.makeArray(DataType.DOUBLE, NZ, -0.9, 0.35));
+    addVariable(root, "C", "lev", Array.makeArray(DataType.DOUBLE, NZ, -0.8, 0.3));
+    addVariable(root, "a", "", Array.factory(DataType.DOUBLE, new int[0], new double[] {5}));
+    addVariable(root, "b", "", Array.factory(DataType.DOUBLE, new int[0], new double[] {0.4}));
+    addVariable(root, "depth_c", "", Array.factory(DataType.DOUBLE, new int[0], new double[] {10}));
+    return NetcdfFile.builder().setRootGroup(root).build();
+  }
+
+  private void checkTransform(VerticalTransform vt) throws Exception {
+    ArrayDouble.D3 full = vt.getCoordinateArray(1);
+    assertThat(full.getShape()).isEqualTo(new int[] {NZ, NY, NX});
+    // the 1D column is computed separately
+    for (int[] yx : new int[][] {{0, 0}, {7, 13}, {NY - 1, NX - 1}}) {
+      ArrayDouble.D1 column = vt.getCoordinateArray1D(1, yx[1], yx[0]);
+      for (int z = 0; z < NZ; z++) {
+        assertThat(full.get(z, yx[0], yx[1])).isWithin(1.0e-9).of(column.get(z));
+      }
+    }
+
+    Range yRange = new Range(3, 38, 7);
+    Range xRange = new Range(20, 49);
+    checkWindow(full, vt.getCoordinateArray(1, yRange, xRange), yRange, xRange);
+    checkWindow(full, vt.subset(null, null, yRange, xRange).getCoordinateArray(1), yRange, xRange);
+
+    // other time steps are not mixed up with the cached ones
+    ArrayDouble.D3 full0 = vt.getCoordinateArray(0);
+    checkWindow(full0, vt.getCoordinateArray(0, yRange, xRange), yRange, xRange);
+    assertThat(full0.get(0, 0, 0)).isNotEqualTo(full.get(0, 0, 0));
+  }
+
+  private void checkWindow(ArrayDouble.D3 full, ArrayDouble.D3 window, Range yRange, Range xRange) {
+    for (int z = 0; z < NZ; z++) {
+      for (int j = 0; j < yRange.length(); j++) {
+        for (int i = 0; i < xRange.length(); i++) {
+          assertThat(window.get(z, j, i))
+              .isEqualTo(full.get(z, yRange.first() + j * yRange.stride(), xRange.first() + i * xRange.stride()));
+        }
+      }
+    }
+  }
+
+  private void addVariable(Group.Builder root, String name, String dims, Array data) {
+    root.addVariable(Variable.builder().setName(name).setDataType(DataType.DOUBLE).setParentGroupBuilder(root)
+        .setDimensionsByName(dims).addAttribute(new Attribute("units", "Pa")).setSourceData(data));
+  }
+}
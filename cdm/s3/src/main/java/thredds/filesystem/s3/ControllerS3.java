@@ -5,13 +5,26 @@
 
 package thredds.filesystem.s3;
 
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.services.s3.S3Client;
@@ -31,13 +44,35 @@ import ucar.unidata.io.s3.CdmS3Client;
 import ucar.unidata.io.s3.CdmS3Uri;
 
 /**
- * Implements an MController without caching, reading from the object store each time.
- * recheck is ignored (always true)
+ * Implements an MController for objects stored on AWS S3 compatible object stores.
+ * <p/>
+ * The size and last modified time of each object come from the listing, so no request is made for each object.
+ * When the collection uses a delimiter, getInventoryAll() lists the prefixes below the collection prefix (often
+ * partitions by day or by run) concurrently.
+ * Listings are cached for a short time, and the cache is used when recheck is false.
+ * <ul>
+ * <li>thredds.filesystem.s3.listingThreads: the number of listings made at once (default 8)</li>
+ * <li>thredds.filesystem.s3.listingCacheSeconds: how long a listing is cached, 0 for no caching (default 60)</li>
+ * </ul>
  */
 public class ControllerS3 implements MController {
 
   private static final Logger logger = LoggerFactory.getLogger(ControllerS3.class);
 
+  private static final int listingThreads =
+      Integer.parseInt(System.getProperty("thredds.filesystem.s3.listingThreads", "8"));
+  private static final long listingCacheSeconds =
+      Long.parseLong(System.getProperty("thredds.filesystem.s3.listingCacheSeconds", "60"));
+  // how many levels of prefixes getInventoryAll() goes down to find prefixes that can be listed concurrently
+  private static final int MAX_PREFIX_DEPTH = 3;
+
+  private static final ExecutorService listingExecutor = Executors.newFixedThreadPool(listingThreads,
+      new ThreadFactoryBuilder().setNameFormat("ControllerS3-list-%d").setDaemon(true).build());
+
+  // LOOK the listing of a large collection can use a lot of memory
+  private static final Cache<String, Listing> listingCache = CacheBuilder.newBuilder().maximumSize(1000)
+      .expireAfterWrite(Math.max(listingCacheSeconds, 0), TimeUnit.SECONDS).build();
+
   private S3Client client;
   private CdmS3Uri initialUri;
 
@@ -47,11 +82,26 @@ public class ControllerS3 implements MController {
 
   public ControllerS3() {}
 
+  /**
+   * Use this client instead of the one for the collection location, eg to list a local stand-in for the object store.
+   * Package private for testing.
+   */
+  ControllerS3(S3Client client) {
+    this.client = client;
+  }
+
+  /** Remove all cached listings. */
+  public static void clearListingCache() {
+    listingCache.invalidateAll();
+  }
+
   private void init(CollectionConfig mc) {
     if (mc != null) {
       try {
         initUri(mc.getDirectoryName());
-        initClient();
+        if (client == null) {
+          initClient();
+        }
       } catch (IOException e) {
         logger.error("Error initializing ControllerS3 for {}.", mc.getDirectoryName(), e);
       }
@@ -79,7 +129,31 @@ public class ControllerS3 implements MController {
     }
     // to get all inventory, we need to make the listObject call in MFileS3Iterator without a delimiter.
     // but, we want the resulting MFile object to retain CdmS3Uri objects that continue to have a delimiter.
-    return new FilteredIterator(mc, new MFileS3Iterator(client, initialUri, prefix, limit, true), true, true);
+    if (limit) {
+      return new FilteredIterator(mc, new MFileS3Iterator(client, initialUri, prefix, limit, true), true, true);
+    }
+
+    List<S3Object> objects = new ArrayList<>();
+    List<String> prefixes = Collections.singletonList(prefix);
+    if (initialUri.getDelimiter().isPresent()) {
+      // go down the hierarchy until there are enough prefixes to keep the listing threads busy
+      for (int depth = 0; depth < MAX_PREFIX_DEPTH && prefixes.size() < listingThreads; depth++) {
+        List<String> subPrefixes = new ArrayList<>();
+        for (Listing listing : getListings(prefixes, false, recheck)) {
+          objects.addAll(listing.objects);
+          subPrefixes.addAll(listing.prefixes);
+        }
+        prefixes = subPrefixes;
+        if (prefixes.isEmpty()) {
+          break;
+        }
+      }
+    }
+    for (Listing listing : getListings(prefixes, true, recheck)) {
+      objects.addAll(listing.objects);
+    }
+    objects.sort(Comparator.comparing(S3Object::key));
+    return new FilteredIterator(mc, toMFiles(objects).iterator(), true, true);
   }
 
   @Override
@@ -89,7 +163,11 @@ public class ControllerS3 implements MController {
     if (initialUri.getKey().isPresent()) {
       prefix = initialUri.getKey().get();
     }
-    return new FilteredIterator(mc, new MFileS3Iterator(client, initialUri, prefix, limit, false), false);
+    if (limit) {
+      return new FilteredIterator(mc, new MFileS3Iterator(client, initialUri, prefix, limit, false), false);
+    }
+    Listing listing = getListing(prefix, false, recheck);
+    return new FilteredIterator(mc, toMFiles(listing.objects).iterator(), false);
   }
 
   @Override
@@ -99,23 +177,17 @@ public class ControllerS3 implements MController {
     if (initialUri.getKey().isPresent()) {
       prefix = initialUri.getKey().get();
     }
-
-    List<CommonPrefix> commonPrefixes;
-    if (initialUri.isAws()) {
-      ListObjectsV2Request listObjects = MFileS3Iterator.getListObjectsRequestV2(initialUri, prefix);
-      ListObjectsV2Response res = client.listObjectsV2(listObjects);
-      commonPrefixes = res.commonPrefixes();
-    } else {
-      ListObjectsRequest listObjects = MFileS3Iterator.getListObjectsRequestV1(initialUri, prefix);
-      ListObjectsResponse res = client.listObjects(listObjects);
-      commonPrefixes = res.commonPrefixes();
+    // without a delimiter, there are no subdirectories
+    if (!initialUri.getDelimiter().isPresent()) {
+      return Collections.emptyIterator();
     }
 
-    List<MFile> mFiles = new ArrayList<>(commonPrefixes.size());
-    for (CommonPrefix commonPrefix : commonPrefixes) {
+    Listing listing = getListing(prefix, false, recheck);
+    List<MFile> mFiles = new ArrayList<>(listing.prefixes.size());
+    for (String commonPrefix : listing.prefixes) {
       CdmS3Uri cdmS3Uri;
       try {
-        cdmS3Uri = initialUri.resolveNewKey(commonPrefix.prefix());
+        cdmS3Uri = initialUri.resolveNewKey(commonPrefix);
         mFiles.add(new MFileS3(cdmS3Uri));
       } catch (URISyntaxException e) {
         logger.error("Error creating MFile for {} bucket {}", commonPrefix, initialUri.getBucket(), e);
@@ -124,9 +196,130 @@ public class ControllerS3 implements MController {
     return mFiles.iterator();
   }
 
+  private List<MFile> toMFiles(List<S3Object> objects) {
+    List<MFile> mFiles = new ArrayList<>(objects.size());
+    for (S3Object object : objects) {
+      MFile mFile = toMFile(initialUri, object);
+      if (mFile != null) {
+        mFiles.add(mFile);
+      }
+    }
+    return mFiles;
+  }
+
+  // keep the size and last modified from the listing, so that MFileS3 does not have to ask for them
+  @Nullable
+  private static MFile toMFile(CdmS3Uri bucketUri, S3Object object) {
+    try {
+      CdmS3Uri newUri = bucketUri.resolveNewKey(object.key());
+      long length = (object.size() == null) ? -1 : object.size();
+      long lastModified = (object.lastModified() == null) ? -1 : object.lastModified().toEpochMilli();
+      return new MFileS3(newUri, length, lastModified);
+    } catch (URISyntaxException e) {
+      logger.warn("Cannot create MFile for {} in bucket {}", object.key(), bucketUri.getBucket(), e);
+      return null;
+    }
+  }
+
+  // list each prefix, at the same time if there are more than one
+  private List<Listing> getListings(List<String> prefixes, boolean fullInventory, boolean recheck) {
+    if (prefixes.size() == 1) {
+      return ImmutableList.of(getListing(prefixes.get(0), fullInventory, recheck));
+    }
+
+    List<Future<Listing>> futures = new ArrayList<>(prefixes.size());
+    for (String prefix : prefixes) {
+      futures.add(listingExecutor.submit(() -> getListing(prefix, fullInventory, recheck)));
+    }
+    List<Listing> listings = new ArrayList<>(prefixes.size());
+    try {
+      for (Future<Listing> future : futures) {
+        listings.add(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while listing " + initialUri, e);
+    } catch (ExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new RuntimeException(e.getCause());
+    } finally {
+      for (Future<Listing> future : futures) {
+        future.cancel(true);
+      }
+    }
+    return listings;
+  }
+
+  private Listing getListing(@Nullable String prefix, boolean fullInventory, boolean recheck) {
+    if (listingCacheSeconds <= 0) {
+      return list(client, initialUri, prefix, fullInventory);
+    }
+    String cacheKey = initialUri.getEndpoint().map(Object::toString).orElse("") + "|"
+        + initialUri.getProfile().orElse("") + "|" + initialUri.getBucket() + "|" + prefix + "|"
+        + (fullInventory ? "" : initialUri.getDelimiter().orElse(""));
+    if (!recheck) {
+      Listing listing = listingCache.getIfPresent(cacheKey);
+      if (listing != null) {
+        return listing;
+      }
+    }
+    Listing listing = list(client, initialUri, prefix, fullInventory);
+    listingCache.put(cacheKey, listing);
+    return listing;
+  }
+
+  // list all of the objects and common prefixes under the prefix, one page after another
+  private static Listing list(S3Client client, CdmS3Uri uri, @Nullable String prefix, boolean fullInventory) {
+    ImmutableList.Builder<S3Object> objects = ImmutableList.builder();
+    ImmutableList.Builder<String> prefixes = ImmutableList.builder();
+    String continuationToken = null;
+    boolean truncated;
+    do {
+      List<S3Object> contents;
+      List<CommonPrefix> commonPrefixes;
+      if (uri.isAws()) {
+        ListObjectsV2Response res = client.listObjectsV2(
+            MFileS3Iterator.getListObjectsRequestV2(uri, prefix, continuationToken, fullInventory));
+        contents = res.contents();
+        commonPrefixes = res.commonPrefixes();
+        truncated = Boolean.TRUE.equals(res.isTruncated());
+        continuationToken = res.nextContinuationToken();
+      } else {
+        ListObjectsResponse res =
+            client.listObjects(MFileS3Iterator.getListObjectsRequestV1(uri, prefix, continuationToken, fullInventory));
+        contents = res.contents();
+        commonPrefixes = res.commonPrefixes();
+        truncated = Boolean.TRUE.equals(res.isTruncated());
+        // nextMarker is only returned when a delimiter is used, otherwise continue after the last key
+        continuationToken = res.nextMarker();
+        if (continuationToken == null && !contents.isEmpty()) {
+          continuationToken = contents.get(contents.size() - 1).key();
+        }
+      }
+      objects.addAll(contents);
+      for (CommonPrefix commonPrefix : commonPrefixes) {
+        prefixes.add(commonPrefix.prefix());
+      }
+    } while (truncated && continuationToken != null);
+
+    return new Listing(objects.build(), prefixes.build());
+  }
+
   @Override
   public void close() {} // NO-OP
 
+  // the objects and common prefixes directly under a prefix, or all objects under it for a full inventory
+  @Immutable
+  private static class Listing {
+    private final ImmutableList<S3Object> objects;
+    private final ImmutableList<String> prefixes;
+
+    Listing(ImmutableList<S3Object> objects, ImmutableList<String> prefixes) {
+      this.objects = objects;
+      this.prefixes = prefixes;
+    }
+  }
+
   // handles filtering and removing/including subdirectories
   private static class FilteredIterator implements Iterator<MFile> {
     private final Iterator<MFile> orgIter;
@@ -244,15 +437,7 @@ public class ControllerS3 implements MController {
     }
 
     // package private so that we can access them from ControllerS3 class
-    static ListObjectsRequest getListObjectsRequestV1(CdmS3Uri uri, String prefix) {
-      return getListObjectsRequestV1(uri, prefix, null, false);
-    }
-
-    static ListObjectsV2Request getListObjectsRequestV2(CdmS3Uri uri, String prefix) {
-      return getListObjectsRequestV2(uri, prefix, null, false);
-    }
-
-    private static ListObjectsRequest getListObjectsRequestV1(CdmS3Uri uri, String prefix, String continuationToken,
+    static ListObjectsRequest getListObjectsRequestV1(CdmS3Uri uri, String prefix, String continuationToken,
         boolean fullInventory) {
       ListObjectsRequest.Builder listObjectsBuilder = ListObjectsRequest.builder().bucket(uri.getBucket());
       // Add the delimiter to the list objects request if the prefix is set and we are not wanting to get the full
@@ -272,7 +457,7 @@ public class ControllerS3 implements MController {
       return listObjectsBuilder.build();
     }
 
-    private static ListObjectsV2Request getListObjectsRequestV2(CdmS3Uri uri, String prefix, String continuationToken,
+    static ListObjectsV2Request getListObjectsRequestV2(CdmS3Uri uri, String prefix, String continuationToken,
         boolean fullInventory) {
       Builder listObjectsBuilder = ListObjectsV2Request.builder().bucket(uri.getBucket());
       // Add the delimiter to the list objects request if the prefix is set and we are not wanting to get the full
@@ -322,14 +507,7 @@ public class ControllerS3 implements MController {
 
     public MFile next() {
       S3Object object = objects.get(count++);
-      MFile nextMFile = null;
-      try {
-        CdmS3Uri newUri = bucketUri.resolveNewKey(object.key());
-        nextMFile = new MFileS3(newUri);
-      } catch (URISyntaxException e) {
-        logger.warn("Cannot create MFile for {} in bucket {}", object.key(), bucketUri.getBucket(), e);
-      }
-      return nextMFile;
+      return toMFile(bucketUri, object);
     }
 
     public void remove() {
@@ -4,6 +4,7 @@
  */
 package thredds.inventory.s3;
 
+import com.google.common.base.Suppliers;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.Objects;
@@ -28,11 +29,14 @@ import ucar.unidata.io.s3.CdmS3Uri;
 public class MFileS3 implements MFile {
 
   private static final Logger logger = LoggerFactory.getLogger(MFileS3.class);
+  private static final long UNKNOWN = -1;
 
   private final Supplier<HeadObjectResponse> headObjectResponse;
   private final CdmS3Uri cdmS3Uri;
   private final String key;
   private final String delimiter;
+  private final long length; // from the listing, or UNKNOWN
+  private final long lastModified; // from the listing, or UNKNOWN
 
   private Object auxInfo;
 
@@ -44,16 +48,32 @@ public class MFileS3 implements MFile {
     }
     key = getKey();
     delimiter = getDelimiter();
+    length = UNKNOWN;
+    lastModified = UNKNOWN;
     // This can take some time, so wait to execute until the first time headObjectResponse is accessed
-    this.headObjectResponse = () -> getHeadObjectResponse();
+    this.headObjectResponse = Suppliers.memoize(this::getHeadObjectResponse);
   }
 
   public MFileS3(CdmS3Uri s3Uri) {
+    this(s3Uri, UNKNOWN, UNKNOWN);
+  }
+
+  /**
+   * An MFileS3 for an object found in a listing of the object store.
+   * The listing includes the size and last modified time of each object, so no request is made to get them.
+   *
+   * @param s3Uri the object
+   * @param length size of the object in bytes, or -1 if not known
+   * @param lastModified last modified time of the object in msecs since the epoch, or -1 if not known
+   */
+  public MFileS3(CdmS3Uri s3Uri, long length, long lastModified) {
     cdmS3Uri = s3Uri;
     key = getKey();
     delimiter = getDelimiter();
+    this.length = length;
+    this.lastModified = lastModified;
     // This can take some time, so wait to execute until the first time headObjectResponse is accessed
-    this.headObjectResponse = () -> getHeadObjectResponse();
+    this.headObjectResponse = Suppliers.memoize(this::getHeadObjectResponse);
   }
 
   @Nullable
@@ -87,12 +107,12 @@ public class MFileS3 implements MFile {
 
   @Override
   public long getLastModified() {
-    return headObjectResponse.get().lastModified().toEpochMilli();
+    return (lastModified != UNKNOWN) ? lastModified : headObjectResponse.get().lastModified().toEpochMilli();
   }
 
   @Override
   public long getLength() {
-    return headObjectResponse.get().contentLength();
+    return (length != UNKNOWN) ? length : headObjectResponse.get().contentLength();
   }
 
   @Override
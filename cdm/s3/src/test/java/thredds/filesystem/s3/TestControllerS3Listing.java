@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2020 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package thredds.filesystem.s3;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.net.URISyntaxException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CommonPrefix;
+import software.amazon.awssdk.services.s3.model.ListObjectsRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import thredds.inventory.CollectionConfig;
+import thredds.inventory.MFile;
+import ucar.unidata.io.s3.CdmS3Uri;
+
+/**
+ * Test the listing of ControllerS3 against an in-memory stand-in for an object store, which returns a few keys per
+ * page so that the listings are paginated.
+ */
+public class TestControllerS3Listing {
+
+  private static final String AWS_URI = "cdms3:listing-test?data/#delimiter=/";
+  private static final String OTHER_URI = "cdms3://localhost:9000/listing-test?data/#delimiter=/";
+  private static final long LAST_MODIFIED = Instant.parse("2020-06-01T00:00:00Z").toEpochMilli();
+
+  private FakeS3Client client;
+
+  @Before
+  public void setup() {
+    ControllerS3.clearListingCache();
+    client = new FakeS3Client(2);
+    client.add("data/readme.txt", 10);
+    for (int day = 1; day <= 5; day++) {
+      for (int hour = 0; hour < 3; hour++) {
+        client.add(String.format("data/2020/%03d/%02d/model.nc", day, hour), 100 * day + hour);
+      }
+    }
+  }
+
+  @Test
+  public void testInventoryAllAws() throws URISyntaxException {
+    checkInventoryAll(new CdmS3Uri(AWS_URI));
+  }
+
+  @Test
+  public void testInventoryAllOther() throws URISyntaxException {
+    checkInventoryAll(new CdmS3Uri(OTHER_URI));
+  }
+
+  private void checkInventoryAll(CdmS3Uri uri) {
+    ControllerS3 controller = new ControllerS3(client);
+    List<MFile> files = toList(controller.getInventoryAll(getCollectionConfig(uri), true));
+    assertThat(files).hasSize(16);
+    // sizes and dates come from the listing, the stand-in cannot answer a HEAD request
+    MFile first = files.get(0);
+    assertThat(first.getName()).isEqualTo("model.nc");
+    assertThat(first.getLength()).isEqualTo(100L);
+    assertThat(first.getLastModified()).isEqualTo(LAST_MODIFIED);
+    assertThat(files.get(15).getLength()).isEqualTo(10L);
+  }
+
+  @Test
+  public void testListingCache() throws URISyntaxException {
+    CdmS3Uri uri = new CdmS3Uri(AWS_URI);
+    ControllerS3 controller = new ControllerS3(client);
+    assertThat(toList(controller.getInventoryAll(getCollectionConfig(uri), false))).hasSize(16);
+    int requests = client.requests.get();
+
+    // a new controller for the same collection uses the cached listing, unless asked to recheck
+    controller = new ControllerS3(client);
+    assertThat(toList(controller.getInventoryAll(getCollectionConfig(uri), false))).hasSize(16);
+    assertThat(client.requests.get()).isEqualTo(requests);
+
+    client.add("data/2020/006/00/model.nc", 600);
+    assertThat(toList(controller.getInventoryAll(getCollectionConfig(uri), true))).hasSize(17);
+    assertThat(client.requests.get() > requests).isTrue();
+  }
+
+  @Test
+  public void testInventoryTopAndSubdirs() throws URISyntaxException {
+    CdmS3Uri uri = new CdmS3Uri(AWS_URI);
+    ControllerS3 controller = new ControllerS3(client);
+    List<MFile> top = toList(controller.getInventoryTop(getCollectionConfig(uri), true));
+    assertThat(top).hasSize(1);
+    assertThat(top.get(0).getName()).isEqualTo("readme.txt");
+
+    uri = new CdmS3Uri("cdms3:listing-test?data/2020/#delimiter=/");
+    // all pages are read, not just the first
+    List<MFile> subdirs = toList(controller.getSubdirs(getCollectionConfig(uri), true));
+    assertThat(subdirs).hasSize(5);
+    for (MFile subdir : subdirs) {
+      assertThat(subdir.isDirectory()).isTrue();
+    }
+  }
+
+  private static CollectionConfig getCollectionConfig(CdmS3Uri uri) {
+    return new CollectionConfig(uri.getBucket(), uri.toString(), true, null, null);
+  }
+
+  private static List<MFile> toList(Iterator<MFile> it) {
+    List<MFile> result = new ArrayList<>();
+    while (it.hasNext()) {
+      result.add(it.next());
+    }
+    return result;
+  }
+
+  // lists the keys of a single bucket, pageSize keys or common prefixes at a time
+  private static class FakeS3Client implements S3Client {
+    private final Map<String, Long> objects = new TreeMap<>();
+    private final int pageSize;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    FakeS3Client(int pageSize) {
+      this.pageSize = pageSize;
+    }
+
+    synchronized void add(String key, long size) {
+      objects.put(key, size);
+    }
+
+    // the names of the objects and common prefixes in key order, starting after the marker
+    private synchronized List<String> list(String prefix, String delimiter, String marker) {
+      requests.incrementAndGet();
+      List<String> result = new ArrayList<>();
+      String start = (prefix == null) ? "" : prefix;
+      for (String key : objects.keySet()) {
+        if (!key.startsWith(start)) {
+          continue;
+        }
+        String name = key;
+        int pos = (delimiter == null) ? -1 : key.indexOf(delimiter, start.length());
+        if (pos >= 0) {
+          name = key.substring(0, pos + delimiter.length());
+        }
+        if ((marker == null || name.compareTo(marker) > 0) && !result.contains(name)) {
+          result.add(name);
+        }
+      }
+      return result;
+    }
+
+    private S3Object toS3Object(String key) {
+      return S3Object.builder().key(key).size(objects.get(key)).lastModified(Instant.ofEpochMilli(LAST_MODIFIED))
+          .build();
+    }
+
+    @Override
+    public ListObjectsV2Response listObjectsV2(ListObjectsV2Request request) {
+      List<String> names = list(request.prefix(), request.delimiter(), request.continuationToken());
+      List<String> page = names.subList(0, Math.min(pageSize, names.size()));
+      List<S3Object> contents = new ArrayList<>();
+      List<CommonPrefix> commonPrefixes = new ArrayList<>();
+      for (String name : page) {
+        if (objects.containsKey(name)) {
+          contents.add(toS3Object(name));
+        } else {
+          commonPrefixes.add(CommonPrefix.builder().prefix(name).build());
+        }
+      }
+      boolean truncated = page.size() < names.size();
+      return ListObjectsV2Response.builder().contents(contents).commonPrefixes(commonPrefixes).isTruncated(truncated)
+          .nextContinuationToken(truncated ? page.get(page.size() - 1) : null).build();
+    }
+
+    @Override
+    public ListObjectsResponse listObjects(ListObjectsRequest request) {
+      List<String> names = list(request.prefix(), request.delimiter(), request.marker());
+      List<String> page = names.subList(0, Math.min(pageSize, names.size()));
+      List<S3Object> contents = new ArrayList<>();
+      List<CommonPrefix> commonPrefixes = new ArrayList<>();
+      for (String name : page) {
+        if (objects.containsKey(name)) {
+          contents.add(toS3Object(name));
+        } else {
+          commonPrefixes.add(CommonPrefix.builder().prefix(name).build());
+        }
+      }
+      boolean truncated = page.size() < names.size();
+      // like S3, nextMarker is only returned when a delimiter is used
+      String nextMarker = (truncated && request.delimiter() != null) ? page.get(page.size() - 1) : null;
+      return ListObjectsResponse.builder().contents(contents).commonPrefixes(commonPrefixes).isTruncated(truncated)
+          .nextMarker(nextMarker).build();
+    }
+
+    @Override
+    public String serviceName() {
+      return "s3";
+    }
+
+    @Override
+    public void close() {}
+  }
+}
@@ -12,6 +12,7 @@ import ucar.nc2.internal.grid.GridCS;
 import ucar.unidata.geoloc.Projection;
 
 import java.util.Formatter;
+import javax.annotation.Nullable;
 
 /** Convert between CdmrGrid Protos and GridDataset objects. */
 public class CdmrGridConverter {
@@ -277,10 +278,24 @@ public class CdmrGridConverter {
   }
 
   public static CdmrGridProto.GridReferencedArray encodeGridReferencedArray(GridReferencedArray geoArray) {
+    return encodeGridReferencedArray(geoArray, null);
+  }
+
+  /**
+   * Encode a GridReferencedArray.
+   *
+   * @param packed if not null, send the data packed, with this compression.
+   */
+  public static CdmrGridProto.GridReferencedArray encodeGridReferencedArray(GridReferencedArray geoArray,
+      @Nullable CdmrNetcdfProto.Compress packed) {
     CdmrGridProto.GridReferencedArray.Builder builder = CdmrGridProto.GridReferencedArray.newBuilder();
     builder.setGridName(geoArray.gridName());
     builder.setCsSubset(encodeCoordSys(geoArray.csSubset()));
-    builder.setData(CdmrConverter.encodeData(geoArray.arrayType(), geoArray.data()));
+    if (packed != null) {
+      builder.setData(CdmrConverter.encodeData(geoArray.arrayType(), geoArray.data(), packed));
+    } else {
+      builder.setData(CdmrConverter.encodeData(geoArray.arrayType(), geoArray.data()));
+    }
     return builder.build();
   }
 
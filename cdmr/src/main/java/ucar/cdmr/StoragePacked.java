@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 1998-2020 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.cdmr;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import ucar.array.ArrayType;
+import ucar.array.Storage;
+
+/**
+ * Array Storage backed by a ByteBuffer of little-endian primitive values, as sent in CdmrNetcdfProto.Data.packed.
+ * The values are read from the buffer in place, not copied into a java array.
+ */
+class StoragePacked<T> implements Storage<T> {
+  private final ArrayType dataType;
+  private final ByteBuffer bb;
+  private final int elemSize;
+  private final long length;
+
+  StoragePacked(ArrayType dataType, ByteBuffer bb) {
+    this.dataType = dataType;
+    this.bb = bb.slice().order(ByteOrder.LITTLE_ENDIAN);
+    this.elemSize = elemSize(dataType);
+    this.length = this.bb.remaining() / elemSize;
+  }
+
+  /** Number of bytes for one element in a packed buffer, or 0 if this type can't be packed. */
+  static int elemSize(ArrayType dataType) {
+    switch (dataType) {
+      case ENUM1:
+      case UBYTE:
+      case BYTE:
+        return 1;
+      case CHAR:
+      case ENUM2:
+      case USHORT:
+      case SHORT:
+        return 2;
+      case ENUM4:
+      case UINT:
+      case INT:
+      case FLOAT:
+        return 4;
+      case ULONG:
+      case LONG:
+      case DOUBLE:
+        return 8;
+      default:
+        return 0;
+    }
+  }
+
+  @Override
+  public long length() {
+    return length;
+  }
+
+  @Override
+  public T get(long elem) {
+    int pos = (int) elem * elemSize;
+    switch (dataType) {
+      case ENUM1:
+      case UBYTE:
+      case BYTE:
+        return (T) Byte.valueOf(bb.get(pos));
+      case CHAR:
+        return (T) Character.valueOf(bb.getChar(pos));
+      case ENUM2:
+      case USHORT:
+      case SHORT:
+        return (T) Short.valueOf(bb.getShort(pos));
+      case ENUM4:
+      case UINT:
+      case INT:
+        return (T) Integer.valueOf(bb.getInt(pos));
+      case ULONG:
+      case LONG:
+        return (T) Long.valueOf(bb.getLong(pos));
+      case FLOAT:
+        return (T) Float.valueOf(bb.getFloat(pos));
+      case DOUBLE:
+        return (T) Double.valueOf(bb.getDouble(pos));
+      default:
+        throw new IllegalStateException("Unpackable datatype " + dataType);
+    }
+  }
+
+  @Override
+  public void arraycopy(int srcPos, Object dest, int destPos, long length) {
+    ByteBuffer src = bb.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    src.position(srcPos * elemSize);
+    int n = (int) length;
+    switch (dataType) {
+      case ENUM1:
+      case UBYTE:
+      case BYTE:
+        src.get((byte[]) dest, destPos, n);
+        break;
+      case CHAR:
+        src.asCharBuffer().get((char[]) dest, destPos, n);
+        break;
+      case ENUM2:
+      case USHORT:
+      case SHORT:
+        src.asShortBuffer().get((short[]) dest, destPos, n);
+        break;
+      case ENUM4:
+      case UINT:
+      case INT:
+        src.asIntBuffer().get((int[]) dest, destPos, n);
+        break;
+      case ULONG:
+      case LONG:
+        src.asLongBuffer().get((long[]) dest, destPos, n);
+        break;
+      case FLOAT:
+        src.asFloatBuffer().get((float[]) dest, destPos, n);
+        break;
+      case DOUBLE:
+        src.asDoubleBuffer().get((double[]) dest, destPos, n);
+        break;
+      default:
+        throw new IllegalStateException("Unpackable datatype " + dataType);
+    }
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    return new Iterator<T>() {
+      private long count;
+
+      @Override
+      public boolean hasNext() {
+        return count < length;
+      }
+
+      @Override
+      public T next() {
+        return get(count++);
+      }
+    };
+  }
+}
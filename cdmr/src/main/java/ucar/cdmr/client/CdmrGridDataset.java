@@ -91,6 +91,7 @@ public class CdmrGridDataset implements GridDataset {
   private final String path;
   private final ManagedChannel channel;
   private final CdmRemoteGrpc.CdmRemoteBlockingStub blockingStub;
+  private final CdmrNetcdfProto.Compress compress;
 
   private final CdmrGridProto.GridDataset proto;
   private final ImmutableList<GridAxis> axes;
@@ -102,6 +103,7 @@ public class CdmrGridDataset implements GridDataset {
     this.path = builder.path;
     this.channel = builder.channel;
     this.blockingStub = builder.blockingStub;
+    this.compress = builder.compress;
     this.proto = builder.proto;
 
     // Have to set runtime axis into GridAxisOffsetTimeRegular
@@ -139,7 +141,8 @@ public class CdmrGridDataset implements GridDataset {
 
   GridReferencedArray readData(GridSubset subset) throws IOException {
     log.info("CdmrGridDataset request data subset " + subset);
-    CdmrGridProto.GridDataRequest.Builder requestb = CdmrGridProto.GridDataRequest.newBuilder().setLocation(path);
+    CdmrGridProto.GridDataRequest.Builder requestb =
+        CdmrGridProto.GridDataRequest.newBuilder().setLocation(path).setPacked(true).setCompress(compress);
     for (Map.Entry<String, Object> entry : subset.getEntries()) {
       requestb.putSubset(entry.getKey(), entry.getValue().toString());
     }
@@ -198,6 +201,7 @@ public class CdmrGridDataset implements GridDataset {
     private CdmRemoteGrpc.CdmRemoteBlockingStub blockingStub;
     private String path;
     private CdmrGridProto.GridDataset proto;
+    private CdmrNetcdfProto.Compress compress = CdmrNetcdfProto.Compress.NONE;
     private ArrayList<GridAxis.Builder<?>> axes = new ArrayList<>();
     private ArrayList<GridCS.Builder<?>> coordsys = new ArrayList<>();
     private ArrayList<CdmrGrid.Builder> grids = new ArrayList<>();
@@ -209,6 +213,12 @@ public class CdmrGridDataset implements GridDataset {
       return this;
     }
 
+    /** Ask the server to compress the data it sends. Default is NONE. */
+    public Builder setCompress(CdmrNetcdfProto.Compress compress) {
+      this.compress = compress;
+      return this;
+    }
+
     public Builder addGridAxis(GridAxis.Builder<?> axis) {
       axes.add(axis);
       return this;
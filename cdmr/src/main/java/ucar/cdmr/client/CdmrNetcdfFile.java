@@ -8,17 +8,20 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
-import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
 import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 import ucar.array.Arrays;
 import ucar.array.StructureDataArray;
 import ucar.cdmr.CdmRemoteGrpc;
+import ucar.cdmr.CdmrNetcdfProto;
 import ucar.cdmr.CdmrNetcdfProto.DataRequest;
 import ucar.cdmr.CdmrNetcdfProto.DataResponse;
 import ucar.cdmr.CdmrNetcdfProto.Header;
@@ -78,24 +81,53 @@ public class CdmrNetcdfFile extends NetcdfFile {
 
     List<ucar.array.Array<?>> results = new ArrayList<>();
     long size = 0;
-    DataRequest request = DataRequest.newBuilder().setLocation(this.path).setVariableSpec(spec).build();
+    DataRequest request = DataRequest.newBuilder().setLocation(this.path).setVariableSpec(spec).setPacked(true)
+        .setCompress(this.compress).build();
+
+    // chunks are decoded in parallel as they arrive, then reassembled in order
+    List<CompletableFuture<ucar.array.Array<?>>> decoded = new ArrayList<>();
+    CompletableFuture<Void> finished = new CompletableFuture<>();
+    asyncStub.withDeadlineAfter(MAX_DATA_WAIT_SECONDS, TimeUnit.SECONDS).getNetcdfData(request,
+        new StreamObserver<DataResponse>() {
+          @Override
+          public void onNext(DataResponse response) {
+            if (response.hasError()) {
+              finished.completeExceptionally(new IOException(response.getError().getMessage()));
+              return;
+            }
+            // Section sectionReturned = CdmrConverter.decodeSection(response.getSection());
+            decoded.add(CompletableFuture.supplyAsync(() -> CdmrConverter.decodeData(response.getData())));
+          }
+
+          @Override
+          public void onError(Throwable t) {
+            finished.completeExceptionally(t);
+          }
+
+          @Override
+          public void onCompleted() {
+            finished.complete(null);
+          }
+        });
+
     try {
-      Iterator<DataResponse> responses =
-          blockingStub.withDeadlineAfter(MAX_DATA_WAIT_SECONDS, TimeUnit.SECONDS).getNetcdfData(request);
-      while (responses.hasNext()) {
-        DataResponse response = responses.next();
-        if (response.hasError()) {
-          throw new IOException(response.getError().getMessage());
-        }
-        // Section sectionReturned = CdmrConverter.decodeSection(response.getSection());
-        ucar.array.Array<?> result = CdmrConverter.decodeData(response.getData());
+      finished.get();
+      for (CompletableFuture<ucar.array.Array<?>> future : decoded) {
+        ucar.array.Array<?> result = future.get();
         results.add(result);
         size += result.length();
       }
 
-    } catch (StatusRuntimeException e) {
-      log.warn("readSection requestData failed failed: ", e);
-      throw new IOException(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      log.warn("readSection requestData failed failed: ", cause);
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      throw new IOException(cause);
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted waiting for " + spec, e);
 
     } catch (Throwable t) {
       System.out.printf(" ** failed after %s%n", stopwatch);
@@ -137,6 +169,8 @@ public class CdmrNetcdfFile extends NetcdfFile {
   private final String path;
   private final ManagedChannel channel;
   private final CdmRemoteGrpc.CdmRemoteBlockingStub blockingStub;
+  private final CdmRemoteGrpc.CdmRemoteStub asyncStub;
+  private final CdmrNetcdfProto.Compress compress;
 
   private CdmrNetcdfFile(Builder<?> builder) {
     super(builder);
@@ -144,6 +178,8 @@ public class CdmrNetcdfFile extends NetcdfFile {
     this.path = builder.path;
     this.channel = builder.channel;
     this.blockingStub = builder.blockingStub;
+    this.asyncStub = CdmRemoteGrpc.newStub(builder.channel);
+    this.compress = builder.compress;
   }
 
   public Builder<?> toBuilder() {
@@ -151,7 +187,7 @@ public class CdmrNetcdfFile extends NetcdfFile {
   }
 
   private Builder<?> addLocalFieldsToBuilder(Builder<? extends Builder<?>> b) {
-    b.setRemoteURI(this.remoteURI);
+    b.setRemoteURI(this.remoteURI).setCompress(this.compress);
     return (Builder<?>) super.addLocalFieldsToBuilder(b);
   }
 
@@ -171,6 +207,7 @@ public class CdmrNetcdfFile extends NetcdfFile {
     private ManagedChannel channel;
     private CdmRemoteGrpc.CdmRemoteBlockingStub blockingStub;
     private String path;
+    private CdmrNetcdfProto.Compress compress = CdmrNetcdfProto.Compress.NONE;
     private boolean built;
 
     protected abstract T self();
@@ -180,6 +217,12 @@ public class CdmrNetcdfFile extends NetcdfFile {
       return self();
     }
 
+    /** Ask the server to compress the data it sends. Default is NONE. */
+    public T setCompress(CdmrNetcdfProto.Compress compress) {
+      this.compress = compress;
+      return self();
+    }
+
     public CdmrNetcdfFile build() {
       if (built)
         throw new IllegalStateException("already built");
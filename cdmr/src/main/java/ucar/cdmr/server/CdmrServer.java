@@ -1,6 +1,8 @@
 package ucar.cdmr.server;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.grpc.Metadata;
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
@@ -8,11 +10,22 @@ import io.grpc.ServerCall;
 import io.grpc.ServerCall.Listener;
 import io.grpc.ServerCallHandler;
 import io.grpc.ServerInterceptor;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Formatter;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 
 import ucar.array.*;
 import ucar.cdmr.CdmRemoteGrpc.CdmRemoteImplBase;
@@ -32,8 +45,11 @@ import ucar.nc2.NetcdfFile;
 import ucar.nc2.ParsedSectionSpec;
 import ucar.nc2.Sequence;
 import ucar.nc2.Variable;
+import ucar.nc2.dataset.DatasetUrl;
+import ucar.nc2.dataset.NetcdfDataset;
 import ucar.nc2.dataset.NetcdfDatasets;
 import ucar.nc2.grid.*;
+import ucar.nc2.internal.grid.GridNetcdfDataset;
 import ucar.nc2.write.ChunkingIndex;
 
 /** Server that manages startup/shutdown of a Cdm Remote server. */
@@ -41,10 +57,18 @@ public class CdmrServer {
   private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(CdmrServer.class);
   private static final int MAX_MESSAGE = 50 * 1000 * 1000; // 50 Mb
   private static final int SEQUENCE_CHUNK = 1000;
+  private static final int CHUNKS_IN_FLIGHT = 4; // chunks being read and encoded ahead of the one being sent
+
+  // reads and encodes the chunks of large data requests
+  private static final ExecutorService chunkExecutor = Executors.newFixedThreadPool(CHUNKS_IN_FLIGHT,
+      new ThreadFactoryBuilder().setNameFormat("CdmrServer-chunk-%d").setDaemon(true).build());
 
   private Server server;
 
   private void start() throws IOException {
+    // datasets are kept open between requests
+    NetcdfDatasets.initNetcdfFileCache(10, 100, 15 * 60);
+
     /* The port on which the server should run */
     int port = 16111;
     server = ServerBuilder.forPort(port) //
@@ -73,6 +97,8 @@ public class CdmrServer {
     if (server != null) {
       server.shutdown().awaitTermination(30, TimeUnit.SECONDS);
     }
+    chunkExecutor.shutdownNow();
+    NetcdfDatasets.shutdown();
   }
 
   /** Await termination on the main thread since the grpc library uses daemon threads. */
@@ -104,12 +130,21 @@ public class CdmrServer {
   }
 
   static class CdmRemoteImpl extends CdmRemoteImplBase {
+    private final int maxMessage; // data responses larger than this are sent in chunks
+
+    CdmRemoteImpl() {
+      this(MAX_MESSAGE);
+    }
+
+    CdmRemoteImpl(int maxMessage) {
+      this.maxMessage = maxMessage;
+    }
 
     @Override
     public void getNetcdfHeader(HeaderRequest req, StreamObserver<HeaderResponse> responseObserver) {
       System.out.printf("CdmrServer getHeader open %s%n", req.getLocation());
       HeaderResponse.Builder response = HeaderResponse.newBuilder();
-      try (NetcdfFile ncfile = NetcdfDatasets.openFile(req.getLocation(), null)) {
+      try (NetcdfFile ncfile = acquireFile(req.getLocation())) {
         Header.Builder header = Header.newBuilder().setLocation(req.getLocation())
             .setRoot(CdmrConverter.encodeGroup(ncfile.getRootGroup(), 100).build());
         response.setHeader(header);
@@ -129,78 +164,207 @@ public class CdmrServer {
       final Stopwatch stopwatch = Stopwatch.createStarted();
       long size = -1;
 
-      try (NetcdfFile ncfile = NetcdfDatasets.openFile(req.getLocation(), null)) { // LOOK cache ncfile?
+      NetcdfFile ncfile = null;
+      boolean streaming = false;
+      try {
+        ncfile = acquireFile(req.getLocation());
         ParsedSectionSpec varSection = ParsedSectionSpec.parseVariableSection(ncfile, req.getVariableSpec());
         Variable var = varSection.getVariable();
         if (var instanceof Sequence) {
           size = getSequenceData(ncfile, varSection, responseObserver);
+          responseObserver.onCompleted();
         } else {
           Section wantSection = varSection.getSection();
           size = var.getElementSize() * wantSection.getSize();
-          getNetcdfData(ncfile, varSection, responseObserver);
+          if (size > maxMessage) {
+            // the ChunkStreamer completes the response and releases the file
+            new ChunkStreamer(ncfile, varSection, req, (ServerCallStreamObserver<DataResponse>) responseObserver)
+                .start();
+            streaming = true;
+          } else {
+            Array<?> data = var.readArray(wantSection);
+            responseObserver.onNext(makeDataResponse(ncfile, varSection, data, req));
+            responseObserver.onCompleted();
+          }
         }
-        responseObserver.onCompleted();
         logger.info("CdmrServer getData " + req.getLocation());
 
       } catch (Throwable t) {
         logger.warn("CdmrServer getData failed ", t);
         t.printStackTrace();
-        DataResponse.Builder response =
-            DataResponse.newBuilder().setLocation(req.getLocation()).setVariableSpec(req.getVariableSpec());
-        response.setError(
-            CdmrNetcdfProto.Error.newBuilder().setMessage(t.getMessage() == null ? "N/A" : t.getMessage()).build());
-        responseObserver.onNext(response.build());
+        responseObserver.onNext(makeErrorResponse(req, t));
+        responseObserver.onCompleted();
+
+      } finally {
+        if (!streaming)
+          closeQuietly(ncfile);
       }
 
       System.out.printf(" ** size=%d took=%s%n", size, stopwatch.stop());
     }
 
-    private void getNetcdfData(NetcdfFile ncfile, ParsedSectionSpec varSection,
-        StreamObserver<DataResponse> responseObserver) throws IOException, InvalidRangeException {
+    private DataResponse makeDataResponse(NetcdfFile ncfile, ParsedSectionSpec varSection, Array<?> data,
+        DataRequest req) {
+      String spec = varSection.makeSectionSpecString();
       Variable var = varSection.getVariable();
       Section wantSection = varSection.getSection();
-      long size = var.getElementSize() * wantSection.getSize();
-      if (size > MAX_MESSAGE) {
-        getDataInChunks(ncfile, varSection, responseObserver);
+
+      DataResponse.Builder response = DataResponse.newBuilder().setLocation(ncfile.getLocation()).setVariableSpec(spec)
+          .setVarFullName(var.getFullName()).setSection(CdmrConverter.encodeSection(wantSection));
+      if (req.getPacked()) {
+        response.setData(CdmrConverter.encodeData(data.getArrayType(), data, req.getCompress()));
       } else {
-        getOneChunk(ncfile, varSection, responseObserver);
+        response.setData(CdmrConverter.encodeData(data.getArrayType(), data));
       }
+      return response.build();
     }
 
-    private void getDataInChunks(NetcdfFile ncfile, ParsedSectionSpec varSection,
-        StreamObserver<DataResponse> responseObserver) throws IOException, InvalidRangeException {
+    private DataResponse makeErrorResponse(DataRequest req, Throwable t) {
+      DataResponse.Builder response =
+          DataResponse.newBuilder().setLocation(req.getLocation()).setVariableSpec(req.getVariableSpec());
+      response.setError(
+          CdmrNetcdfProto.Error.newBuilder().setMessage(t.getMessage() == null ? "N/A" : t.getMessage()).build());
+      return response.build();
+    }
 
-      Variable var = varSection.getVariable();
-      long maxChunkElems = MAX_MESSAGE / var.getElementSize();
-      // LOOK wrong this assume starts at 0, should start at varSection
-      ChunkingIndex index = new ChunkingIndex(var.getShape());
-      while (index.currentElement() < index.getSize()) {
-        int[] chunkOrigin = index.getCurrentCounter();
-        int[] chunkShape = index.computeChunkShape(maxChunkElems);
-        Section section = new Section(chunkOrigin, chunkShape);
-        getOneChunk(ncfile, new ParsedSectionSpec(var, section), responseObserver);
-        index.setCurrentCounter(index.currentElement() + (int) Arrays.computeSize(chunkShape));
+    /**
+     * Sends a large data request in chunks. Chunks are read and encoded on the chunkExecutor, up to CHUNKS_IN_FLIGHT
+     * ahead, and sent in order whenever the client is ready for more (gRPC flow control).
+     * Reads are serialized on the ncfile, since IOSPs are not thread-safe; encoding runs in parallel.
+     * Releases the ncfile when done.
+     */
+    private class ChunkStreamer {
+      private final NetcdfFile ncfile;
+      private final DataRequest req;
+      private final ServerCallStreamObserver<DataResponse> observer;
+      private final Iterator<ParsedSectionSpec> chunks;
+      private final ArrayDeque<CompletableFuture<DataResponse>> pending = new ArrayDeque<>();
+      private boolean done; // guarded by this
+      private boolean closed; // guarded by ncfile
+
+      ChunkStreamer(NetcdfFile ncfile, ParsedSectionSpec varSection, DataRequest req,
+          ServerCallStreamObserver<DataResponse> observer) throws InvalidRangeException {
+        this.ncfile = ncfile;
+        this.req = req;
+        this.observer = observer;
+
+        Variable var = varSection.getVariable();
+        Section wantSection = varSection.getSection();
+        long maxChunkElems = maxMessage / var.getElementSize();
+        List<ParsedSectionSpec> chunkList = new ArrayList<>();
+        // chunk the requested section, in its own index space, then map each chunk back into the variable
+        ChunkingIndex index = new ChunkingIndex(wantSection.getShape());
+        while (index.currentElement() < index.getSize()) {
+          int[] chunkOrigin = index.getCurrentCounter();
+          int[] chunkShape = index.computeChunkShape(maxChunkElems);
+          chunkList.add(new ParsedSectionSpec(var, wantSection.compose(new Section(chunkOrigin, chunkShape))));
+          index.setCurrentCounter(index.currentElement() + (int) Arrays.computeSize(chunkShape));
+        }
+        this.chunks = chunkList.iterator();
       }
-    }
 
-    private void getOneChunk(NetcdfFile ncfile, ParsedSectionSpec varSection,
-        StreamObserver<DataResponse> responseObserver) throws IOException, InvalidRangeException {
+      void start() {
+        observer.setOnCancelHandler(this::cancel);
+        observer.setOnReadyHandler(this::drain);
+        drain();
+      }
 
-      String spec = varSection.makeSectionSpecString();
-      Variable var = varSection.getVariable();
-      Section wantSection = varSection.getSection();
+      // send the finished chunks, in order, as long as the client is ready
+      private synchronized void drain() {
+        if (done)
+          return;
+        fill();
+        while (!pending.isEmpty() && pending.peek().isDone() && observer.isReady()) {
+          DataResponse response;
+          try {
+            response = pending.poll().join();
+          } catch (CompletionException | CancellationException e) {
+            finish(e.getCause() != null ? e.getCause() : e);
+            return;
+          }
+          observer.onNext(response);
+          fill();
+        }
+        if (pending.isEmpty())
+          finish(null);
+      }
 
-      DataResponse.Builder response = DataResponse.newBuilder().setLocation(ncfile.getLocation()).setVariableSpec(spec)
-          .setVarFullName(var.getFullName()).setSection(CdmrConverter.encodeSection(wantSection));
+      private void fill() {
+        while (pending.size() < CHUNKS_IN_FLIGHT && chunks.hasNext()) {
+          ParsedSectionSpec chunk = chunks.next();
+          CompletableFuture<DataResponse> future = CompletableFuture.supplyAsync(() -> {
+            Array<?> data;
+            try {
+              synchronized (ncfile) {
+                if (closed)
+                  throw new CancellationException();
+                data = chunk.getVariable().readArray(chunk.getSection());
+              }
+            } catch (IOException | InvalidRangeException e) {
+              throw new CompletionException(e);
+            }
+            return makeDataResponse(ncfile, chunk, data, req);
+          }, chunkExecutor);
+          future.whenCompleteAsync((r, t) -> drain(), chunkExecutor);
+          pending.add(future);
+        }
+      }
 
-      Array<?> data = var.readArray(wantSection);
-      response.setData(CdmrConverter.encodeData(data.getArrayType(), data));
+      private synchronized void finish(Throwable t) {
+        if (done)
+          return;
+        done = true;
+        if (t != null) {
+          logger.warn("CdmrServer getData failed ", t);
+          observer.onNext(makeErrorResponse(req, t));
+        }
+        observer.onCompleted();
+        release();
+      }
 
-      responseObserver.onNext(response.build());
-      System.out.printf(" Send one chunk %s size=%d bytes%n", spec,
-          data.length() * varSection.getVariable().getElementSize());
+      private synchronized void cancel() {
+        done = true;
+        release();
+      }
+
+      private void release() {
+        pending.forEach(f -> f.cancel(false));
+        pending.clear();
+        synchronized (ncfile) {
+          closed = true;
+          closeQuietly(ncfile);
+        }
+      }
+    }
+
+
+    private NetcdfFile acquireFile(String location) throws IOException {
+      return NetcdfDatasets.acquireFile(DatasetUrl.findDatasetUrl(location), null);
     }
 
+    private void closeQuietly(NetcdfFile ncfile) {
+      if (ncfile == null)
+        return;
+      try {
+        ncfile.close(); // releases to the file cache
+      } catch (IOException ioe) {
+        logger.warn("CdmrServer close failed ", ioe);
+      }
+    }
+
+    // uses the file cache for the NetcdfDataset; the GridDataset is made for each request
+    @Nullable
+    private GridDataset acquireGridDataset(String location, Formatter errlog) throws IOException {
+      NetcdfDataset ds = NetcdfDatasets.acquireDataset(DatasetUrl.findDatasetUrl(location), null);
+      Optional<GridNetcdfDataset> result =
+          GridNetcdfDataset.create(ds, errlog).filter(gds -> !Iterables.isEmpty(gds.getGrids()));
+      if (!result.isPresent()) {
+        errlog.format("Could not open as GridDataset: %s", location);
+        ds.close();
+        return null;
+      }
+      return result.get();
+    }
 
     private long getSequenceData(NetcdfFile ncfile, ParsedSectionSpec varSection,
         StreamObserver<DataResponse> responseObserver) throws InvalidRangeException {
@@ -241,7 +405,9 @@ public class CdmrServer {
       System.out.printf("CdmrServer getGridDataset open %s%n", request.getLocation());
       CdmrGridProto.GridDatasetResponse.Builder response = CdmrGridProto.GridDatasetResponse.newBuilder();
       Formatter errlog = new Formatter();
-      try (GridDataset gridDataset = GridDatasetFactory.openGridDataset(request.getLocation(), errlog)) {
+      try (GridDataset gridDataset = acquireGridDataset(request.getLocation(), errlog)) {
+        if (gridDataset == null)
+          throw new IOException(errlog.toString());
         response.setDataset(CdmrGridConverter.encodeDataset(gridDataset));
         responseObserver.onNext(response.build());
         responseObserver.onCompleted();
@@ -271,7 +437,7 @@ public class CdmrServer {
       }
 
       Formatter errlog = new Formatter();
-      try (GridDataset gridDataset = GridDatasetFactory.openGridDataset(request.getLocation(), errlog)) {
+      try (GridDataset gridDataset = acquireGridDataset(request.getLocation(), errlog)) {
         if (gridDataset == null) {
           makeError(response, String.format("GridDataset '%s' not found", request.getLocation()));
         } else {
@@ -282,7 +448,8 @@ public class CdmrServer {
                 String.format("GridDataset '%s' does not have Grid '%s", request.getLocation(), wantGridName));
           } else {
             GridReferencedArray geoReferencedArray = wantGrid.readData(gridSubset);
-            response.setData(CdmrGridConverter.encodeGridReferencedArray(geoReferencedArray));
+            response.setData(CdmrGridConverter.encodeGridReferencedArray(geoReferencedArray,
+                request.getPacked() ? request.getCompress() : null));
             System.out.printf(" ** size=%d shape=%s%n", geoReferencedArray.data().length(),
                 java.util.Arrays.toString(geoReferencedArray.data().getShape()));
 
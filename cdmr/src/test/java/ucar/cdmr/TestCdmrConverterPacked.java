@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 1998-2020 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.cdmr;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.util.Formatter;
+import org.junit.Test;
+import ucar.array.Array;
+import ucar.array.ArrayType;
+import ucar.array.Arrays;
+import ucar.nc2.internal.util.CompareArrayToArray;
+
+/** Test {@link CdmrConverter} packed data round trip. */
+public class TestCdmrConverterPacked {
+
+  @Test
+  public void testFloat() throws IOException {
+    float[] parray = new float[1000];
+    for (int i = 0; i < parray.length; i++)
+      parray[i] = i * 1.5f - 17;
+    roundTrip(Arrays.factory(ArrayType.FLOAT, new int[] {10, 100}, parray));
+  }
+
+  @Test
+  public void testDouble() throws IOException {
+    double[] parray = new double[] {Double.NaN, -1.0e300, 0, 1.0e-300, Math.PI, 42};
+    roundTrip(Arrays.factory(ArrayType.DOUBLE, new int[] {2, 3}, parray));
+  }
+
+  @Test
+  public void testIntegers() throws IOException {
+    roundTrip(Arrays.factory(ArrayType.SHORT, new int[] {4}, new short[] {Short.MIN_VALUE, -1, 0, Short.MAX_VALUE}));
+    roundTrip(Arrays.factory(ArrayType.USHORT, new int[] {3}, new short[] {0, 1, (short) 65535}));
+    roundTrip(Arrays.factory(ArrayType.INT, new int[] {3}, new int[] {Integer.MIN_VALUE, 7, Integer.MAX_VALUE}));
+    roundTrip(Arrays.factory(ArrayType.ULONG, new int[] {2}, new long[] {-1L, Long.MAX_VALUE}));
+    roundTrip(Arrays.factory(ArrayType.BYTE, new int[] {3}, new byte[] {-128, 0, 127}));
+    roundTrip(Arrays.factory(ArrayType.CHAR, new int[] {5}, new char[] {'h', 'e', 'l', 'l', 'o'}));
+  }
+
+  private void roundTrip(Array<?> org) throws IOException {
+    for (CdmrNetcdfProto.Compress compress : new CdmrNetcdfProto.Compress[] {CdmrNetcdfProto.Compress.NONE,
+        CdmrNetcdfProto.Compress.DEFLATE}) {
+      CdmrNetcdfProto.Data proto = CdmrConverter.encodeData(org.getArrayType(), org, compress);
+      assertThat(proto.getPacked().isEmpty()).isFalse();
+      assertThat(proto.getCompress()).isEqualTo(compress);
+
+      Array<?> result = CdmrConverter.decodeData(proto);
+      assertThat(result.getArrayType()).isEqualTo(org.getArrayType());
+      assertThat(result.getShape()).isEqualTo(org.getShape());
+
+      Formatter f = new Formatter();
+      boolean ok = CompareArrayToArray.compareData(f, org.getArrayType().toString(), org, result, false, true);
+      if (!ok)
+        System.out.printf("%s%n", f);
+      assertThat(ok).isTrue();
+    }
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 1998-2020 John Caron and University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.cdmr.server;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import io.grpc.stub.ServerCallStreamObserver;
+import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ucar.array.Array;
+import ucar.array.Arrays;
+import ucar.cdmr.CdmrConverter;
+import ucar.cdmr.CdmrNetcdfProto;
+import ucar.cdmr.CdmrNetcdfProto.DataRequest;
+import ucar.cdmr.CdmrNetcdfProto.DataResponse;
+import ucar.cdmr.CdmrNetcdfProto.HeaderRequest;
+import ucar.cdmr.CdmrNetcdfProto.HeaderResponse;
+import ucar.ma2.Section;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Variable;
+import ucar.nc2.dataset.DatasetUrl;
+import ucar.nc2.dataset.NetcdfDatasets;
+import ucar.nc2.internal.cache.FileCacheIF;
+import ucar.nc2.internal.util.CompareArrayToArray;
+import ucar.unidata.util.test.TestDir;
+
+/** Test {@link CdmrServer.CdmRemoteImpl} in process: the dataset cache, and the chunked data responses. */
+public class TestCdmrServer {
+  private static final String location = TestDir.cdmLocalFromTestDataDir + "jan.nc"; // T is 2976 bytes
+
+  @Before
+  public void initCache() {
+    NetcdfDatasets.initNetcdfFileCache(10, 100, -1);
+  }
+
+  @After
+  public void shutdownCache() {
+    NetcdfDatasets.shutdown();
+  }
+
+  @Test
+  public void testDatasetIsCached() throws Exception {
+    CdmrServer.CdmRemoteImpl service = new CdmrServer.CdmRemoteImpl();
+    for (int i = 0; i < 2; i++) {
+      TestObserver<HeaderResponse> observer = new TestObserver<>();
+      service.getNetcdfHeader(HeaderRequest.newBuilder().setLocation(location).build(), observer);
+      assertThat(observer.await()).isTrue();
+      assertThat(observer.responses).hasSize(1);
+      assertThat(observer.responses.get(0).hasError()).isFalse();
+    }
+    TestObserver<DataResponse> observer = new TestObserver<>();
+    service.getNetcdfData(makeRequest("lat"), observer);
+    assertThat(observer.await()).isTrue();
+    assertThat(observer.responses).hasSize(1);
+
+    // the file is opened once, and kept open between requests
+    FileCacheIF cache = NetcdfDatasets.getNetcdfFileCache();
+    assertThat(cache.showCache()).hasSize(1);
+    Formatter stats = new Formatter();
+    cache.showStats(stats);
+    assertThat(stats.toString()).contains("hits= 2 miss= 1");
+  }
+
+  @Test
+  public void testChunkedData() throws Exception {
+    // anything over 500 bytes is sent in chunks
+    CdmrServer.CdmRemoteImpl service = new CdmrServer.CdmRemoteImpl(500);
+    for (CdmrNetcdfProto.Compress compress : new CdmrNetcdfProto.Compress[] {CdmrNetcdfProto.Compress.NONE,
+        CdmrNetcdfProto.Compress.DEFLATE}) {
+      checkChunkedData(service, "T", null, compress);
+      // a section that does not start at the origin, with a stride: 13 x 2 x 3 doubles
+      checkChunkedData(service, "T(5:29:2,1:2,1:3)", new Section("5:29:2,1:2,1:3"), compress);
+    }
+
+    // the file was released back to the cache when the last chunk was sent
+    assertThat(NetcdfDatasets.getNetcdfFileCache().showCache()).hasSize(1);
+    try (NetcdfFile ncfile = NetcdfDatasets.acquireFile(DatasetUrl.findDatasetUrl(location), null)) {
+      assertThat(ncfile).isNotNull();
+    }
+    assertThat(NetcdfDatasets.getNetcdfFileCache().showCache()).hasSize(1);
+  }
+
+  private void checkChunkedData(CdmrServer.CdmRemoteImpl service, String spec, Section section,
+      CdmrNetcdfProto.Compress compress) throws Exception {
+    TestObserver<DataResponse> observer = new TestObserver<>();
+    service.getNetcdfData(makeRequest(spec).toBuilder().setCompress(compress).build(), observer);
+    assertThat(observer.await()).isTrue();
+    assertThat(observer.responses.size()).isGreaterThan(1);
+
+    // the chunks arrive in order
+    List<Array<?>> chunks = new ArrayList<>();
+    for (DataResponse response : observer.responses) {
+      assertThat(response.hasError()).isFalse();
+      chunks.add(CdmrConverter.decodeData(response.getData()));
+    }
+
+    try (NetcdfFile ncfile = NetcdfFiles.open(location)) {
+      Variable v = ncfile.findVariable("T");
+      assertThat(v).isNotNull();
+      Section want = (section == null) ? v.getShapeAsSection() : section;
+      Array<?> expected = v.readArray(want);
+      Array<?> result = Arrays.factoryCopy(v.getArrayType(), want.getShape(), (List) chunks);
+      Formatter f = new Formatter();
+      boolean ok = CompareArrayToArray.compareData(f, spec, expected, result, false, true);
+      if (!ok)
+        System.out.printf("%s%n", f);
+      assertThat(ok).isTrue();
+    }
+  }
+
+  private static DataRequest makeRequest(String spec) {
+    return DataRequest.newBuilder().setLocation(location).setVariableSpec(spec).setPacked(true).build();
+  }
+
+  // collects the responses; always ready for more
+  private static class TestObserver<T> extends ServerCallStreamObserver<T> {
+    private final List<T> responses = new ArrayList<>();
+    private final CountDownLatch completed = new CountDownLatch(1);
+
+    boolean await() throws InterruptedException {
+      return completed.await(30, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public synchronized void onNext(T value) {
+      responses.add(value);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      throw new AssertionError(t);
+    }
+
+    @Override
+    public void onCompleted() {
+      completed.countDown();
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return false;
+    }
+
+    @Override
+    public void setOnCancelHandler(Runnable onCancelHandler) {}
+
+    @Override
+    public void setCompression(String compression) {}
+
+    @Override
+    public boolean isReady() {
+      return true;
+    }
+
+    @Override
+    public void setOnReadyHandler(Runnable onReadyHandler) {}
+
+    @Override
+    public void disableAutoInboundFlowControl() {}
+
+    @Override
+    public void request(int count) {}
+
+    @Override
+    public void setMessageCompression(boolean enable) {}
+  }
+}
@@ -529,6 +529,14 @@ public abstract class GribCollectionImmutable implements Closeable, FileCacheabl
       return sa.getContent(sourceIndex);
     }
 
+    /** Rough estimate of the memory used by this variable, including its records once they are read in. */
+    synchronized long getEstimatedMemory() {
+      long size = VARIABLE_BYTES;
+      if (sa != null)
+        size += 4L * sa.getTotalSize() + (long) sa.getContent().size() * RECORD_BYTES;
+      return size;
+    }
+
     synchronized Record getRecordAt(int[] sourceIndex) {
       return sa.getContent(sourceIndex);
     }
@@ -912,6 +920,34 @@ public abstract class GribCollectionImmutable implements Closeable, FileCacheabl
     return indexFile.lastModified();
   }
 
+  /**
+   * A rough estimate of the memory used by the collection: its files, coordinates and variables, and the records
+   * of the variables that have been read.
+   */
+  @Override
+  public long getEstimatedMemory() {
+    long size = COLLECTION_BYTES;
+    if (fileMap != null)
+      size += (long) fileMap.size() * FILE_BYTES;
+    for (Dataset ds : datasets) {
+      for (GroupGC g : ds.groups) {
+        for (Coordinate coord : g.coords)
+          size += COORD_BYTES + (long) coord.getSize() * COORD_VALUE_BYTES;
+        for (VariableIndex v : g.variList)
+          size += v.getEstimatedMemory();
+      }
+    }
+    return size;
+  }
+
+  // rough sizes of the objects in the heap, for getEstimatedMemory()
+  private static final long COLLECTION_BYTES = 10 * 1000;
+  private static final long FILE_BYTES = 500;
+  private static final long COORD_BYTES = 500;
+  private static final long COORD_VALUE_BYTES = 50;
+  private static final long VARIABLE_BYTES = 1000;
+  private static final long RECORD_BYTES = 50;
+
   /** @deprecated do not use */
   @Deprecated
   @Override
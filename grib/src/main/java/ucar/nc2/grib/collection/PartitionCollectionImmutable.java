@@ -121,6 +121,13 @@ public abstract class PartitionCollectionImmutable extends GribCollectionImmutab
     return partitions.size();
   }
 
+  @Override
+  public long getEstimatedMemory() {
+    return super.getEstimatedMemory() + (long) partitions.size() * PARTITION_BYTES;
+  }
+
+  private static final long PARTITION_BYTES = 500;
+
   public List<Partition> getPartitionsSorted() {
     List<Partition> c = new ArrayList<>(partitions);
     Collections.sort(c);
@@ -298,6 +305,11 @@ public abstract class PartitionCollectionImmutable extends GribCollectionImmutab
       return nparts;
     }
 
+    @Override
+    synchronized long getEstimatedMemory() {
+      return super.getEstimatedMemory() + 12L * nparts; // partnoSA, groupnoSA, varnoSA
+    }
+
     public GribCollectionImmutable.Type getType() {
       return group.ds.gctype;
     }
@@ -165,18 +165,17 @@ public class BytePrimitiveVector extends PrimitiveVector {
     // number of bytes to pad
     int pad = (modFour != 0) ? (4 - modFour) : 0;
 
-    for (int i = 0; i < vals.length; i++) {
-      vals[i] = source.readByte();
+    for (int start = 0; start < vals.length; start += BLOCK_SIZE) {
+      int n = Math.min(BLOCK_SIZE, vals.length - start);
+      source.readFully(vals, start, n);
       if (statusUI != null) {
-        statusUI.incrementByteCount(1);
+        statusUI.incrementByteCount(n);
         if (statusUI.userCancelled())
           throw new DataReadException("User cancelled");
       }
     }
     // pad out to a multiple of four bytes
-    byte unused;
-    for (int i = 0; i < pad; i++)
-      unused = source.readByte();
+    source.readFully(new byte[pad]);
     if (statusUI != null)
       statusUI.incrementByteCount(pad);
   }
@@ -195,12 +194,9 @@ public class BytePrimitiveVector extends PrimitiveVector {
     // number of bytes to pad
     int pad = (modFour != 0) ? (4 - modFour) : 0;
 
-    for (int i = 0; i < vals.length; i++) {
-      sink.writeByte(vals[i]);
-    }
+    sink.write(vals);
     // pad out to a multiple of four bytes
-    for (int i = 0; i < pad; i++)
-      sink.writeByte(0);
+    sink.write(new byte[pad]);
   }
 
   /**
@@ -40,6 +40,7 @@
 package opendap.dap;
 
 import java.io.*;
+import java.nio.FloatBuffer;
 
 /**
  * A vector of doubles.
@@ -159,16 +160,8 @@ public class Float32PrimitiveVector extends PrimitiveVector {
    */
   public synchronized void deserialize(DataInputStream source, ServerVersion sv, StatusUI statusUI)
       throws IOException, EOFException, DataReadException {
-    for (int i = 0; i < vals.length; i++) {
-      vals[i] = source.readFloat();
-
-      // LogStream.out.printf("%d:%f ",i,vals[i]);
-      if (statusUI != null) {
-        statusUI.incrementByteCount(8);
-        if (statusUI.userCancelled())
-          throw new DataReadException("User cancelled");
-      }
-    }
+    deserializeBlocks(source, vals.length, 4, statusUI,
+        (block, start, n) -> block.asFloatBuffer().get(vals, start, n));
   }
 
   /**
@@ -181,9 +174,7 @@ public class Float32PrimitiveVector extends PrimitiveVector {
    *         exception.
    */
   public void externalize(DataOutputStream sink) throws IOException {
-    for (int i = 0; i < vals.length; i++) {
-      sink.writeFloat(vals[i]);
-    }
+    externalizeBlocks(sink, vals.length, 4, (block, count, n) -> block.asFloatBuffer().put(vals, count, n));
   }
 
   /**
@@ -196,8 +187,11 @@ public class Float32PrimitiveVector extends PrimitiveVector {
    * @throws IOException thrown on any <code>OutputStream</code> exception.
    */
   public void externalize(DataOutputStream sink, int start, int stop, int stride) throws IOException {
-    for (int i = start; i <= stop; i += stride)
-      sink.writeFloat(vals[i]);
+    externalizeBlocks(sink, subsetLength(start, stop, stride), 4, (block, count, n) -> {
+      FloatBuffer fb = block.asFloatBuffer();
+      for (int i = 0; i < n; i++)
+        fb.put(vals[start + (count + i) * stride]);
+    });
   }
 
 
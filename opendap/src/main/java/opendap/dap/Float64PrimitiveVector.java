@@ -41,6 +41,7 @@
 package opendap.dap;
 
 import java.io.*;
+import java.nio.DoubleBuffer;
 
 /**
  * A vector of doubles.
@@ -158,14 +159,8 @@ public class Float64PrimitiveVector extends PrimitiveVector {
    */
   public synchronized void deserialize(DataInputStream source, ServerVersion sv, StatusUI statusUI)
       throws IOException, EOFException, DataReadException {
-    for (int i = 0; i < vals.length; i++) {
-      vals[i] = source.readDouble();
-      if (statusUI != null) {
-        statusUI.incrementByteCount(8);
-        if (statusUI.userCancelled())
-          throw new DataReadException("User cancelled");
-      }
-    }
+    deserializeBlocks(source, vals.length, 8, statusUI,
+        (block, start, n) -> block.asDoubleBuffer().get(vals, start, n));
   }
 
   /**
@@ -178,9 +173,7 @@ public class Float64PrimitiveVector extends PrimitiveVector {
    *         exception.
    */
   public void externalize(DataOutputStream sink) throws IOException {
-    for (int i = 0; i < vals.length; i++) {
-      sink.writeDouble(vals[i]);
-    }
+    externalizeBlocks(sink, vals.length, 8, (block, count, n) -> block.asDoubleBuffer().put(vals, count, n));
   }
 
   /**
@@ -193,8 +186,11 @@ public class Float64PrimitiveVector extends PrimitiveVector {
    * @throws IOException thrown on any <code>OutputStream</code> exception.
    */
   public void externalize(DataOutputStream sink, int start, int stop, int stride) throws IOException {
-    for (int i = start; i <= stop; i += stride)
-      sink.writeDouble(vals[i]);
+    externalizeBlocks(sink, subsetLength(start, stop, stride), 8, (block, count, n) -> {
+      DoubleBuffer db = block.asDoubleBuffer();
+      for (int i = 0; i < n; i++)
+        db.put(vals[start + (count + i) * stride]);
+    });
   }
 
   /**
@@ -42,6 +42,7 @@
 package opendap.dap;
 
 import java.io.*;
+import java.nio.IntBuffer;
 
 /**
  * A vector of shorts. (as in 16bit ints :)
@@ -158,14 +159,12 @@ public class Int16PrimitiveVector extends PrimitiveVector {
    */
   public synchronized void deserialize(DataInputStream source, ServerVersion sv, StatusUI statusUI)
       throws IOException, EOFException, DataReadException {
-    for (int i = 0; i < vals.length; i++) {
-      vals[i] = (short) source.readInt();
-      if (statusUI != null) {
-        statusUI.incrementByteCount(4);
-        if (statusUI.userCancelled())
-          throw new DataReadException("User cancelled");
-      }
-    }
+    // shorts are sent as 4 byte ints
+    deserializeBlocks(source, vals.length, 4, statusUI, (block, start, n) -> {
+      IntBuffer ib = block.asIntBuffer();
+      for (int i = 0; i < n; i++)
+        vals[start + i] = (short) ib.get(i);
+    });
   }
 
   /**
@@ -178,9 +177,11 @@ public class Int16PrimitiveVector extends PrimitiveVector {
    *         exception.
    */
   public void externalize(DataOutputStream sink) throws IOException {
-    for (int i = 0; i < vals.length; i++) {
-      sink.writeInt((int) (vals[i]));
-    }
+    externalizeBlocks(sink, vals.length, 4, (block, count, n) -> {
+      IntBuffer ib = block.asIntBuffer();
+      for (int i = 0; i < n; i++)
+        ib.put(vals[count + i]);
+    });
   }
 
   /**
@@ -193,8 +194,11 @@ public class Int16PrimitiveVector extends PrimitiveVector {
    * @throws IOException thrown on any <code>OutputStream</code> exception.
    */
   public void externalize(DataOutputStream sink, int start, int stop, int stride) throws IOException {
-    for (int i = start; i <= stop; i += stride)
-      sink.writeInt((int) vals[i]);
+    externalizeBlocks(sink, subsetLength(start, stop, stride), 4, (block, count, n) -> {
+      IntBuffer ib = block.asIntBuffer();
+      for (int i = 0; i < n; i++)
+        ib.put(vals[start + (count + i) * stride]);
+    });
   }
 
   /**
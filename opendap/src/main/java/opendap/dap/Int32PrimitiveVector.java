@@ -41,6 +41,7 @@
 package opendap.dap;
 
 import java.io.*;
+import java.nio.IntBuffer;
 
 /**
  * A vector of ints.
@@ -158,14 +159,8 @@ public class Int32PrimitiveVector extends PrimitiveVector {
    */
   public synchronized void deserialize(DataInputStream source, ServerVersion sv, StatusUI statusUI)
       throws IOException, EOFException, DataReadException {
-    for (int i = 0; i < vals.length; i++) {
-      vals[i] = source.readInt();
-      if (statusUI != null) {
-        statusUI.incrementByteCount(4);
-        if (statusUI.userCancelled())
-          throw new DataReadException("User cancelled");
-      }
-    }
+    deserializeBlocks(source, vals.length, 4, statusUI,
+        (block, start, n) -> block.asIntBuffer().get(vals, start, n));
   }
 
   /**
@@ -178,9 +173,7 @@ public class Int32PrimitiveVector extends PrimitiveVector {
    *         exception.
    */
   public void externalize(DataOutputStream sink) throws IOException {
-    for (int i = 0; i < vals.length; i++) {
-      sink.writeInt(vals[i]);
-    }
+    externalizeBlocks(sink, vals.length, 4, (block, count, n) -> block.asIntBuffer().put(vals, count, n));
   }
 
   /**
@@ -193,8 +186,11 @@ public class Int32PrimitiveVector extends PrimitiveVector {
    * @throws IOException thrown on any <code>OutputStream</code> exception.
    */
   public void externalize(DataOutputStream sink, int start, int stop, int stride) throws IOException {
-    for (int i = start; i <= stop; i += stride)
-      sink.writeInt(vals[i]);
+    externalizeBlocks(sink, subsetLength(start, stop, stride), 4, (block, count, n) -> {
+      IntBuffer ib = block.asIntBuffer();
+      for (int i = 0; i < n; i++)
+        ib.put(vals[start + (count + i) * stride]);
+    });
   }
 
   /**
@@ -41,6 +41,7 @@
 package opendap.dap;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * A helper class for <code>DVector</code>. It allows <code>DVector</code>,
@@ -262,6 +263,70 @@ public abstract class PrimitiveVector extends DAPNode implements ClientIO {
     return v;
   }
 
+
+  //////////////////////////////////////////////////////////////////////////
+  // bulk XDR encoding, used by the subclasses
+
+  /** Number of bytes read or written at a time by deserializeBlocks() and externalizeBlocks(). */
+  static final int BLOCK_SIZE = 64 * 1024;
+
+  /** Decode n elements from a big-endian block, into the vector starting at element start. */
+  interface BlockDecoder {
+    void decode(ByteBuffer block, int start, int n);
+  }
+
+  /** Encode n elements, starting at the count'th element to be written, into a big-endian block. */
+  interface BlockEncoder {
+    void encode(ByteBuffer block, int count, int n);
+  }
+
+  /**
+   * Read nelems XDR elements of elemSize bytes each, a block at a time. Each block is passed to the decoder as a
+   * big-endian ByteBuffer, so it can be copied with a bulk get through a typed view, eg asFloatBuffer().
+   * The StatusUI is updated, and checked for cancellation, once per block.
+   */
+  static void deserializeBlocks(DataInputStream source, int nelems, int elemSize, StatusUI statusUI,
+      BlockDecoder decoder) throws IOException, DataReadException {
+    int blockElems = Math.max(1, BLOCK_SIZE / elemSize);
+    byte[] buff = new byte[Math.min(nelems, blockElems) * elemSize];
+    ByteBuffer bb = ByteBuffer.wrap(buff); // big-endian, as in XDR
+    for (int start = 0; start < nelems; start += blockElems) {
+      int n = Math.min(blockElems, nelems - start);
+      source.readFully(buff, 0, n * elemSize);
+      bb.clear();
+      bb.limit(n * elemSize);
+      decoder.decode(bb, start, n);
+      if (statusUI != null) {
+        statusUI.incrementByteCount(n * elemSize);
+        if (statusUI.userCancelled())
+          throw new DataReadException("User cancelled");
+      }
+    }
+  }
+
+  /**
+   * Write nelems XDR elements of elemSize bytes each, a block at a time. The encoder fills a big-endian
+   * ByteBuffer with each block.
+   */
+  static void externalizeBlocks(DataOutputStream sink, int nelems, int elemSize, BlockEncoder encoder)
+      throws IOException {
+    int blockElems = Math.max(1, BLOCK_SIZE / elemSize);
+    byte[] buff = new byte[Math.min(nelems, blockElems) * elemSize];
+    ByteBuffer bb = ByteBuffer.wrap(buff); // big-endian, as in XDR
+    for (int count = 0; count < nelems; count += blockElems) {
+      int n = Math.min(blockElems, nelems - count);
+      bb.clear();
+      bb.limit(n * elemSize);
+      encoder.encode(bb, count, n);
+      sink.write(buff, 0, n * elemSize);
+    }
+  }
+
+  /** Number of elements written by externalize(sink, start, stop, stride). */
+  static int subsetLength(int start, int stop, int stride) {
+    return (stop < start) ? 0 : 1 + (stop - start) / stride;
+  }
+
 }
 
 
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 1998-2020 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package opendap.dap;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import org.junit.Test;
+
+/** Test the bulk XDR encoding in the PrimitiveVector subclasses against the element by element encoding. */
+public class TestPrimitiveVectorBulk {
+  // more than one block
+  private static final int N = PrimitiveVector.BLOCK_SIZE / 4 * 2 + 17;
+
+  @Test
+  public void testFloat32() throws Exception {
+    Float32PrimitiveVector pv = new Float32PrimitiveVector(new DFloat32("f"));
+    pv.setLength(N);
+    for (int i = 0; i < N; i++)
+      pv.setValue(i, i * 1.25f - 100);
+
+    byte[] bytes = externalize(pv);
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(expected);
+    for (int i = 0; i < N; i++)
+      out.writeFloat(pv.getValue(i));
+    assertThat(bytes).isEqualTo(expected.toByteArray());
+
+    Float32PrimitiveVector result = new Float32PrimitiveVector(new DFloat32("f"));
+    result.setLength(N);
+    result.deserialize(new DataInputStream(new ByteArrayInputStream(bytes)), null, null);
+    assertThat((float[]) result.getInternalStorage()).isEqualTo((float[]) pv.getInternalStorage());
+  }
+
+  @Test
+  public void testFloat32Subset() throws Exception {
+    Float32PrimitiveVector pv = new Float32PrimitiveVector(new DFloat32("f"));
+    pv.setLength(N);
+    for (int i = 0; i < N; i++)
+      pv.setValue(i, i);
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    pv.externalize(new DataOutputStream(bos), 3, N - 1, 7);
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bos.toByteArray()));
+    int count = 0;
+    for (int i = 3; i <= N - 1; i += 7) {
+      assertThat(in.readFloat()).isEqualTo((float) i);
+      count++;
+    }
+    assertThat(bos.size()).isEqualTo(4 * count);
+  }
+
+  @Test
+  public void testInt16() throws Exception {
+    Int16PrimitiveVector pv = new Int16PrimitiveVector(new DInt16("s"));
+    pv.setLength(N);
+    for (int i = 0; i < N; i++)
+      pv.setValue(i, (short) (i - N / 2));
+
+    byte[] bytes = externalize(pv);
+    assertThat(bytes.length).isEqualTo(4 * N); // shorts are sent as ints
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+    Int16PrimitiveVector result = new Int16PrimitiveVector(new DInt16("s"));
+    result.setLength(N);
+    result.deserialize(in, null, null);
+    assertThat((short[]) result.getInternalStorage()).isEqualTo((short[]) pv.getInternalStorage());
+  }
+
+  @Test
+  public void testFloat64AndCancel() throws Exception {
+    Float64PrimitiveVector pv = new Float64PrimitiveVector(new DFloat64("d"));
+    pv.setLength(N);
+    for (int i = 0; i < N; i++)
+      pv.setValue(i, Math.sqrt(i));
+    byte[] bytes = externalize(pv);
+
+    Float64PrimitiveVector result = new Float64PrimitiveVector(new DFloat64("d"));
+    result.setLength(N);
+    result.deserialize(new DataInputStream(new ByteArrayInputStream(bytes)), null, null);
+    assertThat((double[]) result.getInternalStorage()).isEqualTo((double[]) pv.getInternalStorage());
+
+    StatusUI cancel = new StatusUI() {
+      public void incrementByteCount(int bytes) {}
+
+      public boolean userCancelled() {
+        return true;
+      }
+
+      public void finished() {}
+    };
+    try {
+      result.deserialize(new DataInputStream(new ByteArrayInputStream(bytes)), null, cancel);
+      throw new AssertionError("should have been cancelled");
+    } catch (DataReadException e) {
+      assertThat(e.getMessage()).contains("cancelled");
+    }
+  }
+
+  @Test
+  public void testByte() throws Exception {
+    BytePrimitiveVector pv = new BytePrimitiveVector(new DByte("b"));
+    pv.setLength(N);
+    for (int i = 0; i < N; i++)
+      pv.setValue(i, (byte) i);
+    byte[] bytes = externalize(pv);
+    assertThat(bytes.length % 4).isEqualTo(0);
+
+    BytePrimitiveVector result = new BytePrimitiveVector(new DByte("b"));
+    result.setLength(N);
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+    result.deserialize(in, null, null);
+    assertThat(in.available()).isEqualTo(0); // padding was read
+    assertThat((byte[]) result.getInternalStorage()).isEqualTo((byte[]) pv.getInternalStorage());
+  }
+
+  private byte[] externalize(PrimitiveVector pv) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    pv.externalize(new DataOutputStream(bos));
+    return bos.toByteArray();
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 1998-2020 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.units;
+
+import java.io.StringReader;
+
+/**
+ * A thread-safe formatter/parser for unit specifications, which parses with a separate {@link StandardUnitFormat}
+ * for each thread, since a parser holds its state while parsing. This is the default unit format of
+ * {@link UnitFormatManager}, so that {@link UnitFormatImpl#parse(String)} can be called concurrently.
+ * <p/>
+ * Instances of this class are thread-safe.
+ */
+public final class ThreadSafeUnitFormat extends UnitFormatImpl {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The singleton instance of this class.
+   */
+  private static final ThreadSafeUnitFormat _instance = new ThreadSafeUnitFormat();
+
+  /**
+   * The parsers, one for each thread.
+   */
+  private static final ThreadLocal<StandardUnitFormat> parsers =
+      ThreadLocal.withInitial(() -> new StandardUnitFormat(new StringReader("")));
+
+  /**
+   * Constructs from nothing.
+   */
+  private ThreadSafeUnitFormat() {}
+
+  /**
+   * Returns an instance of this class.
+   *
+   * @return An instance of this class.
+   */
+  public static ThreadSafeUnitFormat instance() {
+    return _instance;
+  }
+
+  /**
+   * Parses with the parser of the calling thread, so calls are not serialized.
+   */
+  @Override
+  protected boolean isThreadSafe() {
+    return true;
+  }
+
+  public Unit parse(String spec, UnitDB unitDB)
+      throws UnitParseException, SpecificationException, UnitDBException, PrefixDBException, UnitSystemException {
+    return parsers.get().parse(spec, unitDB);
+  }
+
+  public StringBuffer format(Factor factor, StringBuffer buf) {
+    return parsers.get().format(factor, buf);
+  }
+
+  public StringBuffer format(Unit unit, StringBuffer buf) throws UnitClassException {
+    return parsers.get().format(unit, buf);
+  }
+
+  public StringBuffer longFormat(Unit unit, StringBuffer buf) throws UnitClassException {
+    return parsers.get().longFormat(unit, buf);
+  }
+
+  /**
+   * Returns the singleton instance when deserialized.
+   */
+  private Object readResolve() {
+    return _instance;
+  }
+}
@@ -39,11 +39,23 @@ public abstract class UnitFormatImpl implements UnitFormat {
    */
   public final Unit parse(final String spec) throws NoSuchUnitException, UnitParseException, SpecificationException,
       UnitDBException, PrefixDBException, UnitSystemException {
+    if (isThreadSafe())
+      return parse(spec, UnitDBManager.instance());
     synchronized (MUTEX) {
       return parse(spec, UnitDBManager.instance());
     }
   }
 
+  /**
+   * Indicates if {@link #parse(String, UnitDB)} can be called concurrently on this instance. If not,
+   * {@link #parse(String)} serializes all calls.
+   *
+   * @return {@code true} if and only if this instance can parse concurrently.
+   */
+  protected boolean isThreadSafe() {
+    return false;
+  }
+
   /**
    * Formats a Factor (a base unit/exponent pair).
    * 
@@ -4,6 +4,11 @@
  */
 package ucar.units;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.junit.Test;
 
 /**
@@ -79,4 +84,38 @@ public class TestMoreUdunits {
     System.out.println("format.longFormat(format.parse(\"(g/mol)/(lb/kmol)\")) = \""
         + format.longFormat(format.parse("(g/mol)/(lb/kmol)")) + '"');
   }
+
+  @Test
+  public void testConcurrentParse() throws Exception {
+    final UnitFormat format = UnitFormatManager.instance();
+    myAssert(format instanceof ThreadSafeUnitFormat);
+    final String[] specs =
+        {"m/s", "hPa", "degC", "kg m-2 s-1", "secs since 1970-01-01 00:00:00", "min @ 2000-01-01 00 UTC", "g/kg"};
+    final Unit[] expected = new Unit[specs.length];
+    for (int i = 0; i < specs.length; i++) {
+      expected[i] = StandardUnitFormat.instance().parse(specs[i]);
+    }
+
+    final ExecutorService exec = Executors.newFixedThreadPool(8);
+    try {
+      final List<Future<Boolean>> results = new ArrayList<>();
+      for (int t = 0; t < 16; t++) {
+        results.add(exec.submit(() -> {
+          for (int n = 0; n < 100; n++) {
+            for (int i = 0; i < specs.length; i++) {
+              if (!format.parse(specs[i]).equals(expected[i])) {
+                return false;
+              }
+            }
+          }
+          return true;
+        }));
+      }
+      for (final Future<Boolean> result : results) {
+        myAssert(result.get());
+      }
+    } finally {
+      exec.shutdownNow();
+    }
+  }
 }